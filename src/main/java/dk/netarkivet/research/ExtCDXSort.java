@@ -0,0 +1,75 @@
+package dk.netarkivet.research;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import dk.netarkivet.research.cdx.CDXFileSorter;
+
+/**
+ * Sorts and merges CDX files into one sorted CDX file without duplicate lines.
+ * The input may be CDX files or directories with CDX files, e.g. the CDX files of several harvest jobs.
+ * 
+ * The memory used for sorting is limited by the system property {@link #PROPERTY_MAX_MEMORY} (in bytes),
+ * and the temporary files are placed in the directory of the output file.
+ */
+public class ExtCDXSort {
+	/** The system property for the maximum memory used for sorting in bytes.*/
+	public static final String PROPERTY_MAX_MEMORY = "dk.netarkivet.research.cdx.sort.maxMemory";
+
+	/**
+	 * Main method.
+	 * @param args The arguments for running the program.
+	 */
+	public static void main(String ... args) {
+		if(args.length < 2) {
+			System.err.println("Not enough arguments. Requires the following arguments:");
+			System.err.println(" 1. The output CDX file");
+			System.err.println(" 2+. The CDX files or directories with CDX files to sort and merge");
+			throw new IllegalArgumentException("Not enough arguments.");
+		}
+
+		File outputFile = new File(args[0]);
+		if(outputFile.exists()) {
+			throw new IllegalArgumentException("The output file '" + outputFile.getAbsolutePath() 
+					+ "' already exists.");
+		}
+
+		List<File> inputFiles = new ArrayList<File>();
+		for(String arg : Arrays.copyOfRange(args, 1, args.length)) {
+			File input = new File(arg);
+			if(input.isDirectory()) {
+				File[] files = input.listFiles();
+				Arrays.sort(files);
+				for(File f : files) {
+					if(f.isFile()) {
+						inputFiles.add(f);
+					}
+				}
+			} else if(input.isFile()) {
+				inputFiles.add(input);
+			} else {
+				throw new IllegalArgumentException("The input '" + input.getAbsolutePath() + "' is neither a file "
+						+ "nor a directory.");
+			}
+		}
+		if(inputFiles.isEmpty()) {
+			throw new IllegalArgumentException("No CDX files to sort.");
+		}
+
+		File tempDir = outputFile.getAbsoluteFile().getParentFile();
+		long maxMemory = Long.getLong(PROPERTY_MAX_MEMORY, CDXFileSorter.DEFAULT_MAX_MEMORY);
+		CDXFileSorter sorter = new CDXFileSorter(maxMemory, CDXFileSorter.DEFAULT_MAX_MERGE_FILES, tempDir);
+		try {
+			long lines = sorter.sort(inputFiles, outputFile);
+			System.out.println("Wrote " + lines + " CDX lines from " + inputFiles.size() + " files.");
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to sort the CDX files.", e);
+		}
+
+		System.out.println("Finished");
+		System.exit(0);
+	}
+}
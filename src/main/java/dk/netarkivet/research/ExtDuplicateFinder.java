@@ -19,6 +19,7 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.research.cdx.CDXEntry;
 import dk.netarkivet.research.cdx.CDXExtractor;
 import dk.netarkivet.research.cdx.DabCDXExtractor;
+import dk.netarkivet.research.cdx.SortedCDXFileExtractor;
 import dk.netarkivet.research.duplicates.DuplicateExtractor;
 import dk.netarkivet.research.duplicates.DuplicateMap;
 import dk.netarkivet.research.harvestdb.HarvestJobExtractor;
@@ -49,7 +50,8 @@ public class ExtDuplicateFinder {
 		if(args.length < 2) {
 			System.err.println("Not enough arguments. Requires the following arguments:");
 			System.err.println(" 1. Input file, containing lines where the first element is the URL to search for");
-			System.err.println(" 2. the base URL to the CDX-server.");
+			System.err.println(" 2. the base URL to the CDX-server, or the path to a sorted CDX file or a directory "
+					+ "with sorted CDX files.");
 			System.err.println(" 3. (OPTIONAL) output directory, otherwise it is printed.");
 			System.err.println(" 4. (OPTIONAL) whether or not to use the actual job database.");
 			throw new IllegalArgumentException();
@@ -62,10 +64,21 @@ public class ExtDuplicateFinder {
 		}
 
 		String cdxServerBaseUrl = args[1];
-		try {
-			new URL(cdxServerBaseUrl);
-		} catch (IOException e) {
-			throw new IllegalArgumentException("The CSX Server url '" + cdxServerBaseUrl + "' is invalid.", e);
+		CDXExtractor cdxExtractor;
+		if(new File(cdxServerBaseUrl).exists()) {
+			try {
+				cdxExtractor = SortedCDXFileExtractor.createFromLocation(new File(cdxServerBaseUrl));
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Could not use the local CDX files at '" + cdxServerBaseUrl 
+						+ "'.", e);
+			}
+		} else {
+			try {
+				new URL(cdxServerBaseUrl);
+			} catch (IOException e) {
+				throw new IllegalArgumentException("The CSX Server url '" + cdxServerBaseUrl + "' is invalid.", e);
+			}
+			cdxExtractor = new DabCDXExtractor(cdxServerBaseUrl, HttpRetriever.getSharedInstance());
 		}
 
 		File outDir;
@@ -78,7 +91,6 @@ public class ExtDuplicateFinder {
 			jobExtractor = new NasHarvestJobExtractor();
 		}
 		
-		CDXExtractor cdxExtractor = new DabCDXExtractor(cdxServerBaseUrl, new HttpRetriever());
 		DuplicateExtractor duplicateExtractor = new DuplicateExtractor(cdxExtractor, jobExtractor);
 
 		ExtDuplicateFinder findDuplicates = new ExtDuplicateFinder(duplicateExtractor, inputFile, outDir);
@@ -113,7 +113,7 @@ public class ExtLinkAnalyser {
 	 */
 	protected static LinksLocator getLinksLocatorForArgs(String arg, LinkExtractor linkExtractor) {
 		if(arg.equals("n") || arg.equals("no")) {
-			return new LiveLinksLocator(linkExtractor, new HttpRetriever());
+			return new LiveLinksLocator(linkExtractor, HttpRetriever.getSharedInstance());
 		} else {
 			String cdxBaseUrl = arg;
 			try {
@@ -123,7 +123,7 @@ public class ExtLinkAnalyser {
 				e.printStackTrace(System.err);
 				System.exit(-1);
 			}
-			CDXExtractor cdxExtractor = new DabCDXExtractor(cdxBaseUrl, new HttpRetriever());
+			CDXExtractor cdxExtractor = new DabCDXExtractor(cdxBaseUrl, HttpRetriever.getSharedInstance());
 
 			return new CDXLinksLocator(linkExtractor, cdxExtractor);
 		}
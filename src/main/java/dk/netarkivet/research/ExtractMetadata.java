@@ -6,9 +6,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +15,7 @@ import dk.netarkivet.research.cdx.CDXEntry;
 import dk.netarkivet.research.cdx.CDXExtractor;
 import dk.netarkivet.research.cdx.CDXFileWriter;
 import dk.netarkivet.research.cdx.DabCDXExtractor;
+import dk.netarkivet.research.cdx.SortedCDXFileExtractor;
 import dk.netarkivet.research.exception.ArgumentCheck;
 import dk.netarkivet.research.harvestdb.HarvestJobExtractor;
 import dk.netarkivet.research.harvestdb.HarvestJobInfo;
@@ -56,7 +55,8 @@ public class ExtractMetadata {
     		System.err.println("  - NAS WID format has coloumns: 'W/X';#;url;date;location;filename");
     		System.err.println("  - URL interval format has coloumns: 'W';url;earliest date;latest date");
     		System.err.println(" 2. Format for CSV file: either 'WID' or 'URL'");
-    		System.err.println(" 3. the base URL to the CDX-server.");
+    		System.err.println(" 3. the base URL to the CDX-server, or the path to a sorted CDX file or a directory "
+    				+ "with sorted CDX files.");
     		System.err.println(" 4. Whether or not to extract harvest job info, either 'y'/'yes' or 'n'/'no'.");
     		System.err.println(" - If this option is set to true, then it requires one of the following "
     				+ "environemnt variables: ");
@@ -83,12 +83,22 @@ public class ExtractMetadata {
     	InputFormat inputFormat = extractInputFormat(args[1]);
     	
     	String cdxServerBaseUrl = args[2];
-    	try {
-    		new URL(cdxServerBaseUrl);
-    	} catch (IOException e) {
-    		throw new IllegalArgumentException("The CSX Server url '" + cdxServerBaseUrl + "' is invalid.", e);
+    	CDXExtractor cdxExtractor;
+    	if(new File(cdxServerBaseUrl).exists()) {
+    		try {
+    			cdxExtractor = SortedCDXFileExtractor.createFromLocation(new File(cdxServerBaseUrl));
+    		} catch (IOException e) {
+    			throw new IllegalArgumentException("Could not use the local CDX files at '" + cdxServerBaseUrl 
+    					+ "'.", e);
+    		}
+    	} else {
+    		try {
+    			new URL(cdxServerBaseUrl);
+    		} catch (IOException e) {
+    			throw new IllegalArgumentException("The CSX Server url '" + cdxServerBaseUrl + "' is invalid.", e);
+    		}
+    		cdxExtractor = new DabCDXExtractor(cdxServerBaseUrl, HttpRetriever.getSharedInstance());
     	}
-    	DabCDXExtractor cdxExtractor = new DabCDXExtractor(cdxServerBaseUrl, new HttpRetriever());
     	
     	HarvestJobExtractor jobExtractor = null;
     	if(extractWhetherToUseHarvestDb(args[3])) {
@@ -287,11 +297,7 @@ public class ExtractMetadata {
     	} else {
     		CsvUrlIntervalReader reader = new CsvUrlIntervalReader(inputFile);
     		Collection<UrlInterval> intervals = reader.extractAllUrlIntervals();
-    		List<CDXEntry> res = new ArrayList<CDXEntry>(intervals.size());
-    		for(UrlInterval ui : intervals) {
-        		res.addAll(cdxExtractor.retrieveCDXForInterval(ui));
-    		}
-    		return res;
+    		return cdxExtractor.retrieveCDXForIntervals(intervals);
     	}
     }
     
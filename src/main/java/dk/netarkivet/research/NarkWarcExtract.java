@@ -2,20 +2,28 @@ package dk.netarkivet.research;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.List;
 
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
 import dk.netarkivet.common.distribute.arcrepository.ViewerArcRepositoryClient;
-import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.cdx.CDXFileIterator;
 import dk.netarkivet.research.cdx.CDXFileReader;
 import dk.netarkivet.research.warc.ArchiveExtractor;
+import dk.netarkivet.research.warc.LocalFileArchiveExtractor;
 import dk.netarkivet.research.warc.NASArchiveExtractor;
 import dk.netarkivet.research.warc.WarcPacker;
 
 /**
  * Extracts all the WARC records for a CDX file.
+ *
+ * The records are retrieved from the NetarchiveSuite repository, unless the system property
+ * {@link #PROPERTY_ARCHIVE_DIRECTORIES} gives local directories with the archive files, e.g. on a NFS mount.
  */
 public class NarkWarcExtract {
+	/** The system property for the local directories with the archive files, separated by the path separator.*/
+	public static final String PROPERTY_ARCHIVE_DIRECTORIES = "dk.netarkivet.research.warc.local.directories";
+
 	/**
 	 * Main method.
 	 * @param args The arguments for running the program.
@@ -26,6 +34,11 @@ public class NarkWarcExtract {
     		System.err.println(" 1. the CDX file");
     		System.err.println(" 2. (OPTIONAL) output directory. If given, then it will extract "
     				+ "the WARC file to the current folder.");
+    		System.err.println(" 3. (OPTIONAL) the number of CDX entries to extract grouped by their archive file "
+    				+ "and sorted by offset. The records are still written in the order of the CDX file.");
+    		System.err.println("The records are retrieved from the NetarchiveSuite repository, unless the system "
+    				+ "property '" + PROPERTY_ARCHIVE_DIRECTORIES + "' gives the local directories with the archive "
+    				+ "files, separated by '" + File.pathSeparator + "'.");
     		System.exit(-1);
     	}
     	
@@ -48,15 +61,48 @@ public class NarkWarcExtract {
     		System.exit(-1);
     	}
     	
-    	try {
-    		CDXFileReader cdxReader = new CDXFileReader();
-    		Collection<CDXEntry> cdxEntries = cdxReader.extractCDXFromFile(cdxFile);
-    		
-            ViewerArcRepositoryClient arcRepositoryClient = ArcRepositoryClientFactory.getViewerInstance();
-            ArchiveExtractor extractor = new NASArchiveExtractor(arcRepositoryClient);
-            WarcPacker warcPacker = new WarcPacker(extractor);
-            warcPacker.extractToWarc(cdxEntries, outDir);
-            arcRepositoryClient.close();
+    	Integer localityWindow = null;
+    	if(args.length > 2) {
+    		try {
+    			localityWindow = Integer.parseInt(args[2]);
+    		} catch (NumberFormatException e) {
+    			localityWindow = -1;
+    		}
+    		if(localityWindow < 1) {
+    			System.err.println("The number of CDX entries to group '" + args[2] + "' is not a positive number.");
+    			System.exit(-1);
+    		}
+    	}
+    	
+    	List<File> archiveDirectories = null;
+    	String archiveDirectoriesProperty = System.getProperty(PROPERTY_ARCHIVE_DIRECTORIES);
+    	if(archiveDirectoriesProperty != null && !archiveDirectoriesProperty.trim().isEmpty()) {
+    		archiveDirectories = new ArrayList<File>();
+    		for(String dir : archiveDirectoriesProperty.split(File.pathSeparator)) {
+    			if(dir.trim().isEmpty()) {
+    				continue;
+    			}
+    			File archiveDir = new File(dir.trim());
+    			if(!archiveDir.isDirectory()) {
+    				System.err.println("The archive directory '" + archiveDir.getAbsolutePath() + "' is not a valid "
+    						+ "directory (either does not exists or is a file)");
+    				System.exit(-1);
+    			}
+    			archiveDirectories.add(archiveDir);
+    		}
+    	}
+    	
+    	CDXFileReader cdxReader = new CDXFileReader();
+    	try (CDXFileIterator cdxEntries = cdxReader.iterateCDXFromFile(cdxFile)) {
+    		if(archiveDirectories != null) {
+    			try (LocalFileArchiveExtractor extractor = new LocalFileArchiveExtractor(archiveDirectories)) {
+    				extractToWarc(extractor, cdxEntries, outDir, localityWindow);
+    			}
+    		} else {
+    			ViewerArcRepositoryClient arcRepositoryClient = ArcRepositoryClientFactory.getViewerInstance();
+    			extractToWarc(new NASArchiveExtractor(arcRepositoryClient), cdxEntries, outDir, localityWindow);
+    			arcRepositoryClient.close();
+    		}
             
             System.out.println("Finished");
             System.exit(0);
@@ -65,4 +111,20 @@ public class NarkWarcExtract {
     		System.exit(-1);
     	}
     }
+
+    /**
+     * Extracts the records for the CDX entries into a WARC file.
+     * @param extractor The extractor for the records.
+     * @param cdxEntries The CDX entries.
+     * @param outDir The output directory for the WARC file.
+     * @param localityWindow The number of CDX entries to extract grouped by their archive file, or null.
+     */
+    private static void extractToWarc(ArchiveExtractor extractor, CDXFileIterator cdxEntries, File outDir, 
+    		Integer localityWindow) {
+    	WarcPacker warcPacker = new WarcPacker(extractor);
+    	if(localityWindow != null) {
+    		warcPacker.setLocalityWindow(localityWindow);
+    	}
+    	warcPacker.extractToWarc(cdxEntries, outDir);
+    }
 }
@@ -1,13 +1,24 @@
 package dk.netarkivet.research.cdx;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.exception.ArgumentCheck;
 import dk.netarkivet.research.interval.UrlInterval;
 import dk.netarkivet.research.utils.DateUtils;
 import dk.netarkivet.research.wid.WID;
@@ -17,11 +28,41 @@ import dk.netarkivet.research.wid.WaybackWID;
 /**
  * Common abstract interface for CDX extractors.
  * Contains common methods for the different CDX extractors.
+ * 
+ * The batch methods can resolve the WIDs and URL intervals concurrently, when the concurrency is set above 1.
+ * The default concurrency is taken from the system property {@link #PROPERTY_CONCURRENCY}.
  */
 public abstract class AbstractCDXExtractor implements CDXExtractor {
 	/** The log.*/
 	private static Logger logger = LoggerFactory.getLogger(AbstractCDXExtractor.class);
 
+	/** The system property for the default number of concurrent lookups in the batch methods.*/
+	public static final String PROPERTY_CONCURRENCY = "dk.netarkivet.research.cdx.concurrency";
+	/** The default number of concurrent lookups, when the system property is not set - e.g. sequential.*/
+	public static final int DEFAULT_CONCURRENCY = 1;
+	/** The number of tasks allowed to be submitted per thread, before waiting for the earliest to finish.*/
+	protected static final int TASKS_PER_THREAD = 4;
+
+	/** The number of concurrent lookups in the batch methods.*/
+	protected int concurrency = Integer.getInteger(PROPERTY_CONCURRENCY, DEFAULT_CONCURRENCY);
+
+	/**
+	 * Sets the number of concurrent lookups in the batch methods.
+	 * The extractor must be thread safe, if this is set above 1.
+	 * @param concurrency The number of concurrent lookups. 1 for sequential lookups.
+	 */
+	public void setConcurrency(int concurrency) {
+		ArgumentCheck.checkIsTrue(concurrency > 0, "int concurrency must be positive");
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * @return The number of concurrent lookups in the batch methods.
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
 	@Override
 	public CDXEntry retrieveCDX(WaybackWID wid) {
 		Collection<CDXEntry> allCDXforUrl = retrieveAllCDX(wid.getUrl());
@@ -50,21 +91,180 @@ public abstract class AbstractCDXExtractor implements CDXExtractor {
 	
 	@Override
 	public Collection<CDXEntry> retrieveCDXentries(Collection<WID> wids) {
-		List<CDXEntry> res = new ArrayList<CDXEntry>(wids.size());
-		for(WID wid : wids) {
-    		if(wid instanceof WPID) {
-    			res.add(retrieveCDX((WPID) wid));
-    		} else if (wid instanceof WaybackWID){
-    			res.add(retrieveCDX((WaybackWID) wid));
-    		} else {
-    			res.add(null);
-    		}
+		if(concurrency <= 1) {
+			List<CDXEntry> res = new ArrayList<CDXEntry>(wids.size());
+			for(WID wid : wids) {
+				res.add(retrieveCDX(wid));
+			}
+			return res;
+		}
+		
+		List<Callable<CDXEntry>> tasks = new ArrayList<Callable<CDXEntry>>(wids.size());
+		for(final WID wid : wids) {
+			tasks.add(new Callable<CDXEntry>() {
+				@Override
+				public CDXEntry call() {
+					return retrieveCDX(wid);
+				}
+			});
+		}
+		return callInOrder(tasks);
+	}
+	
+	@Override
+	public Collection<CDXEntry> retrieveCDXForIntervals(Collection<UrlInterval> urlIntervals) {
+		List<CDXEntry> res = new ArrayList<CDXEntry>(urlIntervals.size());
+		if(concurrency <= 1) {
+			for(UrlInterval urlInterval : urlIntervals) {
+				res.addAll(retrieveCDXForInterval(urlInterval));
+			}
+			return res;
+		}
+		
+		List<Callable<Collection<CDXEntry>>> tasks = new ArrayList<Callable<Collection<CDXEntry>>>(
+				urlIntervals.size());
+		for(final UrlInterval urlInterval : urlIntervals) {
+			tasks.add(new Callable<Collection<CDXEntry>>() {
+				@Override
+				public Collection<CDXEntry> call() {
+					return retrieveCDXForInterval(urlInterval);
+				}
+			});
+		}
+		for(Collection<CDXEntry> entries : callInOrder(tasks)) {
+			if(entries != null) {
+				res.addAll(entries);
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * Only exact matches are supported by default, through {@link #retrieveAllCDX(String)}.
+	 */
+	@Override
+	public Iterator<CDXEntry> retrieveRange(String url, MatchType matchType) {
+		ArgumentCheck.checkNotNull(matchType, "MatchType matchType");
+		if(matchType != MatchType.EXACT) {
+			throw new UnsupportedOperationException("The CDX extractor '" + getClass().getSimpleName() 
+					+ "' does not support the match type: " + matchType);
+		}
+		return retrieveAllCDX(url).iterator();
+	}
+
+	@Override
+	public Iterator<CDXEntry> retrieveByPrefix(String urlPrefix) {
+		return retrieveRange(urlPrefix, MatchType.PREFIX);
+	}
+
+	@Override
+	public Iterator<CDXEntry> retrieveByHost(String host) {
+		return retrieveRange(host, MatchType.HOST);
+	}
+
+	@Override
+	public Iterator<CDXEntry> retrieveByDomain(String domain) {
+		return retrieveRange(domain, MatchType.DOMAIN);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * By default the entries are retrieved by {@link #retrieveAllCDX(String)} or 
+	 * {@link #retrieveRange(String, MatchType)}, and the restrictions of the query are applied on them.
+	 */
+	@Override
+	public Collection<CDXEntry> retrieveByQuery(CDXQuery query) {
+		ArgumentCheck.checkNotNull(query, "CDXQuery query");
+		if(query.getMatchType() == MatchType.EXACT) {
+			Collection<CDXEntry> entries = retrieveAllCDX(query.getUrl());
+			if(entries == null) {
+				return new ArrayList<CDXEntry>();
+			}
+			return query.apply(entries);
+		}
+		final Iterator<CDXEntry> entries = retrieveRange(query.getUrl(), query.getMatchType());
+		return query.apply(new Iterable<CDXEntry>() {
+			@Override
+			public Iterator<CDXEntry> iterator() {
+				return entries;
+			}
+		});
+	}
+	
+	/**
+	 * Retrieves the CDX entry for a WID of any of the supported types.
+	 * @param wid The WID.
+	 * @return The CDX entry, or null if no CDX entry could be found or it is not a supported type of WID.
+	 */
+	protected CDXEntry retrieveCDX(WID wid) {
+		if(wid instanceof WPID) {
+			return retrieveCDX((WPID) wid);
+		} else if (wid instanceof WaybackWID){
+			return retrieveCDX((WaybackWID) wid);
+		}
+		return null;
+	}
+	
+	/**
+	 * Runs the tasks on a pool of {@link #concurrency} threads, and delivers the results in the order of the tasks.
+	 * Only a bounded number of tasks are submitted ahead of the earliest unfinished task, 
+	 * so a slow lookup holds back the submission of new lookups instead of letting them queue up without limit.
+	 * If a task fails, then the failure is logged and a null is delivered as its result.
+	 * @param <T> The type of the results.
+	 * @param tasks The tasks.
+	 * @return The results of the tasks, in the same order as the tasks.
+	 */
+	protected <T> List<T> callInOrder(List<Callable<T>> tasks) {
+		List<T> res = new ArrayList<T>(tasks.size());
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "cdx-lookup-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			int maxInFlight = concurrency * TASKS_PER_THREAD;
+			Deque<Future<T>> inFlight = new ArrayDeque<Future<T>>(maxInFlight);
+			for(Callable<T> task : tasks) {
+				if(inFlight.size() >= maxInFlight) {
+					res.add(waitForResult(inFlight.removeFirst()));
+				}
+				inFlight.addLast(executor.submit(task));
+			}
+			while(!inFlight.isEmpty()) {
+				res.add(waitForResult(inFlight.removeFirst()));
+			}
+		} finally {
+			executor.shutdownNow();
 		}
 		return res;
 	}
 	
+	/**
+	 * Waits for the result of a task.
+	 * @param <T> The type of the result.
+	 * @param future The future for the task.
+	 * @return The result, or null if the task failed.
+	 */
+	private <T> T waitForResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			logger.warn("Failed to retrieve CDX entries. Using a null.", e.getCause());
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while retrieving CDX entries.", e);
+		}
+	}
+	
 	/**
 	 * Retrieves the CDX index closest to the date.
+	 * A {@link CDXCaptureList} is searched by a binary search, other collections by a linear scan.
 	 * @param allCDXforUrl The list of all extracted CDX entries.
 	 * @param date The date.
 	 * @return The CDX entry closest to the date.
@@ -78,12 +278,16 @@ public abstract class AbstractCDXExtractor implements CDXExtractor {
 			logger.info("No date. Returning null.");
 			return null;
 		}
+		if(allCDXforUrl instanceof CDXCaptureList) {
+			return ((CDXCaptureList) allCDXforUrl).findClosest(date.getTime());
+		}
 		
 		long closestDate = Long.MAX_VALUE;
 		CDXEntry res = null;
 		
+		long time = date.getTime();
 		for(CDXEntry entry : allCDXforUrl) {
-			Long timeDiff = Math.abs(entry.getDateAsLong() - date.getTime());
+			long timeDiff = Math.abs(entry.getDateAsLong() - time);
 			if(timeDiff < closestDate) {
 				closestDate = timeDiff;
 				res = entry;
@@ -95,14 +299,18 @@ public abstract class AbstractCDXExtractor implements CDXExtractor {
 	
 	/**
 	 * Finds the CDX entry with a given filename within a collection of CDX indices. 
+	 * A {@link CDXCaptureList} is looked up through its index of the filenames, other collections by a linear scan.
 	 * @param allCDXforUrl The list of CDX indices.
 	 * @param filename The name of the file.
 	 * @return The entry with the filename. Or null, if no such entry was found.
 	 */
 	protected CDXEntry findCDXwithFile(Collection<CDXEntry> allCDXforUrl, String filename) {
-		if(filename == null) {
+		if(filename == null || allCDXforUrl == null) {
 			return null;
 		}
+		if(allCDXforUrl instanceof CDXCaptureList) {
+			return ((CDXCaptureList) allCDXforUrl).findByFilename(filename);
+		}
 		for(CDXEntry entry : allCDXforUrl) {
 			if(filename.equalsIgnoreCase(entry.getFilename())) {
 				return entry;
@@ -0,0 +1,147 @@
+package dk.netarkivet.research.cdx;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Unmodifiable list of the captures of a URL, sorted by their date.
+ *
+ * The dates are kept in a primitive array, so the capture closest to a date is found by a binary search,
+ * and the filenames are indexed, so the capture in a given file is found by a single lookup.
+ * This makes it cheap to resolve many WIDs against the cached captures of a heavily captured URL.
+ *
+ * Captures with the same date keep their original order.
+ */
+public class CDXCaptureList extends AbstractList<CDXEntry> implements RandomAccess {
+	/** Orders the captures by their date.*/
+	protected static final Comparator<CDXEntry> DATE_ORDER = new Comparator<CDXEntry>() {
+		@Override
+		public int compare(CDXEntry o1, CDXEntry o2) {
+			long d1 = o1.getDateAsLong();
+			long d2 = o2.getDateAsLong();
+			return d1 < d2 ? -1 : (d1 == d2 ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Retrieves the captures as a capture list.
+	 * @param captures The captures.
+	 * @return The captures, if they already are a capture list, otherwise a new capture list with the captures.
+	 */
+	public static CDXCaptureList valueOf(Collection<CDXEntry> captures) {
+		if(captures instanceof CDXCaptureList) {
+			return (CDXCaptureList) captures;
+		}
+		return new CDXCaptureList(captures);
+	}
+
+	/** The captures, sorted by date.*/
+	protected final CDXEntry[] entries;
+	/** The dates of the captures in millis from epoch, in the same order as the captures.*/
+	protected final long[] dates;
+	/** The index of the first capture for each filename. The filenames are in lower case.*/
+	protected final Map<String, Integer> filenameIndex;
+
+	/**
+	 * Constructor.
+	 * @param captures The captures. Null entries are ignored.
+	 */
+	public CDXCaptureList(Collection<CDXEntry> captures) {
+		ArgumentCheck.checkNotNull(captures, "Collection<CDXEntry> captures");
+		CDXEntry[] sorted = new CDXEntry[captures.size()];
+		int size = 0;
+		for(CDXEntry entry : captures) {
+			if(entry != null) {
+				sorted[size++] = entry;
+			}
+		}
+		entries = Arrays.copyOf(sorted, size);
+		// Arrays.sort on objects is stable, so captures with the same date keep their order.
+		Arrays.sort(entries, DATE_ORDER);
+
+		dates = new long[size];
+		filenameIndex = new HashMap<String, Integer>();
+		for(int i = 0; i < size; i++) {
+			dates[i] = entries[i].getDateAsLong();
+			String filename = entries[i].getFilename();
+			if(filename != null) {
+				String key = filename.toLowerCase(Locale.ROOT);
+				if(!filenameIndex.containsKey(key)) {
+					filenameIndex.put(key, i);
+				}
+			}
+		}
+	}
+
+	@Override
+	public CDXEntry get(int index) {
+		return entries[index];
+	}
+
+	@Override
+	public int size() {
+		return entries.length;
+	}
+
+	/**
+	 * Finds the capture closest to a date.
+	 * When two captures are equally close, the earliest is chosen.
+	 * @param date The date in millis from epoch.
+	 * @return The capture closest to the date, or null if there are no captures.
+	 */
+	public CDXEntry findClosest(long date) {
+		if(entries.length == 0) {
+			return null;
+		}
+		int after = firstIndexNotBefore(date);
+		if(after == 0) {
+			return entries[0];
+		}
+		int before = firstIndexNotBefore(dates[after - 1]);
+		if(after == entries.length || date - dates[before] <= dates[after] - date) {
+			return entries[before];
+		}
+		return entries[after];
+	}
+
+	/**
+	 * Finds the capture in a given file.
+	 * The filename is compared without regard to case.
+	 * @param filename The name of the file.
+	 * @return The earliest capture in the file, or null if no capture is in the file.
+	 */
+	public CDXEntry findByFilename(String filename) {
+		if(filename == null) {
+			return null;
+		}
+		Integer index = filenameIndex.get(filename.toLowerCase(Locale.ROOT));
+		return index == null ? null : entries[index];
+	}
+
+	/**
+	 * Binary search for the first capture, which is not before the date.
+	 * @param date The date in millis from epoch.
+	 * @return The index of the first capture at or after the date, or the number of captures if all are before.
+	 */
+	protected int firstIndexNotBefore(long date) {
+		int low = 0;
+		int high = dates.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(dates[mid] < date) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
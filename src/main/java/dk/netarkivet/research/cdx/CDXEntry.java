@@ -11,6 +11,8 @@ import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.research.utils.CDXUtils;
 import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.utils.SurtCanonicalizer;
+import dk.netarkivet.research.utils.WaybackDateCodec;
 
 /**
  * CDX index entry.
@@ -46,6 +48,58 @@ public class CDXEntry {
 		return createCDXEntry(cdxMapping);
 	}
 	
+	/**
+	 * Instantiation method, which parses a raw CDX line directly by column position.
+	 * The columns are separated by single spaces, just like <code>cdxLine.split(" ")</code>, but without
+	 * creating the intermediate array or mapping. Missing values ('-') and blank format characters are skipped 
+	 * without allocating a string for them.
+	 * @param cdxLine The CDX line.
+	 * @param format Array of the format for the CDX values.
+	 * @return The CDX entry, or null if the line does not match the format or a value could not be parsed.
+	 */
+	public static CDXEntry createCDXEntry(String cdxLine, Character[] format) {
+		// trailing separators are ignored, like String#split does.
+		int end = cdxLine.length();
+		while(end > 0 && cdxLine.charAt(end - 1) == ' ') {
+			end--;
+		}
+		int columns = 1;
+		for(int i = 0; i < end; i++) {
+			if(cdxLine.charAt(i) == ' ') {
+				columns++;
+			}
+		}
+		if (columns != format.length) {
+			logger.warn("CDX line ('" + columns + "') and CDX format ('" + format.length + "') does not have "
+					+ "same size.");
+			return null;
+		}
+		
+		CDXEntry cdxEntry = new CDXEntry();
+		try {
+			int start = 0;
+			for(int i = 0; i < format.length; i++) {
+				int stop = cdxLine.indexOf(' ', start);
+				if(stop < 0 || stop > end) {
+					stop = end;
+				}
+				char key = format[i];
+				boolean missing = (stop - start == 1) && cdxLine.charAt(start) == '-';
+				if(key != ' ' && !missing) {
+					cdxEntry.setCDXElement(key, cdxLine.substring(start, stop));
+				}
+				start = stop + 1;
+			}
+		} catch (NumberFormatException e) {
+			logger.warn("Issue extracting the number from a string.", e);
+			return null;
+		} catch (ParseException e) {
+			logger.warn("Issue parsing data", e);
+			return null;
+		}
+		return cdxEntry;
+	}
+	
 	/** CDX element A or N. */
 	protected String urlNorm;
 	/** CDX element b. */
@@ -79,6 +133,17 @@ public class CDXEntry {
 	public String getUrlNorm() {
 		return urlNorm;
 	}
+	/** 
+	 * @return CDX element A or N, or the canonical form of CDX element a (see {@link SurtCanonicalizer}), 
+	 * if the entry does not have the normalized URL. Null if it has neither.
+	 */
+	public String getUrlKey() {
+		String res = getUrlNorm();
+		if(res == null && getUrl() != null) {
+			res = SurtCanonicalizer.getSharedInstance().canonicalize(getUrl());
+		}
+		return res;
+	}
 	/** @return CDX element b; the date - as a long. */
 	public Long getDateAsLong() {
 		if(date == null) {
@@ -149,7 +214,11 @@ public class CDXEntry {
 		for(Character c : charKeys) {
 			switch(c) {
 			case CDXConstants.CDX_CHAR_DATE:
-				CDXUtils.addCDXElementToStringBuffer(DateUtils.dateToWaybackDate(getDateAsLong()), res);
+				if(WaybackDateCodec.canFormat(getDateAsLong())) {
+					WaybackDateCodec.append(getDateAsLong(), res);
+				} else {
+					CDXUtils.addCDXElementToStringBuffer(DateUtils.millisToWaybackDate(getDateAsLong()), res);
+				}
 				break;
 			case CDXConstants.CDX_CHAR_IP:
 				CDXUtils.addCDXElementToStringBuffer(ip, res);
@@ -207,51 +276,7 @@ public class CDXEntry {
 		CDXEntry cdxEntry = new CDXEntry();
 		try {
 			for(Map.Entry<Character, String> cdxElement : cdxMapping.entrySet()) {
-				if("-".equals(cdxElement.getValue())) {
-					continue;
-				}
-				switch (cdxElement.getKey()) {
-				case CDXConstants.CDX_CHAR_DATE:
-					cdxEntry.date = DateUtils.waybackDateToDate(cdxElement.getValue()).getTime();
-					break;
-				case CDXConstants.CDX_CHAR_IP:
-					cdxEntry.ip = cdxElement.getValue();
-					break;
-				case CDXConstants.CDX_CHAR_CANONIZED_URL:
-				case CDXConstants.CDX_CHAR_MASSAGED_URL:
-					cdxEntry.urlNorm = cdxElement.getValue();
-					break;
-				case CDXConstants.CDX_CHAR_ORIGINAL_URL:
-					cdxEntry.url = cdxElement.getValue();
-					break;
-				case CDXConstants.CDX_CHAR_MIME_TYPE:
-					cdxEntry.contentType = cdxElement.getValue();
-					break;
-				case CDXConstants.CDX_CHAR_RESPONSE_CODE:
-					cdxEntry.statusCode = Integer.parseInt(cdxElement.getValue());
-					break;
-				case CDXConstants.CDX_CHAR_OLD_STYLE_CHECKSUM:
-				case CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM:
-					cdxEntry.digest = cdxElement.getValue();
-					break;
-				case CDXConstants.CDX_CHAR_COMPRESSED_ARC_FILE_OFFSET:
-				case CDXConstants.CDX_CHAR_UNCOMPRESSED_ARC_FILE_OFFSET:
-					cdxEntry.offset = Long.parseLong(cdxElement.getValue());
-					break;
-				case CDXConstants.CDX_CHAR_ARC_DOCUMENT_LENGTH:
-					cdxEntry.length = Long.parseLong(cdxElement.getValue());
-					break;
-				case CDXConstants.CDX_CHAR_FILE_NAME:
-					cdxEntry.filename = cdxElement.getValue();
-					break;
-				case CDXConstants.CDX_CHAR_REDIRECT:
-					cdxEntry.redirect = cdxElement.getValue();
-					break;
-				default:
-					logger.debug("Unmatched CDX element. Key '" + cdxElement.getKey() + "' with value '"
-							+ cdxElement.getValue() + "'.");
-					break;
-				}
+				cdxEntry.setCDXElement(cdxElement.getKey(), cdxElement.getValue());
 			}
 		} catch (NumberFormatException e) {
 			logger.warn("Issue extracting the number from a string.", e);
@@ -264,6 +289,61 @@ public class CDXEntry {
 		return cdxEntry;
 	}
 	
+	/**
+	 * Sets the value of a single CDX element on this entry.
+	 * The value '-' is the CDX notation for a missing value, and will be ignored.
+	 * @param key The CDX element character.
+	 * @param value The value of the CDX element.
+	 * @throws ParseException If the date cannot be parsed.
+	 * @throws NumberFormatException If a numeric element cannot be parsed.
+	 */
+	protected void setCDXElement(char key, String value) throws ParseException {
+		if("-".equals(value)) {
+			return;
+		}
+		switch (key) {
+		case CDXConstants.CDX_CHAR_DATE:
+			date = DateUtils.waybackDateToMillis(value);
+			break;
+		case CDXConstants.CDX_CHAR_IP:
+			ip = value;
+			break;
+		case CDXConstants.CDX_CHAR_CANONIZED_URL:
+		case CDXConstants.CDX_CHAR_MASSAGED_URL:
+			urlNorm = value;
+			break;
+		case CDXConstants.CDX_CHAR_ORIGINAL_URL:
+			url = value;
+			break;
+		case CDXConstants.CDX_CHAR_MIME_TYPE:
+			contentType = value;
+			break;
+		case CDXConstants.CDX_CHAR_RESPONSE_CODE:
+			statusCode = Integer.parseInt(value);
+			break;
+		case CDXConstants.CDX_CHAR_OLD_STYLE_CHECKSUM:
+		case CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM:
+			digest = value;
+			break;
+		case CDXConstants.CDX_CHAR_COMPRESSED_ARC_FILE_OFFSET:
+		case CDXConstants.CDX_CHAR_UNCOMPRESSED_ARC_FILE_OFFSET:
+			offset = Long.parseLong(value);
+			break;
+		case CDXConstants.CDX_CHAR_ARC_DOCUMENT_LENGTH:
+			length = Long.parseLong(value);
+			break;
+		case CDXConstants.CDX_CHAR_FILE_NAME:
+			filename = value;
+			break;
+		case CDXConstants.CDX_CHAR_REDIRECT:
+			redirect = value;
+			break;
+		default:
+			logger.debug("Unmatched CDX element. Key '" + key + "' with value '" + value + "'.");
+			break;
+		}
+	}
+	
 	@Override
 	public String toString() {
 		return extractCDXAsLine(CDXConstants.getNasDefaultCDXFormat());
@@ -0,0 +1,385 @@
+package dk.netarkivet.research.cdx;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Compact in-memory store of many CDX entries.
+ * 
+ * The entries are kept column by column, with the numbers in primitive arrays and the filenames and mimetypes 
+ * encoded through dictionaries, since they are shared by many entries. 
+ * Thereby the store only uses a fraction of the memory of the same number of {@link CDXEntry} objects.
+ * 
+ * The store is a list of CDX entries, where each element is a light-weight view of a row in the store.
+ * The views are created when they are retrieved, so they should not be used for identity, 
+ * e.g. as keys in identity based maps - though two views of the same row are equal.
+ * 
+ * The store is not thread safe, when entries are being added.
+ */
+public class CDXEntryStore extends AbstractList<CDXEntry> {
+	/** The value in the primitive columns for a missing value.*/
+	protected static final long MISSING_LONG = Long.MIN_VALUE;
+	/** The value in the primitive columns for a missing value.*/
+	protected static final int MISSING_INT = Integer.MIN_VALUE;
+	/** The default initial capacity.*/
+	protected static final int DEFAULT_CAPACITY = 1024;
+
+	/** The number of entries in the store.*/
+	protected int size = 0;
+	/** Column for CDX element A or N.*/
+	protected String[] urlNorms;
+	/** Column for CDX element b.*/
+	protected long[] dates;
+	/** Column for CDX element e.*/
+	protected String[] ips;
+	/** Column for CDX element a.*/
+	protected String[] urls;
+	/** Column for CDX element m, as the index in the mimetype dictionary.*/
+	protected int[] contentTypes;
+	/** Column for CDX element s.*/
+	protected int[] statusCodes;
+	/** Column for CDX element c or k.*/
+	protected String[] digests;
+	/** Column for CDX element v or V.*/
+	protected long[] offsets;
+	/** Column for CDX element n.*/
+	protected long[] lengths;
+	/** Column for CDX element g, as the index in the filename dictionary.*/
+	protected int[] filenames;
+	/** Column for CDX element r.*/
+	protected String[] redirects;
+
+	/** The dictionary for the mimetypes.*/
+	protected final StringDictionary contentTypeDictionary = new StringDictionary();
+	/** The dictionary for the filenames.*/
+	protected final StringDictionary filenameDictionary = new StringDictionary();
+
+	/**
+	 * Constructor.
+	 */
+	public CDXEntryStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor.
+	 * @param initialCapacity The number of entries to allocate room for initially.
+	 */
+	public CDXEntryStore(int initialCapacity) {
+		ArgumentCheck.checkIsTrue(initialCapacity >= 0, "int initialCapacity must not be negative");
+		allocate(initialCapacity);
+	}
+
+	/**
+	 * Constructor.
+	 * @param entries The entries to put into the store.
+	 */
+	public CDXEntryStore(Collection<CDXEntry> entries) {
+		this(entries.size());
+		addAll(entries);
+	}
+
+	/**
+	 * Allocates the columns with the given capacity, and copies the current entries to them.
+	 * @param capacity The new capacity. Must not be less than the size.
+	 */
+	protected void allocate(int capacity) {
+		if(urls == null) {
+			urlNorms = new String[capacity];
+			dates = new long[capacity];
+			ips = new String[capacity];
+			urls = new String[capacity];
+			contentTypes = new int[capacity];
+			statusCodes = new int[capacity];
+			digests = new String[capacity];
+			offsets = new long[capacity];
+			lengths = new long[capacity];
+			filenames = new int[capacity];
+			redirects = new String[capacity];
+		} else {
+			urlNorms = Arrays.copyOf(urlNorms, capacity);
+			dates = Arrays.copyOf(dates, capacity);
+			ips = Arrays.copyOf(ips, capacity);
+			urls = Arrays.copyOf(urls, capacity);
+			contentTypes = Arrays.copyOf(contentTypes, capacity);
+			statusCodes = Arrays.copyOf(statusCodes, capacity);
+			digests = Arrays.copyOf(digests, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			filenames = Arrays.copyOf(filenames, capacity);
+			redirects = Arrays.copyOf(redirects, capacity);
+		}
+	}
+
+	/**
+	 * Reduces the capacity of the store to its size, e.g. after all the entries has been added.
+	 */
+	public void trimToSize() {
+		if(urls.length > size) {
+			allocate(size);
+		}
+	}
+
+	@Override
+	public boolean add(CDXEntry entry) {
+		ArgumentCheck.checkNotNull(entry, "CDXEntry entry");
+		if(entry instanceof EntryView) {
+			// A view has its values in the columns of its store, not in its fields.
+			entry = ((EntryView) entry).materialize();
+		}
+		if(size == urls.length) {
+			allocate(Math.max(size * 2, DEFAULT_CAPACITY));
+		}
+		int row = size;
+		urlNorms[row] = entry.urlNorm;
+		dates[row] = toLong(entry.date);
+		ips[row] = entry.ip;
+		urls[row] = entry.url;
+		contentTypes[row] = contentTypeDictionary.encode(entry.contentType);
+		statusCodes[row] = entry.statusCode == null ? MISSING_INT : entry.statusCode.intValue();
+		digests[row] = entry.digest;
+		offsets[row] = toLong(entry.offset);
+		lengths[row] = toLong(entry.length);
+		filenames[row] = filenameDictionary.encode(entry.filename);
+		redirects[row] = entry.redirect;
+		size++;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public CDXEntry get(int index) {
+		checkIndex(index);
+		return new EntryView(index);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Retrieves the date of an entry without creating a view.
+	 * @param index The index of the entry.
+	 * @return The date in milliseconds, or 0 if the entry has no date.
+	 */
+	public long getDate(int index) {
+		checkIndex(index);
+		return dates[index] == MISSING_LONG ? 0L : dates[index];
+	}
+
+	/**
+	 * Retrieves the offset of an entry without creating a view.
+	 * @param index The index of the entry.
+	 * @return The offset, or 0 if the entry has no offset.
+	 */
+	public long getOffset(int index) {
+		checkIndex(index);
+		return offsets[index] == MISSING_LONG ? 0L : offsets[index];
+	}
+
+	/**
+	 * Retrieves the filename of an entry without creating a view.
+	 * @param index The index of the entry.
+	 * @return The filename, or null if the entry has no filename.
+	 */
+	public String getFilename(int index) {
+		checkIndex(index);
+		return filenameDictionary.decode(filenames[index]);
+	}
+
+	/**
+	 * @return The number of different filenames in the store.
+	 */
+	public int getNumberOfFilenames() {
+		return filenameDictionary.size();
+	}
+
+	/**
+	 * Validates the index of an entry.
+	 * @param index The index.
+	 */
+	protected void checkIndex(int index) {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	/**
+	 * @param value The boxed value. May be null.
+	 * @return The value as a primitive, or the missing value.
+	 */
+	protected static long toLong(Long value) {
+		return value == null ? MISSING_LONG : value.longValue();
+	}
+
+	/**
+	 * @param value The primitive value.
+	 * @return The boxed value, or null for the missing value.
+	 */
+	protected static Long fromLong(long value) {
+		return value == MISSING_LONG ? null : Long.valueOf(value);
+	}
+
+	/**
+	 * View of a row in the store as a CDX entry.
+	 * The values are read from the columns of the store, when they are requested.
+	 */
+	protected class EntryView extends CDXEntry {
+		/** The row in the store.*/
+		protected final int row;
+
+		/**
+		 * Constructor.
+		 * @param row The row in the store.
+		 */
+		protected EntryView(int row) {
+			this.row = row;
+		}
+
+		@Override
+		public String getUrlNorm() {
+			return urlNorms[row];
+		}
+		@Override
+		public Long getDateAsLong() {
+			return dates[row] == MISSING_LONG ? 0L : dates[row];
+		}
+		@Override
+		public Date getDateAsDate() {
+			return dates[row] == MISSING_LONG ? null : new Date(dates[row]);
+		}
+		@Override
+		public String getIP() {
+			return ips[row];
+		}
+		@Override
+		public String getUrl() {
+			return urls[row];
+		}
+		@Override
+		public String getContentType() {
+			return contentTypeDictionary.decode(contentTypes[row]);
+		}
+		@Override
+		public Integer getStatusCode() {
+			return statusCodes[row] == MISSING_INT ? 200 : statusCodes[row];
+		}
+		@Override
+		public String getDigest() {
+			return digests[row];
+		}
+		@Override
+		public Long getOffset() {
+			return offsets[row] == MISSING_LONG ? 0L : offsets[row];
+		}
+		@Override
+		public Long getLength() {
+			return lengths[row] == MISSING_LONG ? 0L : lengths[row];
+		}
+		@Override
+		public String getFilename() {
+			return filenameDictionary.decode(filenames[row]);
+		}
+		@Override
+		public String getRedirect() {
+			return redirects[row];
+		}
+
+		@Override
+		public String extractCDXAsLine(Collection<Character> charKeys) {
+			return materialize().extractCDXAsLine(charKeys);
+		}
+
+		/**
+		 * @return A stand-alone CDX entry with the values of this row.
+		 */
+		protected CDXEntry materialize() {
+			CDXEntry res = new CDXEntry();
+			res.urlNorm = urlNorms[row];
+			res.date = fromLong(dates[row]);
+			res.ip = ips[row];
+			res.url = urls[row];
+			res.contentType = contentTypeDictionary.decode(contentTypes[row]);
+			res.statusCode = statusCodes[row] == MISSING_INT ? null : Integer.valueOf(statusCodes[row]);
+			res.digest = digests[row];
+			res.offset = fromLong(offsets[row]);
+			res.length = fromLong(lengths[row]);
+			res.filename = filenameDictionary.decode(filenames[row]);
+			res.redirect = redirects[row];
+			return res;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof EntryView)) {
+				return false;
+			}
+			EntryView other = (EntryView) o;
+			return other.row == row && other.getStore() == getStore();
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(getStore()) * 31 + row;
+		}
+
+		/**
+		 * @return The store of this view.
+		 */
+		private CDXEntryStore getStore() {
+			return CDXEntryStore.this;
+		}
+	}
+
+	/**
+	 * Dictionary for encoding strings, which are repeated many times, as integers.
+	 * The integer -1 is used for null.
+	 */
+	protected static class StringDictionary {
+		/** The strings by their code.*/
+		protected final List<String> values = new ArrayList<String>();
+		/** The codes by their string.*/
+		protected final Map<String, Integer> codes = new HashMap<String, Integer>();
+
+		/**
+		 * @param value The string. May be null.
+		 * @return The code for the string.
+		 */
+		int encode(String value) {
+			if(value == null) {
+				return -1;
+			}
+			Integer code = codes.get(value);
+			if(code == null) {
+				code = values.size();
+				values.add(value);
+				codes.put(value, code);
+			}
+			return code;
+		}
+
+		/**
+		 * @param code The code.
+		 * @return The string for the code.
+		 */
+		String decode(int code) {
+			return code < 0 ? null : values.get(code);
+		}
+
+		/**
+		 * @return The number of strings in the dictionary.
+		 */
+		int size() {
+			return values.size();
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package dk.netarkivet.research.cdx;
 
 import java.util.Collection;
+import java.util.Iterator;
 
 import dk.netarkivet.research.interval.UrlInterval;
 import dk.netarkivet.research.wid.WID;
@@ -47,4 +48,53 @@ public interface CDXExtractor {
 	 * @return The collection of CDX indices for the given interval.
 	 */
 	Collection<CDXEntry> retrieveCDXForInterval(UrlInterval urlInterval);
+	
+	/**
+	 * Retrieves all the CDX entries for all the URL intervals.
+	 * The entries are delivered in the order of the URL intervals.
+	 * @param urlIntervals The collection of URL intervals.
+	 * @return The collection of CDX indices for all the URL intervals.
+	 */
+	Collection<CDXEntry> retrieveCDXForIntervals(Collection<UrlInterval> urlIntervals);
+
+	/**
+	 * Retrieves the CDX entries for all the URLs matching the URL by the given type of match.
+	 * The entries are retrieved lazily, e.g. a page or a block at a time, while iterating.
+	 * @param url The URL, URL prefix, host or domain.
+	 * @param matchType The type of match.
+	 * @return The iterator over the matching CDX entries.
+	 * @throws UnsupportedOperationException If the extractor does not support the type of match.
+	 */
+	Iterator<CDXEntry> retrieveRange(String url, MatchType matchType);
+
+	/**
+	 * Retrieves the CDX entries for all the URLs beginning with the URL prefix, e.g. 'example.dk/news/'.
+	 * @param urlPrefix The URL prefix.
+	 * @return The iterator over the matching CDX entries.
+	 */
+	Iterator<CDXEntry> retrieveByPrefix(String urlPrefix);
+
+	/**
+	 * Retrieves the CDX entries for all the URLs on a host.
+	 * @param host The host, or a URL on the host.
+	 * @return The iterator over the matching CDX entries.
+	 */
+	Iterator<CDXEntry> retrieveByHost(String host);
+
+	/**
+	 * Retrieves the CDX entries for all the URLs on a domain and its sub-domains.
+	 * @param domain The domain, or a URL on the domain.
+	 * @return The iterator over the matching CDX entries.
+	 */
+	Iterator<CDXEntry> retrieveByDomain(String domain);
+
+	/**
+	 * Retrieves the CDX entries matching a query.
+	 * The restrictions of the query are applied by the CDX server, when it supports them, 
+	 * otherwise they are applied on the retrieved entries.
+	 * The entries may only contain the CDX elements requested by the query.
+	 * @param query The query.
+	 * @return The CDX entries matching the query.
+	 */
+	Collection<CDXEntry> retrieveByQuery(CDXQuery query);
 }
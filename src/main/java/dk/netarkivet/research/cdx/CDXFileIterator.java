@@ -0,0 +1,91 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Iterator over the CDX entries of a CDX file.
+ *
+ * The entries are parsed one line at a time, when they are requested, so only the current line
+ * is held in memory no matter the size of the CDX file.
+ * Lines which cannot be parsed into a CDX entry are skipped.
+ *
+ * The iterator closes the underlying reader when the last entry has been read, but it should still be closed
+ * explicitly if the iteration is abandoned before reaching the end of the file.
+ */
+public class CDXFileIterator implements Iterator<CDXEntry>, Closeable {
+    /** Logging mechanism. */
+    private static Logger logger = LoggerFactory.getLogger(CDXFileIterator.class);
+
+    /** The reader of the CDX file.*/
+    protected final BufferedReader reader;
+    /** The CDX format of the file.*/
+    protected final Character[] cdxFormat;
+    /** The next entry, which has been read ahead. Null if it has not been read yet.*/
+    protected CDXEntry nextEntry;
+    /** Whether or not the end of the file has been reached.*/
+    protected boolean finished;
+
+    /**
+     * Constructor.
+     * @param reader The reader of the CDX file. Must be positioned after the CDX format line.
+     * @param cdxFormat The CDX format of the file.
+     */
+    public CDXFileIterator(BufferedReader reader, Character[] cdxFormat) {
+    	this.reader = reader;
+    	this.cdxFormat = cdxFormat;
+    	this.nextEntry = null;
+    	this.finished = false;
+    }
+
+	@Override
+	public boolean hasNext() {
+		if(nextEntry != null) {
+			return true;
+		}
+		if(finished) {
+			return false;
+		}
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				nextEntry = CDXEntry.createCDXEntry(line, cdxFormat);
+				if(nextEntry != null) {
+					return true;
+				}
+				logger.debug("Skipping CDX line: " + line);
+			}
+			close();
+			return false;
+		} catch (IOException e) {
+			throw new IllegalStateException("Issue reading the next CDX entry from the file.", e);
+		}
+	}
+
+	@Override
+	public CDXEntry next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException("No more CDX entries.");
+		}
+		CDXEntry res = nextEntry;
+		nextEntry = null;
+		return res;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Cannot remove CDX entries from a CDX file.");
+	}
+
+	@Override
+	public void close() throws IOException {
+		finished = true;
+		reader.close();
+	}
+}
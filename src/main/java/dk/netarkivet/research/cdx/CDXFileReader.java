@@ -4,13 +4,13 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,31 +28,44 @@ public class CDXFileReader {
 	
 	/**
 	 * Extracts the CDXs from a file.
+	 * All the CDX entries are kept in memory in a compact {@link CDXEntryStore}, 
+	 * but for very large CDX files the iterator from {@link #iterateCDXFromFile(File)} should be used instead.
 	 * @param cdxFile The file to extract from.
 	 * @return The list of CDXs.
 	 * @throws IOException If an issue occurs while reading CDXs from the file.
 	 */
     public Collection<CDXEntry> extractCDXFromFile(File cdxFile) throws IOException {
-    	List<CDXEntry> res = new ArrayList<CDXEntry>();
-    	String line;
-    	try (
-    	    InputStream fis = new FileInputStream(cdxFile);
-    	    InputStreamReader isr = new InputStreamReader(fis, Charset.forName("UTF-8"));
-    	    BufferedReader br = new BufferedReader(isr);
-    	) {
-    		Character[] cdxFormat = extractCDXFormat(br.readLine());
-    	    while ((line = br.readLine()) != null) {
-    	    	CDXEntry entry = CDXEntry.createCDXEntry(line.split(" "), cdxFormat);
-    	    	if(entry != null) {
-    	    		logger.info(entry.toString());
-    	    		res.add(entry);
-    	    	}
-    	    }
+    	CDXEntryStore res = new CDXEntryStore();
+    	try (CDXFileIterator iterator = iterateCDXFromFile(cdxFile)) {
+    		while(iterator.hasNext()) {
+    			res.add(iterator.next());
+    		}
     	}
-    	
+    	res.trimToSize();
+    	logger.debug("Extracted " + res.size() + " CDX entries from the file '" + cdxFile.getName() + "'.");
     	return res;
     }
     
+    /**
+     * Creates an iterator, which parses the CDX entries from the file one at the time.
+     * The iterator must be closed, if it is not iterated to the end.
+     * @param cdxFile The file to extract from.
+     * @return The iterator of the CDX entries in the file.
+     * @throws IOException If an issue occurs while opening the file or reading the CDX format line.
+     */
+    public CDXFileIterator iterateCDXFromFile(File cdxFile) throws IOException {
+    	BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(cdxFile), 
+    			Charset.forName("UTF-8")));
+    	try {
+    		String formatLine = br.readLine();
+    		Character[] cdxFormat = (formatLine == null) ? new Character[0] : extractCDXFormat(formatLine);
+    		return new CDXFileIterator(br, cdxFormat);
+    	} catch (IOException | RuntimeException e) {
+    		IOUtils.closeQuietly(br);
+    		throw e;
+    	}
+    }
+    
     /**
      * Extract the CDX format argument characters from the first line of the CDX file.
      * @param cdxChars The first line in the CDX file.
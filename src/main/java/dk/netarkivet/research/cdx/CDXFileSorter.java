@@ -0,0 +1,369 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Sorts and merges CDX files into one sorted CDX file, with bounded memory.
+ * 
+ * The CDX lines of the input files are read in chunks, which fit within the memory limit.
+ * Each chunk is sorted and written to a temporary run file, and the run files are then merged 
+ * (k-way, in several passes if there are many runs) into the output file.
+ * Identical lines are only written once. Trailing whitespace is not considered part of the line.
+ * 
+ * The lines are sorted by the byte order of their UTF-8 encoding, which is the order expected by the 
+ * {@link MappedCDXFile}. For lines without characters outside the Basic Multilingual Plane, it is the same as 
+ * the natural string order expected by the {@link ZipNumCDXFileWriter} and {@link SortedCDXFileExtractor}.
+ * 
+ * The CDX format of the output is the format of the first input file. 
+ * Lines from input files with a different format are converted to that format.
+ * Input files with the suffix '.gz' are read as gzip compressed.
+ */
+public class CDXFileSorter {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(CDXFileSorter.class);
+
+	/** The charset of the CDX files.*/
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	/** The default memory limit for the lines of a chunk in bytes.*/
+	public static final long DEFAULT_MAX_MEMORY = 128L * 1024 * 1024;
+	/** The default maximum number of run files merged at once.*/
+	public static final int DEFAULT_MAX_MERGE_FILES = 64;
+	/** The estimated memory overhead of a line in a chunk, besides its characters.*/
+	protected static final int LINE_OVERHEAD = 64;
+	/** The size of the buffers for reading and writing the files.*/
+	protected static final int BUFFER_SIZE = 64 * 1024;
+
+	/** 
+	 * Orders strings by the unsigned bytes of their UTF-8 encoding, without encoding them.
+	 * Comparing the code points gives the same order as comparing the encoded bytes, whereas the natural 
+	 * string order compares UTF-16 chars, and places supplementary characters before the chars from U+E000.
+	 */
+	public static final Comparator<String> UTF8_ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String s1, String s2) {
+			int i1 = 0;
+			int i2 = 0;
+			while(i1 < s1.length() && i2 < s2.length()) {
+				int c1 = s1.codePointAt(i1);
+				int c2 = s2.codePointAt(i2);
+				if(c1 != c2) {
+					return c1 < c2 ? -1 : 1;
+				}
+				i1 += Character.charCount(c1);
+				i2 += Character.charCount(c2);
+			}
+			return (s1.length() - i1) - (s2.length() - i2);
+		}
+	};
+
+	/** The maximum memory for the lines of a chunk in bytes.*/
+	protected final long maxMemory;
+	/** The maximum number of run files merged at once.*/
+	protected final int maxMergeFiles;
+	/** The directory for the temporary run files.*/
+	protected final File tempDir;
+
+	/**
+	 * Constructor.
+	 * @param maxMemory The maximum memory for the lines of a chunk in bytes.
+	 * @param maxMergeFiles The maximum number of run files merged at once. At least 2.
+	 * @param tempDir The directory for the temporary run files.
+	 */
+	public CDXFileSorter(long maxMemory, int maxMergeFiles, File tempDir) {
+		ArgumentCheck.checkIsTrue(maxMemory > 0, "long maxMemory must be positive");
+		ArgumentCheck.checkIsTrue(maxMergeFiles > 1, "int maxMergeFiles must be at least 2");
+		ArgumentCheck.checkNotNull(tempDir, "File tempDir");
+		this.maxMemory = maxMemory;
+		this.maxMergeFiles = maxMergeFiles;
+		this.tempDir = tempDir;
+	}
+
+	/**
+	 * Sorts the CDX lines of the input files into the output file.
+	 * @param inputFiles The input CDX files.
+	 * @param outputFile The output CDX file. It must not be one of the input files.
+	 * @return The number of unique CDX lines written to the output file.
+	 * @throws IOException If it fails to read or write the files.
+	 */
+	public long sort(Collection<File> inputFiles, File outputFile) throws IOException {
+		ArgumentCheck.checkNotNull(inputFiles, "Collection<File> inputFiles");
+		ArgumentCheck.checkIsTrue(!inputFiles.isEmpty(), "Collection<File> inputFiles must not be empty");
+		ArgumentCheck.checkNotNull(outputFile, "File outputFile");
+		Character[] outputFormat = null;
+		List<File> runs = new ArrayList<File>();
+		List<File> runFiles = new ArrayList<File>();
+		try {
+			List<String> chunk = new ArrayList<String>();
+			long chunkMemory = 0L;
+			for(File inputFile : inputFiles) {
+				ArgumentCheck.checkIsFile(inputFile, "File inputFile");
+				try (BufferedReader reader = openReader(inputFile)) {
+					String formatLine = reader.readLine();
+					Character[] format = new CDXFileReader().extractCDXFormat(formatLine == null ? "" : formatLine);
+					if(outputFormat == null) {
+						outputFormat = format;
+					}
+					boolean convert = !Arrays.equals(format, outputFormat);
+					String line;
+					while((line = reader.readLine()) != null) {
+						if(convert) {
+							line = convertLine(line, format, outputFormat);
+						}
+						line = stripTrailingWhitespace(line);
+						if(line == null || line.isEmpty()) {
+							continue;
+						}
+						chunk.add(line);
+						chunkMemory += line.length() * 2 + LINE_OVERHEAD;
+						if(chunkMemory >= maxMemory) {
+							File run = writeRun(chunk);
+							runs.add(run);
+							runFiles.add(run);
+							chunk.clear();
+							chunkMemory = 0L;
+						}
+					}
+				}
+			}
+			if(!chunk.isEmpty() || runs.isEmpty()) {
+				File run = writeRun(chunk);
+				runs.add(run);
+				runFiles.add(run);
+			}
+			chunk = null;
+			
+			while(runs.size() > maxMergeFiles) {
+				List<File> merged = new ArrayList<File>();
+				for(int i = 0; i < runs.size(); i += maxMergeFiles) {
+					List<File> group = runs.subList(i, Math.min(i + maxMergeFiles, runs.size()));
+					File run = createRunFile();
+					runFiles.add(run);
+					merged.add(run);
+					merge(group, run, null);
+					deleteFiles(group);
+				}
+				runs = merged;
+			}
+			long res = merge(runs, outputFile, outputFormat);
+			logger.info("Sorted " + inputFiles.size() + " CDX files into '" + outputFile.getAbsolutePath() 
+					+ "' with " + res + " unique lines.");
+			return res;
+		} finally {
+			deleteFiles(runFiles);
+		}
+	}
+
+	/**
+	 * Converts a CDX line from one format to another.
+	 * @param line The CDX line.
+	 * @param format The format of the CDX line.
+	 * @param outputFormat The format to convert to.
+	 * @return The converted CDX line, or null if the line could not be parsed.
+	 */
+	protected String convertLine(String line, Character[] format, Character[] outputFormat) {
+		CDXEntry entry = CDXEntry.createCDXEntry(line, format);
+		if(entry == null) {
+			return null;
+		}
+		return entry.extractCDXAsLine(Arrays.asList(outputFormat));
+	}
+
+	/**
+	 * Removes the trailing whitespace of a CDX line, e.g. the space after the last element written by 
+	 * the {@link CDXFileWriter}, so identical entries are also identical lines.
+	 * @param line The CDX line. May be null.
+	 * @return The CDX line without trailing whitespace, or null if the line was null.
+	 */
+	protected String stripTrailingWhitespace(String line) {
+		if(line == null) {
+			return null;
+		}
+		int end = line.length();
+		while(end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+			end--;
+		}
+		return line.substring(0, end);
+	}
+
+	/**
+	 * Sorts the chunk of lines, and writes the unique lines to a new run file.
+	 * @param chunk The chunk of lines.
+	 * @return The run file.
+	 * @throws IOException If it fails to write the run file.
+	 */
+	protected File writeRun(List<String> chunk) throws IOException {
+		Collections.sort(chunk, UTF8_ORDER);
+		File res = createRunFile();
+		try (Writer writer = openWriter(res)) {
+			String previous = null;
+			for(String line : chunk) {
+				if(!line.equals(previous)) {
+					writer.write(line);
+					writer.write('\n');
+					previous = line;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			deleteFiles(Arrays.asList(res));
+			throw e;
+		}
+		logger.debug("Wrote sorted run '" + res.getName() + "' with up to " + chunk.size() + " lines.");
+		return res;
+	}
+
+	/**
+	 * Merges sorted files into one sorted file without duplicate lines.
+	 * @param inputs The sorted files, without CDX format line.
+	 * @param output The output file.
+	 * @param outputFormat The CDX format to write as the first line of the output file. 
+	 * Null for no CDX format line.
+	 * @return The number of lines written, not counting the CDX format line.
+	 * @throws IOException If it fails to read or write the files.
+	 */
+	protected long merge(List<File> inputs, File output, Character[] outputFormat) throws IOException {
+		List<RunReader> readers = new ArrayList<RunReader>();
+		long res = 0L;
+		try (Writer writer = openWriter(output)) {
+			if(outputFormat != null) {
+				writer.write(new CDXFileWriter(output).createFirstLine(Arrays.asList(outputFormat)));
+			}
+			PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(inputs.size(), 1));
+			for(File input : inputs) {
+				RunReader reader = new RunReader(openReader(input));
+				readers.add(reader);
+				if(reader.next()) {
+					queue.add(reader);
+				}
+			}
+			String previous = null;
+			while(!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				if(!reader.line.equals(previous)) {
+					writer.write(reader.line);
+					writer.write('\n');
+					previous = reader.line;
+					res++;
+				}
+				if(reader.next()) {
+					queue.add(reader);
+				}
+			}
+		} finally {
+			for(RunReader reader : readers) {
+				reader.close();
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return A new temporary run file.
+	 * @throws IOException If the file cannot be created.
+	 */
+	protected File createRunFile() throws IOException {
+		return File.createTempFile("cdx-sort-", ".run", tempDir);
+	}
+
+	/**
+	 * Opens a file for reading as UTF-8, and decompresses it if it has the suffix '.gz'.
+	 * @param file The file.
+	 * @return The reader.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	protected BufferedReader openReader(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			if(file.getName().endsWith(".gz")) {
+				in = new GZIPInputStream(in, BUFFER_SIZE);
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return new BufferedReader(new InputStreamReader(in, UTF8), BUFFER_SIZE);
+	}
+
+	/**
+	 * Opens a file for writing as UTF-8.
+	 * @param file The file.
+	 * @return The writer.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	protected Writer openWriter(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8), BUFFER_SIZE);
+	}
+
+	/**
+	 * Deletes the temporary files.
+	 * @param files The files.
+	 */
+	protected void deleteFiles(Collection<File> files) {
+		for(File file : files) {
+			if(file.exists() && !file.delete()) {
+				logger.warn("Could not delete the temporary file '" + file.getAbsolutePath() + "'.");
+			}
+		}
+	}
+
+	/**
+	 * Reader of a sorted file, which holds its current line for the merge.
+	 */
+	protected static class RunReader implements Comparable<RunReader>, Closeable {
+		/** The reader of the file.*/
+		final BufferedReader reader;
+		/** The current line.*/
+		String line;
+
+		/**
+		 * Constructor.
+		 * @param reader The reader of the file.
+		 */
+		RunReader(BufferedReader reader) {
+			this.reader = reader;
+		}
+
+		/**
+		 * Reads the next line.
+		 * @return Whether there was a next line.
+		 * @throws IOException If it fails to read the file.
+		 */
+		boolean next() throws IOException {
+			line = reader.readLine();
+			return line != null;
+		}
+
+		@Override
+		public int compareTo(RunReader other) {
+			return UTF8_ORDER.compare(line, other.line);
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
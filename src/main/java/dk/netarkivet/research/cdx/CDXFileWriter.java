@@ -1,10 +1,18 @@
 package dk.netarkivet.research.cdx;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.Collection;
+import java.util.zip.GZIPOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,21 +21,55 @@ import dk.netarkivet.research.exception.ArgumentCheck;
 
 /**
  * Class for writing CDX entries to a file.
+ * 
+ * The entries can either be written all at once by {@link #writeCDXEntries(Collection, Collection)}, 
+ * or streamed to the file as they arrive by {@link #open(Collection)}, {@link #append(CDXEntry)} and 
+ * {@link #close()}.
+ * The lines are encoded as UTF-8 into a large reused buffer, which is written to the file when it is full.
+ * The output can also be gzip compressed.
  */
-public class CDXFileWriter {
+public class CDXFileWriter implements Closeable {
     /** Logging mechanism. */
     private static Logger logger = LoggerFactory.getLogger(CDXFileWriter.class);
 
+    /** The charset of the CDX file.*/
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+    /** The size of the output buffer.*/
+    protected static final int BUFFER_SIZE = 256 * 1024;
+
     /** The file where the output should be written.*/
     protected final File outputFile;
+    /** Whether the output should be gzip compressed.*/
+    protected final boolean compress;
+    
+    /** The stream to the output file, when the writer is open.*/
+    protected OutputStream outputStream;
+    /** The CDX format of the lines, when the writer is open.*/
+    protected Collection<Character> cdxFormat;
+    /** The buffer for the encoded lines.*/
+    protected ByteBuffer buffer;
+    /** The encoder of the lines.*/
+    protected CharsetEncoder encoder;
+    /** The number of CDX entries written since the writer was opened.*/
+    protected long entriesWritten;
     
 	/**
 	 * Constructor.
 	 * @param outputFile The file to write the CDX entries to.
 	 */
 	public CDXFileWriter(File outputFile) {
+		this(outputFile, false);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param outputFile The file to write the CDX entries to.
+	 * @param compress Whether the output should be gzip compressed.
+	 */
+	public CDXFileWriter(File outputFile, boolean compress) {
 		ArgumentCheck.checkNotNull(outputFile, "File outputFile");
 		this.outputFile = outputFile;
+		this.compress = compress;
 	}
 	
 	/**
@@ -37,13 +79,14 @@ public class CDXFileWriter {
 	 */
 	public void writeCDXEntries(Collection<CDXEntry> entries, Collection<Character> cdxFormat) {
 		logger.debug("Writing CDX indices to file '" + outputFile.getName() + "'.");
-		try(FileOutputStream fos = new FileOutputStream(outputFile)) {
-			String firstLine = createFirstLine(cdxFormat);
-			fos.write(firstLine.getBytes(Charset.defaultCharset()));
-			
-			for(CDXEntry entry : entries) {
-				String line = entry.extractCDXAsLine(cdxFormat);
-				fos.write(line.getBytes(Charset.defaultCharset()));
+		try {
+			open(cdxFormat);
+			try {
+				for(CDXEntry entry : entries) {
+					append(entry);
+				}
+			} finally {
+				close();
 			}
 		} catch(IOException e) {
 			String errMsg = "Issue writing the CDX indices to file '" + outputFile.getAbsolutePath() + "'";
@@ -52,6 +95,106 @@ public class CDXFileWriter {
 		}
 	}
 	
+	/**
+	 * Opens the output file, and writes the first line with the CDX format.
+	 * Any existing file is overwritten.
+	 * @param cdxFormat The CDX format of the entries.
+	 * @throws IOException If it fails to open or write to the file.
+	 */
+	public void open(Collection<Character> cdxFormat) throws IOException {
+		ArgumentCheck.checkNotNull(cdxFormat, "Collection<Character> cdxFormat");
+		if(isOpen()) {
+			throw new IllegalStateException("The CDX file '" + outputFile.getAbsolutePath() + "' is already open.");
+		}
+		OutputStream out = new FileOutputStream(outputFile);
+		if(compress) {
+			out = new GZIPOutputStream(out, BUFFER_SIZE);
+		}
+		this.outputStream = out;
+		this.cdxFormat = cdxFormat;
+		this.entriesWritten = 0L;
+		if(buffer == null) {
+			buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			encoder = UTF8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		write(createFirstLine(cdxFormat));
+	}
+	
+	/**
+	 * Appends a CDX entry to the output file.
+	 * @param entry The CDX entry.
+	 * @throws IOException If it fails to write to the file.
+	 */
+	public void append(CDXEntry entry) throws IOException {
+		if(!isOpen()) {
+			throw new IllegalStateException("The CDX file '" + outputFile.getAbsolutePath() + "' is not open.");
+		}
+		write(entry.extractCDXAsLine(cdxFormat));
+		entriesWritten++;
+	}
+	
+	/**
+	 * Encodes the text into the buffer, and writes the buffer to the file whenever it is full.
+	 * @param text The text to write.
+	 * @throws IOException If it fails to write to the file.
+	 */
+	protected void write(String text) throws IOException {
+		CharBuffer chars = CharBuffer.wrap(text);
+		encoder.reset();
+		CoderResult result = encoder.encode(chars, buffer, true);
+		while(result.isOverflow()) {
+			flushBuffer();
+			result = encoder.encode(chars, buffer, true);
+		}
+		while(encoder.flush(buffer).isOverflow()) {
+			flushBuffer();
+		}
+	}
+	
+	/**
+	 * Writes the content of the buffer to the file, and empties the buffer.
+	 * @throws IOException If it fails to write to the file.
+	 */
+	protected void flushBuffer() throws IOException {
+		outputStream.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+	}
+	
+	/**
+	 * @return Whether the writer is open.
+	 */
+	public boolean isOpen() {
+		return outputStream != null;
+	}
+	
+	/**
+	 * @return The number of CDX entries written since the writer was opened.
+	 */
+	public long getEntriesWritten() {
+		return entriesWritten;
+	}
+	
+	/**
+	 * Writes the remaining buffered lines, and closes the output file.
+	 * Does nothing, if the writer is not open.
+	 * @throws IOException If it fails to write to or close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(!isOpen()) {
+			return;
+		}
+		try {
+			flushBuffer();
+		} finally {
+			outputStream.close();
+			outputStream = null;
+			buffer.clear();
+		}
+		logger.debug("Wrote " + entriesWritten + " CDX entries to file '" + outputFile.getName() + "'.");
+	}
+	
 	/**
 	 * Creates the first line of the CDX file, which describe the CDX format.
 	 * @param cdxFormat The format in the order of characters.
@@ -0,0 +1,116 @@
+package dk.netarkivet.research.cdx;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * The range of CDX lines in a sorted CDX index, which match a URL for a given {@link MatchType}.
+ * The CDX lines must begin with the URL key in the form of the given {@link CDXKeyType}.
+ *
+ * Exact, prefix and host matches are contiguous ranges of the index, which begin at the start key.
+ * Domain matches are not contiguous for stripped and canonical keys (the sub-domains are sorted by their own
+ * names), so they cover the whole index, and only the lines with a host within the domain are matched.
+ * For SURT keys the domain matches are contiguous, since the host is reversed: the domain 'example.com' is the
+ * lines beginning with 'com,example' followed by ')' for the domain itself, ',' for its sub-domains
+ * or ':' for a port.
+ */
+public class CDXKeyRange {
+	/** The end of the host in a SURT key.*/
+	protected static final char SURT_HOST_END = ')';
+	/** The characters, which can follow the host of a domain in a SURT key: the end, a sub-domain or a port.*/
+	protected static final String SURT_DOMAIN_BOUNDARIES = "),:";
+
+	/**
+	 * Creates the range of the CDX lines matching the URL.
+	 * @param url The URL.
+	 * @param matchType The type of match.
+	 * @param keyType The type of the URL keys of the index.
+	 * @return The range.
+	 */
+	public static CDXKeyRange createRange(String url, MatchType matchType, CDXKeyType keyType) {
+		ArgumentCheck.checkNotNull(url, "String url");
+		ArgumentCheck.checkNotNull(matchType, "MatchType matchType");
+		ArgumentCheck.checkNotNull(keyType, "CDXKeyType keyType");
+		String key = keyType.createKey(url);
+		boolean surt = keyType == CDXKeyType.SURT;
+		switch(matchType) {
+		case EXACT:
+			return new CDXKeyRange(key + " ", null, null);
+		case PREFIX:
+			return new CDXKeyRange(key, null, null);
+		case HOST:
+			return new CDXKeyRange(getHost(key) + (surt ? SURT_HOST_END : "/"), null, null);
+		default:
+			if(surt) {
+				return new CDXKeyRange(getHost(key), null, SURT_DOMAIN_BOUNDARIES);
+			}
+			return new CDXKeyRange("", getHost(key), null);
+		}
+	}
+
+	/**
+	 * @param key The URL key.
+	 * @return The host of the key, without the port (and without the ')' of a SURT key).
+	 */
+	protected static String getHost(String key) {
+		int end = 0;
+		while(end < key.length() && key.charAt(end) != '/' && key.charAt(end) != ':' 
+				&& key.charAt(end) != SURT_HOST_END) {
+			end++;
+		}
+		return key.substring(0, end);
+	}
+
+	/** The prefix of all the matching lines, and the first key of the range.*/
+	protected final String startKey;
+	/** The domain the host of the lines must be within, or null if the range is not a domain range.*/
+	protected final String domain;
+	/** The characters, of which one must follow the start key in the matching lines, or null for any.*/
+	protected final String boundaries;
+
+	/**
+	 * Constructor.
+	 * @param startKey The prefix of all the matching lines, and the first key of the range.
+	 * @param domain The domain the host of the lines must be within. Null if not a domain range.
+	 * @param boundaries The characters, of which one must follow the start key. Null for any.
+	 */
+	protected CDXKeyRange(String startKey, String domain, String boundaries) {
+		this.startKey = startKey;
+		this.domain = domain;
+		this.boundaries = boundaries;
+	}
+
+	/**
+	 * @return The first key of the range. The binary search should start from the first line not less than it.
+	 */
+	public String getStartKey() {
+		return startKey;
+	}
+
+	/**
+	 * @param line The CDX line.
+	 * @return Whether the CDX line is within the range.
+	 */
+	public boolean matches(String line) {
+		if(!line.startsWith(startKey)) {
+			return false;
+		}
+		if(boundaries != null) {
+			return line.length() > startKey.length() && boundaries.indexOf(line.charAt(startKey.length())) >= 0;
+		}
+		if(domain == null) {
+			return true;
+		}
+		String host = getHost(line);
+		return host.equals(domain) || (host.endsWith(domain) 
+				&& host.charAt(host.length() - domain.length() - 1) == '.');
+	}
+
+	/**
+	 * @param line A CDX line.
+	 * @return Whether the CDX line, and thus all the following lines of a sorted index, are after the range
+	 * in the UTF-8 byte order of the indices.
+	 */
+	public boolean isAfter(String line) {
+		return !line.startsWith(startKey) && CDXFileSorter.UTF8_ORDER.compare(line, startKey) > 0;
+	}
+}
@@ -0,0 +1,57 @@
+package dk.netarkivet.research.cdx;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.utils.SurtCanonicalizer;
+import dk.netarkivet.research.utils.UrlUtils;
+
+/**
+ * The forms of the URL keys in a CDX index, which the URLs must be transformed into before looking them up.
+ * The keys of an index are created when the index is built, so the lookups must use the same form.
+ */
+public enum CDXKeyType {
+	/**
+	 * The URL without protocol and 'www', and in lower case, see {@link UrlUtils#stripProtocolAndWWWAndLowerCase}.
+	 * The keys of the DAB CDX server and of the CDX indices from NetarchiveSuite.
+	 */
+	STRIPPED,
+	/** The canonical form of the URL, see {@link SurtCanonicalizer#canonicalize(String)}.*/
+	CANONICAL,
+	/** The SURT form of the URL, see {@link SurtCanonicalizer#toSurt(String)}.*/
+	SURT;
+
+	/**
+	 * Transforms the URL into a key of this form.
+	 * @param url The URL.
+	 * @return The key.
+	 */
+	public String createKey(String url) {
+		switch(this) {
+		case CANONICAL:
+			return SurtCanonicalizer.getSharedInstance().canonicalize(url);
+		case SURT:
+			return SurtCanonicalizer.getSharedInstance().toSurt(url);
+		default:
+			return UrlUtils.stripProtocolAndWWWAndLowerCase(url);
+		}
+	}
+
+	/**
+	 * Retrieves the key type from a system property.
+	 * @param property The name of the system property.
+	 * @param defaultType The key type, when the system property is not set.
+	 * @return The key type.
+	 */
+	public static CDXKeyType getFromProperty(String property, CDXKeyType defaultType) {
+		String value = System.getProperty(property);
+		if(value == null || value.trim().isEmpty()) {
+			return defaultType;
+		}
+		for(CDXKeyType type : values()) {
+			if(type.name().equalsIgnoreCase(value.trim())) {
+				return type;
+			}
+		}
+		throw new ArgumentCheck("The system property '" + property + "' has the unknown CDX key type '" + value
+				+ "'. Must be one of: STRIPPED, CANONICAL, SURT");
+	}
+}
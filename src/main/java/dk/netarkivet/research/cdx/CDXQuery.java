@@ -0,0 +1,229 @@
+package dk.netarkivet.research.cdx;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.utils.DateUtils;
+
+/**
+ * Query for CDX entries, with the restrictions which a CDX server can apply before sending the entries.
+ *
+ * The restrictions are a date interval, the status code, the mimetype, collapsing adjacent entries with the
+ * same digest, a limit on the number of entries, and the CDX elements needed from each entry.
+ * Extractors which cannot push the restrictions down to their CDX index apply them on the retrieved entries,
+ * see {@link #matches(CDXEntry)}.
+ *
+ * The setters return the query itself, so they can be chained.
+ */
+public class CDXQuery {
+	/**
+	 * Creates a query for the URL in the date interval of a URL interval.
+	 * @param urlInterval The URL interval.
+	 * @return The query.
+	 */
+	public static CDXQuery createFromInterval(UrlInterval urlInterval) {
+		ArgumentCheck.checkNotNull(urlInterval, "UrlInterval urlInterval");
+		return new CDXQuery(urlInterval.getUrl())
+				.setFrom(urlInterval.getEarliestDate())
+				.setTo(urlInterval.getLatestDate());
+	}
+
+	/** The URL.*/
+	protected final String url;
+	/** The type of match for the URL.*/
+	protected MatchType matchType = MatchType.EXACT;
+	/** The earliest date in millis from epoch, or null for no lower limit.*/
+	protected Long from = null;
+	/** The latest date in millis from epoch, or null for no upper limit.*/
+	protected Long to = null;
+	/** The required status code, or null for any status code.*/
+	protected Integer statusCode = null;
+	/** The required mimetype, or null for any mimetype.*/
+	protected String mimeType = null;
+	/** Whether adjacent entries with the same digest are collapsed into the first of them.*/
+	protected boolean collapseOnDigest = false;
+	/** The maximum number of entries, or 0 for no limit.*/
+	protected int limit = 0;
+	/** The CDX elements needed from the entries, or null for all the elements.*/
+	protected List<Character> fields = null;
+
+	/**
+	 * Constructor.
+	 * @param url The URL.
+	 */
+	public CDXQuery(String url) {
+		ArgumentCheck.checkNotNullOrEmpty(url, "String url");
+		this.url = url;
+	}
+
+	/**
+	 * @param matchType The type of match for the URL.
+	 * @return This query.
+	 */
+	public CDXQuery setMatchType(MatchType matchType) {
+		ArgumentCheck.checkNotNull(matchType, "MatchType matchType");
+		this.matchType = matchType;
+		return this;
+	}
+
+	/**
+	 * @param from The earliest date. Null for no lower limit.
+	 * @return This query.
+	 */
+	public CDXQuery setFrom(Date from) {
+		this.from = from == null ? null : from.getTime();
+		return this;
+	}
+
+	/**
+	 * @param to The latest date. Null for no upper limit.
+	 * @return This query.
+	 */
+	public CDXQuery setTo(Date to) {
+		this.to = to == null ? null : to.getTime();
+		return this;
+	}
+
+	/**
+	 * @param statusCode The required status code. Null for any status code.
+	 * @return This query.
+	 */
+	public CDXQuery setStatusCode(Integer statusCode) {
+		this.statusCode = statusCode;
+		return this;
+	}
+
+	/**
+	 * @param mimeType The required mimetype. Null for any mimetype.
+	 * @return This query.
+	 */
+	public CDXQuery setMimeType(String mimeType) {
+		this.mimeType = mimeType;
+		return this;
+	}
+
+	/**
+	 * @param collapseOnDigest Whether adjacent entries with the same digest are collapsed into the first of them.
+	 * @return This query.
+	 */
+	public CDXQuery setCollapseOnDigest(boolean collapseOnDigest) {
+		this.collapseOnDigest = collapseOnDigest;
+		return this;
+	}
+
+	/**
+	 * @param limit The maximum number of entries. 0 for no limit.
+	 * @return This query.
+	 */
+	public CDXQuery setLimit(int limit) {
+		ArgumentCheck.checkIsTrue(limit >= 0, "int limit must not be negative");
+		this.limit = limit;
+		return this;
+	}
+
+	/**
+	 * @param fields The CDX elements needed from the entries. Null for all the elements.
+	 * @return This query.
+	 */
+	public CDXQuery setFields(Collection<Character> fields) {
+		this.fields = fields == null ? null : Collections.unmodifiableList(new ArrayList<Character>(fields));
+		return this;
+	}
+
+	/** @return The URL.*/
+	public String getUrl() {
+		return url;
+	}
+	/** @return The type of match for the URL.*/
+	public MatchType getMatchType() {
+		return matchType;
+	}
+	/** @return The earliest date, or null for no lower limit.*/
+	public Date getFrom() {
+		return from == null ? null : new Date(from);
+	}
+	/** @return The latest date, or null for no upper limit.*/
+	public Date getTo() {
+		return to == null ? null : new Date(to);
+	}
+	/** @return The required status code, or null for any status code.*/
+	public Integer getStatusCode() {
+		return statusCode;
+	}
+	/** @return The required mimetype, or null for any mimetype.*/
+	public String getMimeType() {
+		return mimeType;
+	}
+	/** @return Whether adjacent entries with the same digest are collapsed into the first of them.*/
+	public boolean isCollapseOnDigest() {
+		return collapseOnDigest;
+	}
+	/** @return The maximum number of entries, or 0 for no limit.*/
+	public int getLimit() {
+		return limit;
+	}
+	/** @return The CDX elements needed from the entries, or null for all the elements.*/
+	public List<Character> getFields() {
+		return fields;
+	}
+
+	/**
+	 * Checks whether an entry is within the date interval, and has the required status code and mimetype.
+	 * The collapsing and the limit depend on the other entries, and are applied by {@link #apply(Iterable)}.
+	 * @param entry The CDX entry.
+	 * @return Whether the entry matches the restrictions of the query.
+	 */
+	public boolean matches(CDXEntry entry) {
+		if(from != null && entry.getDateAsLong() < from) {
+			return false;
+		}
+		if(to != null && entry.getDateAsLong() > to) {
+			return false;
+		}
+		if(statusCode != null && !statusCode.equals(entry.getStatusCode())) {
+			return false;
+		}
+		if(mimeType != null && !mimeType.equals(entry.getContentType())) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Applies all the restrictions of the query on the entries, except the needed fields.
+	 * @param entries The CDX entries, in the order of the index.
+	 * @return The entries which match the query.
+	 */
+	public List<CDXEntry> apply(Iterable<CDXEntry> entries) {
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		String previousDigest = null;
+		for(CDXEntry entry : entries) {
+			if(limit > 0 && res.size() >= limit) {
+				break;
+			}
+			if(!matches(entry)) {
+				continue;
+			}
+			if(collapseOnDigest && entry.getDigest() != null && entry.getDigest().equals(previousDigest)) {
+				continue;
+			}
+			previousDigest = entry.getDigest();
+			res.add(entry);
+		}
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return "CDXQuery [url=" + url + ", matchType=" + matchType
+				+ ", from=" + (from == null ? "-" : DateUtils.millisToWaybackDate(from))
+				+ ", to=" + (to == null ? "-" : DateUtils.millisToWaybackDate(to))
+				+ ", statusCode=" + statusCode + ", mimeType=" + mimeType + ", collapseOnDigest=" + collapseOnDigest
+				+ ", limit=" + limit + ", fields=" + fields + "]";
+	}
+}
@@ -0,0 +1,109 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.http.ResponseStreamHandler;
+
+/**
+ * Handler for parsing the CDX lines of a response from a CDX server, while the response is being downloaded.
+ *
+ * The lines are read and parsed into CDX entries one at a time, so the response is never held in memory as a
+ * whole. Each entry is delivered to {@link #handleEntry(CDXEntry)}, which by default collects the entries in
+ * the resulting list. Override it to process the entries before the download has finished.
+ *
+ * Lines with more elements than the format are cut off after the elements of the format, and lines which
+ * cannot be parsed into a CDX entry are skipped.
+ */
+public class CDXResponseHandler implements ResponseStreamHandler<List<CDXEntry>> {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(CDXResponseHandler.class);
+
+	/** The charset of the response, when it is not given by the content type.*/
+	protected static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+	/** The CDX elements of the lines in the response.*/
+	protected final Character[] format;
+	/** The CDX entries collected from the current response.*/
+	protected List<CDXEntry> entries = new ArrayList<CDXEntry>();
+
+	/**
+	 * Constructor.
+	 * @param format The CDX elements of the lines in the response.
+	 */
+	public CDXResponseHandler(Character[] format) {
+		ArgumentCheck.checkNotNull(format, "Character[] format");
+		this.format = format;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @return The collected CDX entries. A new list for each response, so it is not changed by later responses.
+	 */
+	@Override
+	public List<CDXEntry> handle(InputStream in, HttpEntity entity) throws IOException {
+		entries = new ArrayList<CDXEntry>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, getCharset(entity)));
+		String line;
+		while((line = reader.readLine()) != null) {
+			CDXEntry entry = CDXEntry.createCDXEntry(cutExtraElements(line), format);
+			if(entry != null) {
+				handleEntry(entry);
+			} else {
+				logger.debug("Skipping CDX line: " + line);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Handles a CDX entry from the response, as soon as it has been parsed.
+	 * Collects the entry in the list returned by {@link #handle(InputStream, HttpEntity)}.
+	 * If the request is retried, then the entries are delivered again from the start of the new response.
+	 * @param entry The CDX entry.
+	 */
+	protected void handleEntry(CDXEntry entry) {
+		entries.add(entry);
+	}
+
+	/**
+	 * Cuts off the elements after the elements of the format, if the line has more elements than the format.
+	 * @param line The CDX line.
+	 * @return The CDX line with at most the number of elements of the format.
+	 */
+	protected String cutExtraElements(String line) {
+		int index = -1;
+		for(int i = 0; i < format.length; i++) {
+			index = line.indexOf(' ', index + 1);
+			if(index < 0) {
+				return line;
+			}
+		}
+		return line.substring(0, index);
+	}
+
+	/**
+	 * @param entity The entity of the response. May be null.
+	 * @return The charset of the response.
+	 */
+	protected Charset getCharset(HttpEntity entity) {
+		if(entity != null) {
+			ContentType contentType = ContentType.get(entity);
+			if(contentType != null && contentType.getCharset() != null) {
+				return contentType.getCharset();
+			}
+		}
+		return DEFAULT_CHARSET;
+	}
+}
@@ -1,18 +1,19 @@
 package dk.netarkivet.research.cdx;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.cdx.cache.CDXCache;
+import dk.netarkivet.research.cdx.cache.CDXCacheFactory;
+import dk.netarkivet.research.cdx.cache.SingleFlight;
+import dk.netarkivet.research.exception.ArgumentCheck;
 import dk.netarkivet.research.http.HttpRetriever;
-import dk.netarkivet.research.utils.UrlUtils;
 import dk.netarkivet.research.wid.WPID;
 
 /**
@@ -22,6 +23,10 @@ import dk.netarkivet.research.wid.WPID;
  * 
  * Example of extraction url:
  * http://localhost:8080/dab/query/?q=netarkivet.dk/%20
+ * 
+ * The URLs are looked up without protocol and 'www', and in lower case, like the keys of the DAB CDX server.
+ * For CDX servers with keys in canonical or SURT form, the key type can be set with the system property
+ * {@link #PROPERTY_KEY_TYPE}, see {@link CDXKeyType}.
  */
 public class DabCDXExtractor extends AbstractCDXExtractor {
 	/** The log.*/
@@ -29,10 +34,12 @@ public class DabCDXExtractor extends AbstractCDXExtractor {
 
 	/** The prefix for the URL argument in the HTTP request.*/
 	protected static final String QUERY_PREFIX = "?q=";
-	/** The slash, which must be in the URL, or it must be appended.*/
-	protected static final String QUERY_SLASH = "/";
 	/** The suffix for the URL argument (a space) in the HTTP request.*/
 	protected static final String QUERY_SUFFIX = "%20";
+	/** The slash, which must be in the URL, or it must be appended.*/
+	protected static final String QUERY_SLASH = "/";
+	/** The system property for the type of the keys of the CDX server (STRIPPED, CANONICAL or SURT).*/
+	public static final String PROPERTY_KEY_TYPE = "dk.netarkivet.research.cdx.dab.keyType";
 
 	/**
 	 * The CDX format chars.
@@ -63,17 +70,43 @@ public class DabCDXExtractor extends AbstractCDXExtractor {
 	/** The http retriever for handling the HTTP requests to the CDX server.*/
 	protected final HttpRetriever httpRetriever;
 	
-	/** Map to keep track of the already extracted CDX entries, so we don't have to extract them several times.*/
-	protected final Map<String, List<CDXEntry>> cdxExtractMap = new HashMap<String, List<CDXEntry>>();
+	/** Cache of the already extracted CDX entries, so we don't have to extract them several times.
+	 * The entries are cached by their request URL, which contains the normalized URL and the CDX server.*/
+	protected final CDXCache cdxCache;
+	/** The type of the keys of the CDX server.*/
+	protected final CDXKeyType keyType;
+	/** Merges the concurrent requests to the CDX server for the same URL.*/
+	protected final SingleFlight<List<CDXEntry>> singleFlight = new SingleFlight<List<CDXEntry>>();
 
 	/**
 	 * Constructor.
+	 * Uses the cache configured by the system properties, see {@link CDXCacheFactory}.
 	 * @param cdxServerUrl The URL for the CDX server (complete url to query for the right collection).
 	 * @param httpRetriever The http retriever for retrieving from the CDX server.
 	 */
 	public DabCDXExtractor(String cdxServerUrl, HttpRetriever httpRetriever) {
+		this(cdxServerUrl, httpRetriever, CDXCacheFactory.createCache());
+	}
+
+	/**
+	 * Constructor.
+	 * @param cdxServerUrl The URL for the CDX server (complete url to query for the right collection).
+	 * @param httpRetriever The http retriever for retrieving from the CDX server.
+	 * @param cdxCache The cache for the extracted CDX entries.
+	 */
+	public DabCDXExtractor(String cdxServerUrl, HttpRetriever httpRetriever, CDXCache cdxCache) {
+		ArgumentCheck.checkNotNull(cdxCache, "CDXCache cdxCache");
 		this.cdxUrl = cdxServerUrl;
 		this.httpRetriever = httpRetriever;
+		this.cdxCache = cdxCache;
+		this.keyType = CDXKeyType.getFromProperty(PROPERTY_KEY_TYPE, CDXKeyType.STRIPPED);
+	}
+
+	/**
+	 * @return The cache for the extracted CDX entries.
+	 */
+	public CDXCache getCache() {
+		return cdxCache;
 	}
 
 	@Override
@@ -83,68 +116,105 @@ public class DabCDXExtractor extends AbstractCDXExtractor {
 	}
 
 	@Override
-	public Collection<CDXEntry> retrieveAllCDX(String url) {
-		List<CDXEntry> res = cdxExtractMap.get(url);
+	public Collection<CDXEntry> retrieveAllCDX(final String url) {
+		final String requestUrlString = createRequestUrlForURL(url);
+		List<CDXEntry> res = cdxCache.get(requestUrlString);
 
 		if(res != null) {
 			logger.debug("Using already extracted CDX entries for the URL '" + url + "'.");
-		} else {
-			
-			logger.debug("Extracting CDX entries for URL '" + url + "'.");
-			String requestUrlString = createRequestUrlForURL(url);
-			String response = httpRetriever.retrieveFromUrl(requestUrlString);
-			if(response == null || response.isEmpty()) {
-				logger.warn("Failed to retrieve CDX indices for the URL '" + url + "'. Returning a null");
-				res = Arrays.asList();
-			} else {
-				res = new ArrayList<CDXEntry>();
-				for(String line : response.split("\n")) {
-					CDXEntry entry = CDXEntry.createCDXEntry(createCdxMap(line));
-					if(entry != null) {
-						res.add(entry);
-					}
-				}
+			return res;
+		}
+		return singleFlight.execute(requestUrlString, new Callable<List<CDXEntry>>() {
+			@Override
+			public List<CDXEntry> call() {
+				return extractFromServer(url, requestUrlString);
 			}
-			cdxExtractMap.put(url, res);
+		});
+	}
+	
+	/**
+	 * Extracts the CDX entries for the URL from the CDX server, and puts them into the cache.
+	 * The entries are cached as a {@link CDXCaptureList}, sorted by date, for fast lookups of the closest date.
+	 * If the CDX server does not know the URL, then the empty list is cached.
+	 * If the extraction fails, then nothing is cached, so the URL is extracted again on the next request.
+	 * @param url The URL.
+	 * @param requestUrlString The request URL for the CDX server.
+	 * @return The CDX entries for the URL, or an empty list if the extraction failed.
+	 */
+	protected List<CDXEntry> extractFromServer(String url, String requestUrlString) {
+		logger.debug("Extracting CDX entries for URL '" + url + "'.");
+		List<CDXEntry> response;
+		try {
+			response = httpRetriever.retrieveFromUrlOrFail(requestUrlString, 
+					new CDXResponseHandler(CDX_FORMAT_CHARS.toArray(new Character[CDX_FORMAT_CHARS.size()])));
+		} catch (IllegalStateException e) {
+			logger.warn("Failed to retrieve CDX indices for the URL '" + url + "'. Returning an empty list", e);
+			return Collections.emptyList();
+		}
+		List<CDXEntry> res;
+		if(response == null) {
+			logger.debug("No CDX indices for the URL '" + url + "'.");
+			res = Collections.emptyList();
+		} else {
+			res = new CDXCaptureList(response);
 		}
-		
+		cdxCache.put(requestUrlString, res);
 		return res;
 	}
+	
+	/**
+	 * @return The merging of concurrent requests to the CDX server for the same URL, with its metrics.
+	 */
+	public SingleFlight<List<CDXEntry>> getSingleFlight() {
+		return singleFlight;
+	}
 
 	/**
 	 * Creates the request URL for retrieving the CDX entry for a given. 
 	 * @param url The URL for the web-resource.
-	 * @param date The date when the web-resource was harvested.
 	 * @return The request URL for retrieving the CDX from the CDX server.
 	 */
 	protected String createRequestUrlForURL(String url) {
-		String urlWithoutProtocol = UrlUtils.stripProtocolAndWWWAndLowerCase(url);
+		String key = createLookupKey(url);
 		StringBuilder res = new StringBuilder();
 		res.append(cdxUrl);
 		if(!cdxUrl.endsWith(QUERY_PREFIX)) {
 			res.append(QUERY_PREFIX);
 		}
-		res.append(urlWithoutProtocol);
-		if(!url.contains(QUERY_SLASH)) {
-			res.append(QUERY_SLASH);
+		for(int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			switch(c) {
+			case '?':
+				res.append("%3F");
+				break;
+			case '&':
+				res.append("%26");
+				break;
+			case '+':
+				res.append("%2B");
+				break;
+			case ' ':
+				res.append("%20");
+				break;
+			default:
+				res.append(c);
+			}
 		}
-		if(!url.endsWith(QUERY_SUFFIX)){
+		if(!key.endsWith(QUERY_SUFFIX)) {
 			res.append(QUERY_SUFFIX);
 		}
 		return res.toString();
 	}
 
 	/**
-	 * Creates the CDX map between CDX format element and the string retrieved from the CDX server.
-	 * @param cdxLine The cdx line from the server.
-	 * @return The map between cdx format element and the value.
+	 * Creates the key for looking up the URL in the CDX server.
+	 * @param url The URL for the web-resource.
+	 * @return The URL in the form of the keys of the CDX server.
 	 */
-	protected Map<Character, String> createCdxMap(String cdxLine) {
-		Map<Character, String> res = new HashMap<Character, String>();
-		String[] cdxLineSplit = cdxLine.split(" ");
-
-		for(int i = 0; i < CDX_FORMAT_CHARS.size(); i++) {
-			res.put(CDX_FORMAT_CHARS.get(i), cdxLineSplit[i]);
+	protected String createLookupKey(String url) {
+		String res = keyType.createKey(url);
+		if(keyType == CDXKeyType.STRIPPED && !url.contains(QUERY_SLASH)) {
+			res += QUERY_SLASH;
 		}
 		return res;
 	}
@@ -0,0 +1,468 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.utils.LatencyHistogram;
+import dk.netarkivet.research.wid.WPID;
+
+/**
+ * CDX extractor, which looks up the CDX entries in several CDX extractors (backends) in parallel,
+ * e.g. the DAB CDX server and a PYWB CDX server, and merges their results.
+ *
+ * The same capture found in several backends is only delivered once, from the first of the backends.
+ * Captures are considered the same, when they have the same URL key, date and digest
+ * (or filename and offset, if they have no digest).
+ * The merged entries are sorted by date, see {@link CDXCaptureList}.
+ *
+ * The latency of each backend is recorded in a {@link LatencyHistogram}. When one backend has answered,
+ * the others are only waited for their latency percentile {@link #PROPERTY_HEDGE_PERCENTILE} more,
+ * and are then abandoned for this lookup, so a single slow backend does not set the pace of a whole run.
+ * An abandoned lookup is cancelled if it has not started yet, and the result is logged as partial. 
+ * A running lookup is not interrupted, since an interrupt closes the file channels shared by e.g. the disk caches
+ * of the backends. Its result is just dropped.
+ * Until a backend has {@link #PROPERTY_MIN_SAMPLES} latencies recorded, or when no backend has answered yet, 
+ * the backends are waited for until {@link #PROPERTY_TIMEOUT}.
+ * A backend which fails is logged and does not contribute to the result.
+ *
+ * Each backend has its own bounded pool of {@link #PROPERTY_MAX_THREADS} threads, so a persistently slow backend 
+ * cannot hold more threads than that, nor delay the lookups in the other backends.
+ *
+ * Range lookups are not fanned out, but go through the backends one after the other, without merging.
+ */
+public class FederatedCDXExtractor extends AbstractCDXExtractor implements Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(FederatedCDXExtractor.class);
+
+	/** The system property for the latency percentile of a backend, after which it is abandoned.*/
+	public static final String PROPERTY_HEDGE_PERCENTILE = "dk.netarkivet.research.cdx.federated.hedgePercentile";
+	/** The system property for the number of latencies of a backend needed, before it can be abandoned.*/
+	public static final String PROPERTY_MIN_SAMPLES = "dk.netarkivet.research.cdx.federated.minSamples";
+	/** The system property for the maximum time in milliseconds to wait for the backends.*/
+	public static final String PROPERTY_TIMEOUT = "dk.netarkivet.research.cdx.federated.timeout";
+	/** The system property for the maximum number of threads for the lookups in each backend.*/
+	public static final String PROPERTY_MAX_THREADS = "dk.netarkivet.research.cdx.federated.maxThreads";
+
+	/** The default latency percentile of a backend, after which it is abandoned.*/
+	public static final double DEFAULT_HEDGE_PERCENTILE = 95.0;
+	/** The default number of latencies of a backend needed, before it can be abandoned.*/
+	public static final int DEFAULT_MIN_SAMPLES = 20;
+	/** The default maximum time in milliseconds to wait for the backends.*/
+	public static final long DEFAULT_TIMEOUT = 60000L;
+	/** The default maximum number of threads for the lookups in each backend.*/
+	public static final int DEFAULT_MAX_THREADS = 16;
+
+	/**
+	 * Call to a backend.
+	 */
+	protected interface BackendCall {
+		/**
+		 * @param backend The backend.
+		 * @return The CDX entries from the backend.
+		 */
+		Collection<CDXEntry> call(CDXExtractor backend);
+	}
+
+	/** The backends, by their name.*/
+	protected final Map<String, CDXExtractor> backends;
+	/** The latencies of the backends, by their name.*/
+	protected final Map<String, LatencyHistogram> latencies = new HashMap<String, LatencyHistogram>();
+	/** The number of abandoned lookups for each backend, by their name.*/
+	protected final Map<String, AtomicLong> abandoned = new HashMap<String, AtomicLong>();
+	/** The number of failed lookups for each backend, by their name.*/
+	protected final Map<String, AtomicLong> failures = new HashMap<String, AtomicLong>();
+	/** The threads for the lookups in each backend, by their name.*/
+	protected final Map<String, ExecutorService> executors = new HashMap<String, ExecutorService>();
+
+	/** The latency percentile of a backend, after which it is abandoned.*/
+	protected double hedgePercentile = Double.parseDouble(System.getProperty(PROPERTY_HEDGE_PERCENTILE,
+			String.valueOf(DEFAULT_HEDGE_PERCENTILE)));
+	/** The number of latencies of a backend needed, before it can be abandoned.*/
+	protected int minSamples = Integer.getInteger(PROPERTY_MIN_SAMPLES, DEFAULT_MIN_SAMPLES);
+	/** The maximum time in milliseconds to wait for the backends.*/
+	protected long timeout = Long.getLong(PROPERTY_TIMEOUT, DEFAULT_TIMEOUT);
+
+	/**
+	 * Constructor.
+	 * Uses the maximum number of threads for each backend from the system properties.
+	 * @param backends The backends, by their name.
+	 */
+	public FederatedCDXExtractor(Map<String, ? extends CDXExtractor> backends) {
+		this(backends, Integer.getInteger(PROPERTY_MAX_THREADS, DEFAULT_MAX_THREADS));
+	}
+
+	/**
+	 * Constructor.
+	 * @param backends The backends, by their name.
+	 * @param maxThreads The maximum number of threads for the lookups in each backend.
+	 */
+	public FederatedCDXExtractor(Map<String, ? extends CDXExtractor> backends, int maxThreads) {
+		ArgumentCheck.checkNotNull(backends, "Map<String, CDXExtractor> backends");
+		ArgumentCheck.checkIsTrue(!backends.isEmpty(), "Map<String, CDXExtractor> backends must not be empty");
+		ArgumentCheck.checkIsTrue(maxThreads > 0, "int maxThreads must be positive");
+		this.backends = Collections.unmodifiableMap(new LinkedHashMap<String, CDXExtractor>(backends));
+		for(String name : backends.keySet()) {
+			latencies.put(name, new LatencyHistogram());
+			abandoned.put(name, new AtomicLong());
+			failures.put(name, new AtomicLong());
+			executors.put(name, createThreadPool(name, maxThreads));
+		}
+	}
+
+	/**
+	 * Creates the bounded thread pool for the lookups in a backend. Idle threads are stopped after a minute.
+	 * @param name The name of the backend.
+	 * @param maxThreads The maximum number of threads.
+	 * @return The thread pool.
+	 */
+	protected ExecutorService createThreadPool(final String name, int maxThreads) {
+		ThreadPoolExecutor res = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "cdx-federated-" + name + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		res.allowCoreThreadTimeOut(true);
+		return res;
+	}
+
+	/**
+	 * @param hedgePercentile The latency percentile of a backend, after which it is abandoned.
+	 */
+	public void setHedgePercentile(double hedgePercentile) {
+		ArgumentCheck.checkIsTrue(hedgePercentile > 0 && hedgePercentile <= 100,
+				"double hedgePercentile must be above 0 and at most 100");
+		this.hedgePercentile = hedgePercentile;
+	}
+
+	/**
+	 * @param minSamples The number of latencies of a backend needed, before it can be abandoned.
+	 */
+	public void setMinSamples(int minSamples) {
+		ArgumentCheck.checkIsTrue(minSamples >= 0, "int minSamples must not be negative");
+		this.minSamples = minSamples;
+	}
+
+	/**
+	 * @param timeout The maximum time in milliseconds to wait for the backends.
+	 */
+	public void setTimeout(long timeout) {
+		ArgumentCheck.checkIsTrue(timeout > 0, "long timeout must be positive");
+		this.timeout = timeout;
+	}
+
+	@Override
+	public CDXEntry retrieveCDX(WPID wpid) {
+		Collection<CDXEntry> allCDXforUrl = retrieveAllCDX(wpid.getUrl());
+		return retrieveCDXclosestToDate(allCDXforUrl, wpid.getDate());
+	}
+
+	@Override
+	public Collection<CDXEntry> retrieveAllCDX(final String url) {
+		return fanOut(new BackendCall() {
+			@Override
+			public Collection<CDXEntry> call(CDXExtractor backend) {
+				return backend.retrieveAllCDX(url);
+			}
+		});
+	}
+
+	@Override
+	public Collection<CDXEntry> retrieveCDXForInterval(final UrlInterval urlInterval) {
+		return fanOut(new BackendCall() {
+			@Override
+			public Collection<CDXEntry> call(CDXExtractor backend) {
+				return backend.retrieveCDXForInterval(urlInterval);
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The query is sent to all the backends, and the restrictions of the query are applied on the merged entries.
+	 */
+	@Override
+	public Collection<CDXEntry> retrieveByQuery(final CDXQuery query) {
+		ArgumentCheck.checkNotNull(query, "CDXQuery query");
+		return query.apply(fanOut(new BackendCall() {
+			@Override
+			public Collection<CDXEntry> call(CDXExtractor backend) {
+				return backend.retrieveByQuery(query);
+			}
+		}));
+	}
+
+	@Override
+	public Iterator<CDXEntry> retrieveRange(final String url, final MatchType matchType) {
+		ArgumentCheck.checkNotNull(matchType, "MatchType matchType");
+		final Iterator<CDXExtractor> remaining = backends.values().iterator();
+		return new Iterator<CDXEntry>() {
+			/** The range from the current backend.*/
+			private Iterator<CDXEntry> current = Collections.<CDXEntry>emptyList().iterator();
+
+			@Override
+			public boolean hasNext() {
+				while(!current.hasNext() && remaining.hasNext()) {
+					current = remaining.next().retrieveRange(url, matchType);
+				}
+				return current.hasNext();
+			}
+
+			@Override
+			public CDXEntry next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException("No more CDX entries in the range.");
+				}
+				return current.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Cannot remove CDX entries from the backends.");
+			}
+		};
+	}
+
+	/**
+	 * Performs the call on all the backends in parallel, and merges the results of the backends, which answer
+	 * in time. The lookups in the backends, which do not answer in time, are cancelled without being interrupted.
+	 * @param call The call.
+	 * @return The merged CDX entries.
+	 */
+	protected CDXCaptureList fanOut(final BackendCall call) {
+		final long start = System.currentTimeMillis();
+		final BlockingQueue<Future<Collection<CDXEntry>>> completed = 
+				new LinkedBlockingQueue<Future<Collection<CDXEntry>>>();
+		Map<Future<Collection<CDXEntry>>, String> pending = new HashMap<Future<Collection<CDXEntry>>, String>();
+		for(final Map.Entry<String, CDXExtractor> backend : backends.entrySet()) {
+			FutureTask<Collection<CDXEntry>> task = new FutureTask<Collection<CDXEntry>>(
+					new Callable<Collection<CDXEntry>>() {
+				@Override
+				public Collection<CDXEntry> call() {
+					try {
+						return call.call(backend.getValue());
+					} finally {
+						latencies.get(backend.getKey()).record(System.currentTimeMillis() - start);
+					}
+				}
+			}) {
+				@Override
+				protected void done() {
+					completed.add(this);
+				}
+			};
+			pending.put(task, backend.getKey());
+			executors.get(backend.getKey()).execute(task);
+		}
+
+		Map<String, Collection<CDXEntry>> results = new HashMap<String, Collection<CDXEntry>>();
+		List<String> missing = new ArrayList<String>();
+		long firstAnswer = -1L;
+		try {
+			while(!pending.isEmpty()) {
+				long now = System.currentTimeMillis();
+				long deadline = Long.MAX_VALUE;
+				for(Iterator<Map.Entry<Future<Collection<CDXEntry>>, String>> it = pending.entrySet().iterator();
+						it.hasNext();) {
+					Map.Entry<Future<Collection<CDXEntry>>, String> entry = it.next();
+					long backendDeadline = getDeadline(entry.getValue(), start, firstAnswer);
+					if(backendDeadline <= now) {
+						logger.debug("Abandoning the lookup in the backend '" + entry.getValue() + "' after "
+								+ (now - start) + " ms.");
+						entry.getKey().cancel(false);
+						abandoned.get(entry.getValue()).incrementAndGet();
+						missing.add(entry.getValue());
+						it.remove();
+					} else {
+						deadline = Math.min(deadline, backendDeadline);
+					}
+				}
+				if(pending.isEmpty()) {
+					break;
+				}
+
+				Future<Collection<CDXEntry>> done = completed.poll(deadline - now, TimeUnit.MILLISECONDS);
+				if(done == null || !pending.containsKey(done)) {
+					continue;
+				}
+				String name = pending.remove(done);
+				try {
+					Collection<CDXEntry> entries = done.get();
+					if(firstAnswer < 0) {
+						firstAnswer = System.currentTimeMillis();
+					}
+					if(entries != null) {
+						results.put(name, entries);
+					}
+				} catch (ExecutionException e) {
+					logger.warn("Failed to retrieve CDX entries from the backend '" + name + "'.", e.getCause());
+					failures.get(name).incrementAndGet();
+					missing.add(name);
+				}
+			}
+		} catch (InterruptedException e) {
+			for(Future<Collection<CDXEntry>> future : pending.keySet()) {
+				future.cancel(false);
+			}
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while retrieving CDX entries from the backends.", e);
+		}
+		if(!missing.isEmpty()) {
+			logger.warn("Partial result after " + (System.currentTimeMillis() - start) + " ms without the backends " 
+					+ missing + ", which were too slow or failed.");
+		}
+		List<Collection<CDXEntry>> ordered = new ArrayList<Collection<CDXEntry>>(results.size());
+		for(String name : backends.keySet()) {
+			if(results.containsKey(name)) {
+				ordered.add(results.get(name));
+			}
+		}
+		return merge(ordered);
+	}
+
+	/**
+	 * Calculates until when to wait for a backend.
+	 * Before any backend has answered, the backend is waited for until the timeout. Afterwards it is waited for 
+	 * its latency percentile from the first answer, since it had no chance to answer earlier than the others.
+	 * @param name The name of the backend.
+	 * @param start The time of the start of the lookup.
+	 * @param firstAnswer The time of the first answer from a backend, or -1 if no backend has answered.
+	 * @return The time, where the backend is abandoned.
+	 */
+	protected long getDeadline(String name, long start, long firstAnswer) {
+		LatencyHistogram histogram = latencies.get(name);
+		if(firstAnswer < 0 || histogram.getCount() < minSamples) {
+			return start + timeout;
+		}
+		return Math.min(start + timeout, firstAnswer + Math.max(1L, histogram.getPercentile(hedgePercentile)));
+	}
+
+	/**
+	 * Merges the CDX entries from the backends, and removes the duplicates.
+	 * A capture found in several backends is taken from the first of them.
+	 * @param results The CDX entries from each backend, in the order of the backends.
+	 * @return The merged CDX entries, sorted by date.
+	 */
+	protected CDXCaptureList merge(List<Collection<CDXEntry>> results) {
+		if(results.size() == 1) {
+			return CDXCaptureList.valueOf(results.get(0));
+		}
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		Set<String> seen = new HashSet<String>();
+		for(Collection<CDXEntry> entries : results) {
+			for(CDXEntry entry : entries) {
+				if(entry != null && seen.add(createCaptureKey(entry))) {
+					res.add(entry);
+				}
+			}
+		}
+		return new CDXCaptureList(res);
+	}
+
+	/**
+	 * Creates the key, which identifies a capture across the backends.
+	 * @param entry The CDX entry.
+	 * @return The key for the capture.
+	 */
+	protected String createCaptureKey(CDXEntry entry) {
+		StringBuilder res = new StringBuilder();
+		res.append(entry.getUrlKey());
+		res.append(' ');
+		res.append(entry.getDateAsLong());
+		res.append(' ');
+		if(entry.getDigest() != null) {
+			res.append(entry.getDigest());
+		} else {
+			res.append(entry.getFilename());
+			res.append(' ');
+			res.append(entry.getOffset());
+		}
+		return res.toString();
+	}
+
+	/**
+	 * @return The names of the backends.
+	 */
+	public Set<String> getBackendNames() {
+		return backends.keySet();
+	}
+
+	/**
+	 * @param name The name of the backend.
+	 * @return The latencies of the backend.
+	 */
+	public LatencyHistogram getLatencyHistogram(String name) {
+		ArgumentCheck.checkIsTrue(latencies.containsKey(name), "Unknown backend: " + name);
+		return latencies.get(name);
+	}
+
+	/**
+	 * @param name The name of the backend.
+	 * @return The number of lookups, where the backend was abandoned for being too slow.
+	 */
+	public long getAbandonedCount(String name) {
+		ArgumentCheck.checkIsTrue(abandoned.containsKey(name), "Unknown backend: " + name);
+		return abandoned.get(name).get();
+	}
+
+	/**
+	 * @param name The name of the backend.
+	 * @return The number of lookups, which failed in the backend.
+	 */
+	public long getFailureCount(String name) {
+		ArgumentCheck.checkIsTrue(failures.containsKey(name), "Unknown backend: " + name);
+		return failures.get(name).get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		// Not shutdownNow, since interrupting the running lookups would close the file channels of the backends
+		for(ExecutorService executor : executors.values()) {
+			executor.shutdown();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder res = new StringBuilder("FederatedCDXExtractor: [");
+		for(String name : backends.keySet()) {
+			res.append(name + " = {" + latencies.get(name) + ", abandoned = " + abandoned.get(name)
+					+ ", failures = " + failures.get(name) + "}, ");
+		}
+		res.delete(res.length() - 2, res.length());
+		res.append("]");
+		return res.toString();
+	}
+}
@@ -0,0 +1,305 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.utils.DateUtils;
+
+/**
+ * A sorted CDX file, which is memory-mapped and searched by binary search on the lines.
+ *
+ * The lines of the file must be sorted in byte order (e.g. 'LC_ALL=C sort'), and the first element of the
+ * CDX format must be the canonized or massaged URL ('A' or 'N').
+ * The file is mapped in segments, so files larger than 2 GB are also supported.
+ *
+ * Since the lookups only read from the mapped buffers with absolute positions, it is safe to use from
+ * several threads at the same time.
+ */
+public class MappedCDXFile {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(MappedCDXFile.class);
+
+	/** The maximum size of each mapped segment of the file.*/
+	protected static final long SEGMENT_SIZE = 1L << 30;
+	/** The end of a CDX line.*/
+	protected static final byte NEWLINE = '\n';
+	/** The charset of the CDX file.*/
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The CDX file.*/
+	protected final File cdxFile;
+	/** The mapped segments of the file.*/
+	protected final MappedByteBuffer[] segments;
+	/** The size of the file.*/
+	protected final long size;
+	/** The position of the first CDX line after the CDX format line.*/
+	protected final long dataStart;
+	/** The CDX format of the file.*/
+	protected final Character[] cdxFormat;
+
+	/**
+	 * Constructor.
+	 * Maps the file and reads the CDX format line.
+	 * @param cdxFile The sorted CDX file.
+	 * @throws IOException If the file cannot be mapped.
+	 */
+	public MappedCDXFile(File cdxFile) throws IOException {
+		ArgumentCheck.checkIsFile(cdxFile, "File cdxFile");
+		this.cdxFile = cdxFile;
+		try (RandomAccessFile raf = new RandomAccessFile(cdxFile, "r");
+				FileChannel channel = raf.getChannel()) {
+			this.size = channel.size();
+			int numberOfSegments = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			this.segments = new MappedByteBuffer[numberOfSegments];
+			for(int i = 0; i < numberOfSegments; i++) {
+				long position = i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(SEGMENT_SIZE, size - position));
+			}
+		}
+
+		long firstLineEnd = findLineEnd(0L);
+		this.dataStart = Math.min(firstLineEnd + 1, size);
+		this.cdxFormat = new CDXFileReader().extractCDXFormat(readString(0L, firstLineEnd));
+		ArgumentCheck.checkIsTrue(cdxFormat.length > 0
+				&& (cdxFormat[0] == CDXConstants.CDX_CHAR_CANONIZED_URL
+				|| cdxFormat[0] == CDXConstants.CDX_CHAR_MASSAGED_URL),
+				"The first CDX element of a sorted CDX file must be the canonized URL: " + cdxFile.getName());
+		logger.debug("Mapped the sorted CDX file '" + cdxFile.getAbsolutePath() + "' in " + numberOfSegments()
+				+ " segments.");
+	}
+
+	/**
+	 * @return The CDX file.
+	 */
+	public File getFile() {
+		return cdxFile;
+	}
+
+	/**
+	 * @return The CDX format of the file.
+	 */
+	public Character[] getCDXFormat() {
+		return cdxFormat.clone();
+	}
+
+	/**
+	 * @return The number of mapped segments.
+	 */
+	protected int numberOfSegments() {
+		return segments.length;
+	}
+
+	/**
+	 * Retrieves all the CDX entries, which has exactly the given key.
+	 * @param key The canonized URL key.
+	 * @return The CDX entries for the key, in the order of the file (and thus sorted by date).
+	 */
+	public List<CDXEntry> retrieveEntries(String key) {
+		return retrieveEntries(key, null, null);
+	}
+
+	/**
+	 * Retrieves the CDX entries for the given key within a date interval.
+	 * If the date is the second CDX element, then the binary search also uses the earliest date,
+	 * and the scan stops at the latest date.
+	 * @param key The canonized URL key.
+	 * @param earliest The earliest date. May be null, if no lower limit.
+	 * @param latest The latest date. May be null, if no upper limit.
+	 * @return The CDX entries for the key within the interval.
+	 */
+	public List<CDXEntry> retrieveEntries(String key, Date earliest, Date latest) {
+		byte[] prefix = (key + " ").getBytes(UTF8);
+		boolean sortedByDate = cdxFormat.length > 1 && cdxFormat[1] == CDXConstants.CDX_CHAR_DATE;
+
+		byte[] searchKey = prefix;
+		if(sortedByDate && earliest != null) {
+			searchKey = (key + " " + DateUtils.dateToWaybackDate(earliest)).getBytes(UTF8);
+		}
+
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		long position = findFirstLine(searchKey);
+		while(position < size && startsWith(position, prefix)) {
+			long lineEnd = findLineEnd(position);
+			CDXEntry entry = CDXEntry.createCDXEntry(readString(position, lineEnd), cdxFormat);
+			position = lineEnd + 1;
+			if(entry == null) {
+				continue;
+			}
+			if(latest != null && entry.getDateAsLong() > latest.getTime()) {
+				if(sortedByDate) {
+					break;
+				}
+				continue;
+			}
+			if(earliest != null && entry.getDateAsLong() < earliest.getTime()) {
+				continue;
+			}
+			res.add(entry);
+		}
+		return res;
+	}
+
+	/**
+	 * Iterates the CDX entries within a range of keys.
+	 * The lines are found by binary search on the start key of the range, and are then read and parsed 
+	 * one at a time while iterating, until the end of the range.
+	 * @param range The range of keys.
+	 * @return The iterator over the CDX entries within the range, in the order of the file.
+	 */
+	public Iterator<CDXEntry> iterateEntries(final CDXKeyRange range) {
+		ArgumentCheck.checkNotNull(range, "CDXKeyRange range");
+		final long start = findFirstLine(range.getStartKey().getBytes(UTF8));
+		return new Iterator<CDXEntry>() {
+			/** The position of the next line.*/
+			private long position = start;
+			/** The next entry, which has been read ahead. Null if it has not been read yet.*/
+			private CDXEntry nextEntry;
+
+			@Override
+			public boolean hasNext() {
+				while(nextEntry == null && position < size) {
+					long lineEnd = findLineEnd(position);
+					String line = readString(position, lineEnd);
+					position = lineEnd + 1;
+					if(range.isAfter(line)) {
+						position = size;
+					} else if(range.matches(line)) {
+						nextEntry = CDXEntry.createCDXEntry(line, cdxFormat);
+					}
+				}
+				return nextEntry != null;
+			}
+
+			@Override
+			public CDXEntry next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException("No more CDX entries in the range.");
+				}
+				CDXEntry res = nextEntry;
+				nextEntry = null;
+				return res;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Cannot remove CDX entries from a CDX file.");
+			}
+		};
+	}
+
+	/**
+	 * Binary search for the first line, which is not less than the search key.
+	 * @param searchKey The key to search for.
+	 * @return The position of the start of the first line not less than the key, or the size of the file,
+	 * if all lines are less than the key.
+	 */
+	protected long findFirstLine(byte[] searchKey) {
+		long low = dataStart;
+		long high = size;
+		while(low < high) {
+			long mid = low + (high - low) / 2;
+			long lineStart = findLineStart(mid);
+			if(compareLine(lineStart, searchKey) < 0) {
+				low = findLineEnd(lineStart) + 1;
+			} else {
+				high = lineStart;
+			}
+		}
+		return Math.min(low, size);
+	}
+
+	/**
+	 * Compares the line at the given position with the key in unsigned byte order.
+	 * @param lineStart The position of the start of the line.
+	 * @param key The key to compare with.
+	 * @return Negative if the line is less than the key, 0 if the line starts with the key, otherwise positive.
+	 */
+	protected int compareLine(long lineStart, byte[] key) {
+		long position = lineStart;
+		for(int i = 0; i < key.length; i++, position++) {
+			if(position >= size) {
+				return -1;
+			}
+			byte b = get(position);
+			if(b == NEWLINE) {
+				return -1;
+			}
+			int diff = (b & 0xff) - (key[i] & 0xff);
+			if(diff != 0) {
+				return diff;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param lineStart The position of the start of a line.
+	 * @param prefix The prefix.
+	 * @return Whether or not the line starts with the prefix.
+	 */
+	protected boolean startsWith(long lineStart, byte[] prefix) {
+		return compareLine(lineStart, prefix) == 0;
+	}
+
+	/**
+	 * Finds the start of the line containing the given position.
+	 * @param position The position within the line.
+	 * @return The position of the first byte of the line.
+	 */
+	protected long findLineStart(long position) {
+		long res = position;
+		while(res > dataStart && get(res - 1) != NEWLINE) {
+			res--;
+		}
+		return res;
+	}
+
+	/**
+	 * Finds the end of the line starting at, or containing, the given position.
+	 * @param position The position within the line.
+	 * @return The position of the newline ending the line, or the size of the file for the last line.
+	 */
+	protected long findLineEnd(long position) {
+		long res = position;
+		while(res < size && get(res) != NEWLINE) {
+			res++;
+		}
+		return res;
+	}
+
+	/**
+	 * Reads the bytes between two positions as an UTF-8 string.
+	 * @param start The start position (inclusive).
+	 * @param end The end position (exclusive).
+	 * @return The string.
+	 */
+	protected String readString(long start, long end) {
+		byte[] bytes = new byte[(int) (end - start)];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = get(start + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * @param position The position in the file.
+	 * @return The byte at the position.
+	 */
+	protected byte get(long position) {
+		return segments[(int) (position / SEGMENT_SIZE)].get((int) (position % SEGMENT_SIZE));
+	}
+}
@@ -0,0 +1,34 @@
+package dk.netarkivet.research.cdx;
+
+/**
+ * The types of matching the URLs of a range query against the CDX indices.
+ * The names correspond to the 'matchType' argument of the PYWB CDX server.
+ */
+public enum MatchType {
+	/** Only the exact URL.*/
+	EXACT("exact"),
+	/** All the URLs beginning with the URL, e.g. everything under 'example.dk/news/'.*/
+	PREFIX("prefix"),
+	/** All the URLs on the host of the URL.*/
+	HOST("host"),
+	/** All the URLs on the host of the URL and on all its sub-domains.*/
+	DOMAIN("domain");
+
+	/** The name of the match type for the CDX server.*/
+	private final String parameter;
+
+	/**
+	 * Constructor.
+	 * @param parameter The name of the match type for the CDX server.
+	 */
+	private MatchType(String parameter) {
+		this.parameter = parameter;
+	}
+
+	/**
+	 * @return The name of the match type for the 'matchType' argument of the CDX server.
+	 */
+	public String getParameter() {
+		return parameter;
+	}
+}
@@ -1,17 +1,26 @@
 package dk.netarkivet.research.cdx;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.cdx.cache.CDXCache;
+import dk.netarkivet.research.cdx.cache.CDXCacheFactory;
+import dk.netarkivet.research.cdx.cache.SingleFlight;
+import dk.netarkivet.research.exception.ArgumentCheck;
 import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.interval.UrlInterval;
 import dk.netarkivet.research.utils.DateUtils;
 import dk.netarkivet.research.wid.WPID;
 
@@ -19,6 +28,13 @@ import dk.netarkivet.research.wid.WPID;
  * Extractor for the CDX-server of the PYWB.
  * Example of extraction url:
  * http://localhost:8080/pywb-cdx/coll-cdx?url=example.com&closest=20140127171200&limit=1&fl=url,timestamp,filename,offset,length,mime,status,digest
+ * 
+ * Range queries use the 'matchType' argument, and are retrieved a page at a time through the 'page' argument,
+ * when the CDX server reports the number of pages (for ZipNum indices). Otherwise they are retrieved in one request.
+ * 
+ * Queries push the date interval, the filters, the collapsing, the limit and the needed fields down to the 
+ * CDX server, so only the matching entries are transferred, e.g.
+ * http://localhost:8080/pywb-cdx/coll-cdx?url=example.com&from=20140101000000&filter==status:200&limit=10&fl=url,timestamp
  */
 public class PywbCDXExtractor extends AbstractCDXExtractor {
 	/** The log.*/
@@ -36,6 +52,26 @@ public class PywbCDXExtractor extends AbstractCDXExtractor {
 	protected static final String ARGUMENT_INITIALISER = "?";
 	/** The element request argument in the HTTP request.*/
 	public static final String FL_ARGUMENT_PREFIX = "fl=";
+	/** The prefix for the match type argument in the HTTP request.*/
+	protected static final String MATCH_TYPE_ARGUMENT_PREFIX = "matchType=";
+	/** The prefix for the page argument in the HTTP request.*/
+	protected static final String PAGE_ARGUMENT_PREFIX = "page=";
+	/** The argument for requesting the number of pages of a query, instead of the CDX entries.*/
+	protected static final String SHOW_NUM_PAGES_ARGUMENT = "showNumPages=true";
+	/** The name of the number of pages in a JSON response to the number of pages request.*/
+	protected static final String JSON_PAGES_NAME = "\"pages\"";
+	/** The prefix for the earliest date argument in the HTTP request.*/
+	protected static final String FROM_ARGUMENT_PREFIX = "from=";
+	/** The prefix for the latest date argument in the HTTP request.*/
+	protected static final String TO_ARGUMENT_PREFIX = "to=";
+	/** The prefix for a filter argument with an exact match in the HTTP request.*/
+	protected static final String EXACT_FILTER_ARGUMENT_PREFIX = "filter==";
+	/** The prefix for the collapse argument in the HTTP request.*/
+	protected static final String COLLAPSE_ARGUMENT_PREFIX = "collapse=";
+	/** The prefix for the limit argument in the HTTP request.*/
+	protected static final String LIMIT_ARGUMENT_PREFIX = "limit=";
+	/** The number of pages, when the CDX server does not support paging.*/
+	protected static final int UNKNOWN_NUMBER_OF_PAGES = -1;
 	
 	/** Map between CDX format element and their cdx-server fl argument (separated by ,). */
 	public static final Map<Character, String> CDX_ARGUMENTS;
@@ -56,48 +92,354 @@ public class PywbCDXExtractor extends AbstractCDXExtractor {
 	private final String cdxUrl;
 	/** The HTTP retriever, for communicating with the CDX server.*/
 	protected final HttpRetriever httpRetriever;
+	/** Cache of the already extracted CDX entries for a URL, by the request URL.*/
+	protected final CDXCache cdxCache;
+	/** Merges the concurrent requests to the CDX server for the same URL.*/
+	protected final SingleFlight<List<CDXEntry>> singleFlight = new SingleFlight<List<CDXEntry>>();
 	
 	/**
 	 * Constructor.
+	 * Uses the cache configured by the system properties, see {@link CDXCacheFactory}.
 	 * @param cdxServerUrl The URL for the CDX server (complete url to query for the right collection).
 	 * @param httpRetriever The http retriever.
 	 */
 	public PywbCDXExtractor(String cdxServerUrl, HttpRetriever httpRetriever) {
+		this(cdxServerUrl, httpRetriever, CDXCacheFactory.createCache());
+	}
+	
+	/**
+	 * Constructor.
+	 * @param cdxServerUrl The URL for the CDX server (complete url to query for the right collection).
+	 * @param httpRetriever The http retriever.
+	 * @param cdxCache The cache for the extracted CDX entries.
+	 */
+	public PywbCDXExtractor(String cdxServerUrl, HttpRetriever httpRetriever, CDXCache cdxCache) {
+		ArgumentCheck.checkNotNull(cdxCache, "CDXCache cdxCache");
 		this.cdxUrl = cdxServerUrl;
 		this.httpRetriever = httpRetriever;
+		this.cdxCache = cdxCache;
+	}
+
+	/**
+	 * @return The cache for the extracted CDX entries.
+	 */
+	public CDXCache getCache() {
+		return cdxCache;
 	}
 	
 	@Override
 	public CDXEntry retrieveCDX(WPID wpid) {
 		String requestUrlString = createRequestUrlForWPID(wpid);
-		String response = httpRetriever.retrieveFromUrl(requestUrlString);
+		List<CDXEntry> response = httpRetriever.retrieveFromUrl(requestUrlString, 
+				new CDXResponseHandler(getDefaultFormat()));
 		
 		if(response == null) {
 			logger.warn("Failed to retrieve wpid '" + wpid.toString() + "'. Returning a null");
 			return null;
+		} else if(response.isEmpty()) {
+			return null;
 		} else {
-			return CDXEntry.createCDXEntry(createCdxMap(response));
+			return response.get(0);
 		}
 	}
 
 	@Override
-	public Collection<CDXEntry> retrieveAllCDX(String url) {
-		String requestUrlString = createRequestUrlForWID(url);
-		String response = httpRetriever.retrieveFromUrl(requestUrlString);
-		
-		if(response == null || response.isEmpty()) {
-			logger.warn("Failed to retrieve CDX indices for URL '" + url + "'. Returning a null");
+	public Collection<CDXEntry> retrieveAllCDX(final String url) {
+		final String requestUrlString = createRequestUrlForWID(url);
+		List<CDXEntry> cached = cdxCache.get(requestUrlString);
+		if(cached != null) {
+			logger.debug("Using already extracted CDX entries for the URL '" + url + "'.");
+			return cached;
+		}
+		return singleFlight.execute(requestUrlString, new Callable<List<CDXEntry>>() {
+			@Override
+			public List<CDXEntry> call() {
+				return extractFromServer(url, requestUrlString);
+			}
+		});
+	}
+	
+	/**
+	 * Extracts the CDX entries for the URL from the CDX server, and puts them into the cache.
+	 * @param url The URL.
+	 * @param requestUrlString The request URL for the CDX server.
+	 * @return The CDX entries for the URL, or null if they could not be retrieved.
+	 */
+	protected List<CDXEntry> extractFromServer(String url, String requestUrlString) {
+		return extractFromServer(url, requestUrlString, getDefaultFormat());
+	}
+
+	/**
+	 * Extracts the CDX entries for the URL from the CDX server, and puts them into the cache.
+	 * The entries are cached as a {@link CDXCaptureList}, sorted by date, for fast lookups of the closest date.
+	 * If the CDX server does not know the URL, then the empty list is cached.
+	 * If the extraction fails, then nothing is cached, so the URL is extracted again on the next request.
+	 * @param url The URL.
+	 * @param requestUrlString The request URL for the CDX server.
+	 * @param format The CDX elements of the lines in the response, in the order of the 'fl' argument.
+	 * @return The CDX entries for the URL, or null if they could not be retrieved.
+	 */
+	protected List<CDXEntry> extractFromServer(String url, String requestUrlString, Character[] format) {
+		List<CDXEntry> response;
+		try {
+			response = httpRetriever.retrieveFromUrlOrFail(requestUrlString, new CDXResponseHandler(format));
+		} catch (IllegalStateException e) {
+			logger.warn("Failed to retrieve CDX indices for URL '" + url + "'. Returning a null", e);
 			return null;
+		}
+		
+		List<CDXEntry> res;
+		if(response == null) {
+			logger.debug("No CDX indices for the URL '" + url + "'.");
+			res = new CDXCaptureList(Collections.<CDXEntry>emptyList());
 		} else {
-			List<CDXEntry> res = new ArrayList<CDXEntry>();
-			for(String line : response.split("\n")) {
-				CDXEntry entry = CDXEntry.createCDXEntry(createCdxMap(line));
-				if(entry != null) {
-					res.add(entry);
+			res = new CDXCaptureList(response);
+		}
+		cdxCache.put(requestUrlString, res);
+		return res;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The restrictions of the query are sent to the CDX server, and only the needed fields are requested.
+	 * The restrictions are also applied on the response, in case the CDX server does not support all of them.
+	 * The responses are cached by their request URL.
+	 */
+	@Override
+	public Collection<CDXEntry> retrieveByQuery(final CDXQuery query) {
+		ArgumentCheck.checkNotNull(query, "CDXQuery query");
+		final Character[] format = createQueryFormat(query);
+		final String requestUrlString = createRequestUrlForQuery(query, format);
+		List<CDXEntry> res = cdxCache.get(requestUrlString);
+		if(res == null) {
+			res = singleFlight.execute(requestUrlString, new Callable<List<CDXEntry>>() {
+				@Override
+				public List<CDXEntry> call() {
+					return extractFromServer(query.getUrl(), requestUrlString, format);
 				}
+			});
+		}
+		if(res == null) {
+			return new ArrayList<CDXEntry>();
+		}
+		return query.apply(res);
+	}
+
+	@Override
+	public Collection<CDXEntry> retrieveCDXForInterval(UrlInterval urlInterval) {
+		return retrieveByQuery(CDXQuery.createFromInterval(urlInterval));
+	}
+
+	/**
+	 * Creates the CDX elements to request for a query. 
+	 * These are the fields of the query, which the CDX server supports, and the fields needed for applying the
+	 * restrictions of the query, in the order of {@link #CDX_ARGUMENTS}.
+	 * @param query The query.
+	 * @return The CDX elements to request.
+	 */
+	protected Character[] createQueryFormat(CDXQuery query) {
+		if(query.getFields() == null) {
+			return getDefaultFormat();
+		}
+		List<Character> res = new ArrayList<Character>();
+		for(Character c : CDX_ARGUMENTS.keySet()) {
+			if(query.getFields().contains(c)
+					|| (c == CDXConstants.CDX_CHAR_DATE && (query.getFrom() != null || query.getTo() != null))
+					|| (c == CDXConstants.CDX_CHAR_RESPONSE_CODE && query.getStatusCode() != null)
+					|| (c == CDXConstants.CDX_CHAR_MIME_TYPE && query.getMimeType() != null)
+					|| (c == CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM && query.isCollapseOnDigest())) {
+				res.add(c);
 			}
-			return res;
 		}
+		return res.toArray(new Character[res.size()]);
+	}
+
+	/**
+	 * Creates the request URL for a query.
+	 * @param query The query.
+	 * @param format The CDX elements to request.
+	 * @return The request URL for retrieving the CDX entries matching the query from the CDX server.
+	 */
+	protected String createRequestUrlForQuery(CDXQuery query, Character[] format) {
+		StringBuilder res = new StringBuilder();
+		res.append(cdxUrl);
+		if(!cdxUrl.endsWith(ARGUMENT_INITIALISER)) {
+			res.append(ARGUMENT_INITIALISER);
+		}
+		res.append(URL_ARGUMENT_PREFIX);
+		res.append(query.getUrl());
+		if(query.getMatchType() != MatchType.EXACT) {
+			res.append(ARGUMENT_SEPARATOR);
+			res.append(MATCH_TYPE_ARGUMENT_PREFIX);
+			res.append(query.getMatchType().getParameter());
+		}
+		if(query.getFrom() != null) {
+			res.append(ARGUMENT_SEPARATOR);
+			res.append(FROM_ARGUMENT_PREFIX);
+			res.append(DateUtils.dateToWaybackDate(query.getFrom()));
+		}
+		if(query.getTo() != null) {
+			res.append(ARGUMENT_SEPARATOR);
+			res.append(TO_ARGUMENT_PREFIX);
+			res.append(DateUtils.dateToWaybackDate(query.getTo()));
+		}
+		if(query.getStatusCode() != null) {
+			res.append(ARGUMENT_SEPARATOR);
+			res.append(EXACT_FILTER_ARGUMENT_PREFIX);
+			res.append(CDX_ARGUMENTS.get(CDXConstants.CDX_CHAR_RESPONSE_CODE));
+			res.append(":");
+			res.append(query.getStatusCode());
+		}
+		if(query.getMimeType() != null) {
+			res.append(ARGUMENT_SEPARATOR);
+			res.append(EXACT_FILTER_ARGUMENT_PREFIX);
+			res.append(CDX_ARGUMENTS.get(CDXConstants.CDX_CHAR_MIME_TYPE));
+			res.append(":");
+			res.append(encodeArgument(query.getMimeType()));
+		}
+		if(query.isCollapseOnDigest()) {
+			res.append(ARGUMENT_SEPARATOR);
+			res.append(COLLAPSE_ARGUMENT_PREFIX);
+			res.append(CDX_ARGUMENTS.get(CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM));
+		}
+		if(query.getLimit() > 0) {
+			res.append(ARGUMENT_SEPARATOR);
+			res.append(LIMIT_ARGUMENT_PREFIX);
+			res.append(query.getLimit());
+		}
+		res.append(ARGUMENT_SEPARATOR);
+		res.append(FL_ARGUMENT_PREFIX);
+		for(int i = 0; i < format.length; i++) {
+			if(i > 0) {
+				res.append(",");
+			}
+			res.append(CDX_ARGUMENTS.get(format[i]));
+		}
+		return res.toString();
+	}
+
+	/**
+	 * URL encodes the value of an argument.
+	 * @param value The value.
+	 * @return The URL encoded value.
+	 */
+	protected String encodeArgument(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is not supported", e);
+		}
+	}
+
+	/**
+	 * @return The default CDX elements of the lines from the CDX server, in the order of {@link #CDX_ARGUMENTS}.
+	 */
+	protected Character[] getDefaultFormat() {
+		return CDX_ARGUMENTS.keySet().toArray(new Character[CDX_ARGUMENTS.size()]);
+	}
+
+	@Override
+	public Iterator<CDXEntry> retrieveRange(String url, MatchType matchType) {
+		ArgumentCheck.checkNotNull(url, "String url");
+		ArgumentCheck.checkNotNull(matchType, "MatchType matchType");
+		final String requestUrlString = createRequestUrlForWID(url) + ARGUMENT_SEPARATOR + MATCH_TYPE_ARGUMENT_PREFIX
+				+ matchType.getParameter();
+		final int numberOfPages = retrieveNumberOfPages(requestUrlString);
+		logger.debug("Retrieving " + matchType + " range for '" + url + "' in " + numberOfPages + " pages.");
+		return new Iterator<CDXEntry>() {
+			/** The next page to retrieve.*/
+			private int page = 0;
+			/** The entries of the current page.*/
+			private Iterator<CDXEntry> current = Collections.<CDXEntry>emptyList().iterator();
+
+			@Override
+			public boolean hasNext() {
+				while(!current.hasNext() && (page < numberOfPages 
+						|| (page == 0 && numberOfPages == UNKNOWN_NUMBER_OF_PAGES))) {
+					current = retrievePage(requestUrlString, page++, numberOfPages).iterator();
+				}
+				return current.hasNext();
+			}
+
+			@Override
+			public CDXEntry next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException("No more CDX entries in the range.");
+				}
+				return current.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Cannot remove CDX entries from the CDX server.");
+			}
+		};
+	}
+
+	/**
+	 * Retrieves the number of pages of a query from the CDX server. 
+	 * The response is either just the number, or a JSON object with the number as 'pages'.
+	 * @param requestUrlString The request URL for the query.
+	 * @return The number of pages, or {@link #UNKNOWN_NUMBER_OF_PAGES} if the CDX server does not support paging.
+	 */
+	protected int retrieveNumberOfPages(String requestUrlString) {
+		String response = httpRetriever.retrieveFromUrl(requestUrlString + ARGUMENT_SEPARATOR 
+				+ SHOW_NUM_PAGES_ARGUMENT);
+		if(response == null) {
+			return UNKNOWN_NUMBER_OF_PAGES;
+		}
+		String number = response.trim();
+		int pagesIndex = number.indexOf(JSON_PAGES_NAME);
+		if(pagesIndex >= 0) {
+			int start = number.indexOf(':', pagesIndex) + 1;
+			while(start > 0 && start < number.length() && Character.isWhitespace(number.charAt(start))) {
+				start++;
+			}
+			int end = start;
+			while(end < number.length() && Character.isDigit(number.charAt(end))) {
+				end++;
+			}
+			number = start > 0 ? number.substring(start, end) : "";
+		}
+		try {
+			return Integer.parseInt(number);
+		} catch (NumberFormatException e) {
+			logger.debug("The CDX server does not support paging. Got the response: " + response);
+			return UNKNOWN_NUMBER_OF_PAGES;
+		}
+	}
+
+	/**
+	 * Retrieves a page of a query from the CDX server.
+	 * @param requestUrlString The request URL for the query.
+	 * @param page The index of the page.
+	 * @param numberOfPages The number of pages, or {@link #UNKNOWN_NUMBER_OF_PAGES} for a query without paging.
+	 * @return The CDX entries of the page.
+	 * @throws IllegalStateException If the page could not be retrieved.
+	 */
+	protected List<CDXEntry> retrievePage(String requestUrlString, int page, int numberOfPages) {
+		if(numberOfPages == UNKNOWN_NUMBER_OF_PAGES) {
+			List<CDXEntry> response = httpRetriever.retrieveFromUrlOrFail(requestUrlString, 
+					new CDXResponseHandler(getDefaultFormat()));
+			if(response == null) {
+				return Collections.emptyList();
+			}
+			return response;
+		}
+		List<CDXEntry> response = httpRetriever.retrieveFromUrlOrFail(requestUrlString + ARGUMENT_SEPARATOR 
+				+ PAGE_ARGUMENT_PREFIX + page, new CDXResponseHandler(getDefaultFormat()));
+		if(response == null) {
+			throw new IllegalStateException("Failed to retrieve page " + page + " of " + numberOfPages 
+					+ " from the CDX server: " + requestUrlString);
+		}
+		return response;
+	}
+	
+	/**
+	 * @return The merging of concurrent requests to the CDX server for the same URL, with its metrics.
+	 */
+	public SingleFlight<List<CDXEntry>> getSingleFlight() {
+		return singleFlight;
 	}
 
 	/**
@@ -152,25 +494,4 @@ public class PywbCDXExtractor extends AbstractCDXExtractor {
 		res.delete(res.length() - 1, res.length()); // remove last ','
 		return res.toString();
 	}
-	
-	/**
-	 * Creates the CDX map between CDX format element and the string retrieved from the CDX server.
-	 * @param cdxLine The cdx line from the server.
-	 * @return The map between cdx format element and the value.
-	 */
-	protected Map<Character, String> createCdxMap(String cdxLine) {
-		Map<Character, String> res = new HashMap<Character, String>();
-		String[] cdxLineSplit = cdxLine.split(" ");
-		Character[] format = CDX_ARGUMENTS.keySet().toArray(new Character[CDX_ARGUMENTS.size()]);
-		
-		if(cdxLineSplit.length < format.length) {
-			logger.warn("Not enough cdx elements. Expected " + format.length + " but only got " + cdxLine.length());
-			return null;
-		}
-
-		for(int i = 0; i < format.length; i++) {
-			res.put(format[i], cdxLineSplit[i]);
-		}
-		return res;
-	}
 }
@@ -0,0 +1,183 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.utils.SurtCanonicalizer;
+import dk.netarkivet.research.wid.WPID;
+
+/**
+ * Extractor of CDX entries from sorted CDX files on the local disk.
+ * The files are memory-mapped and the lookups are made by binary search on the canonized URL,
+ * so no CDX server is needed.
+ *
+ * The canonized URL of the CDX files must by default be in the same format, as the one used by the DAB CDX server,
+ * e.g. 'kb.dk/robots.txt' - without protocol and 'www', and in lower case ({@link CDXKeyType#STRIPPED}).
+ * Files with keys in canonical form, e.g. sorted query parameters (see {@link SurtCanonicalizer}), must be given
+ * the key type {@link CDXKeyType#CANONICAL}, and files sorted by SURT keys the key type {@link CDXKeyType#SURT},
+ * either in the constructor or by the system property {@link #PROPERTY_KEY_TYPE}.
+ * 
+ * Range queries are made as range scans of each file, and deliver the entries file by file.
+ */
+public class SortedCDXFileExtractor extends AbstractCDXExtractor {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(SortedCDXFileExtractor.class);
+
+	/** The suffix of the CDX files, when a directory of CDX files are used.*/
+	public static final String CDX_FILE_SUFFIX = ".cdx";
+	/** The system property for the default type of the keys of the local CDX indices (STRIPPED, CANONICAL or SURT).*/
+	public static final String PROPERTY_KEY_TYPE = "dk.netarkivet.research.cdx.local.keyType";
+
+	/**
+	 * @return The type of the keys of the local CDX indices from the system property, or STRIPPED if not set.
+	 */
+	public static CDXKeyType getDefaultKeyType() {
+		return CDXKeyType.getFromProperty(PROPERTY_KEY_TYPE, CDXKeyType.STRIPPED);
+	}
+
+	/**
+	 * Instantiates the extractor from either a single sorted CDX file, or a directory with sorted CDX files.
+	 * Uses the key type from the system properties.
+	 * @param location The CDX file or the directory with the CDX files.
+	 * @return The extractor.
+	 * @throws IOException If a CDX file cannot be mapped.
+	 */
+	public static SortedCDXFileExtractor createFromLocation(File location) throws IOException {
+		return createFromLocation(location, getDefaultKeyType());
+	}
+
+	/**
+	 * Instantiates the extractor from either a single sorted CDX file, or a directory with sorted CDX files.
+	 * @param location The CDX file or the directory with the CDX files.
+	 * @param keyType The type of the keys of the CDX files.
+	 * @return The extractor.
+	 * @throws IOException If a CDX file cannot be mapped.
+	 */
+	public static SortedCDXFileExtractor createFromLocation(File location, CDXKeyType keyType) throws IOException {
+		ArgumentCheck.checkNotNull(location, "File location");
+		if(location.isDirectory()) {
+			File[] cdxFiles = location.listFiles(new FileFilter() {
+				@Override
+				public boolean accept(File f) {
+					return f.isFile() && f.getName().endsWith(CDX_FILE_SUFFIX);
+				}
+			});
+			Arrays.sort(cdxFiles);
+			return new SortedCDXFileExtractor(Arrays.asList(cdxFiles), keyType);
+		}
+		return new SortedCDXFileExtractor(Arrays.asList(location), keyType);
+	}
+
+	/** The mapped sorted CDX files.*/
+	protected final List<MappedCDXFile> cdxFiles;
+	/** The type of the keys of the CDX files.*/
+	protected final CDXKeyType keyType;
+
+	/**
+	 * Constructor.
+	 * Uses the key type from the system properties.
+	 * @param files The sorted CDX files.
+	 * @throws IOException If a CDX file cannot be mapped.
+	 */
+	public SortedCDXFileExtractor(Collection<File> files) throws IOException {
+		this(files, getDefaultKeyType());
+	}
+
+	/**
+	 * Constructor.
+	 * @param files The sorted CDX files.
+	 * @param keyType The type of the keys of the CDX files.
+	 * @throws IOException If a CDX file cannot be mapped.
+	 */
+	public SortedCDXFileExtractor(Collection<File> files, CDXKeyType keyType) throws IOException {
+		ArgumentCheck.checkNotNull(files, "Collection<File> files");
+		ArgumentCheck.checkNotNull(keyType, "CDXKeyType keyType");
+		this.keyType = keyType;
+		List<MappedCDXFile> mappedFiles = new ArrayList<MappedCDXFile>(files.size());
+		for(File f : files) {
+			mappedFiles.add(new MappedCDXFile(f));
+		}
+		this.cdxFiles = Collections.unmodifiableList(mappedFiles);
+		logger.info("Using " + cdxFiles.size() + " local sorted CDX files with " + keyType + " keys.");
+	}
+
+	@Override
+	public CDXEntry retrieveCDX(WPID wpid) {
+		Collection<CDXEntry> allCDXforUrl = retrieveAllCDX(wpid.getUrl());
+		return retrieveCDXclosestToDate(allCDXforUrl, wpid.getDate());
+	}
+
+	@Override
+	public Collection<CDXEntry> retrieveAllCDX(String url) {
+		String key = createKey(url);
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		for(MappedCDXFile cdxFile : cdxFiles) {
+			res.addAll(cdxFile.retrieveEntries(key));
+		}
+		logger.debug("Found " + res.size() + " CDX entries for the URL '" + url + "'.");
+		return res;
+	}
+
+	@Override
+	public Collection<CDXEntry> retrieveCDXForInterval(UrlInterval urlInterval) {
+		String key = createKey(urlInterval.getUrl());
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		for(MappedCDXFile cdxFile : cdxFiles) {
+			res.addAll(cdxFile.retrieveEntries(key, urlInterval.getEarliestDate(), urlInterval.getLatestDate()));
+		}
+		return res;
+	}
+
+	@Override
+	public Iterator<CDXEntry> retrieveRange(String url, MatchType matchType) {
+		final CDXKeyRange range = CDXKeyRange.createRange(url, matchType, keyType);
+		final Iterator<MappedCDXFile> files = cdxFiles.iterator();
+		return new Iterator<CDXEntry>() {
+			/** The iterator for the current file.*/
+			private Iterator<CDXEntry> current = Collections.<CDXEntry>emptyList().iterator();
+
+			@Override
+			public boolean hasNext() {
+				while(!current.hasNext() && files.hasNext()) {
+					current = files.next().iterateEntries(range);
+				}
+				return current.hasNext();
+			}
+
+			@Override
+			public CDXEntry next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException("No more CDX entries in the range.");
+				}
+				return current.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Cannot remove CDX entries from a CDX file.");
+			}
+		};
+	}
+
+	/**
+	 * Creates the key for looking up the URL in the sorted CDX files.
+	 * @param url The URL.
+	 * @return The URL key in the form of the keys of the CDX files.
+	 */
+	protected String createKey(String url) {
+		return keyType.createKey(url);
+	}
+}
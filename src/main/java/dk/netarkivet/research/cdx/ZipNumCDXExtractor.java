@@ -0,0 +1,326 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.utils.SurtCanonicalizer;
+import dk.netarkivet.research.wid.WPID;
+
+/**
+ * Extractor of CDX entries from a block-compressed ZipNum CDX file, as written by the {@link ZipNumCDXFileWriter}.
+ *
+ * The small summary index is kept in memory, and is used to locate the compressed blocks which can contain
+ * a given key. Only those blocks (usually one or two) are read and decompressed for a lookup.
+ *
+ * The canonized URL of the CDX file must by default be in the same format, as the one used by the DAB CDX server,
+ * e.g. 'kb.dk/robots.txt' - without protocol and 'www', and in lower case ({@link CDXKeyType#STRIPPED}).
+ * Files with keys in canonical or SURT form (see {@link SurtCanonicalizer}) must be given the key type 
+ * {@link CDXKeyType#CANONICAL} or {@link CDXKeyType#SURT}, either in the constructor or by the system property 
+ * {@link SortedCDXFileExtractor#PROPERTY_KEY_TYPE}.
+ * 
+ * Range queries decompress one block at a time, while the entries are iterated.
+ */
+public class ZipNumCDXExtractor extends AbstractCDXExtractor implements Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(ZipNumCDXExtractor.class);
+
+	/** The charset of the CDX lines.*/
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The compressed CDX file.*/
+	protected final File cdxFile;
+	/** The channel for reading the blocks from the compressed CDX file.*/
+	protected final FileChannel channel;
+	/** The CDX format of the file.*/
+	protected final Character[] cdxFormat;
+	/** The summary key of the first line in each block.*/
+	protected final String[] blockKeys;
+	/** The offset of each block in the compressed CDX file.*/
+	protected final long[] blockOffsets;
+	/** The compressed length of each block.*/
+	protected final int[] blockLengths;
+	/** The type of the keys of the CDX file.*/
+	protected final CDXKeyType keyType;
+
+	/**
+	 * Constructor.
+	 * Uses the key type from the system properties, see {@link SortedCDXFileExtractor#getDefaultKeyType()}.
+	 * @param cdxFile The compressed CDX file. The summary index file must be next to it.
+	 * @throws IOException If the summary index cannot be loaded, or the compressed file cannot be opened.
+	 */
+	public ZipNumCDXExtractor(File cdxFile) throws IOException {
+		this(cdxFile, SortedCDXFileExtractor.getDefaultKeyType());
+	}
+
+	/**
+	 * Constructor.
+	 * @param cdxFile The compressed CDX file. The summary index file must be next to it.
+	 * @param keyType The type of the keys of the CDX file.
+	 * @throws IOException If the summary index cannot be loaded, or the compressed file cannot be opened.
+	 */
+	public ZipNumCDXExtractor(File cdxFile, CDXKeyType keyType) throws IOException {
+		ArgumentCheck.checkIsFile(cdxFile, "File cdxFile");
+		ArgumentCheck.checkNotNull(keyType, "CDXKeyType keyType");
+		this.keyType = keyType;
+		File indexFile = ZipNumCDXFileWriter.getIndexFile(cdxFile);
+		ArgumentCheck.checkIsFile(indexFile, "The summary index file for the compressed CDX file");
+		this.cdxFile = cdxFile;
+
+		List<String> keys = new ArrayList<String>();
+		List<Long> offsets = new ArrayList<Long>();
+		List<Integer> lengths = new ArrayList<Integer>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile),
+				UTF8))) {
+			String formatLine = reader.readLine();
+			cdxFormat = new CDXFileReader().extractCDXFormat(formatLine == null ? "" : formatLine);
+			String line;
+			while((line = reader.readLine()) != null) {
+				String[] split = line.split(ZipNumCDXFileWriter.INDEX_SEPARATOR);
+				if(split.length != 3) {
+					logger.warn("Ignoring bad line in the summary index: " + line);
+					continue;
+				}
+				keys.add(split[0]);
+				offsets.add(Long.parseLong(split[1]));
+				lengths.add(Integer.parseInt(split[2]));
+			}
+		}
+		blockKeys = keys.toArray(new String[keys.size()]);
+		blockOffsets = new long[offsets.size()];
+		blockLengths = new int[lengths.size()];
+		for(int i = 0; i < blockKeys.length; i++) {
+			blockOffsets[i] = offsets.get(i);
+			blockLengths[i] = lengths.get(i);
+		}
+		this.channel = new RandomAccessFile(cdxFile, "r").getChannel();
+		logger.info("Loaded summary index with " + blockKeys.length + " blocks for the compressed CDX file '"
+				+ cdxFile.getAbsolutePath() + "'.");
+	}
+
+	@Override
+	public CDXEntry retrieveCDX(WPID wpid) {
+		Collection<CDXEntry> allCDXforUrl = retrieveAllCDX(wpid.getUrl());
+		return retrieveCDXclosestToDate(allCDXforUrl, wpid.getDate());
+	}
+
+	@Override
+	public Collection<CDXEntry> retrieveAllCDX(String url) {
+		return retrieveEntries(createKey(url), null, null);
+	}
+
+	@Override
+	public Collection<CDXEntry> retrieveCDXForInterval(UrlInterval urlInterval) {
+		return retrieveEntries(createKey(urlInterval.getUrl()), urlInterval.getEarliestDate(),
+				urlInterval.getLatestDate());
+	}
+
+	/**
+	 * Retrieves the CDX entries for the given key within a date interval.
+	 * @param key The canonized URL key.
+	 * @param earliest The earliest date. May be null, if no lower limit.
+	 * @param latest The latest date. May be null, if no upper limit.
+	 * @return The CDX entries for the key within the interval.
+	 */
+	protected List<CDXEntry> retrieveEntries(String key, Date earliest, Date latest) {
+		String prefix = key + " ";
+		String searchKey = prefix;
+		if(earliest != null) {
+			searchKey = prefix + DateUtils.dateToWaybackDate(earliest);
+		}
+
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		try {
+			for(int block = findFirstBlock(searchKey); block < blockKeys.length; block++) {
+				if(CDXFileSorter.UTF8_ORDER.compare(blockKeys[block], prefix) > 0
+						&& !blockKeys[block].startsWith(prefix)) {
+					break;
+				}
+				if(!extractFromBlock(block, prefix, earliest, latest, res)) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read the compressed CDX file '" + cdxFile.getAbsolutePath()
+					+ "'", e);
+		}
+		logger.debug("Found " + res.size() + " CDX entries for the key '" + key + "'.");
+		return res;
+	}
+
+	/**
+	 * Binary search for the first block, which can contain the search key.
+	 * This is the block before the first block with a first key not less than the search key,
+	 * since the entries for the search key may begin at the end of the previous block.
+	 * @param searchKey The key to search for.
+	 * @return The index of the first block which can contain the key.
+	 */
+	protected int findFirstBlock(String searchKey) {
+		int low = 0;
+		int high = blockKeys.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(CDXFileSorter.UTF8_ORDER.compare(blockKeys[mid], searchKey) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return Math.max(low - 1, 0);
+	}
+
+	/**
+	 * Decompresses a block, and extracts the CDX entries with the prefix within the interval.
+	 * @param block The index of the block.
+	 * @param prefix The prefix of the CDX lines, which must be extracted.
+	 * @param earliest The earliest date. May be null, if no lower limit.
+	 * @param latest The latest date. May be null, if no upper limit.
+	 * @param res The list where the extracted CDX entries are added.
+	 * @return Whether the next block may also contain CDX lines with the prefix.
+	 * @throws IOException If it fails to read the block.
+	 */
+	protected boolean extractFromBlock(int block, String prefix, Date earliest, Date latest, List<CDXEntry> res)
+			throws IOException {
+		try (BufferedReader reader = openBlock(block)) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(!line.startsWith(prefix)) {
+					if(CDXFileSorter.UTF8_ORDER.compare(line, prefix) > 0) {
+						return false;
+					}
+					continue;
+				}
+				CDXEntry entry = CDXEntry.createCDXEntry(line, cdxFormat);
+				if(entry == null || !DateUtils.checkDateInterval(entry, earliest, latest)) {
+					continue;
+				}
+				res.add(entry);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads and decompresses a block.
+	 * @param block The index of the block.
+	 * @return The reader of the CDX lines of the block.
+	 * @throws IOException If it fails to read the block.
+	 */
+	protected BufferedReader openBlock(int block) throws IOException {
+		ByteBuffer compressed = ByteBuffer.allocate(blockLengths[block]);
+		long position = blockOffsets[block];
+		while(compressed.hasRemaining()) {
+			int read = channel.read(compressed, position + compressed.position());
+			if(read < 0) {
+				throw new IOException("Unexpected end of the compressed CDX file at block " + block);
+			}
+		}
+		return new BufferedReader(new InputStreamReader(new GZIPInputStream(
+				new ByteArrayInputStream(compressed.array())), UTF8));
+	}
+
+	@Override
+	public Iterator<CDXEntry> retrieveRange(String url, MatchType matchType) {
+		final CDXKeyRange range = CDXKeyRange.createRange(url, matchType, keyType);
+		final int firstBlock = range.getStartKey().isEmpty() ? 0 : findFirstBlock(range.getStartKey());
+		return new Iterator<CDXEntry>() {
+			/** The index of the next block to decompress.*/
+			private int block = firstBlock;
+			/** Whether the end of the range has been reached.*/
+			private boolean finished = false;
+			/** The entries within the range from the current block.*/
+			private Iterator<CDXEntry> current = Collections.<CDXEntry>emptyList().iterator();
+
+			@Override
+			public boolean hasNext() {
+				while(!current.hasNext() && !finished && block < blockKeys.length) {
+					if(range.isAfter(blockKeys[block])) {
+						finished = true;
+						break;
+					}
+					List<CDXEntry> entries = new ArrayList<CDXEntry>();
+					finished = !extractRangeFromBlock(block++, range, entries);
+					current = entries.iterator();
+				}
+				return current.hasNext();
+			}
+
+			@Override
+			public CDXEntry next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException("No more CDX entries in the range.");
+				}
+				return current.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Cannot remove CDX entries from a CDX file.");
+			}
+		};
+	}
+
+	/**
+	 * Decompresses a block, and extracts the CDX entries within the range.
+	 * @param block The index of the block.
+	 * @param range The range of keys.
+	 * @param res The list where the extracted CDX entries are added.
+	 * @return Whether the next block may also contain CDX lines within the range.
+	 */
+	protected boolean extractRangeFromBlock(int block, CDXKeyRange range, List<CDXEntry> res) {
+		try (BufferedReader reader = openBlock(block)) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(range.isAfter(line)) {
+					return false;
+				}
+				if(range.matches(line)) {
+					CDXEntry entry = CDXEntry.createCDXEntry(line, cdxFormat);
+					if(entry != null) {
+						res.add(entry);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read the compressed CDX file '" + cdxFile.getAbsolutePath()
+					+ "'", e);
+		}
+		return true;
+	}
+
+	/**
+	 * Creates the key for looking up the URL in the compressed CDX file.
+	 * @param url The URL.
+	 * @return The URL key in the form of the keys of the CDX file.
+	 */
+	protected String createKey(String url) {
+		return keyType.createKey(url);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
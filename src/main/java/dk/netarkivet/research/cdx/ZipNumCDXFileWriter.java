@@ -0,0 +1,213 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Writes CDX entries in the block-compressed ZipNum format.
+ *
+ * The CDX lines are written to the output file in gzip members (blocks) of a fixed number of lines.
+ * A concatenation of gzip members is still a valid gzip file, so the output file can be read with e.g. 'zcat'.
+ * Alongside the output file a small summary index is written (the output file name with the suffix '.idx'),
+ * which contains the CDX format line, followed by one line per block in the format:
+ * "key date[TAB]offset[TAB]length", where the key and date are from the first CDX entry in the block.
+ *
+ * The entries must be given in sorted order, and the canonized URL must be the first element of the CDX format.
+ */
+public class ZipNumCDXFileWriter extends CDXFileWriter {
+    /** Logging mechanism. */
+    private static Logger logger = LoggerFactory.getLogger(ZipNumCDXFileWriter.class);
+
+    /** The default number of CDX lines in each compressed block.*/
+    public static final int DEFAULT_LINES_PER_BLOCK = 3000;
+    /** The suffix of the summary index file.*/
+    public static final String INDEX_FILE_SUFFIX = ".idx";
+    /** The separator of the fields in the summary index file.*/
+    protected static final String INDEX_SEPARATOR = "\t";
+
+    /** The summary index file.*/
+    protected final File indexFile;
+    /** The number of CDX lines in each compressed block.*/
+    protected final int linesPerBlock;
+
+    /** The stream to the summary index file, when the writer is open.*/
+    protected OutputStream indexStream;
+    /** The uncompressed CDX lines of the current block.*/
+    protected final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    /** The offset of the current block in the output file.*/
+    protected long offset;
+    /** The number of CDX lines in the current block.*/
+    protected int linesInBlock;
+    /** The summary key of the first line in the current block.*/
+    protected String firstKey;
+    /** The previous CDX line, for validating the order.*/
+    protected String previousLine;
+
+	/**
+	 * Constructor.
+	 * @param outputFile The file to write the compressed CDX blocks to.
+	 * @param linesPerBlock The number of CDX lines in each compressed block.
+	 */
+	public ZipNumCDXFileWriter(File outputFile, int linesPerBlock) {
+		super(outputFile);
+		ArgumentCheck.checkIsTrue(linesPerBlock > 0, "int linesPerBlock must be positive");
+		this.linesPerBlock = linesPerBlock;
+		this.indexFile = getIndexFile(outputFile);
+	}
+
+	/**
+	 * @param outputFile The file with the compressed CDX blocks.
+	 * @return The summary index file for the compressed CDX file.
+	 */
+	public static File getIndexFile(File outputFile) {
+		return new File(outputFile.getParentFile(), outputFile.getName() + INDEX_FILE_SUFFIX);
+	}
+
+	/**
+	 * @return The summary index file.
+	 */
+	public File getIndexFile() {
+		return indexFile;
+	}
+
+	/**
+	 * Opens the output file and the summary index file.
+	 * @param cdxFormat The CDX format. The first element must be the canonized URL.
+	 * @throws IOException If it fails to open the files.
+	 */
+	@Override
+	public void open(Collection<Character> cdxFormat) throws IOException {
+		ArgumentCheck.checkIsTrue(!cdxFormat.isEmpty()
+				&& (cdxFormat.iterator().next() == CDXConstants.CDX_CHAR_CANONIZED_URL
+				|| cdxFormat.iterator().next() == CDXConstants.CDX_CHAR_MASSAGED_URL),
+				"The first CDX element must be the canonized URL");
+		if(isOpen()) {
+			throw new IllegalStateException("The CDX file '" + outputFile.getAbsolutePath() + "' is already open.");
+		}
+		logger.debug("Writing compressed CDX blocks to file '" + outputFile.getName() + "'.");
+		outputStream = new FileOutputStream(outputFile);
+		try {
+			indexStream = new FileOutputStream(indexFile);
+			indexStream.write(createFirstLine(cdxFormat).getBytes(UTF8));
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		this.cdxFormat = cdxFormat;
+		this.entriesWritten = 0L;
+		block.reset();
+		offset = 0L;
+		linesInBlock = 0;
+		firstKey = null;
+		previousLine = null;
+	}
+
+	/**
+	 * Appends a CDX entry to the current block, and writes the block when it is full.
+	 * @param entry The CDX entry. It must not be sorted before the previous entry in UTF-8 byte order,
+	 * see {@link CDXFileSorter#UTF8_ORDER}.
+	 * @throws IOException If it fails to write to the files.
+	 */
+	@Override
+	public void append(CDXEntry entry) throws IOException {
+		if(!isOpen()) {
+			throw new IllegalStateException("The CDX file '" + outputFile.getAbsolutePath() + "' is not open.");
+		}
+		String line = entry.extractCDXAsLine(cdxFormat);
+		if(previousLine != null && CDXFileSorter.UTF8_ORDER.compare(previousLine, line) > 0) {
+			throw new ArgumentCheck("The CDX entries are not sorted: '" + line.trim() + "' after '"
+					+ previousLine.trim() + "'");
+		}
+		previousLine = line;
+		if(linesInBlock == 0) {
+			firstKey = extractSummaryKey(line);
+		}
+		block.write(line.getBytes(UTF8));
+		linesInBlock++;
+		entriesWritten++;
+
+		if(linesInBlock == linesPerBlock) {
+			offset += writeBlock(block, firstKey, offset, outputStream, indexStream);
+			linesInBlock = 0;
+		}
+	}
+
+	/**
+	 * Writes the last block, and closes the output file and the summary index file.
+	 * @throws IOException If it fails to write to or close the files.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(!isOpen()) {
+			return;
+		}
+		try {
+			if(linesInBlock > 0 && indexStream != null) {
+				writeBlock(block, firstKey, offset, outputStream, indexStream);
+				linesInBlock = 0;
+			}
+		} finally {
+			try {
+				outputStream.close();
+			} finally {
+				outputStream = null;
+				if(indexStream != null) {
+					indexStream.close();
+					indexStream = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compresses a block of CDX lines as a gzip member, and writes it to the data file along with a line
+	 * in the summary index file.
+	 * The block buffer is reset afterwards.
+	 * @param block The uncompressed CDX lines of the block.
+	 * @param firstKey The summary key of the first line in the block.
+	 * @param offset The offset of the block in the data file.
+	 * @param dataStream The stream to the data file.
+	 * @param indexStream The stream to the summary index file.
+	 * @return The compressed length of the block.
+	 * @throws IOException If it fails to write to the files.
+	 */
+	protected long writeBlock(ByteArrayOutputStream block, String firstKey, long offset, OutputStream dataStream,
+			OutputStream indexStream) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.size() / 4 + 64);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+			block.writeTo(gzip);
+		}
+		compressed.writeTo(dataStream);
+		String indexLine = firstKey + INDEX_SEPARATOR + offset + INDEX_SEPARATOR + compressed.size() + "\n";
+		indexStream.write(indexLine.getBytes(UTF8));
+		block.reset();
+		return compressed.size();
+	}
+
+	/**
+	 * Extracts the summary key from a CDX line: the first two elements, e.g. the key and the date.
+	 * @param line The CDX line.
+	 * @return The summary key.
+	 */
+	protected String extractSummaryKey(String line) {
+		int firstSpace = line.indexOf(' ');
+		if(firstSpace < 0) {
+			return line.trim();
+		}
+		int secondSpace = line.indexOf(' ', firstSpace + 1);
+		if(secondSpace < 0) {
+			return line.trim();
+		}
+		return line.substring(0, secondSpace);
+	}
+}
@@ -0,0 +1,52 @@
+package dk.netarkivet.research.cdx.cache;
+
+import java.util.List;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+
+/**
+ * Interface for caching the CDX entries retrieved for a URL, 
+ * so the CDX server does not have to be asked for the same URL several times.
+ * 
+ * Implementations must be thread safe.
+ */
+public interface CDXCache {
+	/**
+	 * Retrieves the cached CDX entries for a key.
+	 * @param key The key, e.g. the URL.
+	 * @return The cached CDX entries, or null if the key is not in the cache, or it has expired.
+	 */
+	List<CDXEntry> get(String key);
+	
+	/**
+	 * Puts the CDX entries for a key into the cache.
+	 * @param key The key, e.g. the URL.
+	 * @param entries The CDX entries for the key.
+	 */
+	void put(String key, List<CDXEntry> entries);
+	
+	/**
+	 * Removes all the entries from the cache.
+	 */
+	void clear();
+	
+	/**
+	 * @return The number of keys in the cache.
+	 */
+	int size();
+	
+	/**
+	 * @return The number of lookups, which found the key in the cache.
+	 */
+	long getHitCount();
+	
+	/**
+	 * @return The number of lookups, which did not find the key in the cache (or found it expired).
+	 */
+	long getMissCount();
+	
+	/**
+	 * @return The number of keys removed from the cache, due to the size limit or expiry.
+	 */
+	long getEvictionCount();
+}
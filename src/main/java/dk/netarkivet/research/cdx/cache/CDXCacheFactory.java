@@ -0,0 +1,69 @@
+package dk.netarkivet.research.cdx.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Factory for the CDX caches used by the CDX extractors.
+ * 
+ * The extractors always get an in-memory {@link LruCDXCache}. 
+ * If the system property {@link #PROPERTY_CACHE_DIR} is set, then it is backed by a persistent {@link DiskCDXCache}
+ * in that directory, which is shared by all the extractors in the JVM.
+ */
+public class CDXCacheFactory {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(CDXCacheFactory.class);
+
+	/** The system property for the directory of the persistent cache. No persistent cache, when not set.*/
+	public static final String PROPERTY_CACHE_DIR = "dk.netarkivet.research.cdx.cache.dir";
+	/** The system property for the time to live for the keys in the persistent cache, in milliseconds.*/
+	public static final String PROPERTY_DISK_TIME_TO_LIVE = "dk.netarkivet.research.cdx.cache.diskTimeToLive";
+	/** The default time to live for the keys in the persistent cache - 30 days.*/
+	public static final long DEFAULT_DISK_TIME_TO_LIVE = 30L * 24 * 60 * 60 * 1000;
+
+	/** The persistent caches, mapped by their directory.*/
+	private static final Map<File, DiskCDXCache> DISK_CACHES = new HashMap<File, DiskCDXCache>();
+
+	/**
+	 * Creates the cache for a CDX extractor, as configured by the system properties.
+	 * @return The cache.
+	 */
+	public static CDXCache createCache() {
+		CDXCache memoryCache = LruCDXCache.createFromSystemProperties();
+		String cacheDir = System.getProperty(PROPERTY_CACHE_DIR);
+		if(cacheDir == null || cacheDir.isEmpty()) {
+			return memoryCache;
+		}
+		DiskCDXCache diskCache = getDiskCache(new File(cacheDir), 
+				Long.getLong(PROPERTY_DISK_TIME_TO_LIVE, DEFAULT_DISK_TIME_TO_LIVE));
+		if(diskCache == null) {
+			return memoryCache;
+		}
+		return new TieredCDXCache(memoryCache, diskCache);
+	}
+
+	/**
+	 * Retrieves the persistent cache for the directory. It is opened the first time.
+	 * @param cacheDir The directory of the persistent cache.
+	 * @param timeToLive The time to live for the keys in the persistent cache.
+	 * @return The persistent cache, or null if it could not be opened.
+	 */
+	protected static synchronized DiskCDXCache getDiskCache(File cacheDir, long timeToLive) {
+		File dir = cacheDir.getAbsoluteFile();
+		DiskCDXCache res = DISK_CACHES.get(dir);
+		if(res == null) {
+			try {
+				res = new DiskCDXCache(dir, timeToLive);
+				DISK_CACHES.put(dir, res);
+			} catch (IOException e) {
+				logger.warn("Could not open the persistent CDX cache in '" + dir + "'. Using only memory cache.", e);
+			}
+		}
+		return res;
+	}
+}
@@ -0,0 +1,323 @@
+package dk.netarkivet.research.cdx.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.cdx.CDXCaptureList;
+import dk.netarkivet.research.cdx.CDXConstants;
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.utils.FileUtils;
+
+/**
+ * Persistent cache of CDX entries on disk, so repeated runs over the same URLs do not have to ask the CDX server 
+ * again.
+ * 
+ * The cache consists of two append-only files in the cache directory:
+ * <ul>
+ *   <li>The log file, with the CDX lines for each cached key.</li>
+ *   <li>The index file, with a line for each cached key: key, offset and length in the log file, 
+ *   and the time when it was cached - separated by tabs.</li>
+ * </ul>
+ * The index is loaded into memory when the cache is opened, where later lines for the same key replace earlier ones.
+ * Index lines pointing beyond the end of the log file (e.g. after a crash) are ignored.
+ * 
+ * The cached keys expire after the time to live, and are then retrieved again from the CDX server.
+ * 
+ * Several processes can share the cache directory: the log file is locked while the CDX lines are appended to it
+ * and the index line is written, so the processes do not write at the same offset. The keys cached by the other 
+ * processes are only seen, when the cache is opened again. Within a process there must only be one cache for 
+ * a directory, since the file locks are held by the whole process, see {@link CDXCacheFactory}.
+ */
+public class DiskCDXCache implements CDXCache, Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(DiskCDXCache.class);
+
+	/** The name of the log file with the CDX lines.*/
+	public static final String LOG_FILE_NAME = "cdx-cache.log";
+	/** The name of the index file.*/
+	public static final String INDEX_FILE_NAME = "cdx-cache.idx";
+	/** The separator between the elements of an index line.*/
+	protected static final String INDEX_SEPARATOR = "\t";
+	/** The charset of the files.*/
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The CDX format of the cached lines. All the elements, which can be held by a CDX entry.*/
+	protected static final List<Character> CACHE_CDX_FORMAT = Collections.unmodifiableList(Arrays.asList(
+			CDXConstants.CDX_CHAR_CANONIZED_URL,
+			CDXConstants.CDX_CHAR_DATE,
+			CDXConstants.CDX_CHAR_IP,
+			CDXConstants.CDX_CHAR_ORIGINAL_URL,
+			CDXConstants.CDX_CHAR_MIME_TYPE,
+			CDXConstants.CDX_CHAR_RESPONSE_CODE,
+			CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM,
+			CDXConstants.CDX_CHAR_REDIRECT,
+			CDXConstants.CDX_CHAR_COMPRESSED_ARC_FILE_OFFSET,
+			CDXConstants.CDX_CHAR_ARC_DOCUMENT_LENGTH,
+			CDXConstants.CDX_CHAR_FILE_NAME));
+
+	/** The log file.*/
+	protected final File logFile;
+	/** The index file.*/
+	protected final File indexFile;
+	/** The time to live for the cached keys in milliseconds. 0 or less for no expiry.*/
+	protected final long timeToLive;
+	/** The channel for reading and appending to the log file.*/
+	protected final FileChannel logChannel;
+	/** The writer for appending to the index file.*/
+	protected Writer indexWriter;
+	/** The in-memory index, mapping the keys to their location in the log file.*/
+	protected final Map<String, IndexEntry> index = new HashMap<String, IndexEntry>();
+
+	/** The number of hits.*/
+	protected final AtomicLong hits = new AtomicLong();
+	/** The number of misses.*/
+	protected final AtomicLong misses = new AtomicLong();
+	/** The number of expired keys.*/
+	protected final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * Opens the cache in the directory, or creates a new cache if the directory does not contain one.
+	 * @param cacheDir The directory for the cache files.
+	 * @param timeToLive The time to live for the cached keys in milliseconds. 0 for no expiry.
+	 * @throws IOException If the cache files cannot be opened or read.
+	 */
+	public DiskCDXCache(File cacheDir, long timeToLive) throws IOException {
+		ArgumentCheck.checkNotNull(cacheDir, "File cacheDir");
+		ArgumentCheck.checkIsTrue(timeToLive >= 0, "long timeToLive must not be negative");
+		FileUtils.createDir(cacheDir.getAbsolutePath());
+		this.logFile = new File(cacheDir, LOG_FILE_NAME);
+		this.indexFile = new File(cacheDir, INDEX_FILE_NAME);
+		this.timeToLive = timeToLive;
+		this.logChannel = new RandomAccessFile(logFile, "rw").getChannel();
+		loadIndex();
+		this.indexWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile, true), UTF8));
+		logger.info("Opened the CDX cache in '" + cacheDir.getAbsolutePath() + "' with " + index.size() 
+				+ " cached keys.");
+	}
+
+	/**
+	 * Loads the index file into memory.
+	 * @throws IOException If it fails to read the index file.
+	 */
+	protected void loadIndex() throws IOException {
+		if(!indexFile.exists()) {
+			return;
+		}
+		long logSize = logChannel.size();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), 
+				UTF8))) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				String[] split = line.split(INDEX_SEPARATOR);
+				if(split.length != 4) {
+					logger.warn("Ignoring bad line in the CDX cache index: " + line);
+					continue;
+				}
+				try {
+					IndexEntry entry = new IndexEntry(Long.parseLong(split[1]), Integer.parseInt(split[2]), 
+							Long.parseLong(split[3]));
+					if(entry.offset + entry.length > logSize) {
+						logger.warn("Ignoring CDX cache index line beyond the end of the log: " + line);
+						continue;
+					}
+					if(isExpired(entry)) {
+						index.remove(split[0]);
+					} else {
+						index.put(split[0], entry);
+					}
+				} catch (NumberFormatException e) {
+					logger.warn("Ignoring bad line in the CDX cache index: " + line, e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public List<CDXEntry> get(String key) {
+		IndexEntry entry;
+		synchronized(this) {
+			entry = index.get(key);
+			if(entry != null && isExpired(entry)) {
+				index.remove(key);
+				evictions.incrementAndGet();
+				entry = null;
+			}
+		}
+		if(entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		
+		try {
+			List<CDXEntry> res = readEntries(entry);
+			hits.incrementAndGet();
+			return res;
+		} catch (IOException e) {
+			logger.warn("Failed to read the cached CDX entries for '" + key + "'. Treating it as a miss.", e);
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the CDX entries from the log file.
+	 * @param entry The index entry with the location in the log file.
+	 * @return The CDX entries, sorted by date for fast lookups.
+	 * @throws IOException If it fails to read the log file.
+	 */
+	protected List<CDXEntry> readEntries(IndexEntry entry) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+		while(buffer.hasRemaining()) {
+			if(logChannel.read(buffer, entry.offset + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of the CDX cache log at " + entry.offset);
+			}
+		}
+		Character[] format = CACHE_CDX_FORMAT.toArray(new Character[CACHE_CDX_FORMAT.size()]);
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		String content = new String(buffer.array(), UTF8);
+		int start = 0;
+		while(start < content.length()) {
+			int end = content.indexOf('\n', start);
+			if(end < 0) {
+				end = content.length();
+			}
+			CDXEntry cdxEntry = CDXEntry.createCDXEntry(content.substring(start, end), format);
+			if(cdxEntry != null) {
+				res.add(cdxEntry);
+			}
+			start = end + 1;
+		}
+		return new CDXCaptureList(res);
+	}
+
+	@Override
+	public synchronized void put(String key, List<CDXEntry> entries) {
+		ArgumentCheck.checkNotNull(key, "String key");
+		ArgumentCheck.checkNotNull(entries, "List<CDXEntry> entries");
+		if(key.contains(INDEX_SEPARATOR) || key.contains("\n")) {
+			logger.debug("Cannot cache the key '" + key + "' on disk.");
+			return;
+		}
+		StringBuilder content = new StringBuilder();
+		for(CDXEntry entry : entries) {
+			content.append(entry.extractCDXAsLine(CACHE_CDX_FORMAT));
+		}
+		byte[] bytes = content.toString().getBytes(UTF8);
+		// Locked until the index line is written, so other processes cannot append at the same offset meanwhile
+		try (FileLock lock = logChannel.lock()) {
+			long offset = logChannel.size();
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			while(buffer.hasRemaining()) {
+				logChannel.write(buffer, offset + buffer.position());
+			}
+			IndexEntry entry = new IndexEntry(offset, bytes.length, System.currentTimeMillis());
+			indexWriter.write(key + INDEX_SEPARATOR + entry.offset + INDEX_SEPARATOR + entry.length 
+					+ INDEX_SEPARATOR + entry.created + "\n");
+			indexWriter.flush();
+			index.put(key, entry);
+		} catch (IOException e) {
+			logger.warn("Failed to write the CDX entries for '" + key + "' to the cache.", e);
+		}
+	}
+
+	/**
+	 * @param entry The index entry.
+	 * @return Whether the index entry has lived beyond the time to live.
+	 */
+	protected boolean isExpired(IndexEntry entry) {
+		return timeToLive > 0 && System.currentTimeMillis() - entry.created > timeToLive;
+	}
+
+	@Override
+	public synchronized void clear() {
+		try (FileLock lock = logChannel.lock()) {
+			index.clear();
+			logChannel.truncate(0L);
+			indexWriter.close();
+			indexWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile, false), UTF8));
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to clear the CDX cache files.", e);
+		}
+	}
+
+	@Override
+	public synchronized int size() {
+		return index.size();
+	}
+
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		indexWriter.close();
+		logChannel.close();
+	}
+
+	@Override
+	public String toString() {
+		return "DiskCDXCache: [file = " + logFile.getAbsolutePath() + ", size = " + size() + ", hits = " 
+				+ hits.get() + ", misses = " + misses.get() + ", evictions = " + evictions.get() + "]";
+	}
+
+	/**
+	 * The location of the CDX lines for a key in the log file.
+	 */
+	protected static class IndexEntry {
+		/** The offset in the log file.*/
+		final long offset;
+		/** The number of bytes in the log file.*/
+		final int length;
+		/** The time when the key was cached.*/
+		final long created;
+
+		/**
+		 * Constructor.
+		 * @param offset The offset in the log file.
+		 * @param length The number of bytes in the log file.
+		 * @param created The time when the key was cached.
+		 */
+		IndexEntry(long offset, int length, long created) {
+			this.offset = offset;
+			this.length = length;
+			this.created = created;
+		}
+	}
+}
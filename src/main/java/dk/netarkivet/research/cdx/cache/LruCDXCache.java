@@ -0,0 +1,203 @@
+package dk.netarkivet.research.cdx.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * In-memory cache of CDX entries, which evicts the least recently used keys when it grows beyond its limit.
+ * 
+ * The size of the cache is measured as the weight of the cached keys, where the weight of a key is 
+ * the number of CDX entries for it (at least 1, so empty results also count). 
+ * Thereby a few URLs with many captures cannot fill the memory, while many URLs with few captures can be kept.
+ * 
+ * The cached keys can also expire after a given time to live.
+ */
+public class LruCDXCache implements CDXCache {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(LruCDXCache.class);
+
+	/** The system property for the maximum weight of the cache - the number of CDX entries.*/
+	public static final String PROPERTY_MAX_WEIGHT = "dk.netarkivet.research.cdx.cache.maxWeight";
+	/** The system property for the time to live for the cached keys, in milliseconds.*/
+	public static final String PROPERTY_TIME_TO_LIVE = "dk.netarkivet.research.cdx.cache.timeToLive";
+	/** The default maximum weight of the cache.*/
+	public static final long DEFAULT_MAX_WEIGHT = 1000000L;
+	/** The default time to live - no expiry.*/
+	public static final long DEFAULT_TIME_TO_LIVE = 0L;
+
+	/**
+	 * Creates a cache with the limits from the system properties {@link #PROPERTY_MAX_WEIGHT} and 
+	 * {@link #PROPERTY_TIME_TO_LIVE}.
+	 * @return The cache.
+	 */
+	public static LruCDXCache createFromSystemProperties() {
+		return new LruCDXCache(Long.getLong(PROPERTY_MAX_WEIGHT, DEFAULT_MAX_WEIGHT), 
+				Long.getLong(PROPERTY_TIME_TO_LIVE, DEFAULT_TIME_TO_LIVE));
+	}
+
+	/** The cached values in access order, with the least recently used first.*/
+	protected final LinkedHashMap<String, CachedValue> cache = new LinkedHashMap<String, CachedValue>(16, 0.75f, 
+			true);
+	/** The maximum total weight of the cached values.*/
+	protected final long maxWeight;
+	/** The time to live for the cached values in milliseconds. 0 or less for no expiry.*/
+	protected final long timeToLive;
+	/** The current total weight of the cached values.*/
+	protected long weight = 0L;
+
+	/** The number of hits.*/
+	protected final AtomicLong hits = new AtomicLong();
+	/** The number of misses.*/
+	protected final AtomicLong misses = new AtomicLong();
+	/** The number of evictions.*/
+	protected final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * @param maxWeight The maximum total number of CDX entries in the cache.
+	 * @param timeToLive The time to live for the cached keys in milliseconds. 0 for no expiry.
+	 */
+	public LruCDXCache(long maxWeight, long timeToLive) {
+		ArgumentCheck.checkIsTrue(maxWeight > 0, "long maxWeight must be positive");
+		ArgumentCheck.checkIsTrue(timeToLive >= 0, "long timeToLive must not be negative");
+		this.maxWeight = maxWeight;
+		this.timeToLive = timeToLive;
+	}
+
+	@Override
+	public synchronized List<CDXEntry> get(String key) {
+		CachedValue value = cache.get(key);
+		if(value != null && isExpired(value)) {
+			remove(key);
+			evictions.incrementAndGet();
+			value = null;
+		}
+		if(value == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return value.entries;
+	}
+
+	@Override
+	public synchronized void put(String key, List<CDXEntry> entries) {
+		ArgumentCheck.checkNotNull(key, "String key");
+		ArgumentCheck.checkNotNull(entries, "List<CDXEntry> entries");
+		CachedValue value = new CachedValue(entries, System.currentTimeMillis());
+		if(value.weight > maxWeight) {
+			logger.debug("Not caching the " + entries.size() + " CDX entries for '" + key 
+					+ "', since they exceed the size of the cache.");
+			remove(key);
+			return;
+		}
+		CachedValue old = cache.put(key, value);
+		if(old != null) {
+			weight -= old.weight;
+		}
+		weight += value.weight;
+		evict();
+	}
+
+	/**
+	 * Evicts the least recently used values, until the cache is within its weight limit.
+	 */
+	protected void evict() {
+		Iterator<Map.Entry<String, CachedValue>> it = cache.entrySet().iterator();
+		while(weight > maxWeight && it.hasNext()) {
+			weight -= it.next().getValue().weight;
+			it.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes a key from the cache.
+	 * @param key The key.
+	 */
+	protected void remove(String key) {
+		CachedValue old = cache.remove(key);
+		if(old != null) {
+			weight -= old.weight;
+		}
+	}
+
+	/**
+	 * @param value The cached value.
+	 * @return Whether the cached value has lived beyond the time to live.
+	 */
+	protected boolean isExpired(CachedValue value) {
+		return timeToLive > 0 && System.currentTimeMillis() - value.created > timeToLive;
+	}
+
+	@Override
+	public synchronized void clear() {
+		cache.clear();
+		weight = 0L;
+	}
+
+	@Override
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	/**
+	 * @return The current total weight of the cached values.
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "LruCDXCache: [size = " + size() + ", weight = " + getWeight() + ", hits = " + hits.get() 
+				+ ", misses = " + misses.get() + ", evictions = " + evictions.get() + "]";
+	}
+
+	/**
+	 * The cached CDX entries for a key.
+	 */
+	protected static class CachedValue {
+		/** The CDX entries.*/
+		final List<CDXEntry> entries;
+		/** The time when the value was cached.*/
+		final long created;
+		/** The weight of the value.*/
+		final long weight;
+
+		/**
+		 * Constructor.
+		 * @param entries The CDX entries.
+		 * @param created The time when the value was cached.
+		 */
+		CachedValue(List<CDXEntry> entries, long created) {
+			this.entries = entries;
+			this.created = created;
+			this.weight = Math.max(entries.size(), 1);
+		}
+	}
+}
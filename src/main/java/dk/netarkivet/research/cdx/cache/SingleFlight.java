@@ -0,0 +1,107 @@
+package dk.netarkivet.research.cdx.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Merges concurrent calls for the same key into a single call.
+ * 
+ * The first thread to ask for a key performs the call, and any other thread asking for the same key
+ * while the call is in flight waits for it and receives the same result, instead of making its own call.
+ * When the call has finished, the next request for the key makes a new call - 
+ * so this does not cache anything by itself, and should be placed behind a cache.
+ * 
+ * @param <T> The type of the results of the calls.
+ */
+public class SingleFlight<T> {
+	/** The calls in flight, mapped by their key.*/
+	protected final ConcurrentMap<String, FutureTask<T>> inFlight = new ConcurrentHashMap<String, FutureTask<T>>();
+
+	/** The number of calls actually made.*/
+	protected final AtomicLong calls = new AtomicLong();
+	/** The number of calls saved, by waiting for a call in flight.*/
+	protected final AtomicLong savedCalls = new AtomicLong();
+
+	/**
+	 * Performs the call for the key, or waits for the result of the call already in flight for the key.
+	 * @param key The key.
+	 * @param call The call to perform, if no call is in flight for the key.
+	 * @return The result of the call.
+	 * @throws IllegalStateException If the call failed with a checked exception, or the thread was interrupted.
+	 */
+	public T execute(String key, Callable<T> call) {
+		ArgumentCheck.checkNotNull(key, "String key");
+		ArgumentCheck.checkNotNull(call, "Callable<T> call");
+		FutureTask<T> task = new FutureTask<T>(call);
+		FutureTask<T> existing = inFlight.putIfAbsent(key, task);
+		if(existing != null) {
+			savedCalls.incrementAndGet();
+			return waitForResult(key, existing);
+		}
+		
+		try {
+			calls.incrementAndGet();
+			task.run();
+		} finally {
+			inFlight.remove(key, task);
+		}
+		return waitForResult(key, task);
+	}
+
+	/**
+	 * Waits for the result of the call.
+	 * Unchecked exceptions from the call are thrown as they are.
+	 * @param key The key of the call.
+	 * @param task The call.
+	 * @return The result of the call.
+	 */
+	protected T waitForResult(String key, FutureTask<T> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the call for '" + key + "'.", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if(e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IllegalStateException("The call for '" + key + "' failed.", e.getCause());
+		}
+	}
+
+	/**
+	 * @return The number of calls actually made.
+	 */
+	public long getCallCount() {
+		return calls.get();
+	}
+
+	/**
+	 * @return The number of calls saved, since they could use the result of a call in flight.
+	 */
+	public long getSavedCallCount() {
+		return savedCalls.get();
+	}
+
+	/**
+	 * @return The number of calls currently in flight.
+	 */
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	@Override
+	public String toString() {
+		return "SingleFlight: [calls = " + calls.get() + ", saved calls = " + savedCalls.get() + ", in flight = " 
+				+ inFlight.size() + "]";
+	}
+}
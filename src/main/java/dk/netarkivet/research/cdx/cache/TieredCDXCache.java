@@ -0,0 +1,93 @@
+package dk.netarkivet.research.cdx.cache;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Cache with two levels, e.g. a small fast in-memory cache in front of a large persistent cache on disk.
+ * 
+ * Lookups go to the first level, and then to the second level. Hits in the second level are copied to the 
+ * first level. New entries are put into both levels.
+ * The hits and misses are counted for the tiered cache as a whole, and the evictions are those of both levels.
+ */
+public class TieredCDXCache implements CDXCache {
+	/** The first level cache.*/
+	protected final CDXCache firstLevel;
+	/** The second level cache.*/
+	protected final CDXCache secondLevel;
+
+	/** The number of hits in any of the levels.*/
+	protected final AtomicLong hits = new AtomicLong();
+	/** The number of misses in both levels.*/
+	protected final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * @param firstLevel The first level cache.
+	 * @param secondLevel The second level cache.
+	 */
+	public TieredCDXCache(CDXCache firstLevel, CDXCache secondLevel) {
+		ArgumentCheck.checkNotNull(firstLevel, "CDXCache firstLevel");
+		ArgumentCheck.checkNotNull(secondLevel, "CDXCache secondLevel");
+		this.firstLevel = firstLevel;
+		this.secondLevel = secondLevel;
+	}
+
+	@Override
+	public List<CDXEntry> get(String key) {
+		List<CDXEntry> res = firstLevel.get(key);
+		if(res == null) {
+			res = secondLevel.get(key);
+			if(res != null) {
+				firstLevel.put(key, res);
+			}
+		}
+		if(res == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return res;
+	}
+
+	@Override
+	public void put(String key, List<CDXEntry> entries) {
+		firstLevel.put(key, entries);
+		secondLevel.put(key, entries);
+	}
+
+	@Override
+	public void clear() {
+		firstLevel.clear();
+		secondLevel.clear();
+	}
+
+	@Override
+	public int size() {
+		return secondLevel.size();
+	}
+
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return firstLevel.getEvictionCount() + secondLevel.getEvictionCount();
+	}
+
+	@Override
+	public String toString() {
+		return "TieredCDXCache: [hits = " + hits.get() + ", misses = " + misses.get() + ", first level = " 
+				+ firstLevel + ", second level = " + secondLevel + "]";
+	}
+}
@@ -1,17 +1,21 @@
 package dk.netarkivet.research.duplicates;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.cdx.CDXConstants;
 import dk.netarkivet.research.cdx.CDXEntry;
 import dk.netarkivet.research.cdx.CDXExtractor;
+import dk.netarkivet.research.cdx.CDXQuery;
 import dk.netarkivet.research.harvestdb.HarvestJobExtractor;
 import dk.netarkivet.research.harvestdb.HarvestJobInfo;
 import dk.netarkivet.research.interval.UrlInterval;
 import dk.netarkivet.research.utils.CDXUtils;
-import dk.netarkivet.research.utils.DateUtils;
 
 /**
  * Finds duplicates.
@@ -22,6 +26,13 @@ public class DuplicateExtractor {
     /** Logging mechanism. */
     private static Logger logger = LoggerFactory.getLogger(DuplicateExtractor.class);
 
+	/** The CDX elements needed for the duplicate map: the date, the filename, the status code and the digest.*/
+	protected static final List<Character> DUPLICATE_FIELDS = Collections.unmodifiableList(Arrays.asList(
+			CDXConstants.CDX_CHAR_DATE,
+			CDXConstants.CDX_CHAR_FILE_NAME,
+			CDXConstants.CDX_CHAR_RESPONSE_CODE,
+			CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM));
+
 	/** The CDX extractor.*/
 	protected final CDXExtractor cdxExtractor;
 	/** The Harvest Job extractor.*/
@@ -39,18 +50,23 @@ public class DuplicateExtractor {
 	
 	/**
 	 * Create a duplicate map for a given URL interval.
+	 * If the interval has dates, then they are sent with the query to the CDX extractor, together with the 
+	 * CDX elements needed for the map. Otherwise all the CDX entries for the URL are used.
 	 * @param urlInterval The URL interval to extract the CDX from for creating the duplicate map.
 	 * @return The duplicate map for the URL interval.
 	 */
 	public DuplicateMap makeDuplicateMap(UrlInterval urlInterval) {
-		Collection<CDXEntry> cdxs = cdxExtractor.retrieveAllCDX(urlInterval.getUrl());
+		Collection<CDXEntry> cdxs;
+		if(urlInterval.getEarliestDate() == null && urlInterval.getLatestDate() == null) {
+			cdxs = cdxExtractor.retrieveAllCDX(urlInterval.getUrl());
+		} else {
+			cdxs = cdxExtractor.retrieveByQuery(CDXQuery.createFromInterval(urlInterval).setFields(DUPLICATE_FIELDS));
+		}
 
 		DuplicateMap res = new DuplicateMap();
 		
 		for(CDXEntry entry : cdxs) {
-			if(DateUtils.checkDateInterval(entry, urlInterval.getEarliestDate(), urlInterval.getLatestDate())) {
-				res.addElement(entry, extractJobInfo(entry));
-			}
+			res.addElement(entry, extractJobInfo(entry));
 		}
 		
 		return res;
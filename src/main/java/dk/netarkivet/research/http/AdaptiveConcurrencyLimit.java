@@ -0,0 +1,131 @@
+package dk.netarkivet.research.http;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Limit on the number of concurrent requests to a server, which adapts to the load of the server
+ * by additive increase and multiplicative decrease (AIMD).
+ *
+ * Each healthy response raises the limit by 1/limit, so the limit grows by about one per round of requests.
+ * An overloaded response (e.g. HTTP 429 or 5xx, or a failed connection), or a latency above
+ * {@link #DEFAULT_LATENCY_TOLERANCE} times the lowest latency seen, halves the limit.
+ * The limit is decreased at most once per latency period, since the responses to the requests sent before the
+ * decrease still reflect the old load.
+ *
+ * The limit is thread safe.
+ */
+public class AdaptiveConcurrencyLimit {
+	/** The factor of the lowest latency, above which the latency is considered a sign of overload.*/
+	public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+	/** The factor the limit is multiplied with, when the server is overloaded.*/
+	protected static final double BACKOFF_RATIO = 0.5;
+	/** The lowest latency in milliseconds used as baseline, so very fast responses do not make it too sensitive.*/
+	protected static final long MIN_BASELINE_LATENCY = 10L;
+
+	/** The lowest allowed limit.*/
+	protected final int minLimit;
+	/** The highest allowed limit.*/
+	protected final int maxLimit;
+	/** The factor of the lowest latency, above which the latency is considered a sign of overload.*/
+	protected final double latencyTolerance;
+	/** The current limit.*/
+	protected double limit;
+	/** The number of requests in flight.*/
+	protected int inFlight = 0;
+	/** The lowest latency seen in milliseconds.*/
+	protected long minLatency = Long.MAX_VALUE;
+	/** The time in milliseconds of the latest decrease of the limit.*/
+	protected long lastDecrease = 0L;
+
+	/**
+	 * Constructor.
+	 * @param initialLimit The initial limit.
+	 * @param minLimit The lowest allowed limit.
+	 * @param maxLimit The highest allowed limit.
+	 */
+	public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+		this(initialLimit, minLimit, maxLimit, DEFAULT_LATENCY_TOLERANCE);
+	}
+
+	/**
+	 * Constructor.
+	 * @param initialLimit The initial limit.
+	 * @param minLimit The lowest allowed limit.
+	 * @param maxLimit The highest allowed limit.
+	 * @param latencyTolerance The factor of the lowest latency, above which the latency is considered overload.
+	 */
+	public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double latencyTolerance) {
+		ArgumentCheck.checkIsTrue(minLimit > 0, "int minLimit must be positive");
+		ArgumentCheck.checkIsTrue(maxLimit >= minLimit, "int maxLimit must not be below minLimit");
+		ArgumentCheck.checkIsTrue(initialLimit >= minLimit && initialLimit <= maxLimit,
+				"int initialLimit must be between minLimit and maxLimit");
+		ArgumentCheck.checkIsTrue(latencyTolerance > 1, "double latencyTolerance must be above 1");
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = initialLimit;
+		this.latencyTolerance = latencyTolerance;
+	}
+
+	/**
+	 * Waits until the number of requests in flight is below the limit, and then counts the request as in flight.
+	 * Must be followed by a {@link #release(long, boolean)}, when the request has finished,
+	 * or a {@link #cancel()} if it is not sent.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public synchronized void acquire() throws InterruptedException {
+		while(inFlight >= getLimit()) {
+			wait();
+		}
+		inFlight++;
+	}
+
+	/**
+	 * Releases a request, and adjusts the limit after the outcome of the request.
+	 * @param latencyMillis The latency of the request in milliseconds.
+	 * @param overloaded Whether the response tells that the server is overloaded.
+	 */
+	public synchronized void release(long latencyMillis, boolean overloaded) {
+		inFlight--;
+		if(!overloaded) {
+			minLatency = Math.min(minLatency, latencyMillis);
+		}
+		if(overloaded || latencyMillis > latencyTolerance * Math.max(minLatency, MIN_BASELINE_LATENCY)) {
+			long now = System.currentTimeMillis();
+			if(now - lastDecrease >= Math.max(minLatency, MIN_BASELINE_LATENCY)) {
+				limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+				lastDecrease = now;
+			}
+		} else {
+			limit = Math.min(maxLimit, limit + 1.0 / limit);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Releases a request, which was never sent, without adjusting the limit or the latency baseline.
+	 */
+	public synchronized void cancel() {
+		inFlight--;
+		notifyAll();
+	}
+
+	/**
+	 * @return The current limit on the number of concurrent requests.
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * @return The number of requests in flight.
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "AdaptiveConcurrencyLimit: [limit = " + getLimit() + ", in flight = " + inFlight + ", min latency = "
+				+ (minLatency == Long.MAX_VALUE ? "-" : minLatency + " ms") + "]";
+	}
+}
@@ -0,0 +1,94 @@
+package dk.netarkivet.research.http;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Circuit breaker for the requests to a server.
+ *
+ * After a number of consecutive failed requests the circuit opens, and the requests are rejected without
+ * contacting the server, so a server which is down makes the requests fail fast instead of waiting for timeouts.
+ * When the cooldown has passed, a single trial request is let through. The circuit closes again if it succeeds,
+ * and stays open for another cooldown if it fails.
+ *
+ * The circuit breaker is thread safe.
+ */
+public class CircuitBreaker {
+	/** The number of consecutive failures, which opens the circuit.*/
+	protected final int failureThreshold;
+	/** The time in milliseconds the circuit stays open, before a trial request is let through.*/
+	protected final long cooldownMillis;
+	/** The number of consecutive failures.*/
+	protected int consecutiveFailures = 0;
+	/** The time in milliseconds when the circuit was opened.*/
+	protected long openedAt = 0L;
+	/** Whether a trial request is in flight.*/
+	protected boolean trialInFlight = false;
+
+	/**
+	 * Constructor.
+	 * @param failureThreshold The number of consecutive failures, which opens the circuit.
+	 * @param cooldownMillis The time in milliseconds the circuit stays open, before a trial request is let through.
+	 */
+	public CircuitBreaker(int failureThreshold, long cooldownMillis) {
+		ArgumentCheck.checkIsTrue(failureThreshold > 0, "int failureThreshold must be positive");
+		ArgumentCheck.checkIsTrue(cooldownMillis >= 0, "long cooldownMillis must not be negative");
+		this.failureThreshold = failureThreshold;
+		this.cooldownMillis = cooldownMillis;
+	}
+
+	/**
+	 * Checks whether a request may be sent to the server.
+	 * Must be followed by a {@link #recordSuccess()}, {@link #recordFailure()} or {@link #recordCancelled()},
+	 * if it is allowed.
+	 * @return Whether the request is allowed.
+	 */
+	public synchronized boolean allowRequest() {
+		if(!isOpen()) {
+			return true;
+		}
+		if(!trialInFlight && System.currentTimeMillis() - openedAt >= cooldownMillis) {
+			trialInFlight = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records that the server answered the request.
+	 */
+	public synchronized void recordSuccess() {
+		consecutiveFailures = 0;
+		trialInFlight = false;
+	}
+
+	/**
+	 * Records that the request to the server failed.
+	 */
+	public synchronized void recordFailure() {
+		consecutiveFailures++;
+		if(trialInFlight || consecutiveFailures == failureThreshold) {
+			openedAt = System.currentTimeMillis();
+		}
+		trialInFlight = false;
+	}
+
+	/**
+	 * Records that the request was not completed, e.g. since it was interrupted,
+	 * so it tells nothing about the server.
+	 */
+	public synchronized void recordCancelled() {
+		trialInFlight = false;
+	}
+
+	/**
+	 * @return Whether the circuit is open, and requests are rejected until the cooldown has passed.
+	 */
+	public synchronized boolean isOpen() {
+		return consecutiveFailures >= failureThreshold;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CircuitBreaker: [open = " + isOpen() + ", consecutive failures = " + consecutiveFailures + "]";
+	}
+}
@@ -1,51 +1,490 @@
 package dk.netarkivet.research.http;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.exception.ArgumentCheck;
+
 /**
  * Class for encapsulating HTTP methods.
+ *
+ * All the requests go through one pooled HTTP client, which keeps the connections alive between the requests,
+ * so the TCP connection setup is not paid for every request.
+ * The retriever is thread safe, and should be shared between the CDX extractors and link locators,
+ * e.g. through {@link #getSharedInstance()}.
+ *
+ * The GET requests can be throttled per server, so parallel lookups do not overload e.g. a production CDX server:
+ * by a token bucket rate limit, see {@link #setRateLimit(double)}, and by an adaptive limit on the concurrent
+ * requests, which backs off on overload responses or rising latency, see {@link #setAdaptiveConcurrency(boolean)}.
+ * The HEAD requests for checking links on the live net are not throttled.
+ *
+ * Failed GET requests are retried with jittered exponential backoff, and a circuit breaker per server makes the
+ * requests fail fast while the server is down, see {@link #retrieveFromUrlOrFail(String, ResponseStreamHandler)}.
  */
-public class HttpRetriever {
+public class HttpRetriever implements Closeable {
 	/** The log.*/
 	private static Logger logger = LoggerFactory.getLogger(HttpRetriever.class);
 
+	/** The system property for the maximum number of connections in total.*/
+	public static final String PROPERTY_MAX_CONNECTIONS = "dk.netarkivet.research.http.maxConnections";
+	/** The system property for the maximum number of connections to the same server.*/
+	public static final String PROPERTY_MAX_CONNECTIONS_PER_ROUTE = 
+			"dk.netarkivet.research.http.maxConnectionsPerRoute";
+	/** The system property for the connect and read timeout in milliseconds.*/
+	public static final String PROPERTY_TIMEOUT = "dk.netarkivet.research.http.timeout";
+	/** The system property for the maximum number of GET requests per second to the same server.*/
+	public static final String PROPERTY_RATE_LIMIT = "dk.netarkivet.research.http.rateLimit";
+	/** The system property for whether the concurrent GET requests to the same server are adaptively limited.*/
+	public static final String PROPERTY_ADAPTIVE_CONCURRENCY = "dk.netarkivet.research.http.adaptiveConcurrency";
+	/** The system property for the maximum number of retries of a failed GET request.*/
+	public static final String PROPERTY_MAX_RETRIES = "dk.netarkivet.research.http.maxRetries";
+	/** The system property for the maximum wait in milliseconds before the first retry.*/
+	public static final String PROPERTY_RETRY_BACKOFF = "dk.netarkivet.research.http.retryBackoff";
+	/** The system property for the number of consecutive failures, which opens the circuit breaker of a server.*/
+	public static final String PROPERTY_CIRCUIT_BREAKER_FAILURES = 
+			"dk.netarkivet.research.http.circuitBreakerFailures";
+	/** The system property for the time in milliseconds the circuit breaker of a server stays open.*/
+	public static final String PROPERTY_CIRCUIT_BREAKER_COOLDOWN = 
+			"dk.netarkivet.research.http.circuitBreakerCooldown";
+
+	/** The default maximum number of connections in total.*/
+	public static final int DEFAULT_MAX_CONNECTIONS = 50;
+	/** The default maximum number of connections to the same server.*/
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+	/** The default connect and read timeout in milliseconds.*/
+	public static final int DEFAULT_TIMEOUT = 60000;
+	/** The default maximum number of retries of a failed GET request.*/
+	public static final int DEFAULT_MAX_RETRIES = 3;
+	/** The default maximum wait in milliseconds before the first retry.*/
+	public static final long DEFAULT_RETRY_BACKOFF = 200L;
+	/** The default number of consecutive failures, which opens the circuit breaker of a server.*/
+	public static final int DEFAULT_CIRCUIT_BREAKER_FAILURES = 5;
+	/** The default time in milliseconds the circuit breaker of a server stays open.*/
+	public static final long DEFAULT_CIRCUIT_BREAKER_COOLDOWN = 30000L;
+	/** The longest wait in milliseconds before a retry.*/
+	protected static final long MAX_RETRY_BACKOFF = 30000L;
+	/** The number of retries after which the backoff is no longer doubled, so it cannot overflow.*/
+	protected static final int MAX_BACKOFF_DOUBLINGS = 20;
+	/** The HTTP status code for a URL which does not exist.*/
+	protected static final int STATUS_NOT_FOUND = 404;
+	/** The HTTP status code for too many requests.*/
+	protected static final int STATUS_TOO_MANY_REQUESTS = 429;
+	/** The lowest HTTP status code for server errors.*/
+	protected static final int STATUS_SERVER_ERROR = 500;
+	/** The number of requests allowed at once by the rate limit, after a period without requests.*/
+	protected static final int RATE_LIMIT_BURST = 1;
+	/** The keep-alive time for the connections, when the server does not specify it.*/
+	protected static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000L;
+
+	/** The shared instance.*/
+	private static HttpRetriever sharedInstance;
+
+	/**
+	 * Retrieves the shared HTTP retriever.
+	 * It is configured by the system properties {@link #PROPERTY_MAX_CONNECTIONS},
+	 * {@link #PROPERTY_MAX_CONNECTIONS_PER_ROUTE}, {@link #PROPERTY_TIMEOUT}, {@link #PROPERTY_RATE_LIMIT},
+	 * {@link #PROPERTY_ADAPTIVE_CONCURRENCY}, {@link #PROPERTY_MAX_RETRIES}, {@link #PROPERTY_RETRY_BACKOFF},
+	 * {@link #PROPERTY_CIRCUIT_BREAKER_FAILURES} and {@link #PROPERTY_CIRCUIT_BREAKER_COOLDOWN}.
+	 * @return The shared HTTP retriever.
+	 */
+	public static synchronized HttpRetriever getSharedInstance() {
+		if(sharedInstance == null) {
+			sharedInstance = new HttpRetriever(
+					Integer.getInteger(PROPERTY_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS),
+					Integer.getInteger(PROPERTY_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+					Integer.getInteger(PROPERTY_TIMEOUT, DEFAULT_TIMEOUT));
+			String rateLimit = System.getProperty(PROPERTY_RATE_LIMIT);
+			if(rateLimit != null) {
+				sharedInstance.setRateLimit(Double.parseDouble(rateLimit));
+			}
+			sharedInstance.setAdaptiveConcurrency(Boolean.getBoolean(PROPERTY_ADAPTIVE_CONCURRENCY));
+			sharedInstance.setRetries(Integer.getInteger(PROPERTY_MAX_RETRIES, DEFAULT_MAX_RETRIES),
+					Long.getLong(PROPERTY_RETRY_BACKOFF, DEFAULT_RETRY_BACKOFF));
+			sharedInstance.setCircuitBreaker(
+					Integer.getInteger(PROPERTY_CIRCUIT_BREAKER_FAILURES, DEFAULT_CIRCUIT_BREAKER_FAILURES),
+					Long.getLong(PROPERTY_CIRCUIT_BREAKER_COOLDOWN, DEFAULT_CIRCUIT_BREAKER_COOLDOWN));
+		}
+		return sharedInstance;
+	}
+
+	/** The manager of the pooled connections.*/
+	protected final PoolingHttpClientConnectionManager connectionManager;
+	/** The HTTP client.*/
+	protected final CloseableHttpClient httpClient;
+	/** The configuration for the HEAD requests, which must not follow redirects.*/
+	protected final RequestConfig headRequestConfig;
+	/** The maximum number of connections to the same server, which also bounds the adaptive concurrency limit.*/
+	protected final int maxConnectionsPerRoute;
+	/** The throttles of the GET requests, by server.*/
+	protected final ConcurrentMap<String, RequestThrottle> throttles = new ConcurrentHashMap<String, RequestThrottle>();
+	/** The maximum number of GET requests per second to the same server. 0 for no rate limit.*/
+	protected volatile double rateLimit = 0;
+	/** Whether the concurrent GET requests to the same server are adaptively limited.*/
+	protected volatile boolean adaptiveConcurrency = false;
+	/** The circuit breakers of the GET requests, by server.*/
+	protected final ConcurrentMap<String, CircuitBreaker> circuitBreakers = 
+			new ConcurrentHashMap<String, CircuitBreaker>();
+	/** The maximum number of retries of a failed GET request.*/
+	protected volatile int maxRetries = DEFAULT_MAX_RETRIES;
+	/** The maximum wait in milliseconds before the first retry.*/
+	protected volatile long retryBackoff = DEFAULT_RETRY_BACKOFF;
+	/** The number of consecutive failed requests to a server, which opens its circuit. 0 for no circuit breakers.*/
+	protected volatile int circuitBreakerFailures = DEFAULT_CIRCUIT_BREAKER_FAILURES;
+	/** The time in milliseconds the circuit of a server stays open, before a trial request is let through.*/
+	protected volatile long circuitBreakerCooldown = DEFAULT_CIRCUIT_BREAKER_COOLDOWN;
+
 	/**
 	 * Constructor.
+	 * Uses the default limits and timeout.
 	 */
-	public HttpRetriever() {}
+	public HttpRetriever() {
+		this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Constructor.
+	 * @param maxConnections The maximum number of connections in total.
+	 * @param maxConnectionsPerRoute The maximum number of connections to the same server.
+	 * @param timeoutMillis The connect and read timeout in milliseconds.
+	 */
+	public HttpRetriever(int maxConnections, int maxConnectionsPerRoute, int timeoutMillis) {
+		ArgumentCheck.checkIsTrue(maxConnections > 0, "int maxConnections must be positive");
+		ArgumentCheck.checkIsTrue(maxConnectionsPerRoute > 0, "int maxConnectionsPerRoute must be positive");
+		ArgumentCheck.checkIsTrue(timeoutMillis >= 0, "int timeoutMillis must not be negative");
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(timeoutMillis)
+				.setConnectionRequestTimeout(timeoutMillis)
+				.setSocketTimeout(timeoutMillis)
+				.build();
+		headRequestConfig = RequestConfig.copy(requestConfig).setRedirectsEnabled(false).build();
+		httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+					@Override
+					public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+						long duration = super.getKeepAliveDuration(response, context);
+						return duration > 0 ? duration : DEFAULT_KEEP_ALIVE_MILLIS;
+					}
+				})
+				.build();
+	}
 
 	/**
 	 * Makes a HTTP request and delivers the content of the respons.
-	 * Will return a null, if an exception is thrown, or if it does not receive a 200 HTTP response.
+	 * Will return a null, if the request fails, or if it does not receive a 200 HTTP response.
 	 * @param url The url for the HTTP request.
 	 * @return The response, or null if it is a bad response or an exception was thrown.
 	 */
 	public String retrieveFromUrl(String url) {
-		try (CloseableHttpClient httpClient = HttpClients.createDefault();){
-			HttpGet httpGet = new HttpGet(url);
+		return retrieveFromUrl(url, new ResponseStreamHandler<String>() {
+			@Override
+			public String handle(InputStream in, HttpEntity entity) throws IOException {
+				return EntityUtils.toString(entity);
+			}
+		});
+	}
 
-			HttpResponse response = httpClient.execute(httpGet);
-			if(response.getStatusLine().getStatusCode() != 200) {
-				logger.warn("Failed to retrieve data. Received response code " 
-						+ response.getStatusLine().getStatusCode());
-				return null;
+	/**
+	 * Makes a HTTP request and lets the handler process the content of the response as a stream,
+	 * so the body never has to be held in memory as a whole.
+	 * The stream is closed, and the connection released back to the pool, when the handler returns.
+	 * Will return a null, if the request fails, or if it does not receive a 200 HTTP response.
+	 * Use {@link #retrieveFromUrlOrFail(String, ResponseStreamHandler)} to tell the failures apart from the
+	 * URLs which do not exist.
+	 * @param <T> The type of the result of the handler.
+	 * @param url The url for the HTTP request.
+	 * @param handler The handler for the response content.
+	 * @return The result of the handler, or null if it is a bad response or the request failed.
+	 */
+	public <T> T retrieveFromUrl(String url, ResponseStreamHandler<T> handler) {
+		try {
+			return retrieveFromUrlOrFail(url, handler);
+		} catch (IllegalStateException e) {
+			logger.warn("Failed to retrieve data from '" + url + "'. Returning a null", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Makes a HTTP request and lets the handler process the content of the response as a stream,
+	 * like {@link #retrieveFromUrl(String, ResponseStreamHandler)}, but tells the URLs which do not exist apart
+	 * from the requests which fail.
+	 * 
+	 * A request is retried with jittered exponential backoff, if the connection fails, if reading the response 
+	 * fails, or if the server answers that it is overloaded or has an error (HTTP 429 or 5xx).
+	 * A 404 response tells that the URL does not exist. Any other response than 200 is a failure, which is not
+	 * retried, since the server will reject the request again (e.g. HTTP 400, 401 or 403).
+	 * The requests fail fast without contacting the server, while its circuit breaker is open.
+	 * @param <T> The type of the result of the handler.
+	 * @param url The url for the HTTP request.
+	 * @param handler The handler for the response content. It is called again, if the request is retried.
+	 * @return The result of the handler, or null if the URL does not exist.
+	 * @throws IllegalStateException If the request failed after the retries, if the server rejected the request, 
+	 * or if the circuit breaker is open.
+	 */
+	public <T> T retrieveFromUrlOrFail(String url, ResponseStreamHandler<T> handler) {
+		CircuitBreaker circuitBreaker = getCircuitBreaker(url);
+		IOException failure = null;
+		for(int attempt = 0; attempt <= maxRetries; attempt++) {
+			if(attempt > 0) {
+				backoff(url, attempt);
 			}
+			if(circuitBreaker != null && !circuitBreaker.allowRequest()) {
+				throw new IllegalStateException("The circuit breaker is open for the server of '" + url 
+						+ "'. Failing fast.", failure);
+			}
+			try {
+				T res = executeRequest(url, handler);
+				if(circuitBreaker != null) {
+					circuitBreaker.recordSuccess();
+				}
+				return res;
+			} catch (IOException e) {
+				if(circuitBreaker != null) {
+					circuitBreaker.recordFailure();
+				}
+				logger.debug("Attempt " + (attempt + 1) + " to retrieve '" + url + "' failed.", e);
+				failure = e;
+			} catch (RejectedRequestException e) {
+				// The server answered, so it is not down
+				if(circuitBreaker != null) {
+					circuitBreaker.recordSuccess();
+				}
+				throw e;
+			} catch (RuntimeException e) {
+				if(circuitBreaker != null) {
+					circuitBreaker.recordCancelled();
+				}
+				throw e;
+			}
+		}
+		throw new IllegalStateException("Failed to retrieve data from '" + url + "' after " + (maxRetries + 1) 
+				+ " attempts.", failure);
+	}
 
-			return EntityUtils.toString(response.getEntity());
+	/**
+	 * Makes a single HTTP request, and lets the handler process the content of the response.
+	 * @param <T> The type of the result of the handler.
+	 * @param url The url for the HTTP request.
+	 * @param handler The handler for the response content.
+	 * @return The result of the handler, or null if the URL does not exist.
+	 * @throws IOException If the request failed, or the server is overloaded or has an error.
+	 * @throws RejectedRequestException If the server rejected the request with another response than 200 or 404.
+	 */
+	protected <T> T executeRequest(String url, ResponseStreamHandler<T> handler) throws IOException {
+		HttpGet httpGet = new HttpGet(url);
+		RequestThrottle throttle = getThrottle(httpGet);
+		if(throttle != null) {
+			try {
+				throttle.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting to request '" + url + "'.", e);
+			}
+		}
+		long start = System.currentTimeMillis();
+		long latency = -1L;
+		int statusCode = -1;
+		try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
+			latency = System.currentTimeMillis() - start;
+			HttpEntity entity = response.getEntity();
+			statusCode = response.getStatusLine().getStatusCode();
+			if(statusCode != 200) {
+				EntityUtils.consumeQuietly(entity);
+				if(isRetryable(statusCode)) {
+					throw new IOException("Received response code " + statusCode + " from '" + url + "'.");
+				}
+				if(statusCode == STATUS_NOT_FOUND) {
+					logger.debug("The URL '" + url + "' does not exist. Received response code " + statusCode);
+					return null;
+				}
+				throw new RejectedRequestException("Received response code " + statusCode + " from '" + url + "'.");
+			}
+			if(entity == null) {
+				return null;
+			}
+			try (InputStream in = entity.getContent()) {
+				return handler.handle(in, entity);
+			}
 		} catch (IOException e) {
-			logger.warn("Failed to retrieve data from '" + url + "'. Returning a null", e);
+			if(statusCode == 200 || statusCode < 0) {
+				abort(httpGet);
+				statusCode = -1;
+			}
+			throw e;
+		} finally {
+			if(throttle != null) {
+				// The latency until the status line and headers, since the time for the body depends on its size
+				throttle.release(latency >= 0 ? latency : System.currentTimeMillis() - start, statusCode);
+			}
+		}
+	}
+
+	/**
+	 * @param statusCode The HTTP status code of a response.
+	 * @return Whether the request should be retried, because the server is overloaded or has an error.
+	 */
+	protected boolean isRetryable(int statusCode) {
+		return statusCode == STATUS_TOO_MANY_REQUESTS || statusCode >= STATUS_SERVER_ERROR;
+	}
+
+	/**
+	 * Waits before retrying a request.
+	 * The wait is random between 0 and the retry backoff doubled for each attempt (full jitter), 
+	 * so the retries from concurrent requests are spread out instead of hitting the server at the same time.
+	 * @param url The url for the HTTP request.
+	 * @param attempt The number of the attempt, which is about to be made. 1 for the first retry.
+	 */
+	protected void backoff(String url, int attempt) {
+		long maxWait = Math.min(MAX_RETRY_BACKOFF, retryBackoff << Math.min(attempt - 1, MAX_BACKOFF_DOUBLINGS));
+		long wait = ThreadLocalRandom.current().nextLong(maxWait + 1);
+		logger.debug("Retrying '" + url + "' in " + wait + " ms.");
+		try {
+			Thread.sleep(wait);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting to retry '" + url + "'.", e);
+		}
+	}
+
+	/**
+	 * Sets the retries of the failed GET requests.
+	 * @param maxRetries The maximum number of retries of a request. 0 for no retries.
+	 * @param retryBackoff The maximum wait in milliseconds before the first retry. 
+	 * It is doubled for each following retry.
+	 */
+	public void setRetries(int maxRetries, long retryBackoff) {
+		ArgumentCheck.checkIsTrue(maxRetries >= 0, "int maxRetries must not be negative");
+		ArgumentCheck.checkIsTrue(retryBackoff >= 0, "long retryBackoff must not be negative");
+		this.maxRetries = maxRetries;
+		this.retryBackoff = retryBackoff;
+	}
+
+	/**
+	 * Sets the circuit breakers for the servers.
+	 * @param failureThreshold The number of consecutive failed requests to a server, which opens its circuit.
+	 * 0 for no circuit breakers.
+	 * @param cooldown The time in milliseconds the circuit stays open, before a trial request is let through.
+	 */
+	public void setCircuitBreaker(int failureThreshold, long cooldown) {
+		ArgumentCheck.checkIsTrue(failureThreshold >= 0, "int failureThreshold must not be negative");
+		ArgumentCheck.checkIsTrue(cooldown >= 0, "long cooldown must not be negative");
+		this.circuitBreakerFailures = failureThreshold;
+		this.circuitBreakerCooldown = cooldown;
+		circuitBreakers.clear();
+	}
+
+	/**
+	 * Retrieves the circuit breaker for the server of a URL, and creates it if it does not exist.
+	 * @param url The URL.
+	 * @return The circuit breaker for the server, or null if there are no circuit breakers.
+	 */
+	public CircuitBreaker getCircuitBreaker(String url) {
+		if(circuitBreakerFailures <= 0) {
 			return null;
 		}
+		String server = getServer(new HttpGet(url));
+		CircuitBreaker res = circuitBreakers.get(server);
+		if(res == null) {
+			res = new CircuitBreaker(circuitBreakerFailures, circuitBreakerCooldown);
+			CircuitBreaker existing = circuitBreakers.putIfAbsent(server, res);
+			if(existing != null) {
+				res = existing;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Sets the maximum number of GET requests per second to the same server.
+	 * @param rateLimit The maximum number of requests per second. 0 for no rate limit.
+	 */
+	public void setRateLimit(double rateLimit) {
+		ArgumentCheck.checkIsTrue(rateLimit >= 0, "double rateLimit must not be negative");
+		this.rateLimit = rateLimit;
+		throttles.clear();
+	}
+
+	/**
+	 * Sets whether the concurrent GET requests to the same server are adaptively limited.
+	 * The limit starts at 1 and is bounded by the maximum number of connections to the same server.
+	 * @param adaptiveConcurrency Whether the concurrent requests are adaptively limited.
+	 */
+	public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+		this.adaptiveConcurrency = adaptiveConcurrency;
+		throttles.clear();
+	}
+
+	/**
+	 * Retrieves the throttle for the GET requests to the server of a URL.
+	 * @param url The URL.
+	 * @return The throttle for the server, or null if the requests are not throttled.
+	 */
+	public RequestThrottle getThrottle(String url) {
+		return getThrottle(new HttpGet(url));
+	}
+
+	/**
+	 * Retrieves the throttle for the server of a request, and creates it if it does not exist.
+	 * @param request The request.
+	 * @return The throttle for the server, or null if the requests are not throttled.
+	 */
+	protected RequestThrottle getThrottle(HttpRequestBase request) {
+		if(rateLimit <= 0 && !adaptiveConcurrency) {
+			return null;
+		}
+		String server = getServer(request);
+		RequestThrottle res = throttles.get(server);
+		if(res == null) {
+			TokenBucketRateLimiter rateLimiter = null;
+			if(rateLimit > 0) {
+				rateLimiter = new TokenBucketRateLimiter(rateLimit, RATE_LIMIT_BURST);
+			}
+			AdaptiveConcurrencyLimit concurrencyLimit = null;
+			if(adaptiveConcurrency) {
+				concurrencyLimit = new AdaptiveConcurrencyLimit(1, 1, maxConnectionsPerRoute);
+			}
+			res = new RequestThrottle(rateLimiter, concurrencyLimit);
+			RequestThrottle existing = throttles.putIfAbsent(server, res);
+			if(existing != null) {
+				res = existing;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @param request The request.
+	 * @return The scheme and authority of the server of the request.
+	 */
+	protected String getServer(HttpRequestBase request) {
+		return request.getURI().getScheme() + "://" + request.getURI().getAuthority();
 	}
 
 	/**
@@ -54,16 +493,49 @@ public class HttpRetriever {
 	 * @return Whether or not the link refers to an existing URL.
 	 */
 	public boolean exists(String link) {
+		HttpHead httpHead = null;
 		try {
-			URL url = new URL(link);
-			HttpURLConnection.setFollowRedirects(false);
-			HttpURLConnection con = (HttpURLConnection) url.openConnection();
-			con.setRequestMethod("HEAD");
-			
-			return (con.getResponseCode() == HttpURLConnection.HTTP_OK);
+			httpHead = new HttpHead(link);
+			httpHead.setConfig(headRequestConfig);
+			try (CloseableHttpResponse response = httpClient.execute(httpHead)) {
+				EntityUtils.consumeQuietly(response.getEntity());
+				return response.getStatusLine().getStatusCode() == 200;
+			}
 		} catch (Exception e) {
 			logger.debug("Could validate the existing of the link '" + link + "'", e);
+			abort(httpHead);
 			return false;
 		}
 	}
+
+	/**
+	 * Aborts a failed request, so its connection is not reused.
+	 * @param request The request. May be null.
+	 */
+	protected void abort(HttpRequestBase request) {
+		if(request != null) {
+			request.abort();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		httpClient.close();
+	}
+
+	/**
+	 * Tells that the server rejected a request with a response, which will not change when the request is retried.
+	 */
+	protected static class RejectedRequestException extends IllegalStateException {
+		/** Serialization version.*/
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Constructor.
+		 * @param message The message.
+		 */
+		public RejectedRequestException(String message) {
+			super(message);
+		}
+	}
 }
@@ -0,0 +1,98 @@
+package dk.netarkivet.research.http;
+
+/**
+ * The request budget for a single server: a rate limit and an adaptive limit on the concurrent requests.
+ * Either of them may be absent.
+ *
+ * The throttle is thread safe.
+ */
+public class RequestThrottle {
+	/** The HTTP status code for too many requests.*/
+	protected static final int STATUS_TOO_MANY_REQUESTS = 429;
+	/** The lowest HTTP status code for server errors.*/
+	protected static final int STATUS_SERVER_ERROR = 500;
+
+	/** The rate limiter. Null for no rate limit.*/
+	protected final TokenBucketRateLimiter rateLimiter;
+	/** The adaptive concurrency limit. Null for no concurrency limit.*/
+	protected final AdaptiveConcurrencyLimit concurrencyLimit;
+
+	/**
+	 * Constructor.
+	 * @param rateLimiter The rate limiter. Null for no rate limit.
+	 * @param concurrencyLimit The adaptive concurrency limit. Null for no concurrency limit.
+	 */
+	public RequestThrottle(TokenBucketRateLimiter rateLimiter, AdaptiveConcurrencyLimit concurrencyLimit) {
+		this.rateLimiter = rateLimiter;
+		this.concurrencyLimit = concurrencyLimit;
+	}
+
+	/**
+	 * Waits until a request to the server is allowed.
+	 * Must be followed by a {@link #release(long, int)}, when the request has finished, 
+	 * or a {@link #cancel()} if it is not sent.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void acquire() throws InterruptedException {
+		if(concurrencyLimit != null) {
+			concurrencyLimit.acquire();
+		}
+		if(rateLimiter != null) {
+			try {
+				rateLimiter.acquire();
+			} catch (InterruptedException e) {
+				if(concurrencyLimit != null) {
+					concurrencyLimit.cancel();
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Releases a request to the server.
+	 * @param latencyMillis The latency of the request in milliseconds.
+	 * @param statusCode The HTTP status code of the response, or a negative number if the request failed.
+	 */
+	public void release(long latencyMillis, int statusCode) {
+		if(concurrencyLimit != null) {
+			concurrencyLimit.release(latencyMillis, isOverloaded(statusCode));
+		}
+	}
+
+	/**
+	 * Releases a request to the server, which was never sent, without adjusting the limit.
+	 */
+	public void cancel() {
+		if(concurrencyLimit != null) {
+			concurrencyLimit.cancel();
+		}
+	}
+
+	/**
+	 * @param statusCode The HTTP status code of the response, or a negative number if the request failed.
+	 * @return Whether the response tells that the server is overloaded.
+	 */
+	protected boolean isOverloaded(int statusCode) {
+		return statusCode < 0 || statusCode == STATUS_TOO_MANY_REQUESTS || statusCode >= STATUS_SERVER_ERROR;
+	}
+
+	/**
+	 * @return The rate limiter, or null if there is no rate limit.
+	 */
+	public TokenBucketRateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * @return The adaptive concurrency limit, or null if there is no concurrency limit.
+	 */
+	public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	@Override
+	public String toString() {
+		return "RequestThrottle: [" + rateLimiter + ", " + concurrencyLimit + "]";
+	}
+}
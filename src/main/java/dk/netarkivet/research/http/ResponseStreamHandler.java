@@ -0,0 +1,23 @@
+package dk.netarkivet.research.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.HttpEntity;
+
+/**
+ * Handler for processing the content of a HTTP response as a stream.
+ * If reading the response fails, then the request may be retried, and the handler called again with the new
+ * response. So the handler must start over on each call.
+ * @param <T> The type of the result of processing the response.
+ */
+public interface ResponseStreamHandler<T> {
+	/**
+	 * Processes the content of the response.
+	 * @param in The stream with the content of the response. It is closed after the handler returns.
+	 * @param entity The entity of the response, e.g. for the content type and charset.
+	 * @return The result of processing the response.
+	 * @throws IOException If it fails to read the response.
+	 */
+	T handle(InputStream in, HttpEntity entity) throws IOException;
+}
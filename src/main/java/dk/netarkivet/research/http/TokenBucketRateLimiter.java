@@ -0,0 +1,80 @@
+package dk.netarkivet.research.http;
+
+import java.util.concurrent.TimeUnit;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Token bucket for limiting the rate of requests.
+ *
+ * The bucket is refilled with tokens at a fixed rate, up to the burst size, and each request takes a token.
+ * When the bucket is empty, the request reserves the next token and waits until it is due,
+ * so waiting requests are let through at the fixed rate in the order they arrived.
+ *
+ * The rate limiter is thread safe.
+ */
+public class TokenBucketRateLimiter {
+	/** The number of nanoseconds in a second.*/
+	protected static final double NANOS_PER_SECOND = 1e9;
+
+	/** The number of tokens added per second.*/
+	protected final double permitsPerSecond;
+	/** The maximum number of tokens in the bucket.*/
+	protected final double burst;
+	/** The current number of tokens. Negative when tokens have been reserved by waiting requests.*/
+	protected double tokens;
+	/** The time in nanoseconds of the last refill.*/
+	protected long lastRefill;
+
+	/**
+	 * Constructor.
+	 * @param permitsPerSecond The number of requests allowed per second.
+	 * @param burst The number of requests allowed at once, after a period without requests.
+	 */
+	public TokenBucketRateLimiter(double permitsPerSecond, int burst) {
+		ArgumentCheck.checkIsTrue(permitsPerSecond > 0, "double permitsPerSecond must be positive");
+		ArgumentCheck.checkIsTrue(burst > 0, "int burst must be positive");
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = burst;
+		this.tokens = burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Takes a token, and waits until it is due if the bucket is empty.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void acquire() throws InterruptedException {
+		long waitNanos = reserve();
+		if(waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Reserves a token.
+	 * @return The time in nanoseconds until the token is due.
+	 */
+	protected synchronized long reserve() {
+		long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerSecond / NANOS_PER_SECOND);
+		lastRefill = now;
+		tokens -= 1;
+		if(tokens >= 0) {
+			return 0L;
+		}
+		return (long) (-tokens * NANOS_PER_SECOND / permitsPerSecond);
+	}
+
+	/**
+	 * @return The number of requests allowed per second.
+	 */
+	public double getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	@Override
+	public String toString() {
+		return "TokenBucketRateLimiter: [permits per second = " + permitsPerSecond + ", burst = " + burst + "]";
+	}
+}
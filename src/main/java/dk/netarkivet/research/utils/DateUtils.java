@@ -48,7 +48,7 @@ public class DateUtils {
 	 * @return The Wayback format for the date.
 	 */
 	public static String dateToWaybackDate(Date date) {
-		return CDX_DATE_PARSER_THREAD.get().format(date);
+		return millisToWaybackDate(date.getTime());
 	}
 	
 	/**
@@ -60,7 +60,20 @@ public class DateUtils {
 		if(date == null) {
 			return null;
 		}
-		return dateToWaybackDate(new Date(date));
+		return millisToWaybackDate(date);
+	}
+	
+	/**
+	 * Converts from milliseconds since epoch to Wayback date string.
+	 * Uses the fast {@link WaybackDateCodec}, and only the date format for dates it does not handle.
+	 * @param millis The milliseconds since epoch.
+	 * @return The Wayback format for the date.
+	 */
+	public static String millisToWaybackDate(long millis) {
+		if(WaybackDateCodec.canFormat(millis)) {
+			return WaybackDateCodec.format(millis);
+		}
+		return CDX_DATE_PARSER_THREAD.get().format(new Date(millis));
 	}
 	
 	/**
@@ -70,7 +83,23 @@ public class DateUtils {
 	 * @throws ParseException If it cannot be parsed.
 	 */
 	public static Date waybackDateToDate(String date) throws ParseException {
-		return CDX_DATE_PARSER_THREAD.get().parse(date);		
+		return new Date(waybackDateToMillis(date));
+	}
+	
+	/**
+	 * Converts from the Wayback date string to milliseconds since epoch.
+	 * Uses the fast {@link WaybackDateCodec}, and only the date format for strings it does not handle - 
+	 * which will also throw the exception for the invalid dates.
+	 * @param date The date string from wayback.
+	 * @return The milliseconds since epoch.
+	 * @throws ParseException If it cannot be parsed.
+	 */
+	public static long waybackDateToMillis(String date) throws ParseException {
+		long res = WaybackDateCodec.parse(date);
+		if(res != WaybackDateCodec.NOT_HANDLED) {
+			return res;
+		}
+		return CDX_DATE_PARSER_THREAD.get().parse(date).getTime();
 	}
 	
 	/**
@@ -0,0 +1,118 @@
+package dk.netarkivet.research.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Histogram of latencies in milliseconds, with buckets of exponentially growing width.
+ *
+ * Bucket 0 holds the latencies below 1 ms, and bucket i holds the latencies from 2^(i-1) up to 2^i ms.
+ * The last bucket holds everything above. The percentiles are therefore estimated with at most a factor 2 error,
+ * which is enough for deciding when a request is unusually slow, while recording is lock free and cheap.
+ *
+ * The histogram is thread safe.
+ */
+public class LatencyHistogram {
+	/** The number of buckets. The last bucket holds the latencies from 2^(BUCKETS-2) ms (about 18 hours).*/
+	protected static final int BUCKETS = 28;
+
+	/** The number of latencies in each bucket.*/
+	protected final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	/** The number of recorded latencies.*/
+	protected final AtomicLong count = new AtomicLong();
+	/** The sum of the recorded latencies.*/
+	protected final AtomicLong sum = new AtomicLong();
+	/** The largest recorded latency.*/
+	protected final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 * @param millis The latency in milliseconds. Negative latencies are recorded as 0.
+	 */
+	public void record(long millis) {
+		long latency = Math.max(0L, millis);
+		buckets.incrementAndGet(bucketFor(latency));
+		count.incrementAndGet();
+		sum.addAndGet(latency);
+		long currentMax;
+		while(latency > (currentMax = max.get())) {
+			if(max.compareAndSet(currentMax, latency)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Estimates a percentile of the recorded latencies, as the upper limit of the bucket containing it.
+	 * It is never more than the largest recorded latency.
+	 * @param percentile The percentile, between 0 and 100.
+	 * @return The estimated latency in milliseconds, or 0 if no latencies have been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		ArgumentCheck.checkIsTrue(percentile >= 0 && percentile <= 100, "double percentile must be between 0 and 100");
+		long total = count.get();
+		if(total == 0) {
+			return 0L;
+		}
+		long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100.0));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if(seen >= rank) {
+				return Math.min(upperLimit(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return The number of recorded latencies.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return The mean of the recorded latencies in milliseconds, or 0 if no latencies have been recorded.
+	 */
+	public long getMean() {
+		long total = count.get();
+		return total == 0 ? 0L : sum.get() / total;
+	}
+
+	/**
+	 * @return The largest recorded latency in milliseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param millis The latency in milliseconds.
+	 * @return The index of the bucket for the latency.
+	 */
+	protected int bucketFor(long millis) {
+		int bucket = 64 - Long.numberOfLeadingZeros(millis);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	/**
+	 * @param bucket The index of the bucket.
+	 * @return The largest latency in the bucket.
+	 */
+	protected long upperLimit(int bucket) {
+		if(bucket == BUCKETS - 1) {
+			return Long.MAX_VALUE;
+		}
+		return (1L << bucket) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram: [count = " + getCount() + ", mean = " + getMean() + " ms, p50 = "
+				+ getPercentile(50) + " ms, p95 = " + getPercentile(95) + " ms, p99 = " + getPercentile(99)
+				+ " ms, max = " + getMax() + " ms]";
+	}
+}
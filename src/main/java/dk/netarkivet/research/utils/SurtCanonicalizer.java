@@ -0,0 +1,528 @@
+package dk.netarkivet.research.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Canonicalizes URLs into keys for CDX indices, either in the canonical form (e.g. 'example.com/path?a=1&amp;b=2')
+ * or in the SURT form (Sort-friendly URI Reordering Transform, e.g. 'com,example)/path?a=1&amp;b=2').
+ *
+ * The canonicalization:
+ * <ul>
+ *   <li>removes the protocol, the user info, the fragment and the default port of the protocol
+ *   (80 for HTTP and 443 for HTTPS),</li>
+ *   <li>removes the 'www' prefix of the host (also with numbers, e.g. 'www2.'),</li>
+ *   <li>removes session id parameters from the path and the query, like Heritrix and pywb: 'jsessionid',
+ *   'PHPSESSID' and 'sid' with a value of 32 letters or digits, 'ASPSESSIONID' followed by 8 letters with a value
+ *   of 24 letters, and the pair of 'CFID' and 'CFTOKEN'. Parameters with the same names, but other values, are
+ *   kept, since they are probably content (e.g. 'sid=5'),</li>
+ *   <li>orders the query parameters,</li>
+ *   <li>and lower cases the whole URL.</li>
+ * </ul>
+ *
+ * The SURT form reverses the segments of the host, so all the URLs of a host, and all the hosts of a domain,
+ * are neighbours in a sorted index.
+ *
+ * The URLs are parsed in a single pass without regular expressions, and the results are kept in a bounded
+ * LRU cache, since the same URLs are often looked up many times. The canonicalizer is thread safe.
+ */
+public class SurtCanonicalizer {
+	/** The system property for the number of URLs to keep in the caches of the shared instance.*/
+	public static final String PROPERTY_CACHE_SIZE = "dk.netarkivet.research.surt.cacheSize";
+	/** The default number of URLs to keep in the caches.*/
+	public static final int DEFAULT_CACHE_SIZE = 10000;
+
+	/** The names of the parameters with session ids of {@link #SESSION_ID_LENGTH} letters or digits.*/
+	protected static final String[] SESSION_ID_PARAMETERS = {"jsessionid", "phpsessid", "sid"};
+	/** The length of the values of the session id parameters.*/
+	protected static final int SESSION_ID_LENGTH = 32;
+	/** The prefix of the ASP session id parameters, which have a suffix, e.g. 'ASPSESSIONIDQQGGQGPD'.*/
+	protected static final String ASP_SESSION_ID_PREFIX = "aspsessionid";
+	/** The length of the suffix of the names of the ASP session id parameters, in letters.*/
+	protected static final int ASP_SESSION_ID_SUFFIX_LENGTH = 8;
+	/** The length of the values of the ASP session id parameters, in letters.*/
+	protected static final int ASP_SESSION_ID_LENGTH = 24;
+	/** The ColdFusion session id parameter, which is removed together with a following {@link #CFTOKEN}.*/
+	protected static final String CFID = "cfid";
+	/** The ColdFusion session token parameter, which is removed together with a preceding {@link #CFID}.*/
+	protected static final String CFTOKEN = "cftoken";
+	/** The default port of HTTP, which is also used for URLs without protocol.*/
+	protected static final String HTTP_DEFAULT_PORT = "80";
+	/** The default port of HTTPS.*/
+	protected static final String HTTPS_DEFAULT_PORT = "443";
+
+	/** The shared instance.*/
+	private static SurtCanonicalizer sharedInstance;
+
+	/**
+	 * Retrieves the shared canonicalizer, with the cache size from the system property
+	 * {@link #PROPERTY_CACHE_SIZE}.
+	 * @return The shared canonicalizer.
+	 */
+	public static synchronized SurtCanonicalizer getSharedInstance() {
+		if(sharedInstance == null) {
+			sharedInstance = new SurtCanonicalizer(Integer.getInteger(PROPERTY_CACHE_SIZE, DEFAULT_CACHE_SIZE));
+		}
+		return sharedInstance;
+	}
+
+	/** The cache of the canonical forms of the URLs.*/
+	protected final Map<String, String> canonicalCache;
+	/** The cache of the SURT forms of the URLs.*/
+	protected final Map<String, String> surtCache;
+
+	/**
+	 * Constructor.
+	 * @param cacheSize The number of URLs to keep in each of the caches. 0 for no caching.
+	 */
+	public SurtCanonicalizer(int cacheSize) {
+		ArgumentCheck.checkIsTrue(cacheSize >= 0, "int cacheSize must not be negative");
+		canonicalCache = cacheSize > 0 ? Collections.synchronizedMap(new LruMap(cacheSize)) : null;
+		surtCache = cacheSize > 0 ? Collections.synchronizedMap(new LruMap(cacheSize)) : null;
+	}
+
+	/**
+	 * Canonicalizes the URL, e.g. 'http://www.Example.com/path?b=2&amp;a=1#top' becomes
+	 * 'example.com/path?a=1&amp;b=2'.
+	 * @param url The URL.
+	 * @return The canonical form of the URL.
+	 */
+	public String canonicalize(String url) {
+		return lookup(url, false, canonicalCache);
+	}
+
+	/**
+	 * Transforms the URL to its SURT form, e.g. 'http://www.Example.com/path?b=2&amp;a=1#top' becomes
+	 * 'com,example)/path?a=1&amp;b=2'.
+	 * @param url The URL.
+	 * @return The SURT form of the URL.
+	 */
+	public String toSurt(String url) {
+		return lookup(url, true, surtCache);
+	}
+
+	/**
+	 * Transforms a host into its SURT form, e.g. 'sub.example.com' becomes 'com,example,sub'.
+	 * IP addresses are not reversed.
+	 * @param host The lower case host, without port.
+	 * @return The SURT form of the host.
+	 */
+	public static String hostToSurt(String host) {
+		StringBuilder res = new StringBuilder(host.length());
+		appendSurtHost(host, 0, host.length(), res);
+		return res.toString();
+	}
+
+	/**
+	 * Looks up the URL in the cache, or canonicalizes it and caches the result.
+	 * @param url The URL.
+	 * @param surt Whether it should be the SURT form.
+	 * @param cache The cache. May be null.
+	 * @return The canonicalized URL.
+	 */
+	protected String lookup(String url, boolean surt, Map<String, String> cache) {
+		ArgumentCheck.checkNotNull(url, "String url");
+		if(cache == null) {
+			return createKey(url, surt);
+		}
+		String res = cache.get(url);
+		if(res == null) {
+			res = createKey(url, surt);
+			cache.put(url, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Canonicalizes the URL in a single pass.
+	 * @param url The URL.
+	 * @param surt Whether it should be the SURT form.
+	 * @return The canonicalized URL.
+	 */
+	protected String createKey(String url, boolean surt) {
+		int start = 0;
+		int end = url.length();
+		while(start < end && url.charAt(start) <= ' ') {
+			start++;
+		}
+		while(end > start && url.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		int fragment = url.indexOf('#', start);
+		if(fragment >= 0 && fragment < end) {
+			end = fragment;
+		}
+		String defaultPort = HTTP_DEFAULT_PORT;
+		int schemeEnd = url.indexOf("://", start);
+		if(schemeEnd > start && schemeEnd < end && isScheme(url, start, schemeEnd)) {
+			defaultPort = getDefaultPort(url, start, schemeEnd);
+			start = schemeEnd + 3;
+		}
+
+		int authorityEnd = start;
+		while(authorityEnd < end && url.charAt(authorityEnd) != '/' && url.charAt(authorityEnd) != '?') {
+			authorityEnd++;
+		}
+		int hostStart = url.lastIndexOf('@', authorityEnd - 1) + 1;
+		if(hostStart < start) {
+			hostStart = start;
+		}
+		int hostEnd = authorityEnd;
+		int portStart = authorityEnd;
+		for(int i = authorityEnd - 1; i >= hostStart; i--) {
+			char c = url.charAt(i);
+			if(c == ':') {
+				hostEnd = i;
+				portStart = i + 1;
+				break;
+			}
+			if(c < '0' || c > '9') {
+				break;
+			}
+		}
+		while(hostEnd > hostStart && url.charAt(hostEnd - 1) == '.') {
+			hostEnd--;
+		}
+		hostStart = skipWwwPrefix(url, hostStart, hostEnd);
+
+		StringBuilder res = new StringBuilder(end - start + 2);
+		if(surt) {
+			appendSurtHost(url, hostStart, hostEnd, res);
+		} else {
+			appendLowerCase(url, hostStart, hostEnd, res);
+		}
+		if(portStart < authorityEnd && !isDefaultPort(url, portStart, authorityEnd, defaultPort)) {
+			res.append(':');
+			res.append(url, portStart, authorityEnd);
+		}
+		if(surt) {
+			res.append(')');
+		}
+
+		int queryStart = url.indexOf('?', authorityEnd);
+		if(queryStart < 0 || queryStart > end) {
+			queryStart = end;
+		}
+		if(authorityEnd == queryStart) {
+			res.append('/');
+		} else {
+			appendPath(url, authorityEnd, queryStart, res);
+		}
+		if(queryStart < end) {
+			appendQuery(url, queryStart + 1, end, res);
+		}
+		return res.toString();
+	}
+
+	/**
+	 * Appends the path without session id path parameters, e.g. ';jsessionid=123'.
+	 * @param url The URL.
+	 * @param start The start of the path.
+	 * @param end The end of the path.
+	 * @param res The builder to append to.
+	 */
+	protected void appendPath(String url, int start, int end, StringBuilder res) {
+		int paramStart = url.indexOf(';', start);
+		if(paramStart < 0 || paramStart >= end) {
+			appendLowerCase(url, start, end, res);
+			return;
+		}
+		appendLowerCase(url, start, paramStart, res);
+		while(paramStart < end) {
+			int paramEnd = url.indexOf(';', paramStart + 1);
+			if(paramEnd < 0 || paramEnd > end) {
+				paramEnd = end;
+			}
+			if(!isSessionIdParameter(url, paramStart + 1, paramEnd)) {
+				appendLowerCase(url, paramStart, paramEnd, res);
+			}
+			paramStart = paramEnd;
+		}
+	}
+
+	/**
+	 * Appends the query with the parameters in order, and without empty and session id parameters.
+	 * The ColdFusion session id is only removed as a pair of 'CFID' and 'CFTOKEN', like in Heritrix.
+	 * Nothing is appended, if there are no parameters left.
+	 * @param url The URL.
+	 * @param start The start of the query, after the '?'.
+	 * @param end The end of the query.
+	 * @param res The builder to append to.
+	 */
+	protected void appendQuery(String url, int start, int end, StringBuilder res) {
+		List<String> parameters = null;
+		int firstStart = -1;
+		int firstEnd = -1;
+		int paramStart = start;
+		while(paramStart < end) {
+			int paramEnd = url.indexOf('&', paramStart);
+			if(paramEnd < 0 || paramEnd > end) {
+				paramEnd = end;
+			}
+			int pairEnd = getColdFusionSessionIdEnd(url, paramStart, paramEnd, end);
+			if(pairEnd > 0) {
+				paramStart = pairEnd + 1;
+				continue;
+			}
+			if(paramEnd > paramStart && !isSessionIdParameter(url, paramStart, paramEnd)) {
+				if(firstStart < 0) {
+					firstStart = paramStart;
+					firstEnd = paramEnd;
+				} else {
+					if(parameters == null) {
+						parameters = new ArrayList<String>();
+						parameters.add(url.substring(firstStart, firstEnd).toLowerCase(Locale.ROOT));
+					}
+					parameters.add(url.substring(paramStart, paramEnd).toLowerCase(Locale.ROOT));
+				}
+			}
+			paramStart = paramEnd + 1;
+		}
+		if(firstStart < 0) {
+			return;
+		}
+		res.append('?');
+		if(parameters == null) {
+			appendLowerCase(url, firstStart, firstEnd, res);
+			return;
+		}
+		Collections.sort(parameters);
+		for(int i = 0; i < parameters.size(); i++) {
+			if(i > 0) {
+				res.append('&');
+			}
+			res.append(parameters.get(i));
+		}
+	}
+
+	/**
+	 * Checks whether a parameter, 'name=value', is a session id: the name of a session id parameter,
+	 * and a value which looks like a session id.
+	 * @param url The URL.
+	 * @param start The start of the parameter.
+	 * @param end The end of the parameter.
+	 * @return Whether the parameter is a session id.
+	 */
+	protected boolean isSessionIdParameter(String url, int start, int end) {
+		int nameEnd = url.indexOf('=', start);
+		if(nameEnd < 0 || nameEnd >= end) {
+			return false;
+		}
+		int length = nameEnd - start;
+		for(String name : SESSION_ID_PARAMETERS) {
+			if(name.length() == length && url.regionMatches(true, start, name, 0, length)) {
+				return end - nameEnd - 1 == SESSION_ID_LENGTH && isAlphanumeric(url, nameEnd + 1, end, true);
+			}
+		}
+		int prefixLength = ASP_SESSION_ID_PREFIX.length();
+		return length == prefixLength + ASP_SESSION_ID_SUFFIX_LENGTH
+				&& url.regionMatches(true, start, ASP_SESSION_ID_PREFIX, 0, prefixLength)
+				&& isAlphanumeric(url, start + prefixLength, nameEnd, false)
+				&& end - nameEnd - 1 == ASP_SESSION_ID_LENGTH && isAlphanumeric(url, nameEnd + 1, end, false);
+	}
+
+	/**
+	 * Checks whether a parameter is the ColdFusion session id 'CFID=value', followed by 'CFTOKEN=value'.
+	 * @param url The URL.
+	 * @param start The start of the parameter.
+	 * @param end The end of the parameter.
+	 * @param queryEnd The end of the query.
+	 * @return The end of the 'CFTOKEN' parameter, or -1 if the parameter does not start such a pair.
+	 */
+	protected int getColdFusionSessionIdEnd(String url, int start, int end, int queryEnd) {
+		if(!isParameterWithValue(url, start, end, CFID) || end >= queryEnd) {
+			return -1;
+		}
+		int tokenEnd = url.indexOf('&', end + 1);
+		if(tokenEnd < 0 || tokenEnd > queryEnd) {
+			tokenEnd = queryEnd;
+		}
+		return isParameterWithValue(url, end + 1, tokenEnd, CFTOKEN) ? tokenEnd : -1;
+	}
+
+	/**
+	 * @param url The URL.
+	 * @param start The start of the parameter.
+	 * @param end The end of the parameter.
+	 * @param name The name of the parameter, in lower case.
+	 * @return Whether the parameter has the name (ignoring case) and a value, which is not empty.
+	 */
+	protected static boolean isParameterWithValue(String url, int start, int end, String name) {
+		return end - start > name.length() + 1 && url.regionMatches(true, start, name, 0, name.length())
+				&& url.charAt(start + name.length()) == '=';
+	}
+
+	/**
+	 * @param s The string.
+	 * @param start The start of the characters.
+	 * @param end The end of the characters.
+	 * @param digits Whether digits are allowed, or only letters.
+	 * @return Whether the characters are all ASCII letters (or digits).
+	 */
+	protected static boolean isAlphanumeric(String s, int start, int end, boolean digits) {
+		for(int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if(!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (digits && c >= '0' && c <= '9'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Skips the 'www' prefix of the host, also with numbers, e.g. 'www2.',
+	 * unless the rest of the host is only the top level domain.
+	 * @param url The URL.
+	 * @param start The start of the host.
+	 * @param end The end of the host.
+	 * @return The start of the host without the 'www' prefix.
+	 */
+	protected static int skipWwwPrefix(String url, int start, int end) {
+		if(end - start < 4 || !url.regionMatches(true, start, "www", 0, 3)) {
+			return start;
+		}
+		int i = start + 3;
+		while(i < end && url.charAt(i) >= '0' && url.charAt(i) <= '9') {
+			i++;
+		}
+		if(i < end && url.charAt(i) == '.') {
+			int dot = url.indexOf('.', i + 1);
+			if(dot > 0 && dot < end) {
+				return i + 1;
+			}
+		}
+		return start;
+	}
+
+	/**
+	 * Appends the host in SURT form, e.g. 'sub.example.com' as 'com,example,sub'.
+	 * IP addresses are appended as they are.
+	 * @param host The string with the host.
+	 * @param start The start of the host.
+	 * @param end The end of the host.
+	 * @param res The builder to append to.
+	 */
+	protected static void appendSurtHost(String host, int start, int end, StringBuilder res) {
+		if(isIPv4Address(host, start, end)) {
+			res.append(host, start, end);
+			return;
+		}
+		int segmentEnd = end;
+		for(int i = end - 1; i >= start - 1; i--) {
+			if(i < start || host.charAt(i) == '.') {
+				if(segmentEnd < end) {
+					res.append(',');
+				}
+				appendLowerCase(host, i + 1, segmentEnd, res);
+				segmentEnd = i;
+			}
+		}
+	}
+
+	/**
+	 * Appends the characters in lower case.
+	 * @param s The string.
+	 * @param start The start of the characters.
+	 * @param end The end of the characters.
+	 * @param res The builder to append to.
+	 */
+	protected static void appendLowerCase(String s, int start, int end, StringBuilder res) {
+		for(int i = start; i < end; i++) {
+			res.append(Character.toLowerCase(s.charAt(i)));
+		}
+	}
+
+	/**
+	 * @param url The URL.
+	 * @param start The start of the port.
+	 * @param end The end of the port.
+	 * @param defaultPort The default port of the scheme of the URL. May be null.
+	 * @return Whether the port is the default port, which should be removed.
+	 */
+	protected static boolean isDefaultPort(String url, int start, int end, String defaultPort) {
+		return defaultPort != null && defaultPort.length() == end - start && url.startsWith(defaultPort, start);
+	}
+
+	/**
+	 * @param url The URL.
+	 * @param start The start of the scheme.
+	 * @param end The end of the scheme, where '://' starts.
+	 * @return Whether the characters are a valid scheme.
+	 */
+	protected static boolean isScheme(String url, int start, int end) {
+		for(int i = start; i < end; i++) {
+			char c = url.charAt(i);
+			if(!Character.isLetterOrDigit(c) && c != '+' && c != '-' && c != '.') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param url The URL.
+	 * @param start The start of the scheme.
+	 * @param end The end of the scheme, where '://' starts.
+	 * @return The default port of the scheme, which should be removed, or null if it has none to remove.
+	 */
+	protected static String getDefaultPort(String url, int start, int end) {
+		if(end - start == 4 && url.regionMatches(true, start, "http", 0, 4)) {
+			return HTTP_DEFAULT_PORT;
+		}
+		if(end - start == 5 && url.regionMatches(true, start, "https", 0, 5)) {
+			return HTTPS_DEFAULT_PORT;
+		}
+		return null;
+	}
+
+	/**
+	 * @param host The string with the host.
+	 * @param start The start of the host.
+	 * @param end The end of the host.
+	 * @return Whether the host is an IPv4 address.
+	 */
+	protected static boolean isIPv4Address(String host, int start, int end) {
+		if(start >= end) {
+			return false;
+		}
+		int dots = 0;
+		for(int i = start; i < end; i++) {
+			char c = host.charAt(i);
+			if(c == '.') {
+				dots++;
+			} else if(c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return dots == 3;
+	}
+
+	/**
+	 * Map with a bounded number of entries, which removes the least recently used entry.
+	 */
+	@SuppressWarnings("serial")
+	protected static class LruMap extends LinkedHashMap<String, String> {
+		/** The maximum number of entries.*/
+		protected final int maxSize;
+
+		/**
+		 * Constructor.
+		 * @param maxSize The maximum number of entries.
+		 */
+		protected LruMap(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > maxSize;
+		}
+	}
+}
@@ -55,6 +55,9 @@ public class UrlUtils {
 	/**
 	 * Strips both the protocol and the wwww from the URL.
 	 * Will also handle www with numbers, e.g. http://www1.test.com will become test.com
+	 * 
+	 * For keys in CDX indices use the {@link SurtCanonicalizer}, which also handles ports, 
+	 * session ids and the order of the query parameters.
 	 * @param url The URL to strip.
 	 * @return The stripped URL.
 	 */
@@ -63,10 +66,6 @@ public class UrlUtils {
 		if(res.startsWith("www")) {
 			res = res.replaceFirst("www[0-9]*[\\.]", "");
 		}
-		res = res.toLowerCase(); //ELZI HACK for '?'
-		if (res.contains("?")) {
-			res.replaceAll("\\?", "%3F");
-		}
 		return res.toLowerCase();
 	}
 	
@@ -0,0 +1,281 @@
+package dk.netarkivet.research.utils;
+
+/**
+ * Fast conversion between the 14 digit Wayback date format (yyyyMMddHHmmss in UTC) and milliseconds since epoch.
+ * 
+ * The conversion works directly on the characters or bytes, without going through a calendar or creating
+ * any objects, since it is done for every CDX line read or written.
+ * It only handles the dates from year 1900 to 9999 (where the Gregorian calendar is used without exceptions);
+ * other dates are reported as not handled, and must be converted through the SimpleDateFormat instead,
+ * as it is done by {@link DateUtils}.
+ */
+public class WaybackDateCodec {
+	/** The number of digits in a Wayback date.*/
+	public static final int LENGTH = 14;
+	/** The value returned when a date cannot be handled.*/
+	public static final long NOT_HANDLED = Long.MIN_VALUE;
+
+	/** The earliest date handled: 19000101000000.*/
+	protected static final long MIN_MILLIS = -2208988800000L;
+	/** The latest date handled: 99991231235959 (and 999 milliseconds).*/
+	protected static final long MAX_MILLIS = 253402300799999L;
+	/** The earliest year handled.*/
+	protected static final int MIN_YEAR = 1900;
+	/** The number of milliseconds in a second.*/
+	protected static final long MILLIS_PER_SECOND = 1000L;
+	/** The number of seconds in a day.*/
+	protected static final long SECONDS_PER_DAY = 86400L;
+	/** The number of days from 0000-03-01 to 1970-01-01 in the proleptic Gregorian calendar.*/
+	protected static final long DAYS_0000_TO_1970 = 719468L;
+	/** The number of days in a 400 year cycle.*/
+	protected static final long DAYS_PER_CYCLE = 146097L;
+
+	/**
+	 * Parses a Wayback date, which must be the whole string - or be followed by a non-digit character.
+	 * @param date The Wayback date.
+	 * @return The milliseconds since epoch, or {@link #NOT_HANDLED} if it is not a date handled by this codec.
+	 */
+	public static long parse(CharSequence date) {
+		if(date.length() < LENGTH || (date.length() > LENGTH && isDigit(date.charAt(LENGTH)))) {
+			return NOT_HANDLED;
+		}
+		return parse(date, 0);
+	}
+
+	/**
+	 * Parses the 14 characters of a Wayback date at the offset.
+	 * @param date The characters with the Wayback date.
+	 * @param offset The offset of the Wayback date.
+	 * @return The milliseconds since epoch, or {@link #NOT_HANDLED} if it is not a date handled by this codec.
+	 */
+	public static long parse(CharSequence date, int offset) {
+		if(offset < 0 || date.length() - offset < LENGTH) {
+			return NOT_HANDLED;
+		}
+		for(int i = offset; i < offset + LENGTH; i++) {
+			if(!isDigit(date.charAt(i))) {
+				return NOT_HANDLED;
+			}
+		}
+		return toMillis(
+				digits(date.charAt(offset), date.charAt(offset + 1)) * 100 
+						+ digits(date.charAt(offset + 2), date.charAt(offset + 3)),
+				digits(date.charAt(offset + 4), date.charAt(offset + 5)),
+				digits(date.charAt(offset + 6), date.charAt(offset + 7)),
+				digits(date.charAt(offset + 8), date.charAt(offset + 9)),
+				digits(date.charAt(offset + 10), date.charAt(offset + 11)),
+				digits(date.charAt(offset + 12), date.charAt(offset + 13)));
+	}
+
+	/**
+	 * Parses the 14 bytes of a Wayback date at the offset, e.g. directly from a CDX file.
+	 * @param date The bytes with the Wayback date, as ASCII.
+	 * @param offset The offset of the Wayback date.
+	 * @return The milliseconds since epoch, or {@link #NOT_HANDLED} if it is not a date handled by this codec.
+	 */
+	public static long parse(byte[] date, int offset) {
+		if(offset < 0 || date.length - offset < LENGTH) {
+			return NOT_HANDLED;
+		}
+		for(int i = offset; i < offset + LENGTH; i++) {
+			if(!isDigit((char) date[i])) {
+				return NOT_HANDLED;
+			}
+		}
+		return toMillis(
+				digits((char) date[offset], (char) date[offset + 1]) * 100 
+						+ digits((char) date[offset + 2], (char) date[offset + 3]),
+				digits((char) date[offset + 4], (char) date[offset + 5]),
+				digits((char) date[offset + 6], (char) date[offset + 7]),
+				digits((char) date[offset + 8], (char) date[offset + 9]),
+				digits((char) date[offset + 10], (char) date[offset + 11]),
+				digits((char) date[offset + 12], (char) date[offset + 13]));
+	}
+
+	/**
+	 * Converts the fields of a date in UTC to milliseconds since epoch.
+	 * The fields are validated as strictly as by a non-lenient calendar.
+	 * @param year The year.
+	 * @param month The month, from 1 to 12.
+	 * @param day The day of the month, from 1.
+	 * @param hour The hour of the day, from 0 to 23.
+	 * @param minute The minute, from 0 to 59.
+	 * @param second The second, from 0 to 59.
+	 * @return The milliseconds since epoch, or {@link #NOT_HANDLED} if the fields are not a valid date.
+	 */
+	protected static long toMillis(int year, int month, int day, int hour, int minute, int second) {
+		if(year < MIN_YEAR || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) 
+				|| hour > 23 || minute > 59 || second > 59) {
+			return NOT_HANDLED;
+		}
+		long y = month <= 2 ? year - 1 : year;
+		long era = y / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		long days = era * DAYS_PER_CYCLE + dayOfEra - DAYS_0000_TO_1970;
+		return ((days * 24 + hour) * 60 + minute) * 60 * MILLIS_PER_SECOND + second * MILLIS_PER_SECOND;
+	}
+
+	/**
+	 * @param millis The milliseconds since epoch.
+	 * @return Whether the date can be formatted by this codec.
+	 */
+	public static boolean canFormat(long millis) {
+		return millis >= MIN_MILLIS && millis <= MAX_MILLIS;
+	}
+
+	/**
+	 * Formats the date as a Wayback date.
+	 * @param millis The milliseconds since epoch. Must be a date, which can be formatted by this codec.
+	 * @return The Wayback date.
+	 */
+	public static String format(long millis) {
+		char[] res = new char[LENGTH];
+		format(millis, res, 0);
+		return new String(res);
+	}
+
+	/**
+	 * Appends the date as a Wayback date.
+	 * @param millis The milliseconds since epoch. Must be a date, which can be formatted by this codec.
+	 * @param sb The string builder to append the Wayback date to.
+	 */
+	public static void append(long millis, StringBuilder sb) {
+		checkFormat(millis);
+		long seconds = floorDiv(millis, MILLIS_PER_SECOND);
+		long days = floorDiv(seconds, SECONDS_PER_DAY);
+		int secondOfDay = (int) (seconds - days * SECONDS_PER_DAY);
+		int date = fromDays(days);
+		int offset = sb.length();
+		sb.setLength(offset + LENGTH);
+		set(sb, offset, date / 1000000);
+		set(sb, offset + 2, (date / 10000) % 100);
+		set(sb, offset + 4, (date / 100) % 100);
+		set(sb, offset + 6, date % 100);
+		set(sb, offset + 8, secondOfDay / 3600);
+		set(sb, offset + 10, (secondOfDay / 60) % 60);
+		set(sb, offset + 12, secondOfDay % 60);
+	}
+
+	/**
+	 * Writes the date as a Wayback date into the characters at the offset.
+	 * @param millis The milliseconds since epoch. Must be a date, which can be formatted by this codec.
+	 * @param res The characters to write the Wayback date into.
+	 * @param offset The offset to write the Wayback date at.
+	 */
+	public static void format(long millis, char[] res, int offset) {
+		checkFormat(millis);
+		long seconds = floorDiv(millis, MILLIS_PER_SECOND);
+		long days = floorDiv(seconds, SECONDS_PER_DAY);
+		int secondOfDay = (int) (seconds - days * SECONDS_PER_DAY);
+		int date = fromDays(days);
+		set(res, offset, date / 1000000);
+		set(res, offset + 2, (date / 10000) % 100);
+		set(res, offset + 4, (date / 100) % 100);
+		set(res, offset + 6, date % 100);
+		set(res, offset + 8, secondOfDay / 3600);
+		set(res, offset + 10, (secondOfDay / 60) % 60);
+		set(res, offset + 12, secondOfDay % 60);
+	}
+
+	/**
+	 * Converts the days since epoch to the date in the proleptic Gregorian calendar.
+	 * @param days The days since epoch.
+	 * @return The year, month and day of month as the number yyyyMMdd.
+	 */
+	protected static int fromDays(long days) {
+		long z = days + DAYS_0000_TO_1970;
+		long era = floorDiv(z, DAYS_PER_CYCLE);
+		long dayOfEra = z - era * DAYS_PER_CYCLE;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+		return year * 10000 + month * 100 + day;
+	}
+
+	/**
+	 * @param year The year.
+	 * @param month The month, from 1 to 12.
+	 * @return The number of days in the month.
+	 */
+	protected static int daysInMonth(int year, int month) {
+		switch(month) {
+		case 2:
+			boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+			return leap ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/**
+	 * Validates that the date can be formatted.
+	 * @param millis The milliseconds since epoch.
+	 */
+	protected static void checkFormat(long millis) {
+		if(!canFormat(millis)) {
+			throw new IllegalArgumentException("Cannot format the date '" + millis + "' as a 14 digit Wayback date");
+		}
+	}
+
+	/**
+	 * @param a The dividend.
+	 * @param b The divisor. Must be positive.
+	 * @return The largest value less than or equal to the quotient.
+	 */
+	protected static long floorDiv(long a, long b) {
+		long res = a / b;
+		if(a % b < 0) {
+			res--;
+		}
+		return res;
+	}
+
+	/**
+	 * @param c The character.
+	 * @return Whether it is an ASCII digit.
+	 */
+	protected static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * @param tens The digit for the tens.
+	 * @param ones The digit for the ones.
+	 * @return The two digit number.
+	 */
+	protected static int digits(char tens, char ones) {
+		return (tens - '0') * 10 + (ones - '0');
+	}
+
+	/**
+	 * Writes a two digit number.
+	 * @param res The characters to write into.
+	 * @param offset The offset to write at.
+	 * @param value The number, from 0 to 99.
+	 */
+	protected static void set(char[] res, int offset, int value) {
+		res[offset] = (char) ('0' + value / 10);
+		res[offset + 1] = (char) ('0' + value % 10);
+	}
+
+	/**
+	 * Writes a two digit number.
+	 * @param sb The string builder to write into.
+	 * @param offset The offset to write at.
+	 * @param value The number, from 0 to 99.
+	 */
+	protected static void set(StringBuilder sb, int offset, int value) {
+		sb.setCharAt(offset, (char) ('0' + value / 10));
+		sb.setCharAt(offset + 1, (char) ('0' + value % 10));
+	}
+}
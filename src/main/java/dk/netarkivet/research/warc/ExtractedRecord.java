@@ -0,0 +1,169 @@
+package dk.netarkivet.research.warc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * The data of a record extracted from the archive.
+ *
+ * Records up to the memory threshold are kept in memory, and only larger records are spilled to a temporary file,
+ * so the small records never touch the disk.
+ * Closing the record deletes its temporary file.
+ */
+public class ExtractedRecord implements Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(ExtractedRecord.class);
+
+	/** The default size in bytes of the largest record kept in memory.*/
+	public static final int DEFAULT_MEMORY_THRESHOLD = 1024 * 1024;
+	/** The size of the buffer for copying the data.*/
+	protected static final int BUFFER_SIZE = 64 * 1024;
+
+	/** The data, when it is kept in memory. Otherwise null.*/
+	protected final byte[] data;
+	/** The file with the data, when it is not kept in memory. Otherwise null.*/
+	protected final File file;
+	/** The length of the data in bytes.*/
+	protected final long length;
+	/** Whether the file is deleted, when the record is closed.*/
+	protected final boolean deleteOnClose;
+
+	/**
+	 * Constructor.
+	 * @param data The data, when it is kept in memory. Otherwise null.
+	 * @param file The file with the data, when it is not kept in memory. Otherwise null.
+	 * @param length The length of the data in bytes.
+	 * @param deleteOnClose Whether the file is deleted, when the record is closed.
+	 */
+	protected ExtractedRecord(byte[] data, File file, long length, boolean deleteOnClose) {
+		this.data = data;
+		this.file = file;
+		this.length = length;
+		this.deleteOnClose = deleteOnClose;
+	}
+
+	/**
+	 * Reads the data of a record from a stream, and keeps it in memory unless it is larger than the threshold.
+	 * The stream is read to the end, but it is not closed.
+	 * @param in The stream with the data of the record.
+	 * @param memoryThreshold The size in bytes of the largest record kept in memory.
+	 * @return The record.
+	 * @throws IOException If it fails to read the stream, or to spill it to a temporary file.
+	 */
+	public static ExtractedRecord buffer(InputStream in, int memoryThreshold) throws IOException {
+		ArgumentCheck.checkNotNull(in, "InputStream in");
+		ArgumentCheck.checkIsTrue(memoryThreshold >= 0, "int memoryThreshold must not be negative");
+		ByteArrayOutputStream memory = new ByteArrayOutputStream(Math.min(memoryThreshold, BUFFER_SIZE));
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while((read = in.read(buffer)) != -1) {
+			if(memory.size() + read > memoryThreshold) {
+				return spill(memory, buffer, read, in);
+			}
+			memory.write(buffer, 0, read);
+		}
+		return new ExtractedRecord(memory.toByteArray(), null, memory.size(), false);
+	}
+
+	/**
+	 * Spills the data read so far and the rest of the stream to a temporary file.
+	 * @param memory The data read so far.
+	 * @param buffer The buffer with the latest data read.
+	 * @param read The number of bytes in the buffer.
+	 * @param in The rest of the stream.
+	 * @return The record with the data in the temporary file.
+	 * @throws IOException If it fails to read the stream or write the file.
+	 */
+	protected static ExtractedRecord spill(ByteArrayOutputStream memory, byte[] buffer, int read, InputStream in)
+			throws IOException {
+		File f = File.createTempFile("record", ".tmp");
+		long length = 0L;
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f), BUFFER_SIZE)) {
+			memory.writeTo(out);
+			length += memory.size();
+			memory.reset();
+			int l = read;
+			do {
+				out.write(buffer, 0, l);
+				length += l;
+			} while((l = in.read(buffer)) != -1);
+		} catch (IOException e) {
+			deleteFile(f);
+			throw e;
+		}
+		return new ExtractedRecord(null, f, length, true);
+	}
+
+	/**
+	 * Wraps a file with the data of a record.
+	 * @param file The file.
+	 * @param deleteOnClose Whether the file is deleted, when the record is closed.
+	 * @return The record.
+	 */
+	public static ExtractedRecord fromFile(File file, boolean deleteOnClose) {
+		ArgumentCheck.checkIsFile(file, "File file");
+		return new ExtractedRecord(null, file, file.length(), deleteOnClose);
+	}
+
+	/**
+	 * @return The length of the data in bytes.
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return Whether the data is kept in memory.
+	 */
+	public boolean isInMemory() {
+		return data != null;
+	}
+
+	/**
+	 * Opens a new stream with the data, which must be closed by the caller.
+	 * @return The stream with the data.
+	 * @throws IOException If the file with the data cannot be opened.
+	 */
+	public InputStream getInputStream() throws IOException {
+		if(data != null) {
+			return new ByteArrayInputStream(data);
+		}
+		return new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+	}
+
+	@Override
+	public void close() {
+		if(file != null && deleteOnClose) {
+			deleteFile(file);
+		}
+	}
+
+	/**
+	 * Deletes a temporary file, and logs if it could not be deleted.
+	 * @param f The file.
+	 */
+	protected static void deleteFile(File f) {
+		if(f.exists() && !f.delete()) {
+			logger.info("Could not cleanup file '" + f.getAbsolutePath() + "'");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ExtractedRecord: [length = " + length + ", " + (data != null ? "in memory" : "file = " + file) + "]";
+	}
+}
@@ -0,0 +1,115 @@
+package dk.netarkivet.research.warc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Input stream, which reads a file channel from a given position.
+ *
+ * The stream uses positional reads, which do not move the position of the channel, so several streams can read
+ * the same channel concurrently. Closing the stream does not close the channel.
+ */
+public class FileChannelInputStream extends InputStream {
+	/** The default size of the read buffer.*/
+	protected static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/** The file channel.*/
+	protected final FileChannel channel;
+	/** The read buffer.*/
+	protected final ByteBuffer buffer;
+	/** The position in the file of the next read from the channel.*/
+	protected long position;
+	/** Whether the end of the file has been reached.*/
+	protected boolean endOfFile = false;
+
+	/**
+	 * Constructor.
+	 * @param channel The file channel.
+	 * @param position The position in the file, where the stream starts.
+	 */
+	public FileChannelInputStream(FileChannel channel, long position) {
+		this(channel, position, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * @param channel The file channel.
+	 * @param position The position in the file, where the stream starts.
+	 * @param bufferSize The size of the read buffer.
+	 */
+	public FileChannelInputStream(FileChannel channel, long position, int bufferSize) {
+		ArgumentCheck.checkNotNull(channel, "FileChannel channel");
+		ArgumentCheck.checkIsTrue(position >= 0, "long position must not be negative");
+		ArgumentCheck.checkIsTrue(bufferSize > 0, "int bufferSize must be positive");
+		this.channel = channel;
+		this.position = position;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+		this.buffer.flip();
+	}
+
+	/**
+	 * Refills the buffer from the channel, if it is empty.
+	 * @return Whether there is data in the buffer.
+	 * @throws IOException If it fails to read the channel.
+	 */
+	protected boolean fill() throws IOException {
+		if(buffer.hasRemaining()) {
+			return true;
+		}
+		if(endOfFile) {
+			return false;
+		}
+		buffer.clear();
+		int read;
+		do {
+			read = channel.read(buffer, position);
+		} while(read == 0 && buffer.hasRemaining());
+		buffer.flip();
+		if(read < 0) {
+			endOfFile = true;
+			return false;
+		}
+		position += read;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(!fill()) {
+			return -1;
+		}
+		return buffer.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0) {
+			return 0;
+		}
+		if(!fill()) {
+			return -1;
+		}
+		int res = Math.min(len, buffer.remaining());
+		buffer.get(b, off, res);
+		return res;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if(n <= 0) {
+			return 0L;
+		}
+		long res = Math.min(n, buffer.remaining());
+		buffer.position(buffer.position() + (int) res);
+		if(res < n) {
+			long skipped = Math.min(n - res, Math.max(0L, channel.size() - position));
+			position += skipped;
+			res += skipped;
+		}
+		return res;
+	}
+}
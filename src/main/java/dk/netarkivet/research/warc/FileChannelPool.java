@@ -0,0 +1,226 @@
+package dk.netarkivet.research.warc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Pool of open file channels for reading, which keeps the most recently used files open.
+ *
+ * When more than the maximum number of files are open, the least recently used file is evicted from the pool.
+ * A channel in use is only closed, when it is released by its last user, so the number of open files can briefly
+ * exceed the maximum while evicted channels are still being read.
+ * A file channel is closed, when a thread reading it is interrupted, so the closed channels are dropped from the pool
+ * and the file is opened again by the next user.
+ *
+ * The pool is thread safe.
+ */
+public class FileChannelPool implements Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(FileChannelPool.class);
+
+	/** The maximum number of open files in the pool.*/
+	protected final int maxOpenFiles;
+	/** The open channels, in the order of their latest use.*/
+	protected final LinkedHashMap<File, PooledChannel> channels;
+	/** The number of times a file has been opened.*/
+	protected long openCount = 0L;
+
+	/**
+	 * Constructor.
+	 * @param maxOpenFiles The maximum number of open files in the pool.
+	 */
+	public FileChannelPool(int maxOpenFiles) {
+		ArgumentCheck.checkIsTrue(maxOpenFiles > 0, "int maxOpenFiles must be positive");
+		this.maxOpenFiles = maxOpenFiles;
+		this.channels = new LinkedHashMap<File, PooledChannel>(16, 0.75f, true);
+	}
+
+	/**
+	 * Retrieves the open channel for a file, or opens it if it is not in the pool.
+	 * The file is opened without holding the lock of the pool, so a slow file system does not block the users of
+	 * the other files. If another thread opens the same file meanwhile, its channel is used instead.
+	 * Must be followed by a {@link #release(PooledChannel)}, when the channel is no longer used.
+	 * @param file The file.
+	 * @return The channel for the file.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public PooledChannel acquire(File file) throws IOException {
+		PooledChannel res = acquireOpen(file);
+		if(res != null) {
+			return res;
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		synchronized(this) {
+			res = acquireOpen(file);
+			if(res == null) {
+				res = new PooledChannel(file, channel);
+				openCount++;
+				channels.put(file, res);
+				evict();
+				res.users++;
+				return res;
+			}
+		}
+		new PooledChannel(file, channel).close();
+		return res;
+	}
+
+	/**
+	 * Retrieves the channel for a file from the pool, if it is still open. A closed channel is dropped from the pool.
+	 * @param file The file.
+	 * @return The channel for the file, or null if there is no open channel for the file in the pool.
+	 */
+	protected synchronized PooledChannel acquireOpen(File file) {
+		PooledChannel res = channels.get(file);
+		if(res == null) {
+			return null;
+		}
+		if(!res.channel.isOpen()) {
+			evict(res);
+			return null;
+		}
+		res.users++;
+		return res;
+	}
+
+	/**
+	 * Releases a channel, and closes it if it has been evicted and this was its last user.
+	 * @param channel The channel.
+	 */
+	public synchronized void release(PooledChannel channel) {
+		channel.users--;
+		if(channel.evicted && channel.users == 0) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Evicts a channel from the pool, e.g. because it has been closed by an interrupted reader.
+	 * The channel is closed, when it is released by its last user.
+	 * @param channel The channel.
+	 */
+	public synchronized void evict(PooledChannel channel) {
+		if(channels.get(channel.file) == channel) {
+			channels.remove(channel.file);
+		}
+		channel.evicted = true;
+		if(channel.users == 0) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Evicts the least recently used channels, until the pool is within the maximum number of open files.
+	 */
+	protected void evict() {
+		Iterator<PooledChannel> it = channels.values().iterator();
+		while(channels.size() > maxOpenFiles && it.hasNext()) {
+			PooledChannel eldest = it.next();
+			it.remove();
+			eldest.evicted = true;
+			if(eldest.users == 0) {
+				eldest.close();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of files in the pool.
+	 */
+	public synchronized int getOpenFiles() {
+		return channels.size();
+	}
+
+	/**
+	 * @return The number of times a file has been opened.
+	 */
+	public synchronized long getOpenCount() {
+		return openCount;
+	}
+
+	/**
+	 * Evicts all the channels from the pool. The channels in use are closed, when they are released.
+	 */
+	@Override
+	public synchronized void close() {
+		List<PooledChannel> evicted = new ArrayList<PooledChannel>(channels.values());
+		channels.clear();
+		for(PooledChannel channel : evicted) {
+			channel.evicted = true;
+			if(channel.users == 0) {
+				channel.close();
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder res = new StringBuilder("FileChannelPool: [max open files = " + maxOpenFiles + ", open = ");
+		for(Map.Entry<File, PooledChannel> entry : channels.entrySet()) {
+			res.append(entry.getKey().getName() + "(" + entry.getValue().users + ") ");
+		}
+		return res.append("]").toString();
+	}
+
+	/**
+	 * An open channel in the pool.
+	 */
+	public static class PooledChannel {
+		/** The file.*/
+		protected final File file;
+		/** The channel for the file.*/
+		protected final FileChannel channel;
+		/** The number of users of the channel. Guarded by the pool.*/
+		protected int users = 0;
+		/** Whether the channel has been evicted from the pool. Guarded by the pool.*/
+		protected boolean evicted = false;
+
+		/**
+		 * Constructor.
+		 * @param file The file.
+		 * @param channel The channel for the file.
+		 */
+		protected PooledChannel(File file, FileChannel channel) {
+			this.file = file;
+			this.channel = channel;
+		}
+
+		/**
+		 * @return The file.
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return The channel for the file.
+		 */
+		public FileChannel getChannel() {
+			return channel;
+		}
+
+		/**
+		 * Closes the channel.
+		 */
+		protected void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.info("Could not close the file '" + file.getAbsolutePath() + "'", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,313 @@
+package dk.netarkivet.research.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.jwat.arc.ArcReader;
+import org.jwat.arc.ArcReaderFactory;
+import org.jwat.arc.ArcRecordBase;
+import org.jwat.common.Payload;
+import org.jwat.warc.WarcReader;
+import org.jwat.warc.WarcReaderFactory;
+import org.jwat.warc.WarcRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Data extractor from WARC and ARC files in local directories, e.g. on a local disk or a NFS mount.
+ *
+ * The archive file of a CDX entry is looked up in the directories in the given order, and the record is read
+ * directly from the offset of the CDX entry, without going through the repository.
+ * Compressed files (ending with '.gz') are read one gzip member at the offset.
+ * Like the records from a NetarchiveSuite archive, the extracted data is the block of the record,
+ * without the WARC or ARC header.
+ *
+ * The archive files are kept open in a bounded pool of the most recently used files, which can be set with the
+ * system property {@link #PROPERTY_MAX_OPEN_FILES}. Interrupting a reader closes the shared channel of its file,
+ * so the other readers of the file read their record again from a new channel.
+ * The records are kept in memory up to the threshold of the system property
+ * {@link NASArchiveExtractor#PROPERTY_MEMORY_THRESHOLD}.
+ *
+ * The extractor is thread safe.
+ */
+public class LocalFileArchiveExtractor implements StreamingArchiveExtractor, Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(LocalFileArchiveExtractor.class);
+
+	/** The system property for the maximum number of archive files kept open.*/
+	public static final String PROPERTY_MAX_OPEN_FILES = "dk.netarkivet.research.warc.local.maxOpenFiles";
+	/** The default maximum number of archive files kept open.*/
+	public static final int DEFAULT_MAX_OPEN_FILES = 64;
+	/** The suffix of compressed archive files.*/
+	protected static final String GZIP_SUFFIX = ".gz";
+	/** The extension of WARC files.*/
+	protected static final String WARC_EXTENSION = ".warc";
+	/** The start of every WARC record.*/
+	protected static final byte[] WARC_MAGIC = "WARC/".getBytes(StandardCharsets.US_ASCII);
+	/** The maximum length of the header line of an ARC record.*/
+	protected static final int MAX_ARC_HEADER_LINE = 8192;
+	/** The number of fields in the header line of an ARC record in version 1 of the ARC format.*/
+	protected static final int ARC_V1_FIELDS = 5;
+	/** The number of fields in the header line of an ARC record in version 2 of the ARC format.*/
+	protected static final int ARC_V2_FIELDS = 10;
+	/** The URL at the start of an ARC record, which must begin with a scheme, e.g. 'http:' or 'filedesc:'.*/
+	protected static final Pattern ARC_URL_PATTERN = Pattern.compile("[a-zA-Z][a-zA-Z0-9+.-]*:\\S+");
+	/** The length at the end of the header line of an ARC record.*/
+	protected static final Pattern ARC_LENGTH_PATTERN = Pattern.compile("[0-9]+");
+
+	/** The directories with the archive files.*/
+	protected final List<File> directories;
+	/** The pool of open archive files.*/
+	protected final FileChannelPool channelPool;
+	/** The size in bytes of the largest record kept in memory.*/
+	protected final int memoryThreshold;
+	/** The archive files found in the directories, by their name.*/
+	protected final ConcurrentMap<String, File> resolvedFiles = new ConcurrentHashMap<String, File>();
+
+	/**
+	 * Constructor.
+	 * Uses the maximum number of open files and the memory threshold from the system properties.
+	 * @param directories The directories with the archive files, in the order they are searched.
+	 */
+	public LocalFileArchiveExtractor(Collection<File> directories) {
+		this(directories, Integer.getInteger(PROPERTY_MAX_OPEN_FILES, DEFAULT_MAX_OPEN_FILES),
+				Integer.getInteger(NASArchiveExtractor.PROPERTY_MEMORY_THRESHOLD,
+						ExtractedRecord.DEFAULT_MEMORY_THRESHOLD));
+	}
+
+	/**
+	 * Constructor.
+	 * @param directories The directories with the archive files, in the order they are searched.
+	 * @param maxOpenFiles The maximum number of archive files kept open.
+	 * @param memoryThreshold The size in bytes of the largest record kept in memory.
+	 */
+	public LocalFileArchiveExtractor(Collection<File> directories, int maxOpenFiles, int memoryThreshold) {
+		ArgumentCheck.checkNotNull(directories, "Collection<File> directories");
+		ArgumentCheck.checkIsTrue(!directories.isEmpty(), "Collection<File> directories must not be empty");
+		ArgumentCheck.checkIsTrue(memoryThreshold >= 0, "int memoryThreshold must not be negative");
+		for(File dir : directories) {
+			ArgumentCheck.checkIsTrue(dir.isDirectory(), "The directory '" + dir + "' must be a directory");
+		}
+		this.directories = new ArrayList<File>(directories);
+		this.channelPool = new FileChannelPool(maxOpenFiles);
+		this.memoryThreshold = memoryThreshold;
+	}
+
+	@Override
+	public ExtractedRecord extractRecord(CDXEntry index) throws IOException {
+		File file = resolveFile(index.getFilename());
+		if(file == null) {
+			logger.warn("Unable to extract data for (filename,offset)=(" + index.getFilename() + ","
+					+ index.getOffset() + "). Probable reason: the file is not in the directories " + directories);
+			return null;
+		}
+		for(int attempt = 0; ; attempt++) {
+			FileChannelPool.PooledChannel channel = channelPool.acquire(file);
+			try {
+				ExtractedRecord res = readRecord(file.getName(), channel.getChannel(), index.getOffset());
+				logger.debug("Data extracted for url '" + index.getUrl() + "' read from (filename,offset)=("
+						+ file.getAbsolutePath() + "," + index.getOffset() + ") .");
+				return res;
+			} catch (IOException | RuntimeException e) {
+				if(!channel.getChannel().isOpen()) {
+					// Closed by an interrupted reader, which is either this thread or another reader of the file
+					channelPool.evict(channel);
+					if(attempt == 0 && !Thread.currentThread().isInterrupted()) {
+						logger.debug("The file '" + file.getAbsolutePath() + "' was closed while being read. "
+								+ "Reading it again.", e);
+						continue;
+					}
+				}
+				throw new IOException("Unable to extract (filename,offset)=(" + index.getFilename() + ","
+						+ index.getOffset() + ").", e);
+			} finally {
+				channelPool.release(channel);
+			}
+		}
+	}
+
+	@Override
+	public File extractWarcRecord(CDXEntry index) throws IOException {
+		try (ExtractedRecord record = extractRecord(index)) {
+			if(record == null) {
+				return null;
+			}
+			File f = File.createTempFile("payload", "tmp");
+			try (InputStream in = record.getInputStream(); OutputStream out = new FileOutputStream(f)) {
+				IOUtils.copy(in, out);
+			}
+			return f;
+		}
+	}
+
+	/**
+	 * Finds an archive file in the directories.
+	 * @param filename The name of the archive file.
+	 * @return The archive file, or null if it is not in any of the directories.
+	 */
+	protected File resolveFile(String filename) {
+		if(filename == null || filename.isEmpty()) {
+			return null;
+		}
+		File res = resolvedFiles.get(filename);
+		if(res != null) {
+			return res;
+		}
+		for(File dir : directories) {
+			File f = new File(dir, filename);
+			if(f.isFile()) {
+				resolvedFiles.putIfAbsent(filename, f);
+				return f;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the record at the offset of the archive file, and extracts its block.
+	 * @param filename The name of the archive file, which tells whether it is a compressed WARC or ARC file.
+	 * @param channel The channel of the archive file.
+	 * @param offset The offset of the record in the archive file.
+	 * @return The block of the record.
+	 * @throws IOException If there is no valid record at the offset, or it fails to read the record.
+	 */
+	protected ExtractedRecord readRecord(String filename, FileChannel channel, long offset) throws IOException {
+		InputStream in = new FileChannelInputStream(channel, offset);
+		boolean compressed = filename.endsWith(GZIP_SUFFIX);
+		String name = compressed ? filename.substring(0, filename.length() - GZIP_SUFFIX.length()) : filename;
+		if(name.endsWith(WARC_EXTENSION)) {
+			WarcReader reader;
+			if(compressed) {
+				reader = WarcReaderFactory.getReaderCompressed();
+			} else {
+				reader = WarcReaderFactory.getReaderUncompressed();
+				in = checkWarcMagic(in, offset, filename);
+			}
+			try {
+				WarcRecord record = reader.getNextRecordFrom(in, offset);
+				if(record == null) {
+					throw new IOException("No WARC record at offset " + offset + " in '" + filename + "'");
+				}
+				return readPayload(record.getPayload());
+			} finally {
+				reader.close();
+			}
+		}
+		ArcReader reader;
+		if(compressed) {
+			reader = ArcReaderFactory.getReaderCompressed();
+		} else {
+			reader = ArcReaderFactory.getReaderUncompressed();
+			checkArcHeader(channel, offset, filename);
+		}
+		try {
+			ArcRecordBase record = reader.getNextRecordFrom(in, offset);
+			if(record == null) {
+				throw new IOException("No ARC record at offset " + offset + " in '" + filename + "'");
+			}
+			return readPayload(record.getPayload());
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Validates that an uncompressed WARC record starts at the offset, since the reader silently skips any data
+	 * before the next record.
+	 * @param in The stream of the archive file from the offset of the record.
+	 * @param offset The offset of the record in the archive file.
+	 * @param filename The name of the archive file.
+	 * @return The stream from the offset, including the bytes read for the validation.
+	 * @throws IOException If the stream does not start with a WARC record.
+	 */
+	protected InputStream checkWarcMagic(InputStream in, long offset, String filename) throws IOException {
+		PushbackInputStream res = new PushbackInputStream(in, WARC_MAGIC.length);
+		byte[] magic = new byte[WARC_MAGIC.length];
+		int read = IOUtils.read(res, magic);
+		if(read != WARC_MAGIC.length || !Arrays.equals(magic, WARC_MAGIC)) {
+			throw new IOException("No WARC record at offset " + offset + " in '" + filename + "'");
+		}
+		res.unread(magic);
+		return res;
+	}
+
+	/**
+	 * Validates that an uncompressed ARC record starts at the offset, since the reader silently skips any data
+	 * before the next record. The record must start at a new line with the header line of the record:
+	 * the URL, the IP address, the date, the content type, and at the end the length of the record
+	 * (5 fields in version 1 of the ARC format, and 10 fields in version 2).
+	 * @param channel The channel of the archive file.
+	 * @param offset The offset of the record in the archive file.
+	 * @param filename The name of the archive file.
+	 * @throws IOException If the offset is not at the start of an ARC record.
+	 */
+	protected void checkArcHeader(FileChannel channel, long offset, String filename) throws IOException {
+		InputStream in = new FileChannelInputStream(channel, offset > 0 ? offset - 1 : offset, 
+				MAX_ARC_HEADER_LINE);
+		if(offset > 0 && in.read() != '\n') {
+			throw new IOException("No ARC record at offset " + offset + " in '" + filename 
+					+ "', since it is not at the start of a line");
+		}
+		StringBuilder line = new StringBuilder();
+		int b;
+		while((b = in.read()) != '\n') {
+			if(b < 0 || line.length() >= MAX_ARC_HEADER_LINE) {
+				throw new IOException("No ARC record at offset " + offset + " in '" + filename + "'");
+			}
+			line.append((char) b);
+		}
+		String[] fields = line.toString().trim().split(" ");
+		if((fields.length != ARC_V1_FIELDS && fields.length != ARC_V2_FIELDS)
+				|| !ARC_URL_PATTERN.matcher(fields[0]).matches() 
+				|| !ARC_LENGTH_PATTERN.matcher(fields[fields.length - 1]).matches()) {
+			throw new IOException("No ARC record at offset " + offset + " in '" + filename + "', but the line: " 
+					+ line);
+		}
+	}
+
+	/**
+	 * Reads the complete payload of a record, including any HTTP header.
+	 * @param payload The payload. Null if the record has no payload.
+	 * @return The payload, which is empty if the record had no payload.
+	 * @throws IOException If it fails to read the payload.
+	 */
+	protected ExtractedRecord readPayload(Payload payload) throws IOException {
+		if(payload == null) {
+			return ExtractedRecord.buffer(new ByteArrayInputStream(new byte[0]), memoryThreshold);
+		}
+		try (InputStream payloadIn = payload.getInputStreamComplete()) {
+			return ExtractedRecord.buffer(payloadIn, memoryThreshold);
+		}
+	}
+
+	/**
+	 * @return The pool of open archive files.
+	 */
+	public FileChannelPool getChannelPool() {
+		return channelPool;
+	}
+
+	@Override
+	public void close() {
+		channelPool.close();
+	}
+}
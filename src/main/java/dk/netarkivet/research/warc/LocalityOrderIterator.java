@@ -0,0 +1,110 @@
+package dk.netarkivet.research.warc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Iterator, which delivers CDX entries grouped by their archive file and sorted by their offset,
+ * so the records of each archive file are extracted in one sequential pass instead of at random offsets.
+ *
+ * The entries are read from the underlying iterator in windows of a fixed size, and each window is sorted
+ * before it is delivered, so only a bounded number of entries are held in memory.
+ * Entries in the same file at the same offset keep their order.
+ */
+public class LocalityOrderIterator implements Iterator<CDXEntry> {
+	/** Orders the CDX entries by their archive file, and then by their offset. Entries without file come last.*/
+	public static final Comparator<CDXEntry> FILE_AND_OFFSET_ORDER = new Comparator<CDXEntry>() {
+		@Override
+		public int compare(CDXEntry o1, CDXEntry o2) {
+			String f1 = o1.getFilename();
+			String f2 = o2.getFilename();
+			if(f1 == null || f2 == null) {
+				return f1 == null ? (f2 == null ? 0 : 1) : -1;
+			}
+			int res = f1.compareTo(f2);
+			if(res != 0) {
+				return res;
+			}
+			return o1.getOffset().compareTo(o2.getOffset());
+		}
+	};
+
+	/** The underlying iterator of the entries.*/
+	protected final Iterator<CDXEntry> entries;
+	/** The number of entries, which are sorted together.*/
+	protected final int windowSize;
+	/** The sorted entries of the current window.*/
+	protected final List<CDXEntry> window;
+	/** The index of the next entry in the current window.*/
+	protected int index = 0;
+
+	/**
+	 * Constructor.
+	 * @param entries The underlying iterator of the entries.
+	 * @param windowSize The number of entries, which are sorted together.
+	 */
+	public LocalityOrderIterator(Iterator<CDXEntry> entries, int windowSize) {
+		ArgumentCheck.checkNotNull(entries, "Iterator<CDXEntry> entries");
+		ArgumentCheck.checkIsTrue(windowSize > 0, "int windowSize must be positive");
+		this.entries = entries;
+		this.windowSize = windowSize;
+		this.window = new ArrayList<CDXEntry>(windowSize);
+	}
+
+	/**
+	 * Sorts a list of CDX entries in the order of their archive files and offsets.
+	 * @param entries The entries.
+	 * @return The positions of the entries in the list, in the order they should be extracted.
+	 */
+	public static int[] extractionOrder(final List<CDXEntry> entries) {
+		List<Integer> order = new ArrayList<Integer>(entries.size());
+		for(int i = 0; i < entries.size(); i++) {
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return FILE_AND_OFFSET_ORDER.compare(entries.get(o1), entries.get(o2));
+			}
+		});
+		int[] res = new int[order.size()];
+		for(int i = 0; i < res.length; i++) {
+			res[i] = order.get(i);
+		}
+		return res;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(index < window.size()) {
+			return true;
+		}
+		window.clear();
+		index = 0;
+		while(window.size() < windowSize && entries.hasNext()) {
+			window.add(entries.next());
+		}
+		Collections.sort(window, FILE_AND_OFFSET_ORDER);
+		return !window.isEmpty();
+	}
+
+	@Override
+	public CDXEntry next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException("No more CDX entries.");
+		}
+		return window.get(index++);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Cannot remove CDX entries through this iterator.");
+	}
+}
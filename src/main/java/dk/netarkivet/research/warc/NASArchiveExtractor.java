@@ -12,24 +12,71 @@ import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.distribute.arcrepository.ViewerArcRepositoryClient;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.exception.ArgumentCheck;
 
 /**
  * Data extractor from a NetarchiveSuite archive.
+ * 
+ * The records are streamed from the archive, and only records larger than the memory threshold 
+ * are spilled to a temporary file. The threshold can be set with the system property 
+ * {@link #PROPERTY_MEMORY_THRESHOLD} (in bytes).
  */
-public class NASArchiveExtractor implements ArchiveExtractor {
+public class NASArchiveExtractor implements StreamingArchiveExtractor {
     /** Logging mechanism. */
     private static Logger logger = LoggerFactory.getLogger(NASArchiveExtractor.class);
 
+    /** The system property for the size in bytes of the largest record kept in memory.*/
+    public static final String PROPERTY_MEMORY_THRESHOLD = "dk.netarkivet.research.warc.memoryThreshold";
+
     /** The NAS ArcRepositoryClient for retrieving the Arc/Warc record.*/
     ViewerArcRepositoryClient client;
+    /** The size in bytes of the largest record kept in memory.*/
+    protected final int memoryThreshold;
 
     /**
      * Constructor.
+     * Uses the memory threshold from the system property {@link #PROPERTY_MEMORY_THRESHOLD}.
      * @param client The arcrepository client to the NetarchiveSuite archive.
      */
     public NASArchiveExtractor(ViewerArcRepositoryClient client) {
+        this(client, Integer.getInteger(PROPERTY_MEMORY_THRESHOLD, ExtractedRecord.DEFAULT_MEMORY_THRESHOLD));
+    }
+
+    /**
+     * Constructor.
+     * @param client The arcrepository client to the NetarchiveSuite archive.
+     * @param memoryThreshold The size in bytes of the largest record kept in memory.
+     */
+    public NASArchiveExtractor(ViewerArcRepositoryClient client, int memoryThreshold) {
+        ArgumentCheck.checkIsTrue(memoryThreshold >= 0, "int memoryThreshold must not be negative");
         this.client = client;
+        this.memoryThreshold = memoryThreshold;
     }
+
+	@Override
+	public ExtractedRecord extractRecord(CDXEntry index) throws IOException {
+		BitarchiveRecord payload = null; 
+		ExtractedRecord res = null;
+		InputStream in = null;
+		try {
+			payload = client.get(index.getFilename(), index.getOffset());
+			if (payload != null) {
+				in = payload.getData();
+				res = ExtractedRecord.buffer(in, memoryThreshold);
+				logger.info("Data extracted for url '" + index.getUrl() + "' fetched from (filename,offset)=(" 
+						+ index.getFilename() + "," + index.getOffset() + ") ."); 
+			} else {
+				logger.warn("Unable to extract data for (filename,offset)=(" 
+						+ index.getFilename() + "," + index.getOffset() + "). Probable reason: not found");
+			}
+		} catch (IOException | RuntimeException e) {
+			throw new IOException("Unable to extract (filename,offset)=(" 
+					+ index.getFilename() + "," + index.getOffset() + ").", e);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return res;
+	}
     
 	@Override
 	public File extractWarcRecord(CDXEntry index) throws IOException {
@@ -48,9 +95,9 @@ public class NASArchiveExtractor implements ArchiveExtractor {
 				logger.warn("Unable to extract data for (filename,offset)=(" 
 						+ index.getFilename() + "," + index.getOffset() + "). Probable reason: not found");
 			}
-		} catch (Throwable e) {
+		} catch (IOException | RuntimeException e) {
 			throw new IOException("Unable to extract (filename,offset)=(" 
-					+ index.getFilename() + "," + index.getOffset() + "). The reason: " + e);
+					+ index.getFilename() + "," + index.getOffset() + ").", e);
 		} finally {
 			IOUtils.closeQuietly(in);
 		}
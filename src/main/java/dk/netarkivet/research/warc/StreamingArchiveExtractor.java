@@ -0,0 +1,19 @@
+package dk.netarkivet.research.warc;
+
+import java.io.IOException;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+
+/**
+ * Extracts data from an archive without writing each record to a temporary file.
+ */
+public interface StreamingArchiveExtractor extends ArchiveExtractor {
+	/**
+	 * Extract the WARC-record from the archive.
+	 * The caller must close the record, when it is no longer needed.
+	 * @param index The CDX index needed for extracting the warc-record.
+	 * @return The WARC-record, or null if it was not found.
+	 * @throws IOException If the extraction fails.
+	 */
+	ExtractedRecord extractRecord(CDXEntry index) throws IOException;
+}
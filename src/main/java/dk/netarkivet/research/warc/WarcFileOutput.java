@@ -0,0 +1,132 @@
+package dk.netarkivet.research.warc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jwat.common.Uri;
+import org.jwat.warc.WarcFileNaming;
+import org.jwat.warc.WarcFileNamingDefault;
+import org.jwat.warc.WarcFileWriter;
+import org.jwat.warc.WarcFileWriterConfig;
+import org.jwat.warc.WarcWriter;
+
+/**
+ * A sequence of WARC files written by a single writer, which rolls over to a new file when the current file
+ * exceeds the maximum size.
+ * Keeps track of the warc-info record of the current file, and of the files written with their number of records.
+ *
+ * The output is not thread safe, and must only be written by one thread at the time.
+ */
+public class WarcFileOutput implements Closeable {
+	/** The writer of the warc-files.*/
+	protected final WarcFileWriter warcFileWriter;
+	/** The directory of the warc-files.*/
+	protected final File targetDir;
+	/** The names of the warc-files written, mapped to their number of records (not counting the warc-info).*/
+	protected final Map<String, Integer> files = new LinkedHashMap<String, Integer>();
+	/** The name of the current warc-file.*/
+	protected String currentFilename;
+	/** The ID of the warc-info record of the current warc-file.*/
+	protected Uri warcInfoId;
+
+	/**
+	 * Constructor.
+	 * @param targetDir The directory for the warc-files.
+	 * @param filePrefix The prefix for the names of the warc-files.
+	 * @param useCompression Whether or not to compress the warc-files.
+	 * @param maxFileSize The size in bytes, after which the writer rolls over to a new warc-file.
+	 */
+	public WarcFileOutput(File targetDir, String filePrefix, boolean useCompression, long maxFileSize) {
+		this.targetDir = targetDir;
+		WarcFileNaming warcFileNaming = new WarcFileNamingDefault(filePrefix, WarcPacker.DEFAULT_WARC_FILENAME_DATE,
+				WarcPacker.DEFAULT_WARC_FILENAME_HOSTNAME, WarcPacker.DEFAULT_WARC_FILENAME_EXTENSION);
+		WarcFileWriterConfig warcFileWriterConfig = new WarcFileWriterConfig(targetDir, useCompression,
+				maxFileSize, WarcPacker.DEFAULT_OVERWRITE);
+		this.warcFileWriter = WarcFileWriter.getWarcWriterInstance(warcFileNaming, warcFileWriterConfig);
+	}
+
+	/**
+	 * Prepares the writing of the next record, and rolls over to a new warc-file if the current one is full.
+	 * @return Whether a new warc-file was started, which needs a warc-info record.
+	 * @throws Exception If it fails to close the current warc-file or to open the new one.
+	 */
+	public boolean nextWriter() throws Exception {
+		if(!warcFileWriter.nextWriter()) {
+			return false;
+		}
+		currentFilename = warcFileWriter.getFile().getName();
+		if (currentFilename.endsWith(WarcFileWriter.ACTIVE_SUFFIX)) {
+			currentFilename = currentFilename.substring(0,
+					currentFilename.length() - WarcFileWriter.ACTIVE_SUFFIX.length());
+		}
+		files.put(currentFilename, 0);
+		warcInfoId = null;
+		return true;
+	}
+
+	/**
+	 * @return The writer of the warc-files.
+	 */
+	public WarcFileWriter getWarcFileWriter() {
+		return warcFileWriter;
+	}
+
+	/**
+	 * @return The writer of the current warc-file.
+	 */
+	public WarcWriter getWriter() {
+		return warcFileWriter.getWriter();
+	}
+
+	/**
+	 * @return The name of the current warc-file, without the suffix for active files.
+	 */
+	public String getCurrentFilename() {
+		return currentFilename;
+	}
+
+	/**
+	 * @return The ID of the warc-info record of the current warc-file.
+	 */
+	public Uri getWarcInfoId() {
+		return warcInfoId;
+	}
+
+	/**
+	 * @param warcInfoId The ID of the warc-info record of the current warc-file.
+	 */
+	public void setWarcInfoId(Uri warcInfoId) {
+		this.warcInfoId = warcInfoId;
+	}
+
+	/**
+	 * Counts a record written to the current warc-file.
+	 */
+	public void recordWritten() {
+		files.put(currentFilename, files.get(currentFilename) + 1);
+	}
+
+	/**
+	 * @return The names of the warc-files written, in the order they were written, mapped to their number of records.
+	 */
+	public Map<String, Integer> getFiles() {
+		return Collections.unmodifiableMap(files);
+	}
+
+	/**
+	 * @param filename The name of a warc-file written.
+	 * @return The warc-file in the target directory.
+	 */
+	public File getFile(String filename) {
+		return new File(targetDir, filename);
+	}
+
+	@Override
+	public void close() throws IOException {
+		warcFileWriter.close();
+	}
+}
@@ -1,14 +1,35 @@
 package dk.netarkivet.research.warc;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.io.OutputStreamWriter;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jwat.archive.ManagedPayload;
 import org.jwat.common.ANVLRecord;
@@ -16,13 +37,9 @@ import org.jwat.common.Base32;
 import org.jwat.common.ContentType;
 import org.jwat.common.HttpHeader;
 import org.jwat.common.Payload;
-import org.jwat.common.RandomAccessFileInputStream;
 import org.jwat.common.Uri;
 import org.jwat.warc.WarcConstants;
 import org.jwat.warc.WarcDigest;
-import org.jwat.warc.WarcFileNaming;
-import org.jwat.warc.WarcFileNamingDefault;
-import org.jwat.warc.WarcFileWriter;
 import org.jwat.warc.WarcFileWriterConfig;
 import org.jwat.warc.WarcHeader;
 import org.jwat.warc.WarcRecord;
@@ -31,16 +48,64 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.exception.ArgumentCheck;
 import dk.netarkivet.research.utils.ChecksumUtils;
 import dk.netarkivet.research.utils.UrlUtils;
 
 /**
  * Packing WARC files by using CDX entries to extract records from the archive.
+ * 
+ * The records can be extracted from the archive in parallel, when the parallelism is set above 1.
+ * The extractions then run ahead of the writing, which is still done by a single thread in the order of the CDX 
+ * entries. Only a bounded number of records are extracted ahead of the earliest unwritten record, 
+ * so a slow extraction holds back the following extractions instead of letting the records pile up in memory.
+ * The default parallelism is taken from the system property {@link #PROPERTY_PARALLELISM}.
+ * 
+ * The records can also be written to several sequences of warc-files at once, when the number of writers is set
+ * above 1, so the compression and digesting of the records use several cores. Each writer has its own warc-files, 
+ * with their own warc-info records, and rolls over to a new file when the current file exceeds the maximum size.
+ * The records are spread across the writers, so they are not written in the order of the CDX entries.
+ * The packing then ends with writing a manifest of the warc-files (see {@link #writeManifest(File, List)}).
+ * The default number of writers and maximum file size are taken from the system properties 
+ * {@link #PROPERTY_WRITERS} and {@link #PROPERTY_MAX_FILE_SIZE}.
+ * 
+ * The extraction can be planned for locality, when the locality window is set above 1: the CDX entries are 
+ * taken in windows of that size, and the records of each window are extracted grouped by their archive file 
+ * and sorted by their offset, so each archive file is read sequentially instead of at random offsets 
+ * (see {@link LocalityOrderIterator}). The records are still written in the order of the CDX entries, unless 
+ * the grouped order is kept, or they are spread across several writers.
+ * The defaults are taken from the system properties {@link #PROPERTY_LOCALITY_WINDOW} and 
+ * {@link #PROPERTY_KEEP_GROUPED_ORDER}.
  */
 public class WarcPacker {
 	/** The log.*/
 	private static Logger logger = LoggerFactory.getLogger(WarcPacker.class);
 
+	/** The system property for the default number of parallel extractions from the archive.*/
+	public static final String PROPERTY_PARALLELISM = "dk.netarkivet.research.warc.parallelism";
+	/** The default number of parallel extractions, when the system property is not set - e.g. sequential.*/
+	public static final int DEFAULT_PARALLELISM = 1;
+	/** The system property for the default number of parallel writers of warc-files.*/
+	public static final String PROPERTY_WRITERS = "dk.netarkivet.research.warc.writers";
+	/** The default number of parallel writers, when the system property is not set - e.g. a single writer.*/
+	public static final int DEFAULT_WRITERS = 1;
+	/** The system property for the default size in bytes, after which a writer rolls over to a new warc-file.*/
+	public static final String PROPERTY_MAX_FILE_SIZE = "dk.netarkivet.research.warc.maxFileSize";
+	/** The system property for the default number of CDX entries, which are grouped by file and offset.*/
+	public static final String PROPERTY_LOCALITY_WINDOW = "dk.netarkivet.research.warc.localityWindow";
+	/** The default locality window, when the system property is not set - e.g. extraction in the given order.*/
+	public static final int DEFAULT_LOCALITY_WINDOW = 1;
+	/** The system property for whether the records are written in the grouped order, instead of the given order.*/
+	public static final String PROPERTY_KEEP_GROUPED_ORDER = "dk.netarkivet.research.warc.keepGroupedOrder";
+	/** The number of records allowed to be extracted per thread ahead of the earliest unwritten record.*/
+	protected static final int RECORDS_PER_THREAD = 4;
+	/** The prefix for the names of the warc-files.*/
+	protected static final String FILE_PREFIX = "CDX-EXTRACT";
+	/** The name of the manifest of the warc-files, when written by several writers.*/
+	protected static final String MANIFEST_FILENAME = FILE_PREFIX + "-manifest.txt";
+	/** The marker for the writers, that there are no more records.*/
+	private static final PendingRecord END_OF_RECORDS = new PendingRecord(null, null);
+
     /** Default date element for the warc file name. Null for no date element.*/
 	protected static final Date DEFAULT_WARC_FILENAME_DATE = null;
     /** Default hostname element for the warc file name. Null for no hostname element.*/
@@ -51,13 +116,23 @@ public class WarcPacker {
     protected static final Boolean DEFAULT_COMPRESS = false;
     /** Whether or not to overwrite existing files.*/
     protected static final Boolean DEFAULT_OVERWRITE = false;
+    /** The encoding of the manifest.*/
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
     
 	/** The archive extractor for extracting warc-records from the archive.*/
     protected final ArchiveExtractor archive;
     /** Whether or not to compress the warc-file.*/
     protected final Boolean useCompression;
-    /** The URI for the warc info.*/
-    protected Uri currentWarcInfoUUID;
+    /** The number of parallel extractions from the archive.*/
+    protected int parallelism = Integer.getInteger(PROPERTY_PARALLELISM, DEFAULT_PARALLELISM);
+    /** The number of parallel writers of warc-files.*/
+    protected int writers = Integer.getInteger(PROPERTY_WRITERS, DEFAULT_WRITERS);
+    /** The size in bytes, after which a writer rolls over to a new warc-file.*/
+    protected long maxFileSize = Long.getLong(PROPERTY_MAX_FILE_SIZE, WarcFileWriterConfig.DEFAULT_MAX_FILE_SIZE);
+    /** The number of CDX entries, which are extracted grouped by their archive file and sorted by offset.*/
+    protected int localityWindow = Integer.getInteger(PROPERTY_LOCALITY_WINDOW, DEFAULT_LOCALITY_WINDOW);
+    /** Whether the records are written in the grouped order, instead of the order of the CDX entries.*/
+    protected boolean keepGroupedOrder = Boolean.getBoolean(PROPERTY_KEEP_GROUPED_ORDER);
     
     /**
      * Constructor.
@@ -79,6 +154,82 @@ public class WarcPacker {
     	this.useCompression = useCompression;
     }
     
+    /**
+     * Sets the number of parallel extractions from the archive.
+     * The archive extractor must be thread safe, if this is set above 1.
+     * @param parallelism The number of parallel extractions. 1 for sequential extraction.
+     */
+    public void setParallelism(int parallelism) {
+    	ArgumentCheck.checkIsTrue(parallelism > 0, "int parallelism must be positive");
+    	this.parallelism = parallelism;
+    }
+    
+    /**
+     * @return The number of parallel extractions from the archive.
+     */
+    public int getParallelism() {
+    	return parallelism;
+    }
+    
+    /**
+     * Sets the number of parallel writers, which each write their own sequence of warc-files.
+     * With more than one writer, the records are not written in the order of the CDX entries.
+     * @param writers The number of parallel writers. 1 for a single sequence of warc-files.
+     */
+    public void setWriters(int writers) {
+    	ArgumentCheck.checkIsTrue(writers > 0, "int writers must be positive");
+    	this.writers = writers;
+    }
+    
+    /**
+     * @return The number of parallel writers of warc-files.
+     */
+    public int getWriters() {
+    	return writers;
+    }
+    
+    /**
+     * Sets the size, after which a writer rolls over to a new warc-file.
+     * @param maxFileSize The size in bytes.
+     */
+    public void setMaxFileSize(long maxFileSize) {
+    	ArgumentCheck.checkIsTrue(maxFileSize > 0, "long maxFileSize must be positive");
+    	this.maxFileSize = maxFileSize;
+    }
+    
+    /**
+     * @return The size in bytes, after which a writer rolls over to a new warc-file.
+     */
+    public long getMaxFileSize() {
+    	return maxFileSize;
+    }
+    
+    /**
+     * Sets the number of CDX entries, which are extracted grouped by their archive file and sorted by offset.
+     * The extracted records of a window are held until they can be written in the order of the CDX entries,
+     * unless the grouped order is kept.
+     * @param localityWindow The number of CDX entries. 1 for extraction in the order of the CDX entries.
+     */
+    public void setLocalityWindow(int localityWindow) {
+    	ArgumentCheck.checkIsTrue(localityWindow > 0, "int localityWindow must be positive");
+    	this.localityWindow = localityWindow;
+    }
+    
+    /**
+     * @return The number of CDX entries, which are extracted grouped by their archive file and sorted by offset.
+     */
+    public int getLocalityWindow() {
+    	return localityWindow;
+    }
+    
+    /**
+     * @param keepGroupedOrder Whether the records are written in the grouped order of the locality window, 
+     * instead of being restored to the order of the CDX entries.
+     */
+    public void setKeepGroupedOrder(boolean keepGroupedOrder) {
+    	this.keepGroupedOrder = keepGroupedOrder;
+    }
+    
     /**
      * Extract warc records for given cdx-entries.
      * The warc-records will be extracted from the archive, 
@@ -87,50 +238,337 @@ public class WarcPacker {
      * @param targetDir The directory for placing the resulting warc-files.
      */
     public void extractToWarc(Collection<CDXEntry> entries, File targetDir) {
-        String filePrefix = "CDX-EXTRACT";
-
+    	extractToWarc(entries.iterator(), targetDir);
+    }
+    
+    /**
+     * Extract warc records for the cdx-entries delivered by an iterator.
+     * The entries are consumed one at the time, so they can be parsed while the warc-records are extracted.
+     * @param entries The iterator of the CDX entries to have extracted.
+     * @param targetDir The directory for placing the resulting warc-files.
+     */
+    public void extractToWarc(Iterator<CDXEntry> entries, File targetDir) {
         try {
-            WarcFileNaming warcFileNaming = new WarcFileNamingDefault(filePrefix, DEFAULT_WARC_FILENAME_DATE, 
-            		DEFAULT_WARC_FILENAME_HOSTNAME, DEFAULT_WARC_FILENAME_EXTENSION);
-            WarcFileWriterConfig warcFileWriterConfig = new WarcFileWriterConfig(targetDir, useCompression, 
-            		WarcFileWriterConfig.DEFAULT_MAX_FILE_SIZE, DEFAULT_OVERWRITE);
-            WarcFileWriter warcFileWriter = WarcFileWriter.getWarcWriterInstance(warcFileNaming, warcFileWriterConfig);
-            
-            WarcWriter warcWriter = null;
-        	for (CDXEntry cdxEntry : entries) {
-        		if (warcFileWriter.nextWriter()) {
-        			warcWriter = warcFileWriter.getWriter();
-        			writeInfoRecord(warcFileWriter);
-        		}
-        		File resultFile = archive.extractWarcRecord(cdxEntry); 
-        		if(resultFile != null) {
-        			writeWarcRecord(warcWriter, resultFile, cdxEntry);
-        			if(!resultFile.delete()) {
-        				logger.info("Could not cleanup file '" + resultFile.getAbsolutePath() + "'");
-        			}
-        		}
+        	boolean restoreOrder = localityWindow > 1 && !keepGroupedOrder && writers <= 1;
+        	if(localityWindow > 1 && !restoreOrder) {
+        		entries = new LocalityOrderIterator(entries, localityWindow);
+        	}
+        	if(writers > 1) {
+        		extractToMultipleWarcs(entries, targetDir);
+        		return;
         	}
-        	warcFileWriter.close();
+            WarcFileOutput output = new WarcFileOutput(targetDir, FILE_PREFIX, useCompression, maxFileSize);
+            if(restoreOrder) {
+            	extractInLocalityOrder(entries, output);
+            } else if(parallelism <= 1) {
+            	while (entries.hasNext()) {
+            		CDXEntry cdxEntry = entries.next();
+            		try (ExtractedRecord record = extractRecord(cdxEntry)) {
+            			writeEntry(output, record, cdxEntry);
+            		}
+            	}
+            } else {
+            	extractInParallel(entries, output);
+            }
+        	output.close();
         } catch (Throwable t) {
         	logger.error("An error occured during retrieval warc records and/or writing of the warc file.", t);
         }
     }
     
+    /**
+     * Extracts the records on a pool of {@link #parallelism} threads, and writes them in the order of the entries.
+     * If an extraction fails, then the extraction is stopped, and the records extracted ahead are discarded.
+     * @param entries The iterator of the CDX entries to have extracted.
+     * @param output The output of the warc-files.
+     * @throws Exception If an extraction fails, or it fails to write to the warc-file.
+     */
+    protected void extractInParallel(Iterator<CDXEntry> entries, WarcFileOutput output) throws Exception {
+    	ExecutorService executor = createThreadPool(parallelism, "warc-extract-");
+    	int maxInFlight = parallelism * RECORDS_PER_THREAD;
+    	Deque<PendingRecord> inFlight = new ArrayDeque<PendingRecord>(maxInFlight);
+    	try {
+    		while(entries.hasNext()) {
+    			if(inFlight.size() >= maxInFlight) {
+    				writePendingRecord(output, inFlight.removeFirst());
+    			}
+    			inFlight.addLast(submitExtraction(executor, entries.next()));
+    		}
+    		while(!inFlight.isEmpty()) {
+    			writePendingRecord(output, inFlight.removeFirst());
+    		}
+    	} finally {
+    		for(PendingRecord pending : inFlight) {
+    			discard(pending.record);
+    		}
+    		executor.shutdownNow();
+    	}
+    }
+    
+    /**
+     * Extracts the records of each locality window grouped by their archive file and sorted by offset, 
+     * on a pool of {@link #parallelism} threads, and writes them in the order of the entries.
+     * If an extraction fails, then the extraction is stopped, and the records extracted ahead are discarded.
+     * @param entries The iterator of the CDX entries to have extracted.
+     * @param output The output of the warc-files.
+     * @throws Exception If an extraction fails, or it fails to write to the warc-file.
+     */
+    protected void extractInLocalityOrder(Iterator<CDXEntry> entries, WarcFileOutput output) throws Exception {
+    	ExecutorService executor = createThreadPool(parallelism, "warc-extract-");
+    	List<CDXEntry> window = new ArrayList<CDXEntry>(localityWindow);
+    	Deque<PendingRecord> inFlight = new ArrayDeque<PendingRecord>(localityWindow);
+    	try {
+    		while(entries.hasNext()) {
+    			window.clear();
+    			while(window.size() < localityWindow && entries.hasNext()) {
+    				window.add(entries.next());
+    			}
+    			PendingRecord[] pending = new PendingRecord[window.size()];
+    			for(int i : LocalityOrderIterator.extractionOrder(window)) {
+    				pending[i] = submitExtraction(executor, window.get(i));
+    			}
+    			inFlight.addAll(Arrays.asList(pending));
+    			while(!inFlight.isEmpty()) {
+    				writePendingRecord(output, inFlight.removeFirst());
+    			}
+    		}
+    	} finally {
+    		for(PendingRecord pending : inFlight) {
+    			discard(pending.record);
+    		}
+    		executor.shutdownNow();
+    	}
+    }
+    
+    /**
+     * Extracts the records on a pool of threads, and spreads them across {@link #writers} writers, which each 
+     * write their own sequence of warc-files in parallel. Each writer takes the next extracted record, 
+     * when it is done writing its current record.
+     * If an extraction or a writer fails, then the extraction is stopped, and the remaining records are discarded.
+     * Ends with writing the manifest of the warc-files.
+     * @param entries The iterator of the CDX entries to have extracted.
+     * @param targetDir The directory for placing the resulting warc-files.
+     * @throws Exception If an extraction fails, or it fails to write to a warc-file or the manifest.
+     */
+    protected void extractToMultipleWarcs(Iterator<CDXEntry> entries, File targetDir) throws Exception {
+    	int extractors = Math.max(parallelism, writers);
+    	ExecutorService extractorPool = createThreadPool(extractors, "warc-extract-");
+    	ExecutorService writerPool = createThreadPool(writers, "warc-write-");
+    	final BlockingQueue<PendingRecord> queue = new ArrayBlockingQueue<PendingRecord>(
+    			extractors * RECORDS_PER_THREAD);
+    	final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    	List<WarcFileOutput> outputs = new ArrayList<WarcFileOutput>(writers);
+    	try {
+    		for(int i = 1; i <= writers; i++) {
+    			final WarcFileOutput output = new WarcFileOutput(targetDir, FILE_PREFIX + "-" + i, useCompression, 
+    					maxFileSize);
+    			outputs.add(output);
+    			writerPool.execute(new Runnable() {
+    				@Override
+    				public void run() {
+    					writeFromQueue(queue, output, failure);
+    				}
+    			});
+    		}
+    		while(entries.hasNext() && failure.get() == null) {
+    			queue.put(submitExtraction(extractorPool, entries.next()));
+    		}
+    	} finally {
+    		for(int i = 0; i < outputs.size(); i++) {
+    			queue.put(END_OF_RECORDS);
+    		}
+    		writerPool.shutdown();
+    		while(!writerPool.awaitTermination(1, TimeUnit.MINUTES)) {
+    			logger.debug("Waiting for the writers to finish.");
+    		}
+    		extractorPool.shutdownNow();
+    		for(WarcFileOutput output : outputs) {
+    			output.close();
+    		}
+    	}
+    	if(failure.get() != null) {
+    		throw failure.get();
+    	}
+    	writeManifest(targetDir, outputs);
+    }
+    
+    /**
+     * Writes the extracted records from the queue to the output, until the end of the records.
+     * After a failure, by this or another writer, the remaining records are discarded instead of written.
+     * @param queue The queue of the extracted records.
+     * @param output The output of the writer.
+     * @param failure The first failure of the extraction.
+     */
+    private void writeFromQueue(BlockingQueue<PendingRecord> queue, WarcFileOutput output, 
+    		AtomicReference<Exception> failure) {
+    	try {
+    		PendingRecord pending;
+    		while((pending = queue.take()) != END_OF_RECORDS) {
+    			if(failure.get() != null) {
+    				discard(pending.record);
+    				continue;
+    			}
+    			try {
+    				writePendingRecord(output, pending);
+    			} catch (Exception e) {
+    				failure.compareAndSet(null, e);
+    			}
+    		}
+    	} catch (InterruptedException e) {
+    		failure.compareAndSet(null, e);
+    		Thread.currentThread().interrupt();
+    	}
+    }
+    
+    /**
+     * Writes the manifest of the warc-files, with a line for each warc-file containing its name, 
+     * its number of records (not counting the warc-info record) and its size in bytes, separated by tabs.
+     * @param targetDir The directory of the warc-files.
+     * @param outputs The outputs, which have written the warc-files.
+     * @throws IOException If it fails to write the manifest.
+     */
+    protected void writeManifest(File targetDir, List<WarcFileOutput> outputs) throws IOException {
+    	File manifest = new File(targetDir, MANIFEST_FILENAME);
+    	try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifest), 
+    			UTF8))) {
+    		for(WarcFileOutput output : outputs) {
+    			for(Map.Entry<String, Integer> file : output.getFiles().entrySet()) {
+    				writer.write(file.getKey() + "\t" + file.getValue() + "\t" 
+    						+ output.getFile(file.getKey()).length());
+    				writer.newLine();
+    			}
+    		}
+    	}
+    	logger.info("Wrote the manifest of the warc-files to '" + manifest.getAbsolutePath() + "'.");
+    }
+    
+    /**
+     * Submits the extraction of the record for a CDX entry.
+     * @param executor The threads for the extraction.
+     * @param cdxEntry The CDX entry.
+     * @return The record being extracted.
+     */
+    private PendingRecord submitExtraction(ExecutorService executor, final CDXEntry cdxEntry) {
+    	return new PendingRecord(cdxEntry, executor.submit(new Callable<ExtractedRecord>() {
+    		@Override
+    		public ExtractedRecord call() throws IOException {
+    			return extractRecord(cdxEntry);
+    		}
+    	}));
+    }
+    
+    /**
+     * Creates a pool of daemon threads.
+     * @param threads The number of threads.
+     * @param namePrefix The prefix for the names of the threads.
+     * @return The pool of threads.
+     */
+    private ExecutorService createThreadPool(int threads, final String namePrefix) {
+    	return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+    		private final AtomicInteger count = new AtomicInteger();
+    		@Override
+    		public Thread newThread(Runnable r) {
+    			Thread t = new Thread(r, namePrefix + count.incrementAndGet());
+    			t.setDaemon(true);
+    			return t;
+    		}
+    	});
+    }
+    
+    /**
+     * Waits for the extraction of a record, and writes it to the warc-file.
+     * @param output The output of the warc-files.
+     * @param pending The record being extracted.
+     * @throws Exception If the extraction fails, or it fails to write to the warc-file.
+     */
+    private void writePendingRecord(WarcFileOutput output, PendingRecord pending) throws Exception {
+    	try (ExtractedRecord record = pending.record.get()) {
+    		writeEntry(output, record, pending.cdxEntry);
+    	} catch (ExecutionException e) {
+    		if(e.getCause() instanceof IOException) {
+    			throw (IOException) e.getCause();
+    		}
+    		throw new IOException("Failed to extract the record for '" + pending.cdxEntry.getUrl() + "'.", 
+    				e.getCause());
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new IllegalStateException("Interrupted while extracting the warc-records.", e);
+    	}
+    }
+    
+    /**
+     * Discards a record, which will not be written. 
+     * The extraction is cancelled, if it has not started yet. Otherwise the record is awaited and closed, 
+     * so its temporary file is cleaned up.
+     * @param record The record being extracted.
+     */
+    private void discard(Future<ExtractedRecord> record) {
+    	if(record.cancel(false)) {
+    		return;
+    	}
+    	try {
+    		ExtractedRecord r = record.get();
+    		if(r != null) {
+    			r.close();
+    		}
+    	} catch (ExecutionException e) {
+    		logger.debug("Discarded a failed extraction.", e.getCause());
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	}
+    }
+    
+    /**
+     * Writes the record for a CDX entry, and starts a new warc-file with an info record when needed.
+     * @param output The output of the warc-files.
+     * @param record The extracted record. Null if the record was not found, and thus is not written.
+     * @param cdxEntry The CDX entry for the warc-record.
+     * @throws Exception If it fails to start a new warc-file, or to write to it.
+     */
+    private void writeEntry(WarcFileOutput output, ExtractedRecord record, CDXEntry cdxEntry) throws Exception {
+    	if (output.nextWriter()) {
+    		output.setWarcInfoId(writeInfoRecord(output.getWriter(), output.getCurrentFilename()));
+    	}
+    	if(record != null) {
+    		writeWarcRecord(output.getWriter(), output.getWarcInfoId(), record, cdxEntry);
+    		output.recordWritten();
+    	}
+    }
+    
+    /**
+     * Extract the warc-record for a CDX entry from the archive.
+     * A {@link StreamingArchiveExtractor} delivers the record directly, otherwise the record is extracted to 
+     * a file, which is deleted when the record is closed.
+     * @param cdxEntry The CDX entry for the warc-record.
+     * @return The extracted record, or null if it was not found.
+     * @throws IOException If the extraction fails.
+     */
+    protected ExtractedRecord extractRecord(CDXEntry cdxEntry) throws IOException {
+    	if(archive instanceof StreamingArchiveExtractor) {
+    		return ((StreamingArchiveExtractor) archive).extractRecord(cdxEntry);
+    	}
+    	File resultFile = archive.extractWarcRecord(cdxEntry);
+    	if(resultFile == null) {
+    		return null;
+    	}
+    	return ExtractedRecord.fromFile(resultFile, true);
+    }
+    
     /**
      * Write a warc-record to the warc-file through the warc-writer.
      * @param warcWriter The warc writer for writing the warc record to the warc file.
-     * @param payloadFile The file containing the payload for the warc-record.
+     * @param warcInfoId The ID of the warc-info record of the warc file.
+     * @param record The extracted record containing the payload for the warc-record.
      * @param cdxEntry The CDX entry for the warc-record.
      * @throws IOException If it fails to write the warc-record to the warc-file.
      */
-    private void writeWarcRecord(WarcWriter warcWriter, File payloadFile, CDXEntry cdxEntry) throws IOException {
-    	try (RandomAccessFile payloadRaf = new RandomAccessFile(payloadFile, "r");
-    			RandomAccessFileInputStream payloadRafin = new RandomAccessFileInputStream(payloadRaf);
-    			) {
+    private void writeWarcRecord(WarcWriter warcWriter, Uri warcInfoId, ExtractedRecord record, CDXEntry cdxEntry) 
+    		throws IOException {
+    	try (InputStream payloadIn = record.getInputStream()) {
     		WarcRecord warcRecord = WarcRecord.createRecord(warcWriter);
     		WarcHeader warcHeader = warcRecord.header;
         	ManagedPayload managedPayload = ManagedPayload.checkout();
-    		Payload payload = Payload.processPayload(payloadRafin, payloadFile.length(), 16384, null);
+    		Payload payload = Payload.processPayload(payloadIn, record.getLength(), 16384, null);
     		HttpHeader httpHeader = HttpHeader.processPayload(HttpHeader.HT_RESPONSE, payload.getInputStream(), 
     				payload.getRemaining(), null);
     		
@@ -152,10 +590,10 @@ public class WarcPacker {
             warcHeader.warcTypeIdx = WarcConstants.RT_IDX_RESPONSE;
             warcHeader.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
             warcHeader.addHeader(WarcConstants.FN_WARC_DATE, cdxEntry.getDateAsDate(), null);
-            warcHeader.addHeader(WarcConstants.FN_WARC_WARCINFO_ID, currentWarcInfoUUID, null);
+            warcHeader.addHeader(WarcConstants.FN_WARC_WARCINFO_ID, warcInfoId, null);
     		warcHeader.addHeader(WarcConstants.FN_WARC_IP_ADDRESS, cdxEntry.getIP());
             warcHeader.addHeader(WarcConstants.FN_WARC_TARGET_URI, cdxEntry.getUrl());
-    		warcHeader.addHeader(WarcConstants.FN_CONTENT_LENGTH, payloadFile.length(), null);
+    		warcHeader.addHeader(WarcConstants.FN_CONTENT_LENGTH, record.getLength(), null);
     		warcHeader.addHeader(WarcConstants.FN_CONTENT_TYPE, contentType);
     		
             if (managedPayload.httpHeaderBytes != null) {
@@ -180,27 +618,24 @@ public class WarcPacker {
     /**
      * Writes a info record to the WARC file.
      * @param warcWriter The WARC writer for writing to the WARC file.
+     * @param filename The name of the WARC file.
+     * @return The ID of the info record.
      * @throws IOException If an i/o issue occurs.
      * @throws URISyntaxException If an URI is malformed.
      */
-    private void writeInfoRecord(WarcFileWriter warcWriter) throws IOException, URISyntaxException {
+    private Uri writeInfoRecord(WarcWriter warcWriter, String filename) throws IOException, URISyntaxException {
         ANVLRecord infoPayload = new ANVLRecord();
         infoPayload.addLabelValue("software", "Netarkiv Extract WARC for research projects");
         infoPayload.addLabelValue("ip", UrlUtils.getLocalIP());
         infoPayload.addLabelValue("hostname", UrlUtils.getLocalHostName());
         infoPayload.addLabelValue("conformsTo", "http://bibnum.bnf.fr/WARC/WARC_ISO_28500_version1_latestdraft.pdf");
         
-        String filename = warcWriter.getFile().getName();
-        if (filename.endsWith(WarcFileWriter.ACTIVE_SUFFIX)) {
-        	filename = filename.substring(0, filename.length() - WarcFileWriter.ACTIVE_SUFFIX.length());
-        }
         Uri recordId = new Uri("urn:uuid:" + UUID.randomUUID().toString());
-        currentWarcInfoUUID = recordId;
         byte[] payloadAsBytes = infoPayload.getUTF8Bytes();
         byte[] digestBytes = ChecksumUtils.sha1Digest(payloadAsBytes);
         WarcDigest blockDigest = WarcDigest.createWarcDigest("SHA1", digestBytes, 
         		"Base32", Base32.encodeArray(digestBytes));
-        WarcRecord record = WarcRecord.createRecord(warcWriter.writer);
+        WarcRecord record = WarcRecord.createRecord(warcWriter);
         WarcHeader header = record.header;
         header.warcTypeIdx = WarcConstants.RT_IDX_WARCINFO;
         header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
@@ -210,9 +645,30 @@ public class WarcPacker {
         		ContentType.parseContentType(WarcConstants.CT_APP_WARC_FIELDS), null);
         header.addHeader(WarcConstants.FN_CONTENT_LENGTH, Long.valueOf(payloadAsBytes.length), null);
         header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
-        warcWriter.writer.writeHeader(record);
+        warcWriter.writeHeader(record);
         ByteArrayInputStream bin = new ByteArrayInputStream(payloadAsBytes);
-        warcWriter.writer.streamPayload(bin);
-        warcWriter.writer.closeRecord();
+        warcWriter.streamPayload(bin);
+        warcWriter.closeRecord();
+        return recordId;
+    }
+    
+    /**
+     * A record being extracted for a CDX entry.
+     */
+    private static class PendingRecord {
+    	/** The CDX entry.*/
+    	final CDXEntry cdxEntry;
+    	/** The extraction of the record.*/
+    	final Future<ExtractedRecord> record;
+    	
+    	/**
+    	 * Constructor.
+    	 * @param cdxEntry The CDX entry.
+    	 * @param record The extraction of the record.
+    	 */
+    	PendingRecord(CDXEntry cdxEntry, Future<ExtractedRecord> record) {
+    		this.cdxEntry = cdxEntry;
+    		this.record = record;
+    	}
     }
 }
@@ -4,7 +4,10 @@ ProgDir=`dirname "$0"`
 
 MAIN_CLASS=dk.netarkivet.research.NarkWarcExtract
 
-if [ -z "${NAS_SETTINGS}" ]; then
+# The archive files are read from local directories instead of the repository, if ARCHIVE_DIRS is set
+if [ -n "${ARCHIVE_DIRS}" ]; then
+  JAVA_OPTS="${JAVA_OPTS} -Ddk.netarkivet.research.warc.local.directories=${ARCHIVE_DIRS}"
+elif [ -z "${NAS_SETTINGS}" ]; then
   NAS_SETTINGS=$${assembly.config.env.name}/settings.xml
   if [ ! -f "${NAS_SETTINGS}" ]; then
     echo "A NAS settings file is needed. Either use environment variable \$NAS_SETTINGS or place it in $NAS_SETTINGS" 
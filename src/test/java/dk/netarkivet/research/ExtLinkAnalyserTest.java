@@ -20,6 +20,7 @@ import dk.netarkivet.research.links.CDXLinksLocator;
 import dk.netarkivet.research.links.HtmlLinkExtractor;
 import dk.netarkivet.research.links.LinkExtractor;
 import dk.netarkivet.research.links.LinksLocator;
+import dk.netarkivet.research.testutils.HttpRetrieverTestUtils;
 import dk.netarkivet.research.testutils.TestFileUtils;
 
 public class ExtLinkAnalyserTest extends ExtendedTestCase {
@@ -58,6 +59,7 @@ public class ExtLinkAnalyserTest extends ExtendedTestCase {
 		
 		//next two lines are mockup of HttpRetriever
 		HttpRetriever httpRetriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(httpRetriever);
 		when(httpRetriever.retrieveFromUrl(anyString())).thenReturn(cdxReply1);
 
 		CDXExtractor cdxExtractor = new DabCDXExtractor(cdxServerUrl, httpRetriever);
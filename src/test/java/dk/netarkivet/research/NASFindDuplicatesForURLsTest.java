@@ -26,6 +26,7 @@ import dk.netarkivet.research.duplicates.DuplicateExtractor;
 import dk.netarkivet.research.harvestdb.HarvestJobExtractor;
 import dk.netarkivet.research.harvestdb.HarvestJobInfo;
 import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.testutils.HttpRetrieverTestUtils;
 import dk.netarkivet.research.testutils.TestFileUtils;
 import dk.netarkivet.research.utils.UrlUtils;
 
@@ -80,6 +81,7 @@ public class NASFindDuplicatesForURLsTest extends ExtendedTestCase {
 		addDescription("Test the duplicate finder when the cdx-server does not deliver any cdx indices (for the request)");
 		
 		HttpRetriever httpRetriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(httpRetriever);
 		when(httpRetriever.retrieveFromUrl(anyString())).thenReturn("");
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 		
@@ -99,6 +101,7 @@ public class NASFindDuplicatesForURLsTest extends ExtendedTestCase {
 		HarvestJobInfo jobInfoTest = new HarvestJobInfo(3250L, "This is a test type", "DONE", "UnitTestJob");
 		
 		HttpRetriever httpRetriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(httpRetriever);
 		when(httpRetriever.retrieveFromUrl(anyString())).thenReturn(cdxReply2);
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 		
@@ -165,6 +168,7 @@ public class NASFindDuplicatesForURLsTest extends ExtendedTestCase {
 		File csvFile = new File("src/test/resources/duplicates.csv");
 		
 		HttpRetriever httpRetriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(httpRetriever);
 		when(httpRetriever.retrieveFromUrl(anyString())).thenReturn("");
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 
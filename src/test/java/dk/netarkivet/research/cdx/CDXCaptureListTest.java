@@ -0,0 +1,98 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.utils.DateUtils;
+
+public class CDXCaptureListTest extends ExtendedTestCase {
+
+	Character[] format = new Character[]{CDXConstants.CDX_CHAR_ORIGINAL_URL, CDXConstants.CDX_CHAR_DATE,
+			CDXConstants.CDX_CHAR_FILE_NAME};
+
+	@Test
+	public void testSortedByDate() throws Exception {
+		addDescription("Test that the captures are sorted by date, keeping the order of equal dates.");
+		CDXCaptureList captures = new CDXCaptureList(Arrays.asList(
+				createEntry("20150101000000", "c.warc"),
+				createEntry("20140101000000", "a.warc"),
+				null,
+				createEntry("20150101000000", "d.warc"),
+				createEntry("20140601000000", "b.warc")));
+		assertEquals(captures.size(), 4);
+		assertEquals(captures.get(0).getFilename(), "a.warc");
+		assertEquals(captures.get(1).getFilename(), "b.warc");
+		assertEquals(captures.get(2).getFilename(), "c.warc");
+		assertEquals(captures.get(3).getFilename(), "d.warc");
+		assertSame(CDXCaptureList.valueOf(captures), captures);
+	}
+
+	@Test
+	public void testFindClosest() throws Exception {
+		addDescription("Test finding the capture closest to a date.");
+		CDXCaptureList captures = new CDXCaptureList(Arrays.asList(
+				createEntry("20140101000000", "a.warc"),
+				createEntry("20140103000000", "b.warc"),
+				createEntry("20140103000000", "c.warc"),
+				createEntry("20140201000000", "d.warc")));
+		assertEquals(captures.findClosest(millis("20130101000000")).getFilename(), "a.warc");
+		assertEquals(captures.findClosest(millis("20140101000000")).getFilename(), "a.warc");
+		assertEquals(captures.findClosest(millis("20140102120000")).getFilename(), "b.warc");
+		assertEquals(captures.findClosest(millis("20140103000000")).getFilename(), "b.warc");
+		assertEquals(captures.findClosest(millis("20140110000000")).getFilename(), "b.warc");
+		assertEquals(captures.findClosest(millis("20150101000000")).getFilename(), "d.warc");
+
+		addStep("Find a date exactly between two captures", "The earliest capture");
+		assertEquals(captures.findClosest(millis("20140102000000")).getFilename(), "a.warc");
+
+		addStep("Find in an empty list", "No capture");
+		assertNull(new CDXCaptureList(new ArrayList<CDXEntry>()).findClosest(millis("20140101000000")));
+	}
+
+	@Test
+	public void testFindClosestMatchesLinearScan() throws Exception {
+		addDescription("Test that the binary search finds the same capture as the linear scan of the extractors.");
+		List<CDXEntry> entries = new ArrayList<CDXEntry>();
+		for(int i = 0; i < 200; i++) {
+			entries.add(createEntry(DateUtils.millisToWaybackDate(millis("20140101000000") + (i / 3) * 7200000L),
+					"file-" + i + ".warc"));
+		}
+		CDXCaptureList captures = new CDXCaptureList(entries);
+		AbstractCDXExtractor extractor = new SortedCDXFileExtractor(new ArrayList<File>());
+		for(long time = millis("20131231000000"); time < millis("20140108000000"); time += 1234567L) {
+			CDXEntry expected = extractor.retrieveCDXclosestToDate(entries, new Date(time));
+			assertSame(captures.findClosest(time), expected);
+		}
+	}
+
+	@Test
+	public void testFindByFilename() throws Exception {
+		addDescription("Test finding the capture in a given file.");
+		CDXCaptureList captures = new CDXCaptureList(Arrays.asList(
+				createEntry("20140201000000", "b.warc"),
+				createEntry("20140101000000", "A.warc"),
+				createEntry("20140301000000", "b.warc")));
+		assertEquals(captures.findByFilename("a.WARC").getFilename(), "A.warc");
+		assertEquals(captures.findByFilename("b.warc").getDateAsLong(), Long.valueOf(millis("20140201000000")));
+		assertNull(captures.findByFilename("c.warc"));
+		assertNull(captures.findByFilename(null));
+	}
+
+	private CDXEntry createEntry(String date, String filename) {
+		return CDXEntry.createCDXEntry("http://netarkivet.dk/ " + date + " " + filename, format);
+	}
+
+	private long millis(String waybackDate) throws Exception {
+		return DateUtils.waybackDateToMillis(waybackDate);
+	}
+}
@@ -0,0 +1,117 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class CDXEntryStoreTest extends ExtendedTestCase {
+
+	protected List<CDXEntry> createEntries(int count) {
+		Character[] format = DabCDXExtractor.getDefaultCDXFormat().toArray(new Character[0]);
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		for(int i = 0; i < count; i++) {
+			res.add(CDXEntry.createCDXEntry("example.com/" + i + " 20140127171200 http://example.com/" + i 
+					+ " text/html " + (200 + i % 2) + " AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA" + (i % 10) + " - " + i * 100 
+					+ " file-" + (i % 3) + ".warc", format));
+		}
+		return res;
+	}
+
+	@Test
+	public void testViewsHaveTheSameValues() throws Exception {
+		addDescription("Test that the entries in the store have the same values as the original entries.");
+		List<CDXEntry> entries = createEntries(3000);
+		CDXEntryStore store = new CDXEntryStore(16);
+		for(CDXEntry entry : entries) {
+			store.add(entry);
+		}
+		store.trimToSize();
+		assertEquals(store.size(), entries.size());
+		assertEquals(store.getNumberOfFilenames(), 3);
+
+		for(int i = 0; i < entries.size(); i++) {
+			CDXEntry expected = entries.get(i);
+			CDXEntry actual = store.get(i);
+			assertEquals(actual.getUrlNorm(), expected.getUrlNorm());
+			assertEquals(actual.getUrl(), expected.getUrl());
+			assertEquals(actual.getDateAsLong(), expected.getDateAsLong());
+			assertEquals(actual.getDateAsDate(), expected.getDateAsDate());
+			assertEquals(actual.getContentType(), expected.getContentType());
+			assertEquals(actual.getStatusCode(), expected.getStatusCode());
+			assertEquals(actual.getDigest(), expected.getDigest());
+			assertEquals(actual.getOffset(), expected.getOffset());
+			assertEquals(actual.getLength(), expected.getLength());
+			assertEquals(actual.getFilename(), expected.getFilename());
+			assertEquals(actual.getRedirect(), expected.getRedirect());
+			assertEquals(actual.extractCDXAsLine(CDXConstants.getNasDefaultCDXFormat()), 
+					expected.extractCDXAsLine(CDXConstants.getNasDefaultCDXFormat()));
+			assertEquals(store.getDate(i), expected.getDateAsLong().longValue());
+			assertEquals(store.getOffset(i), expected.getOffset().longValue());
+			assertEquals(store.getFilename(i), expected.getFilename());
+		}
+	}
+
+	@Test
+	public void testMissingValues() throws Exception {
+		addDescription("Test that missing values are handled like in the CDX entry.");
+		CDXEntry entry = CDXEntry.createCDXEntry("- - http://example.com/ - - - - - -", 
+				DabCDXExtractor.getDefaultCDXFormat().toArray(new Character[0]));
+		CDXEntryStore store = new CDXEntryStore();
+		store.add(entry);
+		CDXEntry view = store.get(0);
+		assertNull(view.getUrlNorm());
+		assertNull(view.getDateAsDate());
+		assertEquals(view.getDateAsLong().longValue(), 0L);
+		assertNull(view.getContentType());
+		assertEquals(view.getStatusCode().intValue(), 200);
+		assertEquals(view.getOffset().longValue(), 0L);
+		assertNull(view.getFilename());
+		assertEquals(view.toString(), entry.toString());
+	}
+
+	@Test
+	public void testViewEquality() throws Exception {
+		addDescription("Test that views of the same row are equal.");
+		CDXEntryStore store = new CDXEntryStore(createEntries(2));
+		assertEquals(store.get(0), store.get(0));
+		assertEquals(store.get(0).hashCode(), store.get(0).hashCode());
+		assertFalse(store.get(0).equals(store.get(1)));
+		assertFalse(store.get(0).equals(new CDXEntryStore(createEntries(2)).get(0)));
+	}
+
+	@Test
+	public void testCopyStore() throws Exception {
+		addDescription("Test that the entries of one store can be copied into another store.");
+		List<CDXEntry> entries = createEntries(10);
+		entries.add(CDXEntry.createCDXEntry("- - http://example.com/ - - - - - -", 
+				DabCDXExtractor.getDefaultCDXFormat().toArray(new Character[0])));
+		CDXEntryStore store = new CDXEntryStore(entries);
+		CDXEntryStore copy = new CDXEntryStore(store);
+		copy.addAll(store);
+		assertEquals(copy.size(), 2 * entries.size());
+		assertEquals(copy.getNumberOfFilenames(), 3);
+		for(int i = 0; i < copy.size(); i++) {
+			CDXEntry expected = entries.get(i % entries.size());
+			CDXEntry actual = copy.get(i);
+			assertEquals(actual.getUrl(), expected.getUrl());
+			assertEquals(actual.getDateAsDate(), expected.getDateAsDate());
+			assertEquals(actual.getFilename(), expected.getFilename());
+			assertEquals(actual.getOffset(), expected.getOffset());
+			assertEquals(actual.toString(), expected.toString());
+			assertEquals(copy.getDate(i), store.getDate(i % entries.size()));
+		}
+	}
+
+	@Test(expectedExceptions = IndexOutOfBoundsException.class)
+	public void testOutOfBounds() throws Exception {
+		addDescription("Test retrieving an entry beyond the size of the store.");
+		CDXEntryStore store = new CDXEntryStore(createEntries(2));
+		store.get(2);
+	}
+}
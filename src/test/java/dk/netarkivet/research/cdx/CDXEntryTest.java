@@ -54,6 +54,32 @@ public class CDXEntryTest extends ExtendedTestCase {
     	assertNull(entry.length); // n
     }
     
+    @Test
+    public void testCreatingCDXExtractFromRawLine() throws Exception {
+    	addDescription("Test creating a simple CDX entry directly from an unsplit line and a format");
+    	
+    	Character[] format = new Character[]{'A', 'b', 'a', 'm', 's', 'k', 'r', 'V', 'g'};
+    	
+    	CDXEntry entry = CDXEntry.createCDXEntry(cdxLineExtract, format);
+    	
+    	assertEquals(entry.urlNorm, A);
+    	assertEquals(DateUtils.dateToWaybackDate(new Date(entry.date)), b);
+    	assertEquals(entry.url, a);
+    	assertEquals(entry.contentType, m);
+    	assertEquals(entry.statusCode.toString(), s);
+    	assertEquals(entry.digest, k);
+    	assertNull(entry.redirect); // r
+    	assertEquals(entry.offset.toString(), V);
+    	assertEquals(entry.filename, g);
+    	
+    	addStep("Parse a line with a trailing space", "Same as without the trailing space");
+    	assertNotNull(CDXEntry.createCDXEntry(cdxLineExtract + " ", format));
+    	
+    	addStep("Parse a line with too few or too many elements", "Should not create an entry");
+    	assertNull(CDXEntry.createCDXEntry(cdxLineExtract.substring(0, cdxLineExtract.lastIndexOf(' ')), format));
+    	assertNull(CDXEntry.createCDXEntry(cdxLineExtract + " 200", format));
+    }
+    
     @Test
     public void testCreatingCDXExtractFromLineAndFormatDefaultOrder() throws Exception {
     	addDescription("Test creating a simple CDX entry from a line and a format");
@@ -206,6 +232,14 @@ public class CDXEntryTest extends ExtendedTestCase {
     	assertTrue(line.contains(a));
     }
     
+    @Test
+    public void testExtractingWithoutNormalizedUrl() throws Exception {
+    	addDescription("Test that an entry without the normalized URL is written without it");
+    	CDXEntry entry = CDXEntry.createCDXEntry(new String[]{b, a}, new Character[]{'b', 'a'});
+    	assertEquals(entry.extractCDXAsLine(Arrays.asList('A', 'a')).trim(), "- " + a);
+    	assertNotNull(entry.getUrlKey());
+    }
+    
     @Test
     public void testExtractingEmptyCDX() throws Exception {
     	addDescription("Test extracting an empty CDX entry.");
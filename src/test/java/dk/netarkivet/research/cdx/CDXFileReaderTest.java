@@ -4,9 +4,13 @@ import static org.testng.Assert.*;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collection;
 
 import org.jaccept.structure.ExtendedTestCase;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
 import dk.netarkivet.research.cdx.CDXEntry;
@@ -45,6 +49,38 @@ public class CDXFileReaderTest extends ExtendedTestCase {
     	assertEquals(4, TestFileUtils.countNumberOfLines(cdxFile));
     }
 
+    @Test
+    public void testIteratingFile() throws Exception {
+    	addDescription("Test iterating through the CDX entries of a valid test cdx file.");
+
+    	File cdxFile = new File(validCdxFilePath);
+    	CDXFileReader reader = new CDXFileReader();
+    	int count = 0;
+    	try (CDXFileIterator iterator = reader.iterateCDXFromFile(cdxFile)) {
+    		while(iterator.hasNext()) {
+    			CDXEntry entry = iterator.next();
+    			assertNotNull(entry.getUrl());
+    			count++;
+    		}
+    		assertFalse(iterator.hasNext());
+    	}
+    	assertEquals(count, 28);
+    }
+
+    @Test
+    public void testIteratingFileWithBadLine() throws Exception {
+    	addDescription("Test iterating through a test cdx file with bad lines, which must be skipped.");
+
+    	File cdxFile = new File(badLinesCdxFilePath);
+    	CDXFileReader reader = new CDXFileReader();
+    	try (CDXFileIterator iterator = reader.iterateCDXFromFile(cdxFile)) {
+    		assertTrue(iterator.hasNext());
+    		CDXEntry entry = iterator.next();
+    		assertEquals(entry.getFilename(), "1-1-20091021124236-00001-kb-test-har-001.kb.dk.arc");
+    		assertFalse(iterator.hasNext());
+    	}
+    }
+
     @Test(expectedExceptions = FileNotFoundException.class)
     public void testReadingNonExistingFile() throws Exception {
     	addDescription("Test extracting CDX entries from a non-existing file.");
@@ -73,4 +109,34 @@ public class CDXFileReaderTest extends ExtendedTestCase {
     	
     	assertEquals(chars.length, 0);
     }
+
+    @Test
+    public void testFileClosedWhenFormatFails() throws Exception {
+    	addDescription("Test that the CDX file is closed, when the iterator cannot be created.");
+    	File fdDir = new File("/proc/self/fd");
+    	if(!fdDir.isDirectory()) {
+    		throw new SkipException("Cannot see the open files of the process");
+    	}
+    	File cdxFile = new File(validCdxFilePath);
+    	CDXFileReader reader = new CDXFileReader() {
+    		@Override
+    		protected Character[] extractCDXFormat(String cdxChars) {
+    			throw new IllegalArgumentException("Bad format line");
+    		}
+    	};
+    	try {
+    		reader.iterateCDXFromFile(cdxFile);
+    		fail("Should fail, when the format line cannot be read");
+    	} catch (IllegalArgumentException e) {
+    		// expected
+    	}
+    	Path cdxPath = cdxFile.toPath().toRealPath();
+    	for(File fd : fdDir.listFiles()) {
+    		try {
+    			assertNotEquals(Files.readSymbolicLink(fd.toPath()), cdxPath, "The CDX file should be closed");
+    		} catch (IOException e) {
+    			// The file descriptor has been closed meanwhile
+    		}
+    	}
+    }
 }
@@ -0,0 +1,181 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.FileUtils;
+
+public class CDXFileSorterTest extends ExtendedTestCase {
+
+	String dirPath = "test-dir";
+	File outDir;
+	File tempDir;
+	Charset utf8 = Charset.forName("UTF-8");
+
+	@BeforeMethod
+	public void setupMethod() throws Exception {
+		outDir = new File(dirPath);
+		if(outDir.exists()) {
+			TestFileUtils.removeFile(outDir);
+		}
+		outDir = FileUtils.createDir(dirPath);
+		tempDir = FileUtils.createDir(dirPath + "/tmp");
+	}
+
+	@AfterMethod
+	public void cleanUpMethod() throws Exception {
+		TestFileUtils.removeFile(outDir);
+	}
+
+	protected String createLine(int host, int year) {
+		return "host" + host + ".dk/ " + year + "0101000000 http://host" + host + ".dk/ text/html 200 "
+				+ "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA - " + year + " 1-1-" + year + "0101000000-00000-test.warc";
+	}
+
+	protected File writeFile(String name, String formatLine, List<String> lines) throws Exception {
+		File res = new File(outDir, name);
+		try (Writer writer = new OutputStreamWriter(name.endsWith(".gz") 
+				? new GZIPOutputStream(new FileOutputStream(res)) : new FileOutputStream(res), utf8)) {
+			writer.write(formatLine + "\n");
+			for(String line : lines) {
+				writer.write(line + "\n");
+			}
+		}
+		return res;
+	}
+
+	@Test
+	public void testSortAndMergeLargerThanMemory() throws Exception {
+		addDescription("Test sorting and merging several unsorted CDX files with overlapping lines, "
+				+ "with a memory limit much smaller than the input.");
+		List<String> expected = new ArrayList<String>();
+		for(int host = 0; host < 100; host++) {
+			for(int year = 2010; year < 2020; year++) {
+				expected.add(createLine(host, year));
+			}
+		}
+		Collections.sort(expected);
+
+		addStep("Write 5 job files with random lines, where many lines are in several files", 
+				"All the lines are covered");
+		Random random = new Random(42);
+		List<File> inputs = new ArrayList<File>();
+		for(int i = 0; i < 5; i++) {
+			List<String> lines = new ArrayList<String>();
+			for(int j = i; j < expected.size(); j += 5) {
+				lines.add(expected.get(j));
+			}
+			for(int j = 0; j < 200; j++) {
+				lines.add(expected.get(random.nextInt(expected.size())));
+			}
+			Collections.shuffle(lines, random);
+			inputs.add(writeFile("job-" + i + (i == 0 ? ".cdx.gz" : ".cdx"), " CDX A b a m s k r V g", lines));
+		}
+
+		addStep("Sort with a small memory limit and few files per merge", 
+				"Sorted lines without duplicates, and no temporary files left");
+		File output = new File(outDir, "sorted.cdx");
+		CDXFileSorter sorter = new CDXFileSorter(16 * 1024, 3, tempDir);
+		assertEquals(sorter.sort(inputs, output), expected.size());
+
+		List<String> lines = Files.readAllLines(output.toPath(), utf8);
+		assertEquals(lines.get(0), " CDX A b a m s k r V g");
+		assertEquals(lines.subList(1, lines.size()), expected);
+		assertEquals(tempDir.list().length, 0);
+	}
+
+	@Test
+	public void testMergingDifferentFormats() throws Exception {
+		addDescription("Test merging CDX files with different formats.");
+		File first = writeFile("first.cdx", " CDX A b a m s k r V g", Arrays.asList(createLine(2, 2012)));
+		File second = writeFile("second.cdx", " CDX b A g", 
+				Arrays.asList("20110101000000 host1.dk/ 1-1-20110101000000-00000-test.warc", 
+						"20120101000000 host2.dk/ 1-1-20120101000000-00000-test.warc"));
+
+		File output = new File(outDir, "sorted.cdx");
+		CDXFileSorter sorter = new CDXFileSorter(1024 * 1024, 10, tempDir);
+		assertEquals(sorter.sort(Arrays.asList(first, second), output), 3);
+
+		addStep("Validate the output", "In the format of the first file, and sorted");
+		List<String> lines = Files.readAllLines(output.toPath(), utf8);
+		assertEquals(lines.size(), 4);
+		assertEquals(lines.get(0), " CDX A b a m s k r V g");
+		assertTrue(lines.get(1).startsWith("host1.dk/ 20110101000000 "), lines.get(1));
+		assertTrue(lines.get(1).endsWith(" 1-1-20110101000000-00000-test.warc"), lines.get(1));
+		assertTrue(lines.get(2).startsWith("host2.dk/ 20120101000000 "), lines.get(2));
+		assertEquals(lines.get(3), createLine(2, 2012));
+	}
+
+	@Test
+	public void testSortingNonAsciiInByteOrder() throws Exception {
+		addDescription("Test that lines are sorted by their UTF-8 bytes, so the mapped reader can find them.");
+		String ligature = "host.dk/\ufb01le";
+		String emoji = "host.dk/\ud83d\ude00";
+		assertTrue(emoji.compareTo(ligature) < 0);
+		List<String> lines = new ArrayList<String>();
+		for(String key : Arrays.asList(emoji, ligature, "host.dk/a", "host.dk/z")) {
+			lines.add(key + " 20110101000000 1-1-20110101000000-00000-test.warc");
+		}
+		File input = writeFile("input.cdx", " CDX A b g", lines);
+		File output = new File(outDir, "sorted.cdx");
+		CDXFileSorter sorter = new CDXFileSorter(1024 * 1024, 10, tempDir);
+		assertEquals(sorter.sort(Arrays.asList(input), output), 4);
+
+		List<String> sorted = Files.readAllLines(output.toPath(), utf8);
+		assertEquals(sorted.subList(1, sorted.size()), Arrays.asList(lines.get(2), lines.get(3), lines.get(1), 
+				lines.get(0)));
+		MappedCDXFile mapped = new MappedCDXFile(output);
+		for(String key : Arrays.asList(emoji, ligature, "host.dk/a", "host.dk/z")) {
+			assertEquals(mapped.retrieveEntries(key).size(), 1, key);
+		}
+	}
+
+	@Test
+	public void testTemporaryFilesDeletedOnFailure() throws Exception {
+		addDescription("Test that the temporary run files are deleted, when a merge pass fails.");
+		List<String> lines = new ArrayList<String>();
+		for(int host = 0; host < 100; host++) {
+			lines.add(createLine(host, 2010));
+		}
+		File input = writeFile("input.cdx", " CDX A b a m s k r V g", lines);
+		CDXFileSorter sorter = new CDXFileSorter(1024, 2, tempDir) {
+			int merges = 0;
+			@Override
+			protected long merge(List<File> inputs, File output, Character[] outputFormat) throws IOException {
+				long res = super.merge(inputs, output, outputFormat);
+				if(++merges == 3) {
+					throw new IOException("Failing merge");
+				}
+				return res;
+			}
+		};
+		try {
+			sorter.sort(Arrays.asList(input), new File(outDir, "sorted.cdx"));
+			fail("The merge should fail");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(tempDir.list().length, 0);
+	}
+}
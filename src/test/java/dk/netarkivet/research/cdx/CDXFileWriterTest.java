@@ -2,9 +2,14 @@ package dk.netarkivet.research.cdx;
 
 import static org.testng.Assert.assertEquals;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import org.jaccept.structure.ExtendedTestCase;
 import org.testng.annotations.AfterMethod;
@@ -57,4 +62,43 @@ public class CDXFileWriterTest extends ExtendedTestCase {
     	assertEquals(TestFileUtils.countNumberOfLines(outputFile), 2);
 
     }
+
+    @Test
+    public void testStreamingCompressedEntries() throws Exception {
+    	addDescription("Test appending CDX entries one at the time to a gzip compressed file.");
+    	File outputFile = new File(dirPath, "OutputFile-" + Math.random() + ".cdx.gz");
+    	Character[] format = DabCDXExtractor.getDefaultCDXFormat().toArray(new Character[0]);
+    	int count = 20000;
+    	try (CDXFileWriter cfw = new CDXFileWriter(outputFile, true)) {
+    		cfw.open(DabCDXExtractor.getDefaultCDXFormat());
+    		for(int i = 0; i < count; i++) {
+    			cfw.append(CDXEntry.createCDXEntry("example.com/\u00e6\u00f8\u00e5/" + i + " 20140127171200 "
+    					+ "http://example.com/\u00e6\u00f8\u00e5/" + i + " text/html 200 "
+    					+ "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA - " + i + " file.warc", format));
+    		}
+    		assertEquals(cfw.getEntriesWritten(), count);
+    	}
+    	
+    	addStep("Read the compressed file", "The header and all the entries in UTF-8");
+    	List<String> lines = new ArrayList<String>();
+    	try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+    			new FileInputStream(outputFile)), "UTF-8"))) {
+    		String line;
+    		while((line = reader.readLine()) != null) {
+    			lines.add(line);
+    		}
+    	}
+    	assertEquals(lines.size(), count + 1);
+    	assertEquals(lines.get(0), " CDX A b a m s k r V g");
+    	CDXEntry last = CDXEntry.createCDXEntry(lines.get(count), format);
+    	assertEquals(last.getUrl(), "http://example.com/\u00e6\u00f8\u00e5/" + (count - 1));
+    }
+    
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testAppendingToClosedWriter() throws Exception {
+    	addDescription("Test that entries cannot be appended before the writer is opened.");
+    	CDXFileWriter cfw = new CDXFileWriter(new File(dirPath, "OutputFile-" + Math.random()));
+    	cfw.append(CDXEntry.createCDXEntry(new String[] {"http://netarkivet.dk", "20110101010101"}, 
+    			new Character[] {'A', 'b'}));
+    }
 }
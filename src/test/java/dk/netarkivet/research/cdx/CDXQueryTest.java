@@ -0,0 +1,76 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.utils.DateUtils;
+
+public class CDXQueryTest extends ExtendedTestCase {
+
+	Character[] format = DabCDXExtractor.getDefaultCDXFormat().toArray(new Character[0]);
+
+	protected List<CDXEntry> createEntries() {
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		String[] digests = {"A", "A", "B", "B", "A", "C"};
+		for(int i = 0; i < digests.length; i++) {
+			int year = 2010 + i;
+			String status = i == 5 ? "404" : "200";
+			String mime = i == 3 ? "image/png" : "text/html";
+			res.add(CDXEntry.createCDXEntry("a.dk/ " + year + "0101000000 http://a.dk/ " + mime + " " + status + " " 
+					+ digests[i] + " - " + i + " 1-1-" + year + "0101000000-00000-test.warc", format));
+		}
+		return res;
+	}
+
+	@Test
+	public void testDefaultQuery() throws Exception {
+		addDescription("Test that a query without restrictions matches everything.");
+		CDXQuery query = new CDXQuery("http://a.dk/");
+		assertEquals(query.getMatchType(), MatchType.EXACT);
+		assertNull(query.getFrom());
+		assertNull(query.getFields());
+		assertEquals(query.apply(createEntries()).size(), 6);
+	}
+
+	@Test
+	public void testFilters() throws Exception {
+		addDescription("Test the date interval, status code and mimetype restrictions.");
+		UrlInterval interval = new UrlInterval("http://a.dk/", DateUtils.waybackDateToDate("20110101000000"), 
+				DateUtils.waybackDateToDate("20150101000000"));
+		CDXQuery query = CDXQuery.createFromInterval(interval);
+		assertEquals(query.apply(createEntries()).size(), 5);
+
+		addStep("Add status code and mimetype filters", "Only the matching entries");
+		query.setStatusCode(200).setMimeType("text/html");
+		List<CDXEntry> entries = query.apply(createEntries());
+		assertEquals(entries.size(), 3);
+		for(CDXEntry entry : entries) {
+			assertTrue(query.matches(entry));
+			assertEquals(entry.getContentType(), "text/html");
+		}
+		assertFalse(query.matches(createEntries().get(5)));
+	}
+
+	@Test
+	public void testCollapseAndLimit() throws Exception {
+		addDescription("Test collapsing adjacent entries with the same digest, and limiting the number of entries.");
+		CDXQuery query = new CDXQuery("http://a.dk/").setCollapseOnDigest(true);
+		List<CDXEntry> entries = query.apply(createEntries());
+		assertEquals(entries.size(), 4);
+		assertEquals(entries.get(0).getOffset().longValue(), 0L);
+		assertEquals(entries.get(1).getOffset().longValue(), 2L);
+		assertEquals(entries.get(2).getOffset().longValue(), 4L);
+
+		query.setLimit(2);
+		assertEquals(query.apply(createEntries()).size(), 2);
+	}
+}
@@ -0,0 +1,82 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class CDXResponseHandlerTest extends ExtendedTestCase {
+
+	Character[] format = new Character[]{CDXConstants.CDX_CHAR_ORIGINAL_URL, CDXConstants.CDX_CHAR_DATE,
+			CDXConstants.CDX_CHAR_RESPONSE_CODE};
+
+	@Test
+	public void testParsingResponse() throws Exception {
+		addDescription("Test parsing the lines of a response into CDX entries.");
+		String response = "http://example.com/ 20140127171200 200\n"
+				+ "http://example.com/ 20150127171200 404 extra elements\n"
+				+ "bad line\n"
+				+ "\n"
+				+ "http://example.com/b 20160127171200 -";
+		List<CDXEntry> entries = new CDXResponseHandler(format).handle(createStream(response), null);
+		assertEquals(entries.size(), 3);
+		assertEquals(entries.get(0).getUrl(), "http://example.com/");
+		assertEquals(entries.get(1).getStatusCode().intValue(), 404);
+		assertEquals(entries.get(2).getUrl(), "http://example.com/b");
+
+		addStep("Parse an empty response", "No entries");
+		assertTrue(new CDXResponseHandler(format).handle(createStream(""), null).isEmpty());
+	}
+
+	@Test
+	public void testNewListForEachResponse() throws Exception {
+		addDescription("Test that the entries of a response are not changed, when the handler is reused.");
+		CDXResponseHandler handler = new CDXResponseHandler(format);
+		List<CDXEntry> first = handler.handle(createStream("http://example.com/ 20140127171200 200\n"), null);
+		List<CDXEntry> second = handler.handle(createStream("http://example.com/b 20150127171200 200\n"
+				+ "http://example.com/c 20160127171200 200\n"), null);
+		assertEquals(first.size(), 1);
+		assertEquals(first.get(0).getUrl(), "http://example.com/");
+		assertEquals(second.size(), 2);
+	}
+
+	@Test
+	public void testEntriesAreHandledWhileReading() throws Exception {
+		addDescription("Test that each entry is handled as soon as its line has been read.");
+		final List<String> handled = new ArrayList<String>();
+		InputStream in = new ByteArrayInputStream(("http://a.dk/ 20140127171200 200\n"
+				+ "http://b.dk/ 20140127171200 200\n").getBytes("UTF-8"));
+		CDXResponseHandler handler = new CDXResponseHandler(format) {
+			@Override
+			protected void handleEntry(CDXEntry entry) {
+				handled.add(entry.getUrl());
+			}
+		};
+		List<CDXEntry> entries = handler.handle(in, null);
+		assertEquals(handled.size(), 2);
+		assertEquals(handled.get(0), "http://a.dk/");
+		assertTrue(entries.isEmpty());
+	}
+
+	@Test
+	public void testCharsetOfResponse() throws Exception {
+		addDescription("Test that the charset of the content type is used for decoding the response.");
+		String response = "http://example.com/æøå 20140127171200 200\n";
+		StringEntity entity = new StringEntity(response, ContentType.create("text/plain", "ISO-8859-1"));
+		List<CDXEntry> entries = new CDXResponseHandler(format).handle(entity.getContent(), entity);
+		assertEquals(entries.size(), 1);
+		assertEquals(entries.get(0).getUrl(), "http://example.com/æøå");
+	}
+
+	private InputStream createStream(String content) throws Exception {
+		return new ByteArrayInputStream(content.getBytes("UTF-8"));
+	}
+}
@@ -2,15 +2,20 @@ package dk.netarkivet.research.cdx;
 
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 import org.jaccept.structure.ExtendedTestCase;
 import org.testng.SkipException;
@@ -18,6 +23,7 @@ import org.testng.annotations.Test;
 
 import dk.netarkivet.research.http.HttpRetriever;
 import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.testutils.HttpRetrieverTestUtils;
 import dk.netarkivet.research.testutils.ProcessTestingUtils;
 import dk.netarkivet.research.utils.DateUtils;
 import dk.netarkivet.research.wid.WID;
@@ -51,6 +57,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 
 		WPID wpid = WPID.createNarkWPid(extractURL, DateUtils.waybackDateToDate(extractDate));
 		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
 		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
@@ -58,6 +65,33 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 		assertNotNull(entry);
 	}
 
+	@Test
+	public void testRequestUrlUsesStrippedKey() throws Exception {
+		addDescription("Test that the request URL is created from the URL without protocol and www by default.");
+		DabCDXExtractor extractor = new DabCDXExtractor(serverUrl, mock(HttpRetriever.class));
+		assertEquals(extractor.createRequestUrlForURL("http://www.Netarkivet.dk/a?jsessionid=1&c=3&b=2"),
+				serverUrl + "?q=netarkivet.dk/a%3Fjsessionid=1%26c=3%26b=2%20");
+		assertEquals(extractor.createRequestUrlForURL("netarkivet.dk"), serverUrl + "?q=netarkivet.dk/%20");
+	}
+
+	@Test
+	public void testRequestUrlUsesCanonicalKey() throws Exception {
+		addDescription("Test that the request URL is created from the canonical form of the URL, when configured.");
+		System.setProperty(DabCDXExtractor.PROPERTY_KEY_TYPE, "canonical");
+		try {
+			DabCDXExtractor extractor = new DabCDXExtractor(serverUrl, mock(HttpRetriever.class));
+			assertEquals(extractor.createRequestUrlForURL("http://www.Netarkivet.dk/a?jsessionid="
+					+ "0123456789ABCDEFabcdef0123456789&c=3&b=2#top"),
+					serverUrl + "?q=netarkivet.dk/a%3Fb=2%26c=3%20");
+			assertEquals(extractor.createRequestUrlForURL("http://netarkivet.dk"), 
+					serverUrl + "?q=netarkivet.dk/%20");
+			assertEquals(extractor.createRequestUrlForURL("https://netarkivet.dk/"), 
+					extractor.createRequestUrlForURL("http://netarkivet.dk:80/"));
+		} finally {
+			System.clearProperty(DabCDXExtractor.PROPERTY_KEY_TYPE);
+		}
+	}
+
 	@Test
     public void testMockedCDXExtractionFailure() throws Exception {
 		addDescription("Test extracting a element, which does not exist.");
@@ -66,6 +100,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 
 		WPID wpid = WPID.createNarkWPid(extractURL, DateUtils.waybackDateToDate(extractDate));
 		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
 		when(retriever.retrieveFromUrl(anyString())).thenReturn("");
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
@@ -73,12 +108,30 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 		assertNull(entry);
 	}
 	
+	@Test
+	public void testMockedFailedExtractionIsNotCached() throws Exception {
+		addDescription("Test that a failed request to the CDX server is not cached, so it is retried later.");
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
+		when(retriever.retrieveFromUrl(anyString())).thenReturn(null, dabResultString);
+
+		DabCDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
+		assertTrue(extractor.retrieveAllCDX("http://example.com/").isEmpty());
+		assertNull(extractor.getCache().get(extractor.createRequestUrlForURL("http://example.com/")));
+
+		addStep("Extract the URL again, when the CDX server answers", "The entries are extracted and cached");
+		assertEquals(extractor.retrieveAllCDX("http://example.com/").size(), 13);
+		assertNotNull(extractor.getCache().get(extractor.createRequestUrlForURL("http://example.com/")));
+		verify(retriever, times(2)).retrieveFromUrl(anyString());
+	}
+
 	@Test
 	public void testMockedCDXExtractionForAllCDXEntries() throws Exception {
 		addDescription("Test extraction of a element.");
 		String extractURL = "http://example.com/";
 
 		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
 		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
@@ -96,6 +149,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 
 		WaybackWID wid = WaybackWID.createNarkWaybackWID(extractFilename, extractURL, DateUtils.waybackDateToDate(extractDate));
 		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
 		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
@@ -113,6 +167,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 
 		WaybackWID wid = WaybackWID.createNarkWaybackWID(extractFilename, extractURL, DateUtils.waybackDateToDate(extractDate));
 		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
 		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
@@ -131,6 +186,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 		WaybackWID wid1 = WaybackWID.createNarkWaybackWID(extractFilename, extractURL, DateUtils.waybackDateToDate(extractDate));
 		WPID wid2 = WPID.createNarkWPid(extractURL, DateUtils.waybackDateToDate(extractDate));
 		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
 		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
@@ -140,6 +196,45 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 		assertEquals(entry.size(), 2);
 	}
 
+	@Test
+	public void testMockedConcurrentCDXExtractionForWIDEntries() throws Exception {
+		addDescription("Test concurrent extraction of CDX entries for WIDs keeps the order of the WIDs.");
+		List<WID> wids = new ArrayList<WID>();
+		for(int i = 0; i < 50; i++) {
+			wids.add(WPID.createNarkWPid("http://example.com/" + i, DateUtils.waybackDateToDate("20140623134425")));
+			wids.add(WPID.createNarkWPid("http://example.com/" + i, DateUtils.waybackDateToDate("20160621121541")));
+		}
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
+		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
+		
+		DabCDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
+		extractor.setConcurrency(4);
+		List<CDXEntry> entries = new ArrayList<CDXEntry>(extractor.retrieveCDXentries(wids));
+		assertEquals(entries.size(), wids.size());
+		for(int i = 0; i < entries.size(); i++) {
+			assertEquals(entries.get(i).getDateAsDate(), ((WPID) wids.get(i)).getDate());
+		}
+	}
+
+	@Test
+	public void testMockedConcurrentCDXExtractionOfURLIntervals() throws Exception {
+		addDescription("Test concurrent extraction of CDX entries for several URL intervals.");
+		List<UrlInterval> intervals = new ArrayList<UrlInterval>();
+		for(int i = 0; i < 20; i++) {
+			intervals.add(new UrlInterval("http://example.com/" + i, DateUtils.waybackDateToDate("20150101000000"), 
+					DateUtils.waybackDateToDate("20160101000000")));
+		}
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
+		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
+		
+		DabCDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
+		assertEquals(extractor.retrieveCDXForIntervals(intervals).size(), 5 * intervals.size());
+		extractor.setConcurrency(3);
+		assertEquals(extractor.retrieveCDXForIntervals(intervals).size(), 5 * intervals.size());
+	}
+
 	@Test
 	public void testMockedCDXExtractionOfURLInterval() throws Exception {
 		addDescription("Test extraction of CDX entries for a URL interval.");
@@ -149,6 +244,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 
 		UrlInterval urlInterval = new UrlInterval(extractURL, extractEarliestDate, extractLatestDate); 
 		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
 		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
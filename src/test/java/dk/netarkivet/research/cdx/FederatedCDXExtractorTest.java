@@ -0,0 +1,198 @@
+package dk.netarkivet.research.cdx;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.wid.WPID;
+
+public class FederatedCDXExtractorTest extends ExtendedTestCase {
+
+	Character[] format = new Character[]{CDXConstants.CDX_CHAR_ORIGINAL_URL, CDXConstants.CDX_CHAR_DATE,
+			CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM, CDXConstants.CDX_CHAR_FILE_NAME};
+
+	@Test
+	public void testMergingBackends() throws Exception {
+		addDescription("Test that the entries from the backends are merged without duplicates, sorted by date.");
+		CDXExtractor dab = mock(CDXExtractor.class);
+		when(dab.retrieveAllCDX(anyString())).thenReturn(Arrays.asList(
+				createEntry("20150101000000", "B", "dab-2.warc"),
+				createEntry("20140101000000", "A", "dab-1.warc")));
+		CDXExtractor pywb = mock(CDXExtractor.class);
+		when(pywb.retrieveAllCDX(anyString())).thenReturn(Arrays.asList(
+				createEntry("20140101000000", "A", "pywb-1.warc"),
+				createEntry("20140601000000", "C", "pywb-2.warc")));
+		CDXExtractor failing = mock(CDXExtractor.class);
+		when(failing.retrieveAllCDX(anyString())).thenThrow(new IllegalStateException("Server is down"));
+
+		Map<String, CDXExtractor> backends = new LinkedHashMap<String, CDXExtractor>();
+		backends.put("dab", dab);
+		backends.put("pywb", pywb);
+		backends.put("failing", failing);
+		try (FederatedCDXExtractor extractor = new FederatedCDXExtractor(backends)) {
+			List<CDXEntry> entries = (List<CDXEntry>) extractor.retrieveAllCDX("http://netarkivet.dk/");
+			assertEquals(entries.size(), 3);
+			assertEquals(entries.get(0).getFilename(), "dab-1.warc");
+			assertEquals(entries.get(1).getFilename(), "pywb-2.warc");
+			assertEquals(entries.get(2).getFilename(), "dab-2.warc");
+
+			addStep("Retrieve the entry closest to a date", "Should be found among the merged entries");
+			WPID wpid = WPID.createNarkWPid("http://netarkivet.dk/", DateUtils.waybackDateToDate("20140701000000"));
+			assertEquals(extractor.retrieveCDX(wpid).getFilename(), "pywb-2.warc");
+
+			assertEquals(extractor.getFailureCount("failing"), 2);
+			assertEquals(extractor.getLatencyHistogram("dab").getCount(), 2);
+		}
+	}
+
+	@Test
+	public void testSlowBackendIsAbandoned() throws Exception {
+		addDescription("Test that a backend, which is much slower than usual, is abandoned.");
+		CDXExtractor fast = mock(CDXExtractor.class);
+		when(fast.retrieveAllCDX(anyString())).thenReturn(Arrays.asList(
+				createEntry("20140101000000", "A", "fast.warc")));
+		CDXExtractor slow = mock(CDXExtractor.class);
+		when(slow.retrieveAllCDX(anyString())).thenAnswer(new Answer<Collection<CDXEntry>>() {
+			@Override
+			public Collection<CDXEntry> answer(InvocationOnMock invocation) throws Throwable {
+				if(invocation.getArguments()[0].equals("http://slow.dk/")) {
+					Thread.sleep(5000);
+				}
+				return Arrays.asList(createEntry("20150101000000", "B", "slow.warc"));
+			}
+		});
+
+		Map<String, CDXExtractor> backends = new LinkedHashMap<String, CDXExtractor>();
+		backends.put("fast", fast);
+		backends.put("slow", slow);
+		try (FederatedCDXExtractor extractor = new FederatedCDXExtractor(backends)) {
+			extractor.setMinSamples(5);
+			extractor.setTimeout(30000L);
+
+			addStep("Warm up the latency histograms", "Both backends deliver their entries");
+			for(int i = 0; i < 5; i++) {
+				assertEquals(extractor.retrieveAllCDX("http://netarkivet.dk/").size(), 2);
+			}
+			assertEquals(extractor.getLatencyHistogram("slow").getCount(), 5);
+
+			addStep("Make the slow backend take much longer than usual", "Only the fast backend is used");
+			long start = System.currentTimeMillis();
+			Collection<CDXEntry> entries = extractor.retrieveAllCDX("http://slow.dk/");
+			assertTrue(System.currentTimeMillis() - start < 2000, "Should not wait for the slow backend");
+			assertEquals(entries.size(), 1);
+			assertEquals(entries.iterator().next().getFilename(), "fast.warc");
+			assertEquals(extractor.getAbandonedCount("slow"), 1);
+			assertEquals(extractor.getAbandonedCount("fast"), 0);
+		}
+	}
+
+	@Test
+	public void testAbandonedLookupIsCancelled() throws Exception {
+		addDescription("Test that an abandoned lookup, which has not started, is cancelled, and a running one is not "
+				+ "interrupted.");
+		CDXExtractor fast = mock(CDXExtractor.class);
+		when(fast.retrieveAllCDX(anyString())).thenReturn(Arrays.asList(
+				createEntry("20140101000000", "A", "fast.warc")));
+		final AtomicInteger slowLookups = new AtomicInteger(0);
+		final AtomicBoolean interrupted = new AtomicBoolean(false);
+		final CountDownLatch finished = new CountDownLatch(1);
+		CDXExtractor slow = mock(CDXExtractor.class);
+		when(slow.retrieveAllCDX(anyString())).thenAnswer(new Answer<Collection<CDXEntry>>() {
+			@Override
+			public Collection<CDXEntry> answer(InvocationOnMock invocation) throws Throwable {
+				if(invocation.getArguments()[0].equals("http://slow.dk/")) {
+					slowLookups.incrementAndGet();
+					try {
+						Thread.sleep(500);
+					} catch (InterruptedException e) {
+						interrupted.set(true);
+					}
+					finished.countDown();
+				}
+				return Arrays.asList(createEntry("20150101000000", "B", "slow.warc"));
+			}
+		});
+
+		Map<String, CDXExtractor> backends = new LinkedHashMap<String, CDXExtractor>();
+		backends.put("fast", fast);
+		backends.put("slow", slow);
+		try (FederatedCDXExtractor extractor = new FederatedCDXExtractor(backends, 1)) {
+			extractor.setMinSamples(5);
+			for(int i = 0; i < 5; i++) {
+				extractor.retrieveAllCDX("http://netarkivet.dk/");
+			}
+
+			addStep("Abandon the slow backend twice with a single thread", 
+					"The first lookup runs to its end, and the queued second lookup never starts");
+			long start = System.currentTimeMillis();
+			assertEquals(extractor.retrieveAllCDX("http://slow.dk/").size(), 1);
+			assertEquals(extractor.retrieveAllCDX("http://slow.dk/").size(), 1);
+			assertTrue(System.currentTimeMillis() - start < 400, "Should not wait for the slow backend");
+			assertTrue(finished.await(2, TimeUnit.SECONDS), "The running lookup should finish");
+			assertFalse(interrupted.get(), "The running lookup should not be interrupted");
+			assertEquals(slowLookups.get(), 1);
+			assertEquals(extractor.getAbandonedCount("slow"), 2);
+		}
+	}
+
+	@Test
+	public void testLateFirstAnswer() throws Exception {
+		addDescription("Test that the other backends are waited for after a first answer, which is later than usual.");
+		final AtomicLong delay = new AtomicLong(50L);
+		CDXExtractor first = mock(CDXExtractor.class);
+		when(first.retrieveAllCDX(anyString())).thenAnswer(new Answer<Collection<CDXEntry>>() {
+			@Override
+			public Collection<CDXEntry> answer(InvocationOnMock invocation) throws Throwable {
+				Thread.sleep(delay.get());
+				return Arrays.asList(createEntry("20140101000000", "A", "first.warc"));
+			}
+		});
+		CDXExtractor second = mock(CDXExtractor.class);
+		when(second.retrieveAllCDX(anyString())).thenAnswer(new Answer<Collection<CDXEntry>>() {
+			@Override
+			public Collection<CDXEntry> answer(InvocationOnMock invocation) throws Throwable {
+				Thread.sleep(delay.get() + 20L);
+				return Arrays.asList(createEntry("20150101000000", "B", "second.warc"));
+			}
+		});
+
+		Map<String, CDXExtractor> backends = new LinkedHashMap<String, CDXExtractor>();
+		backends.put("first", first);
+		backends.put("second", second);
+		try (FederatedCDXExtractor extractor = new FederatedCDXExtractor(backends)) {
+			extractor.setMinSamples(5);
+			for(int i = 0; i < 5; i++) {
+				assertEquals(extractor.retrieveAllCDX("http://netarkivet.dk/").size(), 2);
+			}
+
+			addStep("Make both backends much slower than usual", "Both backends deliver their entries");
+			delay.set(400L);
+			assertEquals(extractor.retrieveAllCDX("http://netarkivet.dk/").size(), 2);
+			assertEquals(extractor.getAbandonedCount("second"), 0);
+		}
+	}
+
+	private CDXEntry createEntry(String date, String digest, String filename) {
+		return CDXEntry.createCDXEntry("http://netarkivet.dk/ " + date + " " + digest + " " + filename, format);
+	}
+}
@@ -1,7 +1,11 @@
 package dk.netarkivet.research.cdx;
 
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
@@ -9,12 +13,17 @@ import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 
 import org.jaccept.structure.ExtendedTestCase;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.Test;
 
 import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.testutils.HttpRetrieverTestUtils;
 import dk.netarkivet.research.utils.DateUtils;
 import dk.netarkivet.research.wid.WPID;
 
@@ -32,6 +41,7 @@ public class PywbCDXExtractorTest extends ExtendedTestCase {
 
 		WPID wpid = WPID.createNarkWPid(extractURL, DateUtils.waybackDateToDate(extractDate));
 		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
 		when(retriever.retrieveFromUrl(anyString())).thenReturn(resultString);
 		
 		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
@@ -48,6 +58,7 @@ public class PywbCDXExtractorTest extends ExtendedTestCase {
 
 		WPID wpid = WPID.createNarkWPid(extractURL, DateUtils.waybackDateToDate(extractDate));
 		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
 		when(retriever.retrieveFromUrl(anyString())).thenReturn(null);
 		
 		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
@@ -63,6 +74,7 @@ public class PywbCDXExtractorTest extends ExtendedTestCase {
 				+ extractURL + " 20150127171200 filename2 321 html 200 0fac8bab025fac54495109c9d44b287b\n";
 
 		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
 		when(retriever.retrieveFromUrl(anyString())).thenReturn(resultString);
 		
 		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
@@ -81,6 +93,7 @@ public class PywbCDXExtractorTest extends ExtendedTestCase {
 		String extractURL = "http://example.com/";
 
 		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
 		when(retriever.retrieveFromUrl(anyString())).thenReturn(null);
 		
 		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
@@ -94,6 +107,7 @@ public class PywbCDXExtractorTest extends ExtendedTestCase {
 		String extractURL = "http://example.com/";
 
 		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
 		when(retriever.retrieveFromUrl(anyString())).thenReturn(" ");
 		
 		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
@@ -101,4 +115,109 @@ public class PywbCDXExtractorTest extends ExtendedTestCase {
 		assertNotNull(entries);
 		assertTrue(entries.isEmpty());
 	}
+
+	@Test
+	public void testAllCDXExtractionIsCached() throws Exception {
+		addDescription("Test that the CDX entries for a URL are only requested once from the CDX server.");
+		String extractURL = "http://example.com/";
+		String resultString = extractURL + " 20140127171200 filename 123 html 200 0fac8bab025fac54495109c9d44b287b\n";
+
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
+		when(retriever.retrieveFromUrl(anyString())).thenReturn(resultString);
+		
+		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
+		for(int i = 0; i < 3; i++) {
+			assertEquals(extractor.retrieveAllCDX(extractURL).size(), 1);
+		}
+		verify(retriever, times(1)).retrieveFromUrl(anyString());
+		assertEquals(extractor.getCache().getHitCount(), 2);
+		assertEquals(extractor.getCache().getMissCount(), 1);
+	}
+
+	@Test
+	public void testPagedRangeQuery() throws Exception {
+		addDescription("Test that a range query is retrieved lazily, a page at a time.");
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
+		when(retriever.retrieveFromUrl(anyString())).thenAnswer(new Answer<String>() {
+			@Override
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				String url = (String) invocation.getArguments()[0];
+				assertTrue(url.contains("matchType=prefix"), url);
+				if(url.contains("showNumPages=true")) {
+					return "{\"blocks\": 3, \"pages\": 2, \"pageSize\": 5}";
+				} else if(url.endsWith("page=0")) {
+					return "http://example.com/a 20140127171200 f1 1 html 200 A\n"
+							+ "http://example.com/b 20140127171200 f1 2 html 200 B\n";
+				} else if(url.endsWith("page=1")) {
+					return "http://example.com/c 20140127171200 f1 3 html 200 C\n";
+				}
+				return null;
+			}
+		});
+
+		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
+		Iterator<CDXEntry> entries = extractor.retrieveByPrefix("http://example.com/");
+		verify(retriever, times(1)).retrieveFromUrl(contains("showNumPages=true"));
+		assertEquals(entries.next().getUrl(), "http://example.com/a");
+		assertEquals(entries.next().getUrl(), "http://example.com/b");
+		verify(retriever, times(0)).retrieveFromUrl(contains("page=1"));
+		assertEquals(entries.next().getUrl(), "http://example.com/c");
+		assertFalse(entries.hasNext());
+		verify(retriever, times(3)).retrieveFromUrl(anyString());
+	}
+
+	@Test
+	public void testRangeQueryWithoutPaging() throws Exception {
+		addDescription("Test a range query, when the CDX server does not report the number of pages.");
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
+		when(retriever.retrieveFromUrl(anyString())).thenReturn(
+				"http://example.com/a 20140127171200 f1 1 html 200 A\n"
+				+ "http://sub.example.com/ 20140127171200 f1 2 html 200 B\n");
+
+		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
+		Iterator<CDXEntry> entries = extractor.retrieveByDomain("example.com");
+		assertEquals(entries.next().getUrl(), "http://example.com/a");
+		assertEquals(entries.next().getUrl(), "http://sub.example.com/");
+		assertFalse(entries.hasNext());
+		verify(retriever, times(1)).retrieveFromUrl(contains("matchType=domain&showNumPages=true"));
+		verify(retriever, times(2)).retrieveFromUrl(anyString());
+	}
+
+	@Test
+	public void testQueryPushdown() throws Exception {
+		addDescription("Test that the restrictions and fields of a query are sent to the CDX server.");
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.streamStringResponses(retriever);
+		when(retriever.retrieveFromUrl(anyString())).thenReturn("20140127171200 200 A\n20150127171200 200 B\n");
+
+		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
+		CDXQuery query = new CDXQuery("http://example.com/")
+				.setFrom(DateUtils.waybackDateToDate("20140101000000"))
+				.setStatusCode(200)
+				.setMimeType("text/html")
+				.setCollapseOnDigest(true)
+				.setLimit(10)
+				.setFields(Arrays.asList(CDXConstants.CDX_CHAR_DATE, CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM));
+		assertEquals(extractor.createRequestUrlForQuery(query, extractor.createQueryFormat(query)), 
+				serverUrl + "?url=http://example.com/&from=20140101000000&filter==status:200"
+				+ "&filter==mime:text%2Fhtml&collapse=digest&limit=10&fl=timestamp,mime,status,digest");
+
+		addStep("Retrieve only the date, status and digest", "The entries are parsed in the order of the fields");
+		query.setMimeType(null);
+		Collection<CDXEntry> entries = extractor.retrieveByQuery(query);
+		verify(retriever).retrieveFromUrl(eq(serverUrl + "?url=http://example.com/&from=20140101000000"
+				+ "&filter==status:200&collapse=digest&limit=10&fl=timestamp,status,digest"));
+		assertEquals(entries.size(), 2);
+		CDXEntry entry = entries.iterator().next();
+		assertEquals(entry.getDigest(), "A");
+		assertEquals(entry.getDateAsDate(), DateUtils.waybackDateToDate("20140127171200"));
+		assertNull(entry.getUrl());
+
+		addStep("Repeat the query", "Answered from the cache");
+		assertEquals(extractor.retrieveByQuery(query).size(), 2);
+		verify(retriever, times(1)).retrieveFromUrl(anyString());
+	}
 }
@@ -0,0 +1,185 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.utils.FileUtils;
+import dk.netarkivet.research.wid.WPID;
+import dk.netarkivet.research.wid.WaybackWID;
+
+public class SortedCDXFileExtractorTest extends ExtendedTestCase {
+
+	String dirPath = "test-dir";
+	File outDir;
+	File cdxFile;
+
+	String sortedCdx = " CDX A b a m s k r V g\n"
+			+ "kb.dk/ 20100101000000 http://www.kb.dk/ text/html 200 AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA - 100 1-1-20100101000000-00000-test.warc\n"
+			+ "kb.dk/robots.txt 20091021124237 http://www.kb.dk/robots.txt text/plain 200 KLLVMTGA2AYGQYWFQS5YBZB5K5ZS355D - 2467 1-1-20091021124236-00001-test.arc\n"
+			+ "kb.dk/robots.txt 20110623114035 http://www.kb.dk/robots.txt text/plain 200 KLLVMTGA2AYGQYWFQS5YBZB5K5ZS355D - 50931858 2439-93-20110623093204-00003-test.arc\n"
+			+ "kb.dk/robots.txt 20120712075344 http://www.kb.dk/robots.txt text/plain 200 KLLVMTGA2AYGQYWFQS5YBZB5K5ZS355D - 6018 2718-101-20120712075343-00000-test.arc\n"
+			+ "kb.dk/robots.txt2 20120101000000 http://www.kb.dk/robots.txt2 text/plain 404 BBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBB - 1 1-1-20120101000000-00000-test.warc\n"
+			+ "netarkivet.dk/ 20150101000000 http://netarkivet.dk/ text/html 200 CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC - 42 3-3-20150101000000-00000-test.warc\n";
+
+	@BeforeMethod
+	public void setupMethod() throws Exception {
+		outDir = new File(dirPath);
+		if(outDir.exists()) {
+			TestFileUtils.removeFile(outDir);
+		}
+		outDir = FileUtils.createDir(dirPath);
+		cdxFile = TestFileUtils.createTestFile(outDir, "sorted.cdx", sortedCdx);
+	}
+
+	@AfterMethod
+	public void cleanUpMethod() throws Exception {
+		TestFileUtils.removeFile(outDir);
+	}
+
+	@Test
+	public void testRetrieveAllCDX() throws Exception {
+		addDescription("Test binary search for all the CDX entries of a URL in a sorted CDX file.");
+		CDXExtractor extractor = new SortedCDXFileExtractor(Arrays.asList(cdxFile));
+
+		addStep("Lookup URL in the middle of the file", "Only the exact key, not the longer key");
+		assertEquals(extractor.retrieveAllCDX("http://www.kb.dk/robots.txt").size(), 3);
+
+		addStep("Lookup the first and the last URL", "One entry each");
+		assertEquals(extractor.retrieveAllCDX("http://kb.dk/").size(), 1);
+		assertEquals(extractor.retrieveAllCDX("http://netarkivet.dk/").size(), 1);
+
+		addStep("Lookup URLs before, between and after the keys", "No entries");
+		assertTrue(extractor.retrieveAllCDX("http://a.dk/").isEmpty());
+		assertTrue(extractor.retrieveAllCDX("http://kb.dk/robots").isEmpty());
+		assertTrue(extractor.retrieveAllCDX("http://zzz.dk/").isEmpty());
+	}
+
+	protected int count(Iterator<CDXEntry> entries) {
+		int res = 0;
+		while(entries.hasNext()) {
+			assertNotNull(entries.next());
+			res++;
+		}
+		return res;
+	}
+
+	@Test
+	public void testRetrieveRanges() throws Exception {
+		addDescription("Test range scans by prefix, host and domain.");
+		File subdomainFile = TestFileUtils.createTestFile(outDir, "subdomain.cdx", " CDX A b a m s k r V g\n"
+				+ "blog.kb.dk/ 20150101000000 http://blog.kb.dk/ text/html 200 DDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDD - 7 4-4-20150101000000-00000-test.warc\n"
+				+ "kb.dk.evil.com/ 20150101000000 http://kb.dk.evil.com/ text/html 200 EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE - 8 4-4-20150101000000-00000-test.warc\n");
+		CDXExtractor extractor = new SortedCDXFileExtractor(Arrays.asList(cdxFile, subdomainFile));
+
+		addStep("Retrieve by prefix", "All the URLs beginning with the prefix");
+		assertEquals(count(extractor.retrieveByPrefix("http://www.kb.dk/robots.txt")), 4);
+		assertEquals(count(extractor.retrieveByPrefix("kb.dk/robots")), 4);
+		assertEquals(count(extractor.retrieveByPrefix("http://kb.dk/robots.txt?a")), 0);
+
+		addStep("Retrieve by host", "All the URLs on the host, but not on sub-domains");
+		assertEquals(count(extractor.retrieveByHost("kb.dk")), 5);
+		assertEquals(count(extractor.retrieveByHost("http://blog.kb.dk/index.html")), 1);
+
+		addStep("Retrieve by domain", "All the URLs on the host and its sub-domains");
+		assertEquals(count(extractor.retrieveByDomain("kb.dk")), 6);
+		assertEquals(count(extractor.retrieveRange("netarkivet.dk", MatchType.DOMAIN)), 1);
+		assertEquals(count(extractor.retrieveRange("http://netarkivet.dk/", MatchType.EXACT)), 1);
+	}
+
+	@Test
+	public void testRetrieveForInterval() throws Exception {
+		addDescription("Test retrieving the CDX entries in a date interval.");
+		CDXExtractor extractor = SortedCDXFileExtractor.createFromLocation(outDir);
+
+		UrlInterval interval = new UrlInterval("http://kb.dk/robots.txt",
+				DateUtils.waybackDateToDate("20100101000000"), DateUtils.waybackDateToDate("20120101000000"));
+		Collection<CDXEntry> entries = extractor.retrieveCDXForInterval(interval);
+		assertEquals(entries.size(), 1);
+		assertEquals(entries.iterator().next().getOffset().longValue(), 50931858L);
+	}
+
+	@Test
+	public void testRetrieveCDXForWIDs() throws Exception {
+		addDescription("Test retrieving the CDX entries for WPIDs and Wayback WIDs.");
+		CDXExtractor extractor = new SortedCDXFileExtractor(Arrays.asList(cdxFile));
+
+		WPID wpid = WPID.createNarkWPid("http://kb.dk/robots.txt", DateUtils.waybackDateToDate("20120601000000"));
+		CDXEntry entry = extractor.retrieveCDX(wpid);
+		assertNotNull(entry);
+		assertEquals(entry.getFilename(), "2718-101-20120712075343-00000-test.arc");
+
+		WaybackWID wid = WaybackWID.createNarkWaybackWID("1-1-20091021124236-00001-test.arc",
+				"http://kb.dk/robots.txt", DateUtils.waybackDateToDate("20120101000000"));
+		entry = extractor.retrieveCDX(wid);
+		assertNotNull(entry);
+		assertEquals(entry.getOffset().longValue(), 2467L);
+	}
+
+	@Test
+	public void testKeyTypes() throws Exception {
+		addDescription("Test that the URLs are looked up in the form of the keys of the CDX file.");
+		String sessionId = "jsessionid=0123456789ABCDEFabcdef0123456789";
+		File strippedFile = TestFileUtils.createTestFile(outDir, "stripped.cdx", " CDX A b a g\n"
+				+ "kb.dk/a?" + sessionId.toLowerCase() + "&c=3&b=2 20150101000000 http://www.kb.dk/a?" + sessionId 
+				+ "&c=3&b=2 test.warc\n");
+		File canonicalFile = TestFileUtils.createTestFile(outDir, "canonical.cdx", " CDX A b a g\n"
+				+ "kb.dk/a?b=2&c=3 20150101000000 http://www.kb.dk/a?" + sessionId + "&c=3&b=2 test.warc\n");
+		String url = "http://www.kb.dk/a?" + sessionId + "&c=3&b=2";
+
+		addStep("Lookup with the default key type", "Only found in the file with the stripped keys");
+		assertEquals(new SortedCDXFileExtractor(Arrays.asList(strippedFile)).retrieveAllCDX(url).size(), 1);
+		assertEquals(new SortedCDXFileExtractor(Arrays.asList(canonicalFile)).retrieveAllCDX(url).size(), 0);
+
+		addStep("Lookup with canonical keys", "Found in the file with the canonical keys");
+		CDXExtractor extractor = new SortedCDXFileExtractor(Arrays.asList(canonicalFile), CDXKeyType.CANONICAL);
+		assertEquals(extractor.retrieveAllCDX(url).size(), 1);
+		assertEquals(extractor.retrieveAllCDX("http://kb.dk/a?c=3&b=2").size(), 1);
+		assertEquals(count(extractor.retrieveByPrefix(url)), 1);
+
+		addStep("Set the canonical keys by the system property", "Found in the file with the canonical keys");
+		System.setProperty(SortedCDXFileExtractor.PROPERTY_KEY_TYPE, "CANONICAL");
+		try {
+			assertEquals(SortedCDXFileExtractor.createFromLocation(canonicalFile).retrieveAllCDX(url).size(), 1);
+		} finally {
+			System.clearProperty(SortedCDXFileExtractor.PROPERTY_KEY_TYPE);
+		}
+	}
+
+	@Test
+	public void testSurtKeys() throws Exception {
+		addDescription("Test lookups and range queries in a CDX file sorted by SURT keys.");
+		File surtFile = TestFileUtils.createTestFile(outDir, "surt.cdx", " CDX A b a g\n"
+				+ "com,example)/ 20150101000000 http://www.example.com/ test.warc\n"
+				+ "com,example)/a 20150101000000 http://example.com/a test.warc\n"
+				+ "com,example,sub)/ 20150101000000 http://sub.example.com/ test.warc\n"
+				+ "com,example:8080)/ 20150101000000 http://example.com:8080/ test.warc\n"
+				+ "com,examples)/ 20150101000000 http://examples.com/ test.warc\n");
+		CDXExtractor extractor = new SortedCDXFileExtractor(Arrays.asList(surtFile), CDXKeyType.SURT);
+		assertEquals(extractor.retrieveAllCDX("http://example.com").size(), 1);
+		assertEquals(extractor.retrieveAllCDX("http://sub.example.com/").size(), 1);
+		assertEquals(extractor.retrieveAllCDX("http://example.com:8080/").size(), 1);
+
+		addStep("Make range queries", "The host and domain ranges are the prefixes of the reversed host");
+		assertEquals(count(extractor.retrieveByPrefix("http://example.com/")), 2);
+		assertEquals(count(extractor.retrieveByHost("http://www.example.com/index.html")), 2);
+		assertEquals(count(extractor.retrieveByHost("sub.example.com")), 1);
+		assertEquals(count(extractor.retrieveByDomain("example.com")), 4);
+		assertEquals(count(extractor.retrieveByDomain("sub.example.com")), 1);
+		assertEquals(count(extractor.retrieveByDomain("examples.com")), 1);
+		assertEquals(count(extractor.retrieveByDomain("com")), 5);
+	}
+}
@@ -0,0 +1,219 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.utils.FileUtils;
+
+public class ZipNumCDXExtractorTest extends ExtendedTestCase {
+
+	String dirPath = "test-dir";
+	File outDir;
+
+	@BeforeMethod
+	public void setupMethod() throws Exception {
+		outDir = new File(dirPath);
+		if(outDir.exists()) {
+			TestFileUtils.removeFile(outDir);
+		}
+		outDir = FileUtils.createDir(dirPath);
+	}
+
+	@AfterMethod
+	public void cleanUpMethod() throws Exception {
+		TestFileUtils.removeFile(outDir);
+	}
+
+	/**
+	 * Creates sorted CDX entries: 10 captures for each of the hosts 'a.dk' to 'e.dk' - one each year from 2010.
+	 */
+	protected List<CDXEntry> createSortedEntries() {
+		Character[] format = DabCDXExtractor.getDefaultCDXFormat().toArray(new Character[0]);
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		for(char host = 'a'; host <= 'e'; host++) {
+			for(int year = 2010; year < 2020; year++) {
+				String line = host + ".dk/ " + year + "0101000000 http://" + host + ".dk/ text/html 200 "
+						+ "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA - " + year + " 1-1-" + year + "0101000000-00000-test.warc";
+				res.add(CDXEntry.createCDXEntry(line, format));
+			}
+		}
+		return res;
+	}
+
+	@Test
+	public void testWriteAndLookup() throws Exception {
+		addDescription("Test writing a block compressed CDX file, and looking up keys in it.");
+		File cdxFile = new File(outDir, "test.cdx.gz");
+		ZipNumCDXFileWriter writer = new ZipNumCDXFileWriter(cdxFile, 7);
+		writer.writeCDXEntries(createSortedEntries(), DabCDXExtractor.getDefaultCDXFormat());
+
+		addStep("Validate the summary index", "A format line and one line per block of 7 lines");
+		assertTrue(writer.getIndexFile().isFile());
+		assertEquals(TestFileUtils.countNumberOfLines(writer.getIndexFile()), 1 + 8);
+
+		try (ZipNumCDXExtractor extractor = new ZipNumCDXExtractor(cdxFile)) {
+			addStep("Lookup keys spanning several blocks", "All the captures for the key");
+			for(char host = 'a'; host <= 'e'; host++) {
+				Collection<CDXEntry> entries = extractor.retrieveAllCDX("http://www." + host + ".dk/");
+				assertEquals(entries.size(), 10, "Host: " + host);
+				for(CDXEntry entry : entries) {
+					assertEquals(entry.getUrl(), "http://" + host + ".dk/");
+				}
+			}
+
+			addStep("Lookup keys which are not in the file", "No entries");
+			assertTrue(extractor.retrieveAllCDX("http://0.dk/").isEmpty());
+			assertTrue(extractor.retrieveAllCDX("http://c.dk/index.html").isEmpty());
+			assertTrue(extractor.retrieveAllCDX("http://z.dk/").isEmpty());
+
+			addStep("Lookup an interval", "Only the captures within the interval");
+			UrlInterval interval = new UrlInterval("http://c.dk/", DateUtils.waybackDateToDate("20120601000000"),
+					DateUtils.waybackDateToDate("20150601000000"));
+			assertEquals(extractor.retrieveCDXForInterval(interval).size(), 3);
+		}
+	}
+
+	@Test
+	public void testRangeScan() throws Exception {
+		addDescription("Test range scans over the blocks of a block compressed CDX file.");
+		File cdxFile = new File(outDir, "test.cdx.gz");
+		new ZipNumCDXFileWriter(cdxFile, 7).writeCDXEntries(createSortedEntries(), 
+				DabCDXExtractor.getDefaultCDXFormat());
+
+		try (ZipNumCDXExtractor extractor = new ZipNumCDXExtractor(cdxFile)) {
+			addStep("Retrieve a host spanning several blocks", "All the captures for the host, in order");
+			Iterator<CDXEntry> entries = extractor.retrieveByHost("http://www.c.dk/index.html");
+			int count = 0;
+			long previousDate = 0L;
+			while(entries.hasNext()) {
+				CDXEntry entry = entries.next();
+				assertEquals(entry.getUrl(), "http://c.dk/");
+				assertTrue(entry.getDateAsLong() > previousDate);
+				previousDate = entry.getDateAsLong();
+				count++;
+			}
+			assertEquals(count, 10);
+
+			addStep("Retrieve by prefix and domain", "The matching captures");
+			assertFalse(extractor.retrieveByPrefix("http://c.dk/index").hasNext());
+			entries = extractor.retrieveByDomain("e.dk");
+			count = 0;
+			while(entries.hasNext()) {
+				entries.next();
+				count++;
+			}
+			assertEquals(count, 10);
+		}
+	}
+
+	@Test(expectedExceptions = ArgumentCheck.class)
+	public void testWritingUnsortedEntries() throws Exception {
+		addDescription("Test that unsorted entries are rejected by the writer.");
+		List<CDXEntry> entries = createSortedEntries();
+		entries.add(entries.get(0));
+		ZipNumCDXFileWriter writer = new ZipNumCDXFileWriter(new File(outDir, "test.cdx.gz"), 7);
+		writer.writeCDXEntries(entries, DabCDXExtractor.getDefaultCDXFormat());
+	}
+
+	@Test
+	public void testKeyTypes() throws Exception {
+		addDescription("Test that the URLs are looked up in the form of the keys of the CDX file.");
+		Character[] format = new Character[] {'A', 'b', 'a', 'g'};
+		List<CDXEntry> entries = new ArrayList<CDXEntry>();
+		entries.add(CDXEntry.createCDXEntry("kb.dk/a?b=2&c=3 20150101000000 http://kb.dk/a?c=3&b=2 test.warc", 
+				format));
+		File cdxFile = new File(outDir, "canonical.cdx.gz");
+		new ZipNumCDXFileWriter(cdxFile, 7).writeCDXEntries(entries, Arrays.asList(format));
+
+		try (ZipNumCDXExtractor extractor = new ZipNumCDXExtractor(cdxFile)) {
+			assertTrue(extractor.retrieveAllCDX("http://kb.dk/a?c=3&b=2").isEmpty());
+		}
+		try (ZipNumCDXExtractor extractor = new ZipNumCDXExtractor(cdxFile, CDXKeyType.CANONICAL)) {
+			assertEquals(extractor.retrieveAllCDX("http://kb.dk/a?c=3&b=2").size(), 1);
+		}
+	}
+
+	@Test
+	public void testNonAsciiKeysInByteOrder() throws Exception {
+		addDescription("Test that the keys must be sorted in UTF-8 byte order, which differs from the order of Java "
+				+ "strings for characters outside the basic plane.");
+		Character[] format = new Character[] {'A', 'b', 'a', 'g'};
+		List<CDXEntry> entries = new ArrayList<CDXEntry>();
+		List<String> urls = Arrays.asList("http://a.dk/", "http://a.dk/\uFF10", "http://a.dk/\uD83D\uDE00",
+				"http://b.dk/");
+		for(String url : urls) {
+			entries.add(CDXEntry.createCDXEntry(CDXKeyType.STRIPPED.createKey(url) + " 20150101000000 " + url
+					+ " test.warc", format));
+		}
+		File cdxFile = new File(outDir, "utf8.cdx.gz");
+		new ZipNumCDXFileWriter(cdxFile, 1).writeCDXEntries(entries, Arrays.asList(format));
+
+		try (ZipNumCDXExtractor extractor = new ZipNumCDXExtractor(cdxFile)) {
+			for(String url : urls) {
+				assertEquals(extractor.retrieveAllCDX(url).size(), 1, "URL: " + url);
+			}
+		}
+
+		addStep("Write the keys in the order of Java strings", "Rejected as not sorted");
+		Collections.swap(entries, 1, 2);
+		try {
+			new ZipNumCDXFileWriter(new File(outDir, "utf16.cdx.gz"), 1).writeCDXEntries(entries,
+					Arrays.asList(format));
+			fail("Should reject keys, which are not in UTF-8 byte order");
+		} catch (ArgumentCheck e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSurtKeys() throws Exception {
+		addDescription("Test lookups and range queries in a ZipNum CDX file sorted by SURT keys.");
+		Character[] format = new Character[] {'A', 'b', 'a', 'g'};
+		List<CDXEntry> entries = new ArrayList<CDXEntry>();
+		for(String url : new String[] {"http://www.example.com/", "http://example.com/a", "http://sub.example.com/",
+				"http://example.com:8080/", "http://examples.com/"}) {
+			entries.add(CDXEntry.createCDXEntry(CDXKeyType.SURT.createKey(url) + " 20150101000000 " + url 
+					+ " test.warc", format));
+		}
+		File cdxFile = new File(outDir, "surt.cdx.gz");
+		new ZipNumCDXFileWriter(cdxFile, 2).writeCDXEntries(entries, Arrays.asList(format));
+
+		try (ZipNumCDXExtractor extractor = new ZipNumCDXExtractor(cdxFile, CDXKeyType.SURT)) {
+			assertEquals(extractor.retrieveAllCDX("http://example.com").size(), 1);
+			assertEquals(extractor.retrieveAllCDX("http://example.com:8080/").size(), 1);
+
+			addStep("Make range queries", "The host and domain ranges are the prefixes of the reversed host");
+			assertEquals(count(extractor.retrieveByHost("example.com")), 2);
+			assertEquals(count(extractor.retrieveByDomain("example.com")), 4);
+			assertEquals(count(extractor.retrieveByDomain("examples.com")), 1);
+		}
+	}
+
+	private int count(Iterator<CDXEntry> entries) {
+		int res = 0;
+		while(entries.hasNext()) {
+			entries.next();
+			res++;
+		}
+		return res;
+	}
+}
@@ -0,0 +1,177 @@
+package dk.netarkivet.research.cdx.cache;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.cdx.DabCDXExtractor;
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.FileUtils;
+
+public class DiskCDXCacheTest extends ExtendedTestCase {
+
+	/** The number of keys written by each process in {@link #testSharedByProcesses()}.*/
+	static final int PROCESS_KEYS = 200;
+
+	String dirPath = "test-dir";
+	File cacheDir;
+
+	@BeforeMethod
+	public void setupMethod() throws Exception {
+		cacheDir = new File(dirPath);
+		if(cacheDir.exists()) {
+			TestFileUtils.removeFile(cacheDir);
+		}
+		cacheDir = FileUtils.createDir(dirPath);
+	}
+
+	@AfterMethod
+	public void cleanUpMethod() throws Exception {
+		TestFileUtils.removeFile(cacheDir);
+	}
+
+	protected List<CDXEntry> createEntries(String url, int count) {
+		Character[] format = DabCDXExtractor.getDefaultCDXFormat().toArray(new Character[0]);
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		for(int i = 0; i < count; i++) {
+			res.add(CDXEntry.createCDXEntry("example.com/ 2014012717120" + i + " " + url + " text/html 200 "
+					+ "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA - " + (i * 1000) + " filename-" + i + ".warc", format));
+		}
+		return res;
+	}
+
+	@Test
+	public void testPersistenceAcrossInstances() throws Exception {
+		addDescription("Test that the cached entries are available, when the cache is opened again.");
+		try (DiskCDXCache cache = new DiskCDXCache(cacheDir, 0)) {
+			assertNull(cache.get("a"));
+			cache.put("a", createEntries("http://example.com/a", 3));
+			cache.put("b", Collections.<CDXEntry>emptyList());
+			cache.put("a", createEntries("http://example.com/a", 4));
+			assertEquals(cache.get("a").size(), 4);
+		}
+
+		addStep("Open the cache again", "The same entries, with the latest for a replaced key");
+		try (DiskCDXCache cache = new DiskCDXCache(cacheDir, 0)) {
+			assertEquals(cache.size(), 2);
+			List<CDXEntry> entries = cache.get("a");
+			assertEquals(entries.size(), 4);
+			assertEquals(entries.get(3).getUrl(), "http://example.com/a");
+			assertEquals(entries.get(3).getFilename(), "filename-3.warc");
+			assertEquals(entries.get(3).getOffset().longValue(), 3000L);
+			assertNotNull(cache.get("b"));
+			assertTrue(cache.get("b").isEmpty());
+			assertNull(cache.get("c"));
+			assertEquals(cache.getHitCount(), 3);
+			assertEquals(cache.getMissCount(), 1);
+
+			addStep("Clear the cache", "Nothing is cached");
+			cache.clear();
+			assertNull(cache.get("a"));
+		}
+		try (DiskCDXCache cache = new DiskCDXCache(cacheDir, 0)) {
+			assertEquals(cache.size(), 0);
+		}
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		addDescription("Test that the cached keys expire after the time to live.");
+		try (DiskCDXCache cache = new DiskCDXCache(cacheDir, 50)) {
+			cache.put("a", createEntries("http://example.com/a", 1));
+			assertNotNull(cache.get("a"));
+			Thread.sleep(100);
+			assertNull(cache.get("a"));
+			assertEquals(cache.getEvictionCount(), 1);
+		}
+	}
+
+	@Test
+	public void testTruncatedLog() throws Exception {
+		addDescription("Test that index lines beyond the end of the log are ignored.");
+		try (DiskCDXCache cache = new DiskCDXCache(cacheDir, 0)) {
+			cache.put("a", createEntries("http://example.com/a", 2));
+		}
+		try (OutputStream out = new FileOutputStream(new File(cacheDir, DiskCDXCache.INDEX_FILE_NAME), true)) {
+			out.write("b\t100000\t10\t0\nbad line\n".getBytes("UTF-8"));
+		}
+		try (DiskCDXCache cache = new DiskCDXCache(cacheDir, 0)) {
+			assertEquals(cache.size(), 1);
+			assertEquals(cache.get("a").size(), 2);
+			assertNull(cache.get("b"));
+		}
+	}
+
+	@Test
+	public void testSharedByProcesses() throws Exception {
+		addDescription("Test that several processes can append to the same cache directory.");
+		List<Process> processes = new ArrayList<Process>();
+		for(String prefix : new String[] {"x", "y", "z"}) {
+			processes.add(new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath(),
+					"-cp", System.getProperty("java.class.path"), DiskCDXCacheTest.class.getName(), 
+					cacheDir.getAbsolutePath(), prefix).inheritIO().start());
+		}
+		for(Process process : processes) {
+			assertEquals(process.waitFor(), 0);
+		}
+
+		addStep("Open the cache", "The entries of all the keys are those written for the key");
+		try (DiskCDXCache cache = new DiskCDXCache(cacheDir, 0)) {
+			assertEquals(cache.size(), 3 * PROCESS_KEYS);
+			for(String prefix : new String[] {"x", "y", "z"}) {
+				for(int i = 0; i < PROCESS_KEYS; i++) {
+					List<CDXEntry> entries = cache.get(prefix + i);
+					assertEquals(entries.size(), 3);
+					assertEquals(entries.get(0).getUrl(), "http://example.com/" + prefix + i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes keys to a cache directory in another process, for {@link #testSharedByProcesses()}.
+	 * @param args The cache directory, and the prefix of the keys.
+	 * @throws Exception If it fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		DiskCDXCacheTest test = new DiskCDXCacheTest();
+		try (DiskCDXCache cache = new DiskCDXCache(new File(args[0]), 0)) {
+			for(int i = 0; i < PROCESS_KEYS; i++) {
+				cache.put(args[1] + i, test.createEntries("http://example.com/" + args[1] + i, 3));
+			}
+		}
+	}
+
+	@Test
+	public void testTieredCache() throws Exception {
+		addDescription("Test the memory cache in front of the disk cache.");
+		try (DiskCDXCache diskCache = new DiskCDXCache(cacheDir, 0)) {
+			diskCache.put("a", createEntries("http://example.com/a", 2));
+			LruCDXCache memoryCache = new LruCDXCache(100, 0);
+			TieredCDXCache cache = new TieredCDXCache(memoryCache, diskCache);
+			assertEquals(cache.get("a").size(), 2);
+			assertEquals(memoryCache.size(), 1);
+			assertEquals(cache.get("a").size(), 2);
+			assertEquals(diskCache.getHitCount(), 1);
+			assertNull(cache.get("b"));
+			cache.put("b", createEntries("http://example.com/b", 1));
+			assertEquals(diskCache.size(), 2);
+			assertEquals(cache.getHitCount(), 2);
+			assertEquals(cache.getMissCount(), 1);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package dk.netarkivet.research.cdx.cache;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.cdx.DabCDXExtractor;
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+public class LruCDXCacheTest extends ExtendedTestCase {
+
+	protected List<CDXEntry> createEntries(int count) {
+		Character[] format = DabCDXExtractor.getDefaultCDXFormat().toArray(new Character[0]);
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		for(int i = 0; i < count; i++) {
+			res.add(CDXEntry.createCDXEntry("example.com/ 2014012717120" + (i % 10) + " http://example.com/ "
+					+ "text/html 200 AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA - 123 filename.warc", format));
+		}
+		return res;
+	}
+
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		addDescription("Test the counters for hits and misses.");
+		LruCDXCache cache = new LruCDXCache(100, 0);
+		assertNull(cache.get("a"));
+		cache.put("a", createEntries(3));
+		assertEquals(cache.get("a").size(), 3);
+		assertEquals(cache.get("a").size(), 3);
+		assertNull(cache.get("b"));
+
+		assertEquals(cache.getHitCount(), 2);
+		assertEquals(cache.getMissCount(), 2);
+		assertEquals(cache.getEvictionCount(), 0);
+		assertEquals(cache.size(), 1);
+		assertEquals(cache.getWeight(), 3);
+	}
+
+	@Test
+	public void testEvictionOfLeastRecentlyUsed() throws Exception {
+		addDescription("Test that the least recently used keys are evicted, when the weight limit is exceeded.");
+		LruCDXCache cache = new LruCDXCache(10, 0);
+		cache.put("a", createEntries(4));
+		cache.put("b", createEntries(4));
+		cache.put("c", Collections.<CDXEntry>emptyList());
+		assertEquals(cache.getWeight(), 9);
+
+		addStep("Use 'a' and add more entries", "The least recently used key 'b' is evicted");
+		assertNotNull(cache.get("a"));
+		cache.put("d", createEntries(2));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("c"));
+		assertNotNull(cache.get("d"));
+		assertEquals(cache.getEvictionCount(), 1);
+		assertEquals(cache.getWeight(), 7);
+
+		addStep("Put entries larger than the cache", "They are not cached");
+		cache.put("e", createEntries(11));
+		assertNull(cache.get("e"));
+		assertEquals(cache.size(), 3);
+
+		addStep("Replace a key", "The weight is updated");
+		cache.put("a", createEntries(1));
+		assertEquals(cache.getWeight(), 4);
+		cache.clear();
+		assertEquals(cache.size(), 0);
+		assertEquals(cache.getWeight(), 0);
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		addDescription("Test that the keys expire after the time to live.");
+		LruCDXCache cache = new LruCDXCache(100, 50);
+		cache.put("a", createEntries(1));
+		assertNotNull(cache.get("a"));
+		Thread.sleep(100);
+		assertNull(cache.get("a"));
+		assertEquals(cache.getEvictionCount(), 1);
+		assertEquals(cache.size(), 0);
+	}
+
+	@Test(expectedExceptions = ArgumentCheck.class)
+	public void testBadMaxWeight() throws Exception {
+		addDescription("Test that the cache must have a positive size.");
+		new LruCDXCache(0, 0);
+	}
+}
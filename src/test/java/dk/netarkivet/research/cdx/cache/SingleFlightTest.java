@@ -0,0 +1,78 @@
+package dk.netarkivet.research.cdx.cache;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class SingleFlightTest extends ExtendedTestCase {
+
+	@Test
+	public void testConcurrentCallsAreMerged() throws Exception {
+		addDescription("Test that concurrent calls for the same key only result in one call.");
+		final SingleFlight<String> singleFlight = new SingleFlight<String>();
+		final AtomicInteger callCount = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<String> call = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				callCount.incrementAndGet();
+				release.await(10, TimeUnit.SECONDS);
+				return "result";
+			}
+		};
+
+		int threads = 5;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for(int i = 0; i < threads; i++) {
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						return singleFlight.execute("key", call);
+					}
+				}));
+			}
+			while(singleFlight.getCallCount() + singleFlight.getSavedCallCount() < threads) {
+				Thread.sleep(10);
+			}
+			release.countDown();
+			for(Future<String> result : results) {
+				assertEquals(result.get(), "result");
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(callCount.get(), 1);
+		assertEquals(singleFlight.getCallCount(), 1);
+		assertEquals(singleFlight.getSavedCallCount(), threads - 1);
+		assertEquals(singleFlight.getInFlightCount(), 0);
+
+		addStep("Call again after the call has finished", "A new call is made");
+		assertEquals(singleFlight.execute("key", call), "result");
+		assertEquals(callCount.get(), 2);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testFailingCall() throws Exception {
+		addDescription("Test that the exception of a failing call is delivered to the caller.");
+		SingleFlight<String> singleFlight = new SingleFlight<String>();
+		singleFlight.execute("key", new Callable<String>() {
+			@Override
+			public String call() {
+				throw new IllegalArgumentException("Failure");
+			}
+		});
+	}
+}
@@ -1,8 +1,10 @@
 package dk.netarkivet.research.duplicates;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -11,14 +13,18 @@ import static org.testng.Assert.assertNull;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 import org.jaccept.structure.ExtendedTestCase;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.Test;
 
 import dk.netarkivet.research.cdx.CDXConstants;
 import dk.netarkivet.research.cdx.CDXEntry;
 import dk.netarkivet.research.cdx.CDXExtractor;
+import dk.netarkivet.research.cdx.CDXQuery;
 import dk.netarkivet.research.harvestdb.HarvestJobExtractor;
 import dk.netarkivet.research.harvestdb.HarvestJobInfo;
 import dk.netarkivet.research.interval.UrlInterval;
@@ -36,6 +42,14 @@ public class DuplicateExtractorTest extends ExtendedTestCase {
 			CDXEntry.createCDXEntry(new String[] {"https://netarkivet.dk", "20160606060606", "a9f5f03efdc6d97874959c1e838f1343"}, new Character[] {'A', 'b', 'k'})
 			);
 	
+	/** Answers a query on the CDX extractor with the test entries matching the query.*/
+	Answer<Collection<CDXEntry>> queryOnTestEntries = new Answer<Collection<CDXEntry>>() {
+		@Override
+		public Collection<CDXEntry> answer(InvocationOnMock invocation) throws Throwable {
+			return ((CDXQuery) invocation.getArguments()[0]).apply(testEntries);
+		}
+	};
+	
 	HarvestJobInfo testHarvestJobInfo = new HarvestJobInfo(3715L, "type", "status", "name");
 	
 	@Test
@@ -147,7 +161,7 @@ public class DuplicateExtractorTest extends ExtendedTestCase {
 		CDXExtractor extractor = mock(CDXExtractor.class);
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 
-		when(extractor.retrieveAllCDX(anyString())).thenReturn(testEntries);
+		when(extractor.retrieveByQuery(any(CDXQuery.class))).thenAnswer(queryOnTestEntries);
 		
 		DuplicateExtractor finder = new DuplicateExtractor(extractor, jobExtractor);
 		DuplicateMap map = finder.makeDuplicateMap(new UrlInterval(testUrl, DateUtils.waybackDateToDate("20120101000000"), DateUtils.waybackDateToDate("20140101000000")));
@@ -155,6 +169,7 @@ public class DuplicateExtractorTest extends ExtendedTestCase {
 		assertEquals(map.getDateToChecksumMap().size(), 2);
 		assertEquals(map.getChecksumToDateListMap().size(), 1);
 		assertEquals(map.getChecksumToDateListMap().get("VJ3CKK3ZH2FR7V2KM5TSI3TENA7ZSWKM").size(), 2);
+		verify(extractor, never()).retrieveAllCDX(anyString());
 	}
 
 	@Test
@@ -163,7 +178,7 @@ public class DuplicateExtractorTest extends ExtendedTestCase {
 		CDXExtractor extractor = mock(CDXExtractor.class);
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 
-		when(extractor.retrieveAllCDX(anyString())).thenReturn(testEntries);
+		when(extractor.retrieveByQuery(any(CDXQuery.class))).thenAnswer(queryOnTestEntries);
 		
 		DuplicateExtractor finder = new DuplicateExtractor(extractor, jobExtractor);
 		DuplicateMap map = finder.makeDuplicateMap(new UrlInterval(testUrl, DateUtils.waybackDateToDate("20120101000000"), null));
@@ -180,7 +195,7 @@ public class DuplicateExtractorTest extends ExtendedTestCase {
 		CDXExtractor extractor = mock(CDXExtractor.class);
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 
-		when(extractor.retrieveAllCDX(anyString())).thenReturn(testEntries);
+		when(extractor.retrieveByQuery(any(CDXQuery.class))).thenAnswer(queryOnTestEntries);
 		
 		DuplicateExtractor finder = new DuplicateExtractor(extractor, jobExtractor);
 		DuplicateMap map = finder.makeDuplicateMap(new UrlInterval(testUrl, null, DateUtils.waybackDateToDate("20140101000000")));
@@ -0,0 +1,91 @@
+package dk.netarkivet.research.http;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class AdaptiveConcurrencyLimitTest extends ExtendedTestCase {
+
+	@Test
+	public void testIncreaseAndDecrease() throws Exception {
+		addDescription("Test that the limit increases additively and decreases multiplicatively.");
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 10);
+		for(int i = 0; i < 100; i++) {
+			limit.acquire();
+			limit.release(20L, false);
+		}
+		assertEquals(limit.getLimit(), 10);
+
+		addStep("Release an overloaded response", "The limit is halved");
+		limit.acquire();
+		limit.release(20L, true);
+		assertEquals(limit.getLimit(), 5);
+
+		addStep("Release another overloaded response at once", "The limit is only decreased once per latency");
+		limit.acquire();
+		limit.release(20L, true);
+		assertEquals(limit.getLimit(), 5);
+
+		addStep("Release a response with a much higher latency", "The limit is halved again");
+		Thread.sleep(30L);
+		limit.acquire();
+		limit.release(500L, false);
+		assertEquals(limit.getLimit(), 2);
+
+		addStep("Keep overloading", "The limit does not go below the minimum");
+		for(int i = 0; i < 5; i++) {
+			Thread.sleep(30L);
+			limit.acquire();
+			limit.release(20L, true);
+		}
+		assertEquals(limit.getLimit(), 1);
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		addDescription("Test that a cancelled request neither changes the limit nor the latency baseline.");
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10);
+		limit.acquire();
+		limit.cancel();
+		assertEquals(limit.getInFlight(), 0);
+		assertEquals(limit.getLimit(), 2);
+		assertTrue(limit.toString().contains("min latency = -"), limit.toString());
+
+		addStep("Release a request with the usual latency", "Not considered a sign of overload");
+		limit.acquire();
+		limit.release(20L, false);
+		limit.acquire();
+		limit.release(20L, false);
+		assertEquals(limit.getLimit(), 2);
+	}
+
+	@Test
+	public void testRequestsWaitForTheLimit() throws Exception {
+		addDescription("Test that requests above the limit wait for a request to be released.");
+		final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 1);
+		limit.acquire();
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					limit.acquire();
+					acquired.countDown();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		t.start();
+		assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+		limit.release(20L, false);
+		assertTrue(acquired.await(2000, TimeUnit.MILLISECONDS));
+		assertEquals(limit.getInFlight(), 1);
+	}
+}
@@ -0,0 +1,63 @@
+package dk.netarkivet.research.http;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class CircuitBreakerTest extends ExtendedTestCase {
+
+	@Test
+	public void testOpensAfterConsecutiveFailures() throws Exception {
+		addDescription("Test that the circuit opens after the consecutive failures, and a success resets the count.");
+		CircuitBreaker circuitBreaker = new CircuitBreaker(2, 60000L);
+		assertTrue(circuitBreaker.allowRequest());
+		circuitBreaker.recordFailure();
+		assertTrue(circuitBreaker.allowRequest());
+		circuitBreaker.recordSuccess();
+		assertTrue(circuitBreaker.allowRequest());
+		circuitBreaker.recordFailure();
+		assertFalse(circuitBreaker.isOpen());
+
+		addStep("Fail the next request", "The circuit opens and rejects the requests");
+		assertTrue(circuitBreaker.allowRequest());
+		circuitBreaker.recordFailure();
+		assertTrue(circuitBreaker.isOpen());
+		assertFalse(circuitBreaker.allowRequest());
+	}
+
+	@Test
+	public void testTrialRequestAfterCooldown() throws Exception {
+		addDescription("Test that a single trial request is let through after the cooldown.");
+		CircuitBreaker circuitBreaker = new CircuitBreaker(1, 50L);
+		circuitBreaker.recordFailure();
+		assertFalse(circuitBreaker.allowRequest());
+		Thread.sleep(100L);
+		assertTrue(circuitBreaker.allowRequest());
+		assertFalse(circuitBreaker.allowRequest(), "Only one trial request at a time");
+
+		addStep("Fail the trial request", "The circuit stays open for another cooldown");
+		circuitBreaker.recordFailure();
+		assertFalse(circuitBreaker.allowRequest());
+		Thread.sleep(100L);
+
+		addStep("Let the next trial request succeed", "The circuit closes");
+		assertTrue(circuitBreaker.allowRequest());
+		circuitBreaker.recordSuccess();
+		assertFalse(circuitBreaker.isOpen());
+		assertTrue(circuitBreaker.allowRequest());
+	}
+
+	@Test
+	public void testCancelledTrialRequest() throws Exception {
+		addDescription("Test that a cancelled trial request lets another trial request through.");
+		CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0L);
+		circuitBreaker.recordFailure();
+		assertTrue(circuitBreaker.allowRequest());
+		assertFalse(circuitBreaker.allowRequest());
+		circuitBreaker.recordCancelled();
+		assertTrue(circuitBreaker.allowRequest());
+		assertTrue(circuitBreaker.isOpen());
+	}
+}
@@ -0,0 +1,286 @@
+package dk.netarkivet.research.http;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpEntity;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpRetrieverTest extends ExtendedTestCase {
+
+	HttpServer server;
+	String baseUrl;
+	AtomicInteger requestCount;
+
+	@BeforeMethod
+	public void setupMethod() throws Exception {
+		requestCount = new AtomicInteger();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/ok", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requestCount.incrementAndGet();
+				byte[] body = "line 1\nline 2\n".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, "HEAD".equals(exchange.getRequestMethod()) ? -1 : body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					if(!"HEAD".equals(exchange.getRequestMethod())) {
+						out.write(body);
+					}
+				}
+			}
+		});
+		server.createContext("/missing", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requestCount.incrementAndGet();
+				exchange.sendResponseHeaders(404, -1);
+				exchange.close();
+			}
+		});
+		server.createContext("/busy", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requestCount.incrementAndGet();
+				exchange.sendResponseHeaders(429, -1);
+				exchange.close();
+			}
+		});
+		server.createContext("/flaky", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if(requestCount.incrementAndGet() % 3 != 0) {
+					exchange.sendResponseHeaders(503, -1);
+					exchange.close();
+					return;
+				}
+				byte[] body = "recovered".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		});
+		server.createContext("/forbidden", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requestCount.incrementAndGet();
+				exchange.sendResponseHeaders(403, -1);
+				exchange.close();
+			}
+		});
+		server.createContext("/slowbody", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requestCount.incrementAndGet();
+				exchange.sendResponseHeaders(200, 2);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write('a');
+					out.flush();
+					try {
+						Thread.sleep(200L);
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					out.write('b');
+				}
+			}
+		});
+		server.start();
+		baseUrl = "http://localhost:" + server.getAddress().getPort();
+	}
+
+	@AfterMethod
+	public void cleanUpMethod() throws Exception {
+		server.stop(0);
+	}
+
+	@Test
+	public void testRetrieveFromUrl() throws Exception {
+		addDescription("Test retrieving the content of a URL several times through the pooled client.");
+		try (HttpRetriever retriever = new HttpRetriever(2, 2, 5000)) {
+			for(int i = 0; i < 5; i++) {
+				assertEquals(retriever.retrieveFromUrl(baseUrl + "/ok"), "line 1\nline 2\n");
+			}
+			assertEquals(requestCount.get(), 5);
+
+			addStep("Retrieve a URL which does not exist", "Should give a null, and release the connection");
+			for(int i = 0; i < 5; i++) {
+				assertNull(retriever.retrieveFromUrl(baseUrl + "/missing"));
+			}
+			assertEquals(retriever.retrieveFromUrl(baseUrl + "/ok"), "line 1\nline 2\n");
+		}
+	}
+
+	@Test
+	public void testRetrieveFromUrlAsStream() throws Exception {
+		addDescription("Test retrieving the content of a URL through a stream handler.");
+		try (HttpRetriever retriever = new HttpRetriever()) {
+			Integer bytes = retriever.retrieveFromUrl(baseUrl + "/ok", new CountingHandler());
+			assertEquals(bytes.intValue(), 14);
+		}
+	}
+
+	@Test
+	public void testThrottledRequests() throws Exception {
+		addDescription("Test that the requests are throttled per server by the rate limit and adaptive concurrency.");
+		try (HttpRetriever retriever = new HttpRetriever(4, 4, 5000)) {
+			assertNull(retriever.getThrottle(baseUrl + "/ok"));
+			retriever.setRetries(0, 0L);
+			retriever.setRateLimit(20);
+			retriever.setAdaptiveConcurrency(true);
+			RequestThrottle throttle = retriever.getThrottle(baseUrl + "/ok");
+			assertSame(retriever.getThrottle(baseUrl + "/missing"), throttle);
+
+			addStep("Make healthy requests", "The concurrency limit increases, and the rate is limited");
+			long start = System.currentTimeMillis();
+			for(int i = 0; i < 11; i++) {
+				assertEquals(retriever.retrieveFromUrl(baseUrl + "/ok"), "line 1\nline 2\n");
+			}
+			assertTrue(System.currentTimeMillis() - start >= 450, "Should be limited to 20 requests per second");
+			int limit = throttle.getConcurrencyLimit().getLimit();
+			assertTrue(limit > 1, "The limit should have increased from 1, but was " + limit);
+			assertEquals(throttle.getConcurrencyLimit().getInFlight(), 0);
+
+			addStep("Make a request, which the server rejects as too many", "The concurrency limit is halved");
+			assertNull(retriever.retrieveFromUrl(baseUrl + "/busy"));
+			assertEquals(throttle.getConcurrencyLimit().getLimit(), Math.max(1, limit / 2));
+			assertEquals(throttle.getConcurrencyLimit().getInFlight(), 0);
+		}
+	}
+
+	@Test
+	public void testThrottleLatencyExcludesBody() throws Exception {
+		addDescription("Test that the time for reading a large body is not taken as a sign of overload.");
+		try (HttpRetriever retriever = new HttpRetriever(4, 4, 5000)) {
+			retriever.setRetries(0, 0L);
+			retriever.setAdaptiveConcurrency(true);
+			RequestThrottle throttle = retriever.getThrottle(baseUrl + "/ok");
+			for(int i = 0; i < 5; i++) {
+				assertEquals(retriever.retrieveFromUrl(baseUrl + "/ok"), "line 1\nline 2\n");
+			}
+			int limit = throttle.getConcurrencyLimit().getLimit();
+			assertTrue(limit > 1, "The limit should have increased from 1, but was " + limit);
+
+			addStep("Retrieve responses with a slow body", "The concurrency limit is not decreased");
+			for(int i = 0; i < 3; i++) {
+				assertEquals(retriever.retrieveFromUrl(baseUrl + "/slowbody"), "ab");
+			}
+			assertTrue(throttle.getConcurrencyLimit().getLimit() >= limit);
+		}
+	}
+
+	@Test
+	public void testRetries() throws Exception {
+		addDescription("Test that failed requests are retried, but requests for URLs which do not exist are not.");
+		try (HttpRetriever retriever = new HttpRetriever()) {
+			retriever.setRetries(2, 10L);
+			assertEquals(retriever.retrieveFromUrl(baseUrl + "/flaky"), "recovered");
+			assertEquals(requestCount.get(), 3);
+
+			addStep("Retrieve a URL which does not exist", "Not retried, and not a failure");
+			assertNull(retriever.retrieveFromUrlOrFail(baseUrl + "/missing", new CountingHandler()));
+			assertEquals(requestCount.get(), 4);
+
+			addStep("Retrieve a URL which keeps failing", "Fails after the retries");
+			try {
+				retriever.retrieveFromUrlOrFail(baseUrl + "/busy", new CountingHandler());
+				fail("Should fail, when the server keeps rejecting the request");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+			assertEquals(requestCount.get(), 7);
+			assertNull(retriever.retrieveFromUrl(baseUrl + "/busy"));
+		}
+	}
+
+	@Test
+	public void testRejectedRequest() throws Exception {
+		addDescription("Test that other responses than 200 and 404 are failures, which are not retried.");
+		try (HttpRetriever retriever = new HttpRetriever()) {
+			retriever.setRetries(2, 10L);
+			retriever.setCircuitBreaker(1, 60000L);
+			try {
+				retriever.retrieveFromUrlOrFail(baseUrl + "/forbidden", new CountingHandler());
+				fail("Should fail, when the server rejects the request");
+			} catch (IllegalStateException e) {
+				assertTrue(e.getMessage().contains("403"), e.getMessage());
+			}
+			assertEquals(requestCount.get(), 1);
+
+			addStep("Retrieve another URL from the server", "The circuit breaker has not been opened");
+			assertEquals(retriever.retrieveFromUrl(baseUrl + "/ok"), "line 1\nline 2\n");
+			assertNull(retriever.retrieveFromUrl(baseUrl + "/forbidden"));
+			assertEquals(requestCount.get(), 3);
+		}
+	}
+
+	@Test
+	public void testCircuitBreaker() throws Exception {
+		addDescription("Test that the requests fail fast, while the circuit breaker of the server is open.");
+		try (HttpRetriever retriever = new HttpRetriever()) {
+			retriever.setRetries(1, 10L);
+			retriever.setCircuitBreaker(2, 200L);
+			try {
+				retriever.retrieveFromUrlOrFail(baseUrl + "/busy", new CountingHandler());
+				fail("Should fail, when the server keeps rejecting the request");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+			assertEquals(requestCount.get(), 2);
+			assertTrue(retriever.getCircuitBreaker(baseUrl + "/ok").isOpen());
+
+			addStep("Request another URL on the same server", "Fails without contacting the server");
+			try {
+				retriever.retrieveFromUrlOrFail(baseUrl + "/ok", new CountingHandler());
+				fail("Should fail fast, when the circuit is open");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+			assertEquals(requestCount.get(), 2);
+
+			addStep("Wait for the cooldown, and request a working URL", "The circuit closes again");
+			Thread.sleep(250L);
+			assertEquals(retriever.retrieveFromUrlOrFail(baseUrl + "/ok", new CountingHandler()).intValue(), 14);
+			assertFalse(retriever.getCircuitBreaker(baseUrl + "/ok").isOpen());
+		}
+	}
+
+	@Test
+	public void testExists() throws Exception {
+		addDescription("Test whether links exists.");
+		try (HttpRetriever retriever = new HttpRetriever()) {
+			assertTrue(retriever.exists(baseUrl + "/ok"));
+			assertFalse(retriever.exists(baseUrl + "/missing"));
+			assertFalse(retriever.exists("not a valid url"));
+		}
+	}
+
+	/** Handler, which counts the bytes of the response.*/
+	private static class CountingHandler implements ResponseStreamHandler<Integer> {
+		@Override
+		public Integer handle(InputStream in, HttpEntity entity) throws IOException {
+			int res = 0;
+			while(in.read() != -1) {
+				res++;
+			}
+			return res;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package dk.netarkivet.research.http;
+
+import static org.testng.Assert.assertTrue;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class TokenBucketRateLimiterTest extends ExtendedTestCase {
+
+	@Test
+	public void testRateIsLimited() throws Exception {
+		addDescription("Test that the requests are let through at the limited rate.");
+		TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(20, 1);
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < 11; i++) {
+			rateLimiter.acquire();
+		}
+		long duration = System.currentTimeMillis() - start;
+		assertTrue(duration >= 450, "10 requests after the first at 20 per second should take 500 ms: " + duration);
+		assertTrue(duration < 2000, "Should not wait much longer than the rate: " + duration);
+	}
+
+	@Test
+	public void testBurst() throws Exception {
+		addDescription("Test that a full bucket lets a burst of requests through at once.");
+		TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(1, 5);
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < 5; i++) {
+			rateLimiter.acquire();
+		}
+		assertTrue(System.currentTimeMillis() - start < 500, "The burst should not wait");
+	}
+}
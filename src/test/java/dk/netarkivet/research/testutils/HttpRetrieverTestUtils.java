@@ -0,0 +1,55 @@
+package dk.netarkivet.research.testutils;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.http.ResponseStreamHandler;
+
+public class HttpRetrieverTestUtils {
+
+	/**
+	 * Lets a mocked HTTP retriever answer the stream requests with the responses stubbed for the string requests,
+	 * so the tests can keep stubbing and verifying <code>retrieveFromUrl(String)</code>.
+	 * A null response is a failed request, which <code>retrieveFromUrlOrFail</code> throws an exception for.
+	 * @param retriever The mocked HTTP retriever.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void streamStringResponses(final HttpRetriever retriever) {
+		when(retriever.retrieveFromUrl(anyString(), any(ResponseStreamHandler.class))).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				String response = retriever.retrieveFromUrl((String) invocation.getArguments()[0]);
+				if(response == null) {
+					return null;
+				}
+				return handle(response, (ResponseStreamHandler<Object>) invocation.getArguments()[1]);
+			}
+		});
+		when(retriever.retrieveFromUrlOrFail(anyString(), any(ResponseStreamHandler.class))).thenAnswer(
+				new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				String url = (String) invocation.getArguments()[0];
+				String response = retriever.retrieveFromUrl(url);
+				if(response == null) {
+					throw new IllegalStateException("Failed to retrieve data from '" + url + "'.");
+				}
+				return handle(response, (ResponseStreamHandler<Object>) invocation.getArguments()[1]);
+			}
+		});
+	}
+
+	private static Object handle(String response, ResponseStreamHandler<Object> handler) throws Exception {
+		try (InputStream in = new ByteArrayInputStream(response.getBytes("UTF-8"))) {
+			return handler.handle(in, null);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package dk.netarkivet.research.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest extends ExtendedTestCase {
+
+	@Test
+	public void testPercentiles() {
+		addDescription("Test the estimated percentiles of the recorded latencies.");
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(histogram.getPercentile(95), 0L);
+		for(int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		assertEquals(histogram.getCount(), 100L);
+		assertEquals(histogram.getMean(), 50L);
+		assertEquals(histogram.getMax(), 100L);
+
+		long p50 = histogram.getPercentile(50);
+		assertTrue(p50 >= 50 && p50 < 100, "The median should be estimated within a factor 2: " + p50);
+		assertEquals(histogram.getPercentile(100), 100L);
+		assertEquals(histogram.getPercentile(1), 1L);
+
+		addStep("Record a single very slow latency", "Only affects the highest percentiles");
+		histogram.record(100000L);
+		assertEquals(histogram.getPercentile(99), 127L);
+		assertEquals(histogram.getPercentile(100), 100000L);
+	}
+}
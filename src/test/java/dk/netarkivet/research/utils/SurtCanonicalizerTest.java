@@ -0,0 +1,85 @@
+package dk.netarkivet.research.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class SurtCanonicalizerTest extends ExtendedTestCase {
+
+	static final String SESSION_ID = "0123456789ABCDEFabcdef0123456789";
+
+	@Test
+	public void testCanonicalize() {
+		addDescription("Test the canonical form of URLs.");
+		SurtCanonicalizer canonicalizer = new SurtCanonicalizer(0);
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk"), "netarkivet.dk/");
+		assertEquals(canonicalizer.canonicalize("netarkivet.dk/"), "netarkivet.dk/");
+		assertEquals(canonicalizer.canonicalize("https://WWW2.Netarkivet.DK/Index.html"), "netarkivet.dk/index.html");
+		assertEquals(canonicalizer.canonicalize("http://www.dk/"), "www.dk/");
+		assertEquals(canonicalizer.canonicalize("http://user:pw@netarkivet.dk:80/a#top"), "netarkivet.dk/a");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk.:8080/a"), "netarkivet.dk:8080/a");
+		assertEquals(canonicalizer.canonicalize("  http://netarkivet.dk?b=2  "), "netarkivet.dk/?b=2");
+
+		addStep("Canonicalize queries", "Ordered parameters without session ids and empty parameters");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk/a?c=3&b=2&&A=1"), "netarkivet.dk/a?a=1&b=2&c=3");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk/a?PHPSESSID=" + SESSION_ID + "&b=2&sid=" 
+				+ SESSION_ID), "netarkivet.dk/a?b=2");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk/a?ASPSESSIONIDQQGGQGPD="
+				+ "ABCDEFGHIJKLMNOPQRSTUVWX"), "netarkivet.dk/a");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk/a?CFID=123&CFTOKEN=456&b=2"), 
+				"netarkivet.dk/a?b=2");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk/a?"), "netarkivet.dk/a");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk/a;jsessionid=" + SESSION_ID + "?b=2"), 
+				"netarkivet.dk/a?b=2");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk/a;v=1;jsessionid=" + SESSION_ID), 
+				"netarkivet.dk/a;v=1");
+
+		addStep("Canonicalize parameters with the names of session ids, but other values", "They are kept");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk/a?sid=5&b=2"), "netarkivet.dk/a?b=2&sid=5");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk/a?sessionid=" + SESSION_ID),
+				"netarkivet.dk/a?sessionid=" + SESSION_ID.toLowerCase());
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk/a?ASPSESSIONIDQQGG=x"), 
+				"netarkivet.dk/a?aspsessionidqqgg=x");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk/a?CFID=123"), "netarkivet.dk/a?cfid=123");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk/a;jsessionid=123"), 
+				"netarkivet.dk/a;jsessionid=123");
+	}
+
+	@Test
+	public void testDefaultPorts() {
+		addDescription("Test that only the default port of the protocol is removed.");
+		SurtCanonicalizer canonicalizer = new SurtCanonicalizer(0);
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk:80/"), "netarkivet.dk/");
+		assertEquals(canonicalizer.canonicalize("https://netarkivet.dk:443/"), "netarkivet.dk/");
+		assertEquals(canonicalizer.canonicalize("netarkivet.dk:80/"), "netarkivet.dk/");
+		assertEquals(canonicalizer.canonicalize("http://netarkivet.dk:443/"), "netarkivet.dk:443/");
+		assertEquals(canonicalizer.canonicalize("https://netarkivet.dk:80/"), "netarkivet.dk:80/");
+		assertEquals(canonicalizer.canonicalize("ftp://netarkivet.dk:80/"), "netarkivet.dk:80/");
+	}
+
+	@Test
+	public void testSurt() {
+		addDescription("Test the SURT form of URLs.");
+		SurtCanonicalizer canonicalizer = new SurtCanonicalizer(0);
+		assertEquals(canonicalizer.toSurt("http://www.Netarkivet.dk/a?b=2&a=1#top"), "dk,netarkivet)/a?a=1&b=2");
+		assertEquals(canonicalizer.toSurt("http://sub.netarkivet.dk:8080"), "dk,netarkivet,sub:8080)/");
+		assertEquals(canonicalizer.toSurt("http://127.0.0.1/"), "127.0.0.1)/");
+		assertEquals(SurtCanonicalizer.hostToSurt("a.b.c"), "c,b,a");
+		assertEquals(SurtCanonicalizer.hostToSurt("localhost"), "localhost");
+	}
+
+	@Test
+	public void testCaching() {
+		addDescription("Test that the canonicalized URLs are cached.");
+		SurtCanonicalizer canonicalizer = new SurtCanonicalizer(2);
+		String key = canonicalizer.canonicalize("http://netarkivet.dk/");
+		assertSame(canonicalizer.canonicalize("http://netarkivet.dk/"), key);
+		canonicalizer.canonicalize("http://a.dk/");
+		canonicalizer.canonicalize("http://b.dk/");
+		assertEquals(canonicalizer.canonicalCache.size(), 2);
+		assertEquals(canonicalizer.surtCache.size(), 0);
+		assertSame(SurtCanonicalizer.getSharedInstance(), SurtCanonicalizer.getSharedInstance());
+	}
+}
@@ -0,0 +1,83 @@
+package dk.netarkivet.research.utils;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark of the Wayback date codec against the SimpleDateFormat used by the DateUtils before.
+ * It is not run as a part of the tests. Run it from the test classpath with:
+ * java -cp [test classpath] dk.netarkivet.research.utils.WaybackDateCodecBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WaybackDateCodecBenchmark {
+	/** The Wayback date to parse.*/
+	String waybackDate = "20140623134425";
+	/** The Wayback date as bytes.*/
+	byte[] waybackDateBytes = waybackDate.getBytes();
+	/** The date to format.*/
+	long millis = 1403531065000L;
+	/** The builder to append the formatted date to.*/
+	StringBuilder sb = new StringBuilder(32);
+
+	@Benchmark
+	public long parseWithDateFormat() throws ParseException {
+		return DateUtils.CDX_DATE_PARSER_THREAD.get().parse(waybackDate).getTime();
+	}
+
+	@Benchmark
+	public long parseWithCodec() {
+		return WaybackDateCodec.parse(waybackDate);
+	}
+
+	@Benchmark
+	public long parseBytesWithCodec() {
+		return WaybackDateCodec.parse(waybackDateBytes, 0);
+	}
+
+	@Benchmark
+	public String formatWithDateFormat() {
+		return DateUtils.CDX_DATE_PARSER_THREAD.get().format(new Date(millis));
+	}
+
+	@Benchmark
+	public String formatWithCodec() {
+		return WaybackDateCodec.format(millis);
+	}
+
+	@Benchmark
+	public int appendWithCodec() {
+		sb.setLength(0);
+		WaybackDateCodec.append(millis, sb);
+		return sb.length();
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * @param args Not used.
+	 * @throws RunnerException If the benchmark fails.
+	 */
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder().include(WaybackDateCodecBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+}
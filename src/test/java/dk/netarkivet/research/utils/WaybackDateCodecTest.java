@@ -0,0 +1,98 @@
+package dk.netarkivet.research.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.fail;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class WaybackDateCodecTest extends ExtendedTestCase {
+
+	protected DateFormat createDateFormat() {
+		DateFormat res = new SimpleDateFormat("yyyyMMddHHmmss");
+		res.setLenient(false);
+		res.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return res;
+	}
+
+	@Test
+	public void testIdenticalToDateFormat() throws Exception {
+		addDescription("Test that the codec gives the same results as the date format for random dates.");
+		DateFormat dateFormat = createDateFormat();
+		Random random = new Random(42);
+		long min = WaybackDateCodec.MIN_MILLIS;
+		long max = WaybackDateCodec.MAX_MILLIS;
+		for(int i = 0; i < 100000; i++) {
+			long millis = min + (long) (random.nextDouble() * (max - min));
+			String expected = dateFormat.format(new Date(millis));
+			assertEquals(WaybackDateCodec.format(millis), expected, "Millis: " + millis);
+			StringBuilder sb = new StringBuilder("x");
+			WaybackDateCodec.append(millis, sb);
+			assertEquals(sb.toString(), "x" + expected);
+
+			long parsed = dateFormat.parse(expected).getTime();
+			assertEquals(WaybackDateCodec.parse(expected), parsed, "Date: " + expected);
+			assertEquals(WaybackDateCodec.parse(("a" + expected).getBytes("US-ASCII"), 1), parsed);
+			assertEquals(DateUtils.waybackDateToMillis(expected), parsed);
+			assertEquals(DateUtils.millisToWaybackDate(millis), expected);
+		}
+	}
+
+	@Test
+	public void testBoundaries() throws Exception {
+		addDescription("Test the dates around the limits, leap days and the end of the months.");
+		DateFormat dateFormat = createDateFormat();
+		String[] dates = {"19000101000000", "19691231235959", "19700101000000", "20000229120000", 
+				"20160229235959", "20161231235959", "99991231235959"};
+		for(String date : dates) {
+			assertEquals(WaybackDateCodec.parse(date), dateFormat.parse(date).getTime(), date);
+			assertEquals(WaybackDateCodec.format(dateFormat.parse(date).getTime()), date);
+		}
+		assertEquals(WaybackDateCodec.format(-1L), "19691231235959");
+		assertFalse(WaybackDateCodec.canFormat(WaybackDateCodec.MIN_MILLIS - 1));
+		assertFalse(WaybackDateCodec.canFormat(WaybackDateCodec.MAX_MILLIS + 1));
+	}
+
+	@Test
+	public void testInvalidDates() throws Exception {
+		addDescription("Test that the invalid dates are not handled by the codec, and rejected by the date utils.");
+		String[] dates = {"19000229000000", "20150229000000", "20140431000000", "20141301000000", 
+				"20140100000000", "20140101240000", "20140101006000", "20140101000060", "", 
+				"abcdefghijklmn"};
+		for(String date : dates) {
+			assertEquals(WaybackDateCodec.parse(date), WaybackDateCodec.NOT_HANDLED, date);
+			try {
+				DateUtils.waybackDateToMillis(date);
+				fail("Should not parse '" + date + "'");
+			} catch (ParseException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testFallback() throws Exception {
+		addDescription("Test that the dates outside the range of the codec are handled by the date format.");
+		DateFormat dateFormat = createDateFormat();
+		assertEquals(WaybackDateCodec.parse("18991231235959"), WaybackDateCodec.NOT_HANDLED);
+		assertEquals(DateUtils.waybackDateToMillis("18991231235959"), 
+				dateFormat.parse("18991231235959").getTime());
+		assertEquals(DateUtils.waybackDateToMillis("20140127171200 trailing"), 
+				dateFormat.parse("20140127171200 trailing").getTime());
+		addStep("Parse dates with fewer or more digits", "Not handled by the codec, but parsed by the date format");
+		for(String date : new String[]{"2014010100000", "201401010000001", "2014010100000a"}) {
+			assertEquals(WaybackDateCodec.parse(date), WaybackDateCodec.NOT_HANDLED);
+			assertEquals(DateUtils.waybackDateToMillis(date), dateFormat.parse(date).getTime());
+		}
+		long old = dateFormat.parse("15000101000000").getTime();
+		assertEquals(DateUtils.millisToWaybackDate(old), "15000101000000");
+	}
+}
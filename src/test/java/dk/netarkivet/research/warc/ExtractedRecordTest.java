@@ -0,0 +1,90 @@
+package dk.netarkivet.research.warc;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class ExtractedRecordTest extends ExtendedTestCase {
+
+	@Test
+	public void testSmallRecordInMemory() throws Exception {
+		addDescription("Test that a record below the threshold is kept in memory.");
+		byte[] content = "This is the content".getBytes("UTF-8");
+		try (ExtractedRecord record = ExtractedRecord.buffer(new ByteArrayInputStream(content), 100)) {
+			assertTrue(record.isInMemory());
+			assertEquals(record.getLength(), content.length);
+			assertContent(record, content);
+			assertContent(record, content);
+		}
+	}
+
+	@Test
+	public void testLargeRecordSpilledToDisk() throws Exception {
+		addDescription("Test that a record above the threshold is spilled to a temporary file, "
+				+ "which is deleted when the record is closed.");
+		byte[] content = new byte[200 * 1024 + 17];
+		for(int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		ExtractedRecord record = ExtractedRecord.buffer(new ByteArrayInputStream(content), 1024);
+		assertFalse(record.isInMemory());
+		assertEquals(record.getLength(), content.length);
+		assertContent(record, content);
+		File f = record.file;
+		assertTrue(f.isFile());
+		assertEquals(f.length(), content.length);
+		record.close();
+		assertFalse(f.exists());
+	}
+
+	@Test
+	public void testRecordAtThreshold() throws Exception {
+		addDescription("Test that a record of exactly the threshold is kept in memory, and an empty record too.");
+		byte[] content = new byte[1024];
+		try (ExtractedRecord record = ExtractedRecord.buffer(new ByteArrayInputStream(content), 1024)) {
+			assertTrue(record.isInMemory());
+			assertEquals(record.getLength(), 1024);
+		}
+		try (ExtractedRecord record = ExtractedRecord.buffer(new ByteArrayInputStream(new byte[0]), 0)) {
+			assertTrue(record.isInMemory());
+			assertEquals(record.getLength(), 0);
+		}
+	}
+
+	@Test
+	public void testFromFile() throws Exception {
+		addDescription("Test wrapping a file, which is only deleted on close when requested.");
+		File f = File.createTempFile("record-test", ".tmp");
+		try {
+			byte[] content = "File content".getBytes("UTF-8");
+			try (OutputStream out = new FileOutputStream(f)) {
+				out.write(content);
+			}
+			ExtractedRecord record = ExtractedRecord.fromFile(f, false);
+			assertEquals(record.getLength(), content.length);
+			assertContent(record, content);
+			record.close();
+			assertTrue(f.exists());
+			ExtractedRecord.fromFile(f, true).close();
+			assertFalse(f.exists());
+		} finally {
+			f.delete();
+		}
+	}
+
+	private void assertContent(ExtractedRecord record, byte[] content) throws Exception {
+		try (InputStream in = record.getInputStream()) {
+			assertEquals(IOUtils.toByteArray(in), content);
+		}
+	}
+}
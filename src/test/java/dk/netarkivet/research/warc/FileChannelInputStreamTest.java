@@ -0,0 +1,45 @@
+package dk.netarkivet.research.warc;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.io.IOUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class FileChannelInputStreamTest extends ExtendedTestCase {
+
+	@Test
+	public void testReadFromPosition() throws Exception {
+		addDescription("Test that concurrent streams read the channel from their own positions.");
+		File f = File.createTempFile("channel-test", ".tmp");
+		try {
+			byte[] content = new byte[1000];
+			for(int i = 0; i < content.length; i++) {
+				content[i] = (byte) i;
+			}
+			try (OutputStream out = new FileOutputStream(f)) {
+				out.write(content);
+			}
+			try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+				InputStream first = new FileChannelInputStream(channel, 100L, 16);
+				InputStream second = new FileChannelInputStream(channel, 990L, 16);
+				assertEquals(first.read(), 100);
+				assertEquals(second.read(), content[990] & 0xff);
+				assertEquals(IOUtils.toByteArray(second).length, 9);
+				assertEquals(first.skip(99L), 99L);
+				assertEquals(first.read(), 200);
+				assertEquals(IOUtils.toByteArray(first).length, 799);
+				assertEquals(first.read(), -1);
+			}
+		} finally {
+			f.delete();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package dk.netarkivet.research.warc;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.FileUtils;
+
+public class FileChannelPoolTest extends ExtendedTestCase {
+
+	File baseDir;
+	File[] files;
+
+	@BeforeMethod
+	public void setupMethod() throws Exception {
+		baseDir = new File("test-dir");
+		if(baseDir.exists()) {
+			TestFileUtils.removeFile(baseDir);
+		}
+		baseDir = FileUtils.createDir("test-dir");
+		files = new File[3];
+		for(int i = 0; i < files.length; i++) {
+			files[i] = TestFileUtils.createTestFile(baseDir, "file-" + i, "Content of file " + i);
+		}
+	}
+
+	@AfterMethod
+	public void cleanUpMethod() throws Exception {
+		TestFileUtils.removeFile(baseDir);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() throws Exception {
+		addDescription("Test that the open files are reused, and the least recently used file is closed.");
+		try (FileChannelPool pool = new FileChannelPool(2)) {
+			FileChannelPool.PooledChannel first = pool.acquire(files[0]);
+			pool.release(first);
+			FileChannelPool.PooledChannel second = pool.acquire(files[1]);
+			pool.release(second);
+			FileChannelPool.PooledChannel reused = pool.acquire(files[0]);
+			pool.release(reused);
+			assertSame(reused, first);
+			assertEquals(pool.getOpenCount(), 2);
+
+			addStep("Open a third file", "The second file is the least recently used, and is closed");
+			FileChannelPool.PooledChannel third = pool.acquire(files[2]);
+			pool.release(third);
+			assertEquals(pool.getOpenFiles(), 2);
+			assertFalse(second.getChannel().isOpen());
+			assertTrue(first.getChannel().isOpen());
+			assertTrue(third.getChannel().isOpen());
+		}
+	}
+
+	@Test
+	public void testChannelInUseIsNotClosed() throws Exception {
+		addDescription("Test that an evicted channel is only closed, when its last user releases it.");
+		FileChannelPool pool = new FileChannelPool(1);
+		FileChannelPool.PooledChannel first = pool.acquire(files[0]);
+		FileChannelPool.PooledChannel second = pool.acquire(files[1]);
+		assertEquals(pool.getOpenFiles(), 1);
+		assertTrue(first.getChannel().isOpen());
+		pool.release(first);
+		assertFalse(first.getChannel().isOpen());
+
+		addStep("Close the pool while a channel is in use", "The channel is closed when released");
+		pool.close();
+		assertTrue(second.getChannel().isOpen());
+		pool.release(second);
+		assertFalse(second.getChannel().isOpen());
+	}
+
+	@Test
+	public void testClosedChannelIsReopened() throws Exception {
+		addDescription("Test that a channel, which has been closed e.g. by an interrupted reader, is not reused.");
+		try (FileChannelPool pool = new FileChannelPool(2)) {
+			FileChannelPool.PooledChannel first = pool.acquire(files[0]);
+			first.getChannel().close();
+			pool.release(first);
+			FileChannelPool.PooledChannel reopened = pool.acquire(files[0]);
+			assertNotSame(reopened, first);
+			assertTrue(reopened.getChannel().isOpen());
+			assertEquals(pool.getOpenCount(), 2);
+			assertEquals(pool.getOpenFiles(), 1);
+
+			addStep("Evict the channel while it is in use", "It is closed when released, and the file is reopened");
+			pool.evict(reopened);
+			assertEquals(pool.getOpenFiles(), 0);
+			assertTrue(reopened.getChannel().isOpen());
+			pool.release(reopened);
+			assertFalse(reopened.getChannel().isOpen());
+			FileChannelPool.PooledChannel third = pool.acquire(files[0]);
+			pool.release(third);
+			assertEquals(pool.getOpenCount(), 3);
+		}
+	}
+}
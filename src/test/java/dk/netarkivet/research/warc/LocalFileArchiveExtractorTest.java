@@ -0,0 +1,280 @@
+package dk.netarkivet.research.warc;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.jwat.warc.WarcReader;
+import org.jwat.warc.WarcReaderFactory;
+import org.jwat.warc.WarcRecord;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.FileUtils;
+
+public class LocalFileArchiveExtractorTest extends ExtendedTestCase {
+
+	static final String HTTP_RESPONSE = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\nThe content of ";
+
+	File baseDir;
+	File otherDir;
+	File warcDir;
+
+	@BeforeMethod
+	public void setupMethod() throws Exception {
+		baseDir = new File("test-dir");
+		if(baseDir.exists()) {
+			TestFileUtils.removeFile(baseDir);
+		}
+		baseDir = FileUtils.createDir("test-dir");
+		otherDir = FileUtils.createDir(baseDir.getAbsolutePath() + "/other");
+		warcDir = FileUtils.createDir(baseDir.getAbsolutePath() + "/warcs");
+	}
+
+	@AfterMethod
+	public void cleanUpMethod() throws Exception {
+		TestFileUtils.removeFile(baseDir);
+	}
+
+	@Test
+	public void testExtractFromWarcFile() throws Exception {
+		addDescription("Test extracting the records from an uncompressed WARC file by their offsets.");
+		testExtraction(packWarcFile(false));
+	}
+
+	@Test
+	public void testExtractFromCompressedWarcFile() throws Exception {
+		addDescription("Test extracting the records from a compressed WARC file by their offsets.");
+		testExtraction(packWarcFile(true));
+	}
+
+	@Test
+	public void testExtractFromArcFile() throws Exception {
+		addDescription("Test extracting the records from an uncompressed ARC file by their offsets.");
+		testExtraction(packArcFile(false));
+	}
+
+	@Test
+	public void testExtractFromCompressedArcFile() throws Exception {
+		addDescription("Test extracting the records from a compressed ARC file by their offsets.");
+		testExtraction(packArcFile(true));
+	}
+
+	@Test
+	public void testExtractionFromMissingFile() throws Exception {
+		addDescription("Test that a record in a file, which is not in the directories, is not found.");
+		try (LocalFileArchiveExtractor extractor = new LocalFileArchiveExtractor(Arrays.asList(warcDir))) {
+			assertNull(extractor.extractRecord(entry("http://netarkivet.dk/", "missing.warc", 0L)));
+			assertNull(extractor.extractWarcRecord(entry("http://netarkivet.dk/", "missing.warc", 0L)));
+		}
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testExtractionFromWrongOffset() throws Exception {
+		addDescription("Test that extracting from an offset without a record fails.");
+		testExtractionFromWrongOffset(packWarcFile(false));
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testExtractionFromWrongOffsetInCompressedFile() throws Exception {
+		addDescription("Test that extracting from an offset without a gzip member fails.");
+		testExtractionFromWrongOffset(packWarcFile(true));
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testExtractionFromWrongOffsetInArcFile() throws Exception {
+		addDescription("Test that extracting from an offset without an ARC record fails.");
+		testExtractionFromWrongOffset(packArcFile(false));
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testExtractionFromWrongOffsetInCompressedArcFile() throws Exception {
+		addDescription("Test that extracting from an offset without a gzip member in an ARC file fails.");
+		testExtractionFromWrongOffset(packArcFile(true));
+	}
+
+	@Test
+	public void testInterruptedReader() throws Exception {
+		addDescription("Test that the file is opened again, after an interrupted reader has closed its channel.");
+		List<CDXEntry> entries = packWarcFile(false);
+		try (LocalFileArchiveExtractor extractor = new LocalFileArchiveExtractor(Arrays.asList(warcDir))) {
+			extractor.extractRecord(entries.get(0)).close();
+			Thread.currentThread().interrupt();
+			try {
+				extractor.extractRecord(entries.get(1));
+				fail("Should fail, when the reader is interrupted");
+			} catch (IOException e) {
+				// expected
+			} finally {
+				assertTrue(Thread.interrupted(), "The thread should still be interrupted");
+			}
+
+			addStep("Extract the record again", "The file is opened again");
+			try (ExtractedRecord record = extractor.extractRecord(entries.get(1))) {
+				assertEquals(read(record), HTTP_RESPONSE + entries.get(1).getUrl());
+			}
+			assertEquals(extractor.getChannelPool().getOpenCount(), 2);
+		}
+	}
+
+	@Test
+	public void testChannelClosedByOtherReader() throws Exception {
+		addDescription("Test that a reader retries, when another reader of the file has been interrupted.");
+		List<CDXEntry> entries = packWarcFile(false);
+		final AtomicBoolean closed = new AtomicBoolean(false);
+		try (LocalFileArchiveExtractor extractor = new LocalFileArchiveExtractor(Arrays.asList(warcDir)) {
+			@Override
+			protected ExtractedRecord readRecord(String filename, FileChannel channel, long offset) 
+					throws IOException {
+				if(closed.compareAndSet(false, true)) {
+					// Like the interruption of another thread reading the same file
+					channel.close();
+				}
+				return super.readRecord(filename, channel, offset);
+			}
+		}) {
+			try (ExtractedRecord record = extractor.extractRecord(entries.get(2))) {
+				assertEquals(read(record), HTTP_RESPONSE + entries.get(2).getUrl());
+			}
+			assertTrue(closed.get());
+			assertEquals(extractor.getChannelPool().getOpenCount(), 2);
+		}
+	}
+
+	private void testExtractionFromWrongOffset(List<CDXEntry> entries) throws Exception {
+		CDXEntry entry = entries.get(0);
+		try (LocalFileArchiveExtractor extractor = new LocalFileArchiveExtractor(Arrays.asList(warcDir))) {
+			extractor.extractRecord(entry(entry.getUrl(), entry.getFilename(), entry.getOffset() + 3));
+		}
+	}
+
+	private void testExtraction(List<CDXEntry> entries) throws Exception {
+		try (LocalFileArchiveExtractor extractor = new LocalFileArchiveExtractor(Arrays.asList(otherDir, warcDir), 
+				2, 1024)) {
+			for(int i = entries.size() - 1; i >= 0; i--) {
+				try (ExtractedRecord record = extractor.extractRecord(entries.get(i))) {
+					assertEquals(read(record), HTTP_RESPONSE + entries.get(i).getUrl());
+				}
+			}
+			assertEquals(extractor.getChannelPool().getOpenCount(), 1);
+
+			addStep("Extract a record to a file", "The file contains the block of the record");
+			File f = extractor.extractWarcRecord(entries.get(1));
+			try {
+				assertEquals(IOUtils.toString(f.toURI(), "UTF-8"), HTTP_RESPONSE + entries.get(1).getUrl());
+			} finally {
+				f.delete();
+			}
+		}
+	}
+
+	/**
+	 * Packs a WARC file with records, and creates the CDX entries with their offsets.
+	 */
+	private List<CDXEntry> packWarcFile(boolean compressed) throws Exception {
+		List<CDXEntry> entries = new ArrayList<CDXEntry>();
+		for(int i = 0; i < 3; i++) {
+			entries.add(entry("http://netarkivet.dk/" + i, null, 0L));
+		}
+		WarcPacker packer = new WarcPacker(new StreamingArchiveExtractor() {
+			@Override
+			public File extractWarcRecord(CDXEntry index) throws IOException {
+				throw new IOException("Should not be called");
+			}
+			@Override
+			public ExtractedRecord extractRecord(CDXEntry index) throws IOException {
+				return ExtractedRecord.buffer(new ByteArrayInputStream((HTTP_RESPONSE + index.getUrl()).getBytes(
+						"UTF-8")), 1024);
+			}
+		}, compressed);
+		packer.extractToWarc(entries, warcDir);
+		assertEquals(warcDir.list().length, 1);
+		File warcFile = warcDir.listFiles()[0];
+
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		try (InputStream in = new FileInputStream(warcFile)) {
+			WarcReader reader = WarcReaderFactory.getReader(in);
+			WarcRecord record;
+			while((record = reader.getNextRecord()) != null) {
+				if(record.header.warcTargetUriStr != null) {
+					res.add(entry(record.header.warcTargetUriStr, warcFile.getName(), record.getStartOffset()));
+				}
+			}
+			reader.close();
+		}
+		assertEquals(res.size(), entries.size());
+		return res;
+	}
+
+	/**
+	 * Writes an ARC file with a file description record and three records, and creates the CDX entries with their
+	 * offsets. Each record of a compressed ARC file is a gzip member.
+	 */
+	private List<CDXEntry> packArcFile(boolean compressed) throws Exception {
+		String filename = "test.arc" + (compressed ? ".gz" : "");
+		String version = "1 0 InternetArchive\nURL IP-address Archive-date Content-type Archive-length\n";
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		try (OutputStream out = new FileOutputStream(new File(warcDir, filename))) {
+			long offset = writeArcRecord(out, "filedesc://test.arc 0.0.0.0 20110101010101 text/plain", version, 
+					compressed);
+			for(int i = 0; i < 3; i++) {
+				String url = "http://netarkivet.dk/" + i;
+				res.add(entry(url, filename, offset));
+				offset += writeArcRecord(out, url + " 127.0.0.1 20110101010101 text/plain", HTTP_RESPONSE + url, 
+						compressed);
+			}
+		}
+		return res;
+	}
+
+	private long writeArcRecord(OutputStream out, String header, String block, boolean compressed) 
+			throws IOException {
+		byte[] content = block.getBytes("UTF-8");
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		record.write((header + " " + content.length + "\n").getBytes("UTF-8"));
+		record.write(content);
+		record.write('\n');
+		byte[] res = record.toByteArray();
+		if(compressed) {
+			ByteArrayOutputStream member = new ByteArrayOutputStream();
+			try (GZIPOutputStream gzip = new GZIPOutputStream(member)) {
+				gzip.write(res);
+			}
+			res = member.toByteArray();
+		}
+		out.write(res);
+		return res.length;
+	}
+
+	private CDXEntry entry(String url, String filename, long offset) {
+		return CDXEntry.createCDXEntry(new String[] {url, "20110101010101", filename == null ? "-" : filename, 
+				Long.toString(offset)}, new Character[] {'a', 'b', 'g', 'V'});
+	}
+
+	private String read(ExtractedRecord record) throws IOException {
+		try (InputStream in = record.getInputStream()) {
+			return IOUtils.toString(in, "UTF-8");
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package dk.netarkivet.research.warc;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+
+public class LocalityOrderIteratorTest extends ExtendedTestCase {
+
+	@Test
+	public void testGroupedWithinWindows() throws Exception {
+		addDescription("Test that the entries are grouped by file and sorted by offset within each window.");
+		List<CDXEntry> entries = Arrays.asList(entry("b.warc", 300), entry("a.warc", 200), entry("b.warc", 100), 
+				entry("a.warc", 100), entry("c.warc", 5), entry("a.warc", 1));
+		LocalityOrderIterator it = new LocalityOrderIterator(entries.iterator(), 4);
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		while(it.hasNext()) {
+			res.add(it.next());
+		}
+		assertEquals(res, Arrays.asList(entries.get(3), entries.get(1), entries.get(2), entries.get(0), 
+				entries.get(5), entries.get(4)));
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testExtractionOrder() throws Exception {
+		addDescription("Test the extraction order of a list, with entries without file last and ties kept in order.");
+		List<CDXEntry> entries = Arrays.asList(entry(null, 0), entry("b.warc", 10), entry("a.warc", 10), 
+				entry("b.warc", 10), entry("a.warc", 0));
+		int[] order = LocalityOrderIterator.extractionOrder(entries);
+		assertEquals(order, new int[] {4, 2, 1, 3, 0});
+	}
+
+	private CDXEntry entry(String filename, long offset) {
+		return CDXEntry.createCDXEntry(new String[] {"http://netarkivet.dk/" + offset, "20110101010101", 
+				filename == null ? "-" : filename, Long.toString(offset)}, new Character[] {'a', 'b', 'g', 'V'});
+	}
+}
@@ -5,7 +5,9 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -56,6 +58,34 @@ public class NasArchiveExtractorTest extends ExtendedTestCase {
 		assertEquals(f.length(), content.length());
 	}
 
+	@Test
+	public void testStreamingExtraction() throws Exception {
+		addDescription("Test that the streamed extraction keeps small records in memory, and spills large records.");
+		String content = "This is the content";
+		
+		ViewerArcRepositoryClient client = mock(ViewerArcRepositoryClient.class);
+		BitarchiveRecord br = mock(BitarchiveRecord.class);
+		when(br.getData()).thenReturn(new ByteArrayInputStream(content.getBytes()), 
+				new ByteArrayInputStream(content.getBytes()));
+		when(client.get(anyString(), anyLong())).thenReturn(br);
+		
+		try (ExtractedRecord record = new NASArchiveExtractor(client, 1024).extractRecord(entry)) {
+			assertTrue(record.isInMemory());
+			assertEquals(record.getLength(), content.length());
+		}
+		try (ExtractedRecord record = new NASArchiveExtractor(client, 4).extractRecord(entry)) {
+			assertFalse(record.isInMemory());
+			assertEquals(record.getLength(), content.length());
+		}
+	}
+	
+	@Test
+	public void testStreamingExtractionWithEmptyResult() throws Exception {
+		addDescription("Test streamed extraction when then archive does not provide the record");
+		ViewerArcRepositoryClient client = mock(ViewerArcRepositoryClient.class);
+		when(client.get(anyString(), anyLong())).thenReturn(null);
+		assertNull(new NASArchiveExtractor(client).extractRecord(entry));
+	}
 	
 	@Test(expectedExceptions = IOException.class)
 	public void testWarcExtractorWithIncorrectFile() throws Exception {
@@ -3,15 +3,29 @@ package dk.netarkivet.research.warc;
 import static org.testng.Assert.*;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jaccept.structure.ExtendedTestCase;
+import org.jwat.warc.WarcReader;
+import org.jwat.warc.WarcReaderFactory;
+import org.jwat.warc.WarcRecord;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeClass;
@@ -78,4 +92,179 @@ public class WarcPackerTest extends ExtendedTestCase {
 		
 		assertEquals(outputDir.list().length, 1);
 	}
+
+	@Test
+	public void testWarcPackerStreamingExtract() throws Exception {
+		addDescription("Test extraction from a streaming archive, which does not extract the records to files.");
+		StreamingArchiveExtractor ae = mock(StreamingArchiveExtractor.class);
+		when(ae.extractRecord(any(CDXEntry.class))).thenReturn(ExtractedRecord.buffer(
+				new ByteArrayInputStream("This is the content of the record.".getBytes("UTF-8")), 1024));
+
+		CDXEntry cdxEntry = CDXEntry.createCDXEntry(new String[] {"http://netarkivet.dk", "20110101010101", 
+				"VJ3CKK3ZH2FR7V2KM5TSI3TENA7ZSWKM"}, new Character[] {'A', 'b', 'k'});
+		
+		WarcPacker wp = new WarcPacker(ae);
+		wp.extractToWarc(Arrays.asList(cdxEntry), outputDir);
+		
+		assertEquals(outputDir.list().length, 1);
+		assertTrue(outputDir.listFiles()[0].length() > 34);
+		verify(ae, never()).extractWarcRecord(any(CDXEntry.class));
+	}
+
+	@Test
+	public void testWarcPackerParallelExtract() throws Exception {
+		addDescription("Test that the records are extracted in parallel, and written in the order of the CDX entries.");
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		StreamingArchiveExtractor ae = mock(StreamingArchiveExtractor.class);
+		when(ae.extractRecord(any(CDXEntry.class))).thenAnswer(new Answer<ExtractedRecord>() {
+			@Override
+			public ExtractedRecord answer(InvocationOnMock invocation) throws Throwable {
+				CDXEntry entry = (CDXEntry) invocation.getArguments()[0];
+				int current = running.incrementAndGet();
+				synchronized(maxRunning) {
+					maxRunning.set(Math.max(maxRunning.get(), current));
+				}
+				try {
+					// The earlier entries take longer, so they finish out of order.
+					int index = Integer.parseInt(entry.getUrl().substring(entry.getUrl().lastIndexOf('/') + 1));
+					Thread.sleep(50 - 2 * index);
+				} finally {
+					running.decrementAndGet();
+				}
+				return ExtractedRecord.buffer(new ByteArrayInputStream(entry.getUrl().getBytes("UTF-8")), 1024);
+			}
+		});
+
+		List<CDXEntry> entries = new ArrayList<CDXEntry>();
+		for(int i = 0; i < 20; i++) {
+			entries.add(CDXEntry.createCDXEntry(new String[] {"http://netarkivet.dk/" + i, "20110101010101", 
+					"VJ3CKK3ZH2FR7V2KM5TSI3TENA7ZSWKM"}, new Character[] {'a', 'b', 'k'}));
+		}
+		
+		WarcPacker wp = new WarcPacker(ae);
+		wp.setParallelism(4);
+		wp.extractToWarc(entries, outputDir);
+		
+		assertEquals(outputDir.list().length, 1);
+		assertTrue(maxRunning.get() > 1, "Should extract in parallel: " + maxRunning.get());
+		List<String> urls = readTargetUris(outputDir.listFiles()[0]);
+		assertEquals(urls.size(), entries.size());
+		for(int i = 0; i < entries.size(); i++) {
+			assertEquals(urls.get(i), entries.get(i).getUrl());
+		}
+	}
+
+	@Test
+	public void testWarcPackerMultipleWriters() throws Exception {
+		addDescription("Test that the records are spread across several writers, which roll over to new warc-files, "
+				+ "each with their own warc-info record, and that a manifest of the warc-files is written.");
+		StreamingArchiveExtractor ae = mock(StreamingArchiveExtractor.class);
+		when(ae.extractRecord(any(CDXEntry.class))).thenAnswer(new Answer<ExtractedRecord>() {
+			@Override
+			public ExtractedRecord answer(InvocationOnMock invocation) throws Throwable {
+				CDXEntry entry = (CDXEntry) invocation.getArguments()[0];
+				return ExtractedRecord.buffer(new ByteArrayInputStream(entry.getUrl().getBytes("UTF-8")), 1024);
+			}
+		});
+
+		List<CDXEntry> entries = new ArrayList<CDXEntry>();
+		for(int i = 0; i < 12; i++) {
+			entries.add(CDXEntry.createCDXEntry(new String[] {"http://netarkivet.dk/" + i, "20110101010101", 
+					"VJ3CKK3ZH2FR7V2KM5TSI3TENA7ZSWKM"}, new Character[] {'a', 'b', 'k'}));
+		}
+		
+		WarcPacker wp = new WarcPacker(ae);
+		wp.setWriters(3);
+		wp.setMaxFileSize(1L);
+		wp.extractToWarc(entries, outputDir);
+		
+		addStep("Check the manifest", "A line for each warc-file, with one record each due to the rollover");
+		File manifest = new File(outputDir, WarcPacker.MANIFEST_FILENAME);
+		assertTrue(manifest.isFile());
+		List<String> lines = Files.readAllLines(manifest.toPath(), Charset.forName("UTF-8"));
+		assertEquals(lines.size(), entries.size());
+		assertEquals(outputDir.list().length, entries.size() + 1);
+		
+		addStep("Check the warc-files", "Each starts with its own warc-info record, which its record refers to");
+		List<String> urls = new ArrayList<String>();
+		for(String line : lines) {
+			String[] columns = line.split("\t");
+			File warcFile = new File(outputDir, columns[0]);
+			assertEquals(columns[1], "1");
+			assertEquals(Long.parseLong(columns[2]), warcFile.length());
+			try (InputStream in = new FileInputStream(warcFile)) {
+				WarcReader reader = WarcReaderFactory.getReader(in);
+				WarcRecord info = reader.getNextRecord();
+				assertEquals(info.header.warcFilename, columns[0]);
+				WarcRecord record = reader.getNextRecord();
+				assertEquals(record.header.warcWarcinfoIdStr, info.header.warcRecordIdStr);
+				urls.add(record.header.warcTargetUriStr);
+				assertNull(reader.getNextRecord());
+				reader.close();
+			}
+		}
+		for(CDXEntry entry : entries) {
+			assertTrue(urls.contains(entry.getUrl()), entry.getUrl());
+		}
+	}
+
+	@Test
+	public void testWarcPackerLocalityOrder() throws Exception {
+		addDescription("Test that the records are extracted grouped by file and offset, "
+				+ "and written in the order of the CDX entries.");
+		final List<String> extracted = new ArrayList<String>();
+		StreamingArchiveExtractor ae = mock(StreamingArchiveExtractor.class);
+		when(ae.extractRecord(any(CDXEntry.class))).thenAnswer(new Answer<ExtractedRecord>() {
+			@Override
+			public ExtractedRecord answer(InvocationOnMock invocation) throws Throwable {
+				CDXEntry entry = (CDXEntry) invocation.getArguments()[0];
+				synchronized(extracted) {
+					extracted.add(entry.getFilename() + "@" + entry.getOffset());
+				}
+				return ExtractedRecord.buffer(new ByteArrayInputStream(entry.getUrl().getBytes("UTF-8")), 1024);
+			}
+		});
+
+		List<CDXEntry> entries = new ArrayList<CDXEntry>();
+		for(int i = 0; i < 6; i++) {
+			entries.add(CDXEntry.createCDXEntry(new String[] {"http://netarkivet.dk/" + i, "20110101010101", 
+					"file-" + (i % 2) + ".warc", Integer.toString(1000 - i)}, new Character[] {'a', 'b', 'g', 'V'}));
+		}
+		
+		WarcPacker wp = new WarcPacker(ae);
+		wp.setLocalityWindow(6);
+		wp.extractToWarc(entries, outputDir);
+		
+		assertEquals(extracted, Arrays.asList("file-0.warc@996", "file-0.warc@998", "file-0.warc@1000", 
+				"file-1.warc@995", "file-1.warc@997", "file-1.warc@999"));
+		assertEquals(outputDir.list().length, 1);
+		assertEquals(readTargetUris(outputDir.listFiles()[0]), Arrays.asList("http://netarkivet.dk/0", 
+				"http://netarkivet.dk/1", "http://netarkivet.dk/2", "http://netarkivet.dk/3", 
+				"http://netarkivet.dk/4", "http://netarkivet.dk/5"));
+		
+		addStep("Keep the grouped order", "The records are written in the order they were extracted");
+		TestFileUtils.removeFile(outputDir);
+		outputDir = FileUtils.createDir(baseDir.getAbsolutePath() + "/" + outputDirPath);
+		wp.setKeepGroupedOrder(true);
+		wp.extractToWarc(entries, outputDir);
+		assertEquals(readTargetUris(outputDir.listFiles()[0]), Arrays.asList("http://netarkivet.dk/4", 
+				"http://netarkivet.dk/2", "http://netarkivet.dk/0", "http://netarkivet.dk/5", 
+				"http://netarkivet.dk/3", "http://netarkivet.dk/1"));
+	}
+	
+	private List<String> readTargetUris(File warcFile) throws IOException {
+		List<String> urls = new ArrayList<String>();
+		try (InputStream in = new FileInputStream(warcFile)) {
+			WarcReader reader = WarcReaderFactory.getReader(in);
+			WarcRecord record;
+			while((record = reader.getNextRecord()) != null) {
+				if(record.header.warcTargetUriStr != null) {
+					urls.add(record.header.warcTargetUriStr);
+				}
+			}
+			reader.close();
+		}
+		return urls;
+	}
 }